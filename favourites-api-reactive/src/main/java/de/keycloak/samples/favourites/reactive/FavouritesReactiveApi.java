@@ -0,0 +1,18 @@
+package de.keycloak.samples.favourites.reactive;
+
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.security.reactive.ReactiveUserDetailsServiceAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+@SpringBootApplication(exclude = ReactiveUserDetailsServiceAutoConfiguration.class)
+public class FavouritesReactiveApi {
+
+    /**
+     * Name of the configuration file, distinct from the application.yml of the favourites-api jar on the classpath.
+     */
+    public static final String CONFIG_NAME = "favourites-api-reactive";
+
+    public static void main(String[] args) {
+        new SpringApplicationBuilder(FavouritesReactiveApi.class).properties("spring.config.name=" + CONFIG_NAME).run(args);
+    }
+}
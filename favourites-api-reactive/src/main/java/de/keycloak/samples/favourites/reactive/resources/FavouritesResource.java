@@ -0,0 +1,199 @@
+package de.keycloak.samples.favourites.reactive.resources;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.keycloak.samples.favourites.api.model.Favourite;
+import de.keycloak.samples.favourites.api.model.RatingStatistics;
+import de.keycloak.samples.favourites.reactive.store.ReactiveFavouritesRepository;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Serves the same contract as the FavouritesResource of the servlet api. The roles are checked per route in the
+ * SecurityConfig, the owner of the favourites is checked here.
+ */
+@RestController
+public class FavouritesResource {
+
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    private static final int NDJSON_BATCH_SIZE = 256;
+
+    private final ReactiveFavouritesRepository favouritesRepository;
+    private final ObjectMapper objectMapper;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+
+    public FavouritesResource(final ReactiveFavouritesRepository favouritesRepository,
+                              final ObjectMapper objectMapper,
+                              @Value("${favourites.page.default-size:100}") final int defaultPageSize,
+                              @Value("${favourites.page.max-size:1000}") final int maxPageSize) {
+        this.favouritesRepository = favouritesRepository;
+        this.objectMapper = objectMapper;
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
+    }
+
+    @RequestMapping(value = "/favourites/{username}", method = RequestMethod.GET)
+    public Mono<ResponseEntity<List<Favourite>>> getFavouritesOfUser(@PathVariable final String username,
+                                                                     final Principal principal,
+                                                                     final ServerWebExchange exchange) {
+        if (!isOwner(username, principal)) {
+            return Mono.just(ResponseEntity.status(HttpStatus.FORBIDDEN).build());
+        }
+        return favouritesRepository.getVersion(username).flatMap(version -> {
+            if (exchange.checkNotModified("\"" + version + "\"")) {
+                return Mono.empty();
+            }
+            return favouritesRepository.findByUserName(username)
+                                       .map(favourites -> ResponseEntity.ok().cacheControl(CacheControl.noCache().cachePrivate()).body(favourites));
+        });
+    }
+
+    @RequestMapping(value = "/favourites/{username}", method = RequestMethod.POST)
+    public Mono<ResponseEntity<Favourite>> createFavourite(@PathVariable final String username,
+                                                           @RequestBody final Favourite favourite,
+                                                           final Principal principal) {
+        if (!isOwner(username, principal)) {
+            return Mono.just(ResponseEntity.status(HttpStatus.FORBIDDEN).build());
+        }
+        if (!isValidRating(favourite.getRating())) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return favouritesRepository.save(favourite.toBuilder().withId(UUID.randomUUID().toString()).withUserName(username).build())
+                                   .map(created -> ResponseEntity.created(URI.create("/favourites/" + username + "/" + created.getId())).body(created));
+    }
+
+    @RequestMapping(value = "/favourites/{username}/{id}", method = RequestMethod.PUT)
+    public Mono<ResponseEntity<Favourite>> updateFavourite(@PathVariable final String username,
+                                                           @PathVariable final String id,
+                                                           @RequestBody final Favourite favourite,
+                                                           final Principal principal) {
+        if (!isOwner(username, principal)) {
+            return Mono.just(ResponseEntity.status(HttpStatus.FORBIDDEN).build());
+        }
+        if (!isValidRating(favourite.getRating())) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        return findFavouriteOfUser(username, id)
+                .flatMap(existing -> favouritesRepository.save(favourite.toBuilder().withId(id).withUserName(username).build()))
+                .map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @RequestMapping(value = "/favourites/{username}/{id}", method = RequestMethod.DELETE)
+    public Mono<ResponseEntity<Void>> deleteFavourite(@PathVariable final String username, @PathVariable final String id, final Principal principal) {
+        if (!isOwner(username, principal)) {
+            return Mono.just(ResponseEntity.status(HttpStatus.FORBIDDEN).build());
+        }
+        return findFavouriteOfUser(username, id)
+                .flatMap(existing -> favouritesRepository.delete(id))
+                .map(deleted -> ResponseEntity.noContent().<Void>build())
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    @RequestMapping(value = "/favourites/{username}/statistics", method = RequestMethod.GET)
+    public Mono<ResponseEntity<RatingStatistics>> getRatingStatisticsOfUser(@PathVariable final String username, final Principal principal) {
+        if (!isOwner(username, principal)) {
+            return Mono.just(ResponseEntity.status(HttpStatus.FORBIDDEN).build());
+        }
+        return favouritesRepository.getRatingStatistics(username).map(ResponseEntity::ok);
+    }
+
+    @RequestMapping(value = "/favourites:statistics", method = RequestMethod.GET)
+    public Mono<ResponseEntity<RatingStatistics>> getRatingStatistics() {
+        return favouritesRepository.getRatingStatistics().map(ResponseEntity::ok);
+    }
+
+    @RequestMapping(value = "/favourites", method = RequestMethod.GET)
+    public Mono<ResponseEntity<List<Favourite>>> getAllFavourites(@RequestParam(required = false) final String cursor,
+                                                                  @RequestParam(required = false) final Integer limit) {
+        final Long afterPosition;
+        try {
+            afterPosition = cursor == null ? null : decodeCursor(cursor);
+        } catch (IllegalArgumentException e) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+        if (limit != null && limit < 1) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+
+        final int pageSize = limit == null ? defaultPageSize : Math.min(limit, maxPageSize);
+        return favouritesRepository.findAll(afterPosition, pageSize).map(page -> {
+            if (page.getNextPosition() == null) {
+                return ResponseEntity.ok(page.getFavourites());
+            }
+            final String next = "/favourites?cursor=" + encodeCursor(page.getNextPosition()) + "&limit=" + pageSize;
+            return ResponseEntity.ok().header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"").body(page.getFavourites());
+        });
+    }
+
+    /**
+     * Streams all favourites as newline delimited JSON. Favourites are pulled from the store as the client reads
+     * them and written in batches, so neither memory nor the number of writes grows with the number of favourites.
+     */
+    @RequestMapping(value = "/favourites", method = RequestMethod.GET, produces = APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<Flux<DataBuffer>> streamAllFavourites(final ServerWebExchange exchange) {
+        final DataBufferFactory bufferFactory = exchange.getResponse().bufferFactory();
+        final Flux<DataBuffer> body = favouritesRepository.findAll()
+                                                          .buffer(NDJSON_BATCH_SIZE)
+                                                          .map(favourites -> bufferFactory.wrap(toNdjson(favourites)));
+        return ResponseEntity.ok().contentType(MediaType.valueOf(APPLICATION_NDJSON_VALUE)).body(body);
+    }
+
+    private byte[] toNdjson(final List<Favourite> favourites) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(favourites.size() * 128);
+        try {
+            for (final Favourite favourite : favourites) {
+                out.write(objectMapper.writeValueAsBytes(favourite));
+                out.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private Mono<Favourite> findFavouriteOfUser(final String username, final String id) {
+        return favouritesRepository.findById(id).filter(favourite -> favourite.getUserName().equalsIgnoreCase(username));
+    }
+
+    private static boolean isValidRating(final int rating) {
+        return rating == Favourite.NO_RATING || RatingStatistics.isRated(rating);
+    }
+
+    private static boolean isOwner(final String username, final Principal principal) {
+        return principal != null && username.equals(principal.getName());
+    }
+
+    private static String encodeCursor(final long position) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Long.toString(position).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static long decodeCursor(final String cursor) {
+        return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,75 @@
+package de.keycloak.samples.favourites.reactive.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import reactor.core.publisher.Mono;
+
+/**
+ * Caches decoded and verified tokens, like the CachingTokenStore of the servlet api.
+ * <p>
+ * Entries are keyed by the signature part of the JWT and live until the token's "exp" claim, but never longer
+ * than the configured maximum TTL. The full token value is compared on every hit.
+ */
+public class CachingReactiveJwtDecoder implements ReactiveJwtDecoder {
+
+    private final ReactiveJwtDecoder delegate;
+    private final Cache<String, Jwt> cache;
+
+    public CachingReactiveJwtDecoder(final ReactiveJwtDecoder delegate, final long maximumSize, final long maxTtlSeconds) {
+        this.delegate = delegate;
+        this.cache = Caffeine.newBuilder()
+                             .maximumSize(maximumSize)
+                             .expireAfter(new TokenExpiry(TimeUnit.SECONDS.toNanos(maxTtlSeconds)))
+                             .build();
+    }
+
+    @Override
+    public Mono<Jwt> decode(final String token) {
+        final Jwt cached = cache.getIfPresent(signatureOf(token));
+        if (cached != null && cached.getTokenValue().equals(token)) {
+            return Mono.just(cached);
+        }
+        return delegate.decode(token).doOnNext(jwt -> cache.put(signatureOf(token), jwt));
+    }
+
+    private static String signatureOf(final String token) {
+        final int lastDot = token.lastIndexOf('.');
+        return lastDot >= 0 ? token.substring(lastDot + 1) : token;
+    }
+
+    /**
+     * Lets every entry expire together with its token, capped by the maximum TTL.
+     */
+    private static final class TokenExpiry implements Expiry<String, Jwt> {
+        private final long maxTtlNanos;
+
+        private TokenExpiry(final long maxTtlNanos) {
+            this.maxTtlNanos = maxTtlNanos;
+        }
+
+        @Override
+        public long expireAfterCreate(final String key, final Jwt jwt, final long currentTime) {
+            final Instant expiresAt = jwt.getExpiresAt();
+            if (expiresAt == null) {
+                return maxTtlNanos;
+            }
+            final long remaining = TimeUnit.MILLISECONDS.toNanos(expiresAt.toEpochMilli() - System.currentTimeMillis());
+            return Math.max(0, Math.min(remaining, maxTtlNanos));
+        }
+
+        @Override
+        public long expireAfterUpdate(final String key, final Jwt jwt, final long currentTime, final long currentDuration) {
+            return expireAfterCreate(key, jwt, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(final String key, final Jwt jwt, final long currentTime, final long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package de.keycloak.samples.favourites.reactive.security;
+
+import de.keycloak.samples.favourites.api.security.KeycloakAuthoritiesExtractor;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive counterpart of the CustomJwtAccessTokenConverter of the servlet api: grants the client roles of this
+ * resource server and the realm roles, and names the authentication after the "preferred_username" claim.
+ */
+public class KeycloakJwtAuthenticationConverter implements Converter<Jwt, Mono<AbstractAuthenticationToken>> {
+
+    private static final String USER_NAME_ATTRIBUTE = "preferred_username";
+
+    private final KeycloakAuthoritiesExtractor authoritiesExtractor;
+
+    public KeycloakJwtAuthenticationConverter(final KeycloakAuthoritiesExtractor authoritiesExtractor) {
+        this.authoritiesExtractor = authoritiesExtractor;
+    }
+
+    @Override
+    public Mono<AbstractAuthenticationToken> convert(final Jwt jwt) {
+        return Mono.just(new KeycloakJwtAuthenticationToken(jwt, authoritiesExtractor));
+    }
+
+    private static final class KeycloakJwtAuthenticationToken extends JwtAuthenticationToken {
+
+        private KeycloakJwtAuthenticationToken(final Jwt jwt, final KeycloakAuthoritiesExtractor authoritiesExtractor) {
+            super(jwt, authoritiesExtractor.extractAuthorities(jwt.getClaims()));
+        }
+
+        @Override
+        public String getName() {
+            return getToken().getClaimAsString(USER_NAME_ATTRIBUTE);
+        }
+    }
+}
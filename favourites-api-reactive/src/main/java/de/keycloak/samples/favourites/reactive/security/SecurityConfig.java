@@ -0,0 +1,54 @@
+package de.keycloak.samples.favourites.reactive.security;
+
+import de.keycloak.samples.favourites.api.security.KeycloakAuthoritiesExtractor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpMethod;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+import org.springframework.security.web.server.savedrequest.NoOpServerRequestCache;
+
+@Configuration
+@EnableWebFluxSecurity
+public class SecurityConfig {
+
+    @Value("${security.oauth2.resource.id}")
+    private String resourceId;
+
+    @Value("${security.oauth2.resource.jwk.key-set-uri}")
+    private String jwkUrl;
+
+    @Value("${security.oauth2.resource.token-cache.maximum-size:10000}")
+    private long tokenCacheMaximumSize;
+
+    @Value("${security.oauth2.resource.token-cache.max-ttl-seconds:300}")
+    private long tokenCacheMaxTtlSeconds;
+
+    @Bean
+    public SecurityWebFilterChain springSecurityFilterChain(final ServerHttpSecurity http) {
+        http.csrf().disable()
+            // as it is a backend service it should have stateless session
+            .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+            .requestCache().requestCache(NoOpServerRequestCache.getInstance()).and()
+            // the roles are checked per route, the owner of the favourites in the resource
+            .authorizeExchange()
+            .pathMatchers(HttpMethod.GET, "/favourites", "/favourites:statistics").hasRole("ADMIN")
+            .pathMatchers("/favourites/**").hasRole("USER")
+            .anyExchange().denyAll().and()
+            .oauth2ResourceServer().jwt()
+            .jwtDecoder(reactiveJwtDecoder())
+            .jwtAuthenticationConverter(new KeycloakJwtAuthenticationConverter(new KeycloakAuthoritiesExtractor(resourceId)));
+        return http.build();
+    }
+
+    @Bean
+    public ReactiveJwtDecoder reactiveJwtDecoder() {
+        // like the servlet api, verified tokens are cached until they expire
+        return new CachingReactiveJwtDecoder(new NimbusReactiveJwtDecoder(jwkUrl), tokenCacheMaximumSize, tokenCacheMaxTtlSeconds);
+    }
+}
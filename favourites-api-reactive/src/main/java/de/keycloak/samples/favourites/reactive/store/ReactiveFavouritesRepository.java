@@ -0,0 +1,77 @@
+package de.keycloak.samples.favourites.reactive.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import de.keycloak.samples.favourites.api.model.RatingStatistics;
+import de.keycloak.samples.favourites.api.store.FavouritesPage;
+import de.keycloak.samples.favourites.api.store.FavouritesRepository;
+import java.util.List;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Non-blocking access to the {@link FavouritesRepository}.
+ * <p>
+ * Reads only touch the in-memory indexes of the store and run on the calling thread. Writes append to the log of
+ * the store and may wait for it to be forced to disk, which is blocking file I/O, so they run on dedicated threads and
+ * never on the event loop. The store serializes the appends, but writers waiting for the disk share a force, so a
+ * few threads are enough.
+ */
+@Component
+public class ReactiveFavouritesRepository implements DisposableBean {
+    private static final int WRITERS = 4;
+
+    private final FavouritesRepository repository;
+    private final Scheduler writeScheduler = Schedulers.newParallel("favourites-store-writer", WRITERS, true);
+
+    public ReactiveFavouritesRepository(final FavouritesRepository repository) {
+        this.repository = repository;
+    }
+
+    public Mono<List<Favourite>> findByUserName(final String userName) {
+        return Mono.fromSupplier(() -> repository.findByUserName(userName));
+    }
+
+    public Mono<FavouritesPage> findAll(final Long afterPosition, final int limit) {
+        return Mono.fromSupplier(() -> repository.findAll(afterPosition, limit));
+    }
+
+    /**
+     * @return all favourites, emitted as requested by the subscriber
+     */
+    public Flux<Favourite> findAll() {
+        return Flux.fromIterable(repository::iterateAll);
+    }
+
+    public Mono<Favourite> findById(final String id) {
+        return Mono.fromSupplier(() -> repository.findById(id).orElse(null));
+    }
+
+    public Mono<String> getVersion(final String userName) {
+        return Mono.fromSupplier(() -> repository.getVersion(userName));
+    }
+
+    public Mono<RatingStatistics> getRatingStatistics(final String userName) {
+        return Mono.fromSupplier(() -> repository.getRatingStatistics(userName));
+    }
+
+    public Mono<RatingStatistics> getRatingStatistics() {
+        return Mono.fromSupplier(repository::getRatingStatistics);
+    }
+
+    public Mono<Favourite> save(final Favourite favourite) {
+        return Mono.fromCallable(() -> repository.save(favourite)).subscribeOn(writeScheduler);
+    }
+
+    public Mono<Boolean> delete(final String id) {
+        return Mono.fromCallable(() -> repository.delete(id)).subscribeOn(writeScheduler);
+    }
+
+    @Override
+    public void destroy() {
+        writeScheduler.dispose();
+    }
+}
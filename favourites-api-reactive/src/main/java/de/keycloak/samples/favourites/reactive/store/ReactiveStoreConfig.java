@@ -0,0 +1,13 @@
+package de.keycloak.samples.favourites.reactive.store;
+
+import de.keycloak.samples.favourites.api.store.FavouritesStoreConfig;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Uses the same embedded store as the servlet api.
+ */
+@Configuration
+@Import(FavouritesStoreConfig.class)
+public class ReactiveStoreConfig {
+}
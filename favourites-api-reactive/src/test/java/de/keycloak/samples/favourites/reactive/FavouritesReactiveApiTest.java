@@ -0,0 +1,161 @@
+package de.keycloak.samples.favourites.reactive;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Runs the reactive api against a stub of the keycloak certs endpoint.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = "spring.config.name=" + FavouritesReactiveApi.CONFIG_NAME)
+@AutoConfigureWebTestClient
+public class FavouritesReactiveApiTest {
+
+    private static HttpServer keycloakStub;
+    private static RSAKey signingKey;
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        final java.security.KeyPair keyPair = generator.generateKeyPair();
+        signingKey = new RSAKey.Builder((RSAPublicKey) keyPair.getPublic()).privateKey(keyPair.getPrivate())
+                                                                              .keyID("test-key")
+                                                                              .keyUse(KeyUse.SIGNATURE)
+                                                                              .algorithm(JWSAlgorithm.RS256)
+                                                                              .build();
+        final byte[] jwks = new JWKSet(signingKey.toPublicJWK()).toString().getBytes(StandardCharsets.UTF_8);
+
+        keycloakStub = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        keycloakStub.createContext("/auth/realms/my-apps/protocol/openid-connect/certs", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, jwks.length);
+            exchange.getResponseBody().write(jwks);
+            exchange.close();
+        });
+        keycloakStub.start();
+
+        System.setProperty("sso.host", "http://localhost:" + keycloakStub.getAddress().getPort());
+        System.setProperty("favourites.store.directory", Files.createTempDirectory("favourites-store").toString());
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        keycloakStub.stop(0);
+        System.clearProperty("sso.host");
+        System.clearProperty("favourites.store.directory");
+    }
+
+    @Test
+    public void shouldReturnFavouritesOfOwnerWithETag() {
+        final String etag = webTestClient.get().uri("/favourites/tom").header(HttpHeaders.AUTHORIZATION, bearer("tom", "USER"))
+                                         .exchange()
+                                         .expectStatus().isOk()
+                                         .expectBody().jsonPath("$[0].id").isEqualTo("123456")
+                                         .returnResult().getResponseHeaders().getETag();
+
+        webTestClient.get().uri("/favourites/tom").header(HttpHeaders.AUTHORIZATION, bearer("tom", "USER")).header(HttpHeaders.IF_NONE_MATCH, etag)
+                     .exchange()
+                     .expectStatus().isNotModified()
+                     .expectBody().isEmpty();
+    }
+
+    @Test
+    public void shouldReturn403WhenUsernameAndTokenDoesNotMatch() {
+        webTestClient.get().uri("/favourites/tim").header(HttpHeaders.AUTHORIZATION, bearer("tom", "USER")).exchange().expectStatus().isForbidden();
+    }
+
+    @Test
+    public void shouldReturn403ForNotAuthorizedUser() {
+        webTestClient.get().uri("/favourites/john").header(HttpHeaders.AUTHORIZATION, bearer("john")).exchange().expectStatus().isForbidden();
+    }
+
+    @Test
+    public void shouldReturn401ForMissingAuthorizationHeader() {
+        webTestClient.get().uri("/favourites/tom").exchange().expectStatus().isUnauthorized();
+    }
+
+    @Test
+    public void shouldReturnAllFavouritesOnlyWhenUserHasAdminRole() {
+        webTestClient.get().uri("/favourites").header(HttpHeaders.AUTHORIZATION, bearer("tom", "USER")).exchange().expectStatus().isForbidden();
+        webTestClient.get().uri("/favourites").header(HttpHeaders.AUTHORIZATION, bearer("admin", "ADMIN"))
+                     .exchange()
+                     .expectStatus().isOk()
+                     .expectBody().jsonPath("$[0].userName").isEqualTo("tim");
+    }
+
+    @Test
+    public void shouldStreamAllFavouritesAsNdjson() {
+        final String body = webTestClient.get().uri("/favourites")
+                                         .header(HttpHeaders.AUTHORIZATION, bearer("admin", "ADMIN"))
+                                         .header(HttpHeaders.ACCEPT, "application/x-ndjson")
+                                         .exchange()
+                                         .expectStatus().isOk()
+                                         .expectBody(String.class).returnResult().getResponseBody();
+
+        assertThat(body.split("\n").length >= 2, is(true));
+        assertThat(body.endsWith("\n"), is(true));
+    }
+
+    @Test
+    public void shouldCreateAndDeleteFavourite() {
+        final String location = webTestClient.post().uri("/favourites/jane")
+                                             .header(HttpHeaders.AUTHORIZATION, bearer("jane", "USER"))
+                                             .header(HttpHeaders.CONTENT_TYPE, "application/json")
+                                             .syncBody("{\"rating\":4,\"comment\":\"Good pizza\"}")
+                                             .exchange()
+                                             .expectStatus().isCreated()
+                                             .expectBody().jsonPath("$.userName").isEqualTo("jane")
+                                             .returnResult().getResponseHeaders().getLocation().toString();
+
+        webTestClient.delete().uri(location).header(HttpHeaders.AUTHORIZATION, bearer("jane", "USER")).exchange().expectStatus().isNoContent();
+        webTestClient.delete().uri(location).header(HttpHeaders.AUTHORIZATION, bearer("jane", "USER")).exchange().expectStatus().isNotFound();
+    }
+
+    private static String bearer(final String userName, final String... clientRoles) {
+        final JWTClaimsSet claims = new JWTClaimsSet.Builder()
+                .subject(userName + "-id")
+                .claim("preferred_username", userName)
+                .claim("realm_access", Collections.singletonMap("roles", Collections.singletonList("offline_access")))
+                .claim("resource_access", Collections.singletonMap("favourites-api", Collections.singletonMap("roles", Arrays.asList(clientRoles))))
+                .expirationTime(new Date(System.currentTimeMillis() + 300_000))
+                .build();
+        try {
+            final SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(signingKey.getKeyID()).build(), claims);
+            jwt.sign(new RSASSASigner(signingKey));
+            return "Bearer " + jwt.serialize();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package de.keycloak.samples.favourites.api;
 
+import de.keycloak.samples.favourites.common.VirtualThreadsConfig;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.security.servlet.SecurityAutoConfiguration;
 import org.springframework.boot.autoconfigure.security.servlet.UserDetailsServiceAutoConfiguration;
+import org.springframework.context.annotation.Import;
 
 @SpringBootApplication(exclude = {
         SecurityAutoConfiguration.class, UserDetailsServiceAutoConfiguration.class
 })
+@Import(VirtualThreadsConfig.class)
 public class FavouritesApi {
     public static void main(String[] args) {
         SpringApplication.run(FavouritesApi.class, args);
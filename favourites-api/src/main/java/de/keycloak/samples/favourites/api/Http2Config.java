@@ -0,0 +1,52 @@
+package de.keycloak.samples.favourites.api;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.UpgradeProtocol;
+import org.apache.coyote.http2.Http2Protocol;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.Compression;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
+
+/**
+ * Serves HTTP/2 without TLS (h2c), enabled with {@code server.http2.enabled=true}. Clients either upgrade an
+ * HTTP/1.1 connection or start with HTTP/2 right away ("prior knowledge"), e.g. a reverse proxy which terminates TLS.
+ * <p>
+ * Spring boot 2.1 only adds the HTTP/2 protocol of tomcat to connectors with TLS, and only configures the
+ * compression of HTTP/1.1, tomcat has a separate one for HTTP/2. Both is done here.
+ */
+@Configuration
+@ConditionalOnProperty(name = "server.http2.enabled", havingValue = "true")
+public class Http2Config {
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> http2Customizer(final ServerProperties serverProperties) {
+        return factory -> factory.addConnectorCustomizers(connector -> {
+            final Http2Protocol http2 = http2Protocol(connector);
+            final Compression compression = serverProperties.getCompression();
+            if (compression.getEnabled()) {
+                http2.setCompression("on");
+                http2.setCompressionMinSize((int) compression.getMinResponseSize().toBytes());
+                http2.setCompressibleMimeType(StringUtils.arrayToCommaDelimitedString(compression.getMimeTypes()));
+                if (compression.getExcludedUserAgents() != null) {
+                    http2.setNoCompressionUserAgents(StringUtils.arrayToCommaDelimitedString(compression.getExcludedUserAgents()));
+                }
+            }
+        });
+    }
+
+    private static Http2Protocol http2Protocol(final Connector connector) {
+        for (UpgradeProtocol upgradeProtocol : connector.findUpgradeProtocols()) {
+            if (upgradeProtocol instanceof Http2Protocol) {
+                return (Http2Protocol) upgradeProtocol;
+            }
+        }
+        final Http2Protocol http2 = new Http2Protocol();
+        connector.addUpgradeProtocol(http2);
+        return http2;
+    }
+}
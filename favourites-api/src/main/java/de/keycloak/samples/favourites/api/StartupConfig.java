@@ -0,0 +1,90 @@
+package de.keycloak.samples.favourites.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.keycloak.samples.favourites.api.security.AuthPipelineWarmup;
+import de.keycloak.samples.favourites.api.security.AuthorityBits;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import org.jboss.logging.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.ResourceServerProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Shortens the way from a cold JVM to fast responses, see the {@code fast-startup} profile.
+ * <p>
+ * {@code favourites.startup.warmup.enabled=true} runs a token through the request path before the API accepts
+ * requests and sends the API a request as soon as its port is open. {@code favourites.startup.training-run=true}
+ * exits once the API is started, the build uses it to record the classes of the startup and the first request in a
+ * class data sharing archive.
+ */
+@Configuration
+public class StartupConfig {
+    private static final Logger LOG = Logger.getLogger(StartupConfig.class);
+
+    private static final String WARMUP_PATH = "/favourites/warmup";
+    private static final int WARMUP_TIMEOUT_MILLIS = 5000;
+
+    @Value("${favourites.startup.warmup.iterations:100}")
+    private int warmupIterations;
+
+    @Bean
+    @ConditionalOnProperty(name = "favourites.startup.warmup.enabled", havingValue = "true")
+    public AuthPipelineWarmup authPipelineWarmup(final ResourceServerProperties resourceServerProperties,
+                                                 final AuthorityBits authorityBits,
+                                                 final ObjectMapper objectMapper) {
+        return new AuthPipelineWarmup(resourceServerProperties.getResourceId(), authorityBits, objectMapper, warmupIterations);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "favourites.startup.warmup.enabled", havingValue = "true")
+    public WarmupRequest warmupRequest() {
+        return new WarmupRequest();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "favourites.startup.training-run", havingValue = "true")
+    public ApplicationListener<ApplicationReadyEvent> trainingRun() {
+        return event -> System.exit(SpringApplication.exit(event.getApplicationContext()));
+    }
+
+    /**
+     * The first request through tomcat, the filter chain and the dispatcher servlet takes longer than all the tokens of
+     * the warmup together. It's sent without a token, so that keycloak is not called, and is answered with 401. It's
+     * sent before the management server starts, so health checks only succeed once it's answered.
+     */
+    static final class WarmupRequest implements ApplicationListener<WebServerInitializedEvent>, Ordered {
+
+        @Override
+        public void onApplicationEvent(final WebServerInitializedEvent event) {
+            if (event.getApplicationContext().getServerNamespace() != null) {
+                return;
+            }
+            final long start = System.nanoTime();
+            try {
+                final URL url = new URL("http://localhost:" + event.getWebServer().getPort() + WARMUP_PATH);
+                final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection.setConnectTimeout(WARMUP_TIMEOUT_MILLIS);
+                connection.setReadTimeout(WARMUP_TIMEOUT_MILLIS);
+                final int status = connection.getResponseCode();
+                connection.disconnect();
+                LOG.infof("Warmup request answered with %d in %d ms", status, (System.nanoTime() - start) / 1_000_000);
+            } catch (IOException e) {
+                LOG.warn("Could not send the warmup request", e);
+            }
+        }
+
+        @Override
+        public int getOrder() {
+            return Ordered.HIGHEST_PRECEDENCE;
+        }
+    }
+}
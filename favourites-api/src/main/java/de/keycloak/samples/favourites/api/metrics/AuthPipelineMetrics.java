@@ -0,0 +1,95 @@
+package de.keycloak.samples.favourites.api.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Timers for the stages a request passes until the favourites are returned: parsing the JWT, checking its
+ * signature, mapping the keycloak roles, authorizing the call and running the handler.
+ * <p>
+ * All timers publish percentiles and a histogram. Tags only carry the stage, the outcome and the like, never
+ * anything of the token (e.g. the user name), so that the number of time series stays bounded. Meters are registered
+ * on first use, so that they get the common tags which are configured while the application starts.
+ * <p>
+ * The timers are recorded to a composite registry to which the registry of the application is added when it binds
+ * its {@link MeterBinder}s. The token store is one of them and needs these metrics, they can't depend on the registry.
+ */
+public class AuthPipelineMetrics implements MeterBinder {
+    public static final String STAGE_TIMER = "favourites.auth.stage";
+    public static final String HANDLER_TIMER = "favourites.handler";
+
+    private static final String SUCCESS = "success";
+    private static final String FAILURE = "failure";
+
+    public enum Stage {
+        JWT_PARSE("jwt-parse"),
+        SIGNATURE("signature"),
+        ROLE_MAPPING("role-mapping"),
+        AUTHORIZATION("authorization");
+
+        private final String tag;
+
+        Stage(final String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+    private final AtomicReferenceArray<Timer> stageTimers = new AtomicReferenceArray<>(Stage.values().length * 2);
+
+    /**
+     * Creates metrics which are recorded once they are bound to a registry.
+     */
+    public AuthPipelineMetrics() {
+    }
+
+    public AuthPipelineMetrics(final MeterRegistry registry) {
+        bindTo(registry);
+    }
+
+    /**
+     * @return metrics which are recorded nowhere, for components created without a meter registry
+     */
+    public static AuthPipelineMetrics noop() {
+        return new AuthPipelineMetrics();
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry meterRegistry) {
+        registry.add(meterRegistry);
+    }
+
+    public void record(final Stage stage, final long nanos, final boolean success) {
+        final int index = stage.ordinal() * 2 + (success ? 0 : 1);
+        Timer timer = stageTimers.get(index);
+        if (timer == null) {
+            // the registry returns the same timer to concurrent callers
+            timer = timer(STAGE_TIMER, "stage", stage.tag, success ? SUCCESS : FAILURE);
+            stageTimers.set(index, timer);
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param handler name of the handler method, e.g. "getFavourites"
+     */
+    public void recordHandler(final String handler, final long nanos, final boolean success) {
+        timer(HANDLER_TIMER, "handler", handler, success ? SUCCESS : FAILURE).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(final String name, final String tagKey, final String tagValue, final String outcome) {
+        return Timer.builder(name)
+                    .tag(tagKey, tagValue)
+                    .tag("outcome", outcome)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(1000))
+                    .maximumExpectedValue(Duration.ofSeconds(10))
+                    .register(registry);
+    }
+}
@@ -0,0 +1,35 @@
+package de.keycloak.samples.favourites.api.metrics;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Times the handler methods of the controllers, tagged with the name of the method. The time includes the
+ * authorization check, which is additionally timed as stage "authorization".
+ */
+public class HandlerTimingInterceptor implements HandlerInterceptor {
+    private static final String START_ATTRIBUTE = HandlerTimingInterceptor.class.getName() + ".start";
+
+    private final AuthPipelineMetrics metrics;
+
+    public HandlerTimingInterceptor(final AuthPipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean preHandle(final HttpServletRequest request, final HttpServletResponse response, final Object handler) {
+        request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(final HttpServletRequest request, final HttpServletResponse response, final Object handler, final Exception ex) {
+        final Object start = request.getAttribute(START_ATTRIBUTE);
+        if (start instanceof Long && handler instanceof HandlerMethod) {
+            final boolean success = ex == null && response.getStatus() < 400;
+            metrics.recordHandler(((HandlerMethod) handler).getMethod().getName(), System.nanoTime() - (Long) start, success);
+        }
+    }
+}
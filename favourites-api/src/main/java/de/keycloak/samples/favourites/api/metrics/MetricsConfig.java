@@ -0,0 +1,31 @@
+package de.keycloak.samples.favourites.api.metrics;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Registers its interceptor first, so that the handler timing includes the authorization.
+ */
+@Configuration
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class MetricsConfig implements WebMvcConfigurer {
+
+    private final AuthPipelineMetrics authPipelineMetrics = new AuthPipelineMetrics();
+
+    /**
+     * Bound to the meter registry by spring boot like every {@link io.micrometer.core.instrument.binder.MeterBinder} bean.
+     */
+    @Bean
+    public AuthPipelineMetrics authPipelineMetrics() {
+        return authPipelineMetrics;
+    }
+
+    @Override
+    public void addInterceptors(final InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerTimingInterceptor(authPipelineMetrics));
+    }
+}
@@ -1,8 +1,21 @@
 package de.keycloak.samples.favourites.api.model;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonPOJOBuilder;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+@JsonDeserialize(builder = Favourite.Builder.class)
+@JsonSerialize(using = FavouriteSerializer.class)
 public class Favourite {
+    /**
+     * Rating of a favourite which was not rated, rated favourites have a rating from {@link #MIN_RATING} to {@link #MAX_RATING}.
+     */
+    public static final int NO_RATING = 0;
+    public static final int MIN_RATING = 1;
+    public static final int MAX_RATING = 5;
+
     private String id;
-    private Integer rating;
+    private int rating;
     private String comment;
     private String userName;
 
@@ -10,11 +23,15 @@ public class Favourite {
         return new Builder();
     }
 
+    public Builder toBuilder() {
+        return new Builder().withId(id).withRating(rating).withComment(comment).withUserName(userName);
+    }
+
     public String getId() {
         return id;
     }
 
-    public Integer getRating() {
+    public int getRating() {
         return rating;
     }
 
@@ -26,9 +43,10 @@ public class Favourite {
         return userName;
     }
 
+    @JsonPOJOBuilder(withPrefix = "with")
     public static final class Builder {
         private String id;
-        private Integer rating;
+        private int rating;
         private String comment;
         private String userName;
 
@@ -40,7 +58,7 @@ public class Favourite {
             return this;
         }
 
-        public Builder withRating(Integer rating) {
+        public Builder withRating(int rating) {
             this.rating = rating;
             return this;
         }
@@ -0,0 +1,40 @@
+package de.keycloak.samples.favourites.api.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+
+/**
+ * Writes a {@link Favourite} without the reflective bean serializer of jackson: the getters are called directly and
+ * the field names are encoded once. The output is the one of the bean serializer, fields in the order of
+ * declaration and null values included, in JSON as well as in binary formats like Smile.
+ */
+public class FavouriteSerializer extends StdSerializer<Favourite> {
+    private static final long serialVersionUID = 1L;
+
+    private static final SerializableString ID = new SerializedString("id");
+    private static final SerializableString RATING = new SerializedString("rating");
+    private static final SerializableString COMMENT = new SerializedString("comment");
+    private static final SerializableString USER_NAME = new SerializedString("userName");
+
+    public FavouriteSerializer() {
+        super(Favourite.class);
+    }
+
+    @Override
+    public void serialize(final Favourite favourite, final JsonGenerator generator, final SerializerProvider provider) throws IOException {
+        generator.writeStartObject(favourite);
+        generator.writeFieldName(ID);
+        generator.writeString(favourite.getId());
+        generator.writeFieldName(RATING);
+        generator.writeNumber(favourite.getRating());
+        generator.writeFieldName(COMMENT);
+        generator.writeString(favourite.getComment());
+        generator.writeFieldName(USER_NAME);
+        generator.writeString(favourite.getUserName());
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,118 @@
+package de.keycloak.samples.favourites.api.model;
+
+import java.util.Arrays;
+
+/**
+ * Aggregated ratings of a set of favourites: their number, sum, minimum, maximum and how often each rating from
+ * {@link Favourite#MIN_RATING} to {@link Favourite#MAX_RATING} was given. Favourites without a rating are not counted.
+ * <p>
+ * Instances are immutable, {@link #plus(int)} and {@link #minus(int)} return the statistics with a rating added or
+ * removed, so the statistics can be maintained on every write and read without locks.
+ */
+public final class RatingStatistics {
+    public static final RatingStatistics EMPTY = new RatingStatistics(new int[Favourite.MAX_RATING - Favourite.MIN_RATING + 1], 0, 0);
+
+    private final int[] histogram;
+    private final int count;
+    private final long sum;
+
+    private RatingStatistics(final int[] histogram, final int count, final long sum) {
+        this.histogram = histogram;
+        this.count = count;
+        this.sum = sum;
+    }
+
+    public static boolean isRated(final int rating) {
+        return rating >= Favourite.MIN_RATING && rating <= Favourite.MAX_RATING;
+    }
+
+    /**
+     * @return the statistics with the given rating added, the same statistics if it's not a rating
+     */
+    public RatingStatistics plus(final int rating) {
+        return isRated(rating) ? add(rating, 1) : this;
+    }
+
+    /**
+     * @return the statistics with the given rating removed, the same statistics if it's not a rating
+     */
+    public RatingStatistics minus(final int rating) {
+        if (!isRated(rating) || histogram[rating - Favourite.MIN_RATING] == 0) {
+            return this;
+        }
+        return add(rating, -1);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the lowest rating, 0 if nothing was rated
+     */
+    public int getMin() {
+        for (int i = 0; i < histogram.length; i++) {
+            if (histogram[i] > 0) {
+                return i + Favourite.MIN_RATING;
+            }
+        }
+        return Favourite.NO_RATING;
+    }
+
+    /**
+     * @return the highest rating, 0 if nothing was rated
+     */
+    public int getMax() {
+        for (int i = histogram.length - 1; i >= 0; i--) {
+            if (histogram[i] > 0) {
+                return i + Favourite.MIN_RATING;
+            }
+        }
+        return Favourite.NO_RATING;
+    }
+
+    /**
+     * @return the average rating, 0 if nothing was rated
+     */
+    public double getAverage() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @return how often each rating was given, starting with {@link Favourite#MIN_RATING}
+     */
+    public int[] getHistogram() {
+        return histogram.clone();
+    }
+
+    private RatingStatistics add(final int rating, final int delta) {
+        final int[] updated = histogram.clone();
+        updated[rating - Favourite.MIN_RATING] += delta;
+        return new RatingStatistics(updated, count + delta, sum + (long) delta * rating);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RatingStatistics)) {
+            return false;
+        }
+        return Arrays.equals(histogram, ((RatingStatistics) o).histogram);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(histogram);
+    }
+
+    @Override
+    public String toString() {
+        return "RatingStatistics{count=" + count + ", sum=" + sum + ", histogram=" + Arrays.toString(histogram) + '}';
+    }
+}
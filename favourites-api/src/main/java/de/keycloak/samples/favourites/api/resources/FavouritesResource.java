@@ -1,45 +1,335 @@
 package de.keycloak.samples.favourites.api.resources;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import de.keycloak.samples.favourites.api.model.Favourite;
+import de.keycloak.samples.favourites.api.model.RatingStatistics;
+import de.keycloak.samples.favourites.api.search.SearchQuery;
+import de.keycloak.samples.favourites.api.security.RequiresAuthority;
+import de.keycloak.samples.favourites.api.store.FavouritesPage;
+import de.keycloak.samples.favourites.api.store.FavouritesRepository;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponentsBuilder;
 
 @RestController
 public class FavouritesResource {
 
-    private final Favourite favouriteOfTom = Favourite.builder().withComment("Nice restaurant").withId("123456").withRating(5).withUserName("tom").build();
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
 
-    private final Favourite favouriteOfTim = Favourite.builder().withComment("Bad restaurant").withId("225588").withRating(2).withUserName("tim").build();
+    private static final String ROLE_USER = "ROLE_USER";
+    private static final String ROLE_ADMIN = "ROLE_ADMIN";
 
-    private final List<Favourite> favourites = Stream.of(favouriteOfTim, favouriteOfTom).collect(Collectors.toList());
+    private final FavouritesRepository favouritesRepository;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter favouriteWriter;
+    private final ObjectWriter favouritesWriter;
+    private final int defaultPageSize;
+    private final int maxPageSize;
+    private final int maxBatchSize;
 
+    public FavouritesResource(final FavouritesRepository favouritesRepository,
+                              final ObjectMapper objectMapper,
+                              @Value("${favourites.page.default-size:100}") final int defaultPageSize,
+                              @Value("${favourites.page.max-size:1000}") final int maxPageSize,
+                              @Value("${favourites.batch.max-size:100}") final int maxBatchSize) {
+        this.favouritesRepository = favouritesRepository;
+        this.objectMapper = objectMapper;
+        // streamed responses are flushed when the buffer of the generator is full, not after each value
+        this.favouriteWriter = objectMapper.writerFor(Favourite.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.favouritesWriter = objectMapper.writerFor(new TypeReference<List<Favourite>>() {}).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.defaultPageSize = defaultPageSize;
+        this.maxPageSize = maxPageSize;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Returns the favourites of the user with a strong ETag of their version. A matching {@code If-None-Match} is
+     * answered with 304 without loading the favourites.
+     */
     @RequestMapping(value = "/favourites/{username}", method = RequestMethod.GET)
-    @PreAuthorize("hasRole('ROLE_USER')")
-    public ResponseEntity<List<Favourite>> getFavouritesOfUser(@PathVariable final String username, final Principal principal) {
-        if (principal == null) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    @RequiresAuthority(value = ROLE_USER, owner = "username")
+    public ResponseEntity<List<Favourite>> getFavouritesOfUser(@PathVariable final String username, final WebRequest request) {
+        // read the version first: a concurrent change then leads to a newer body with an older tag, never the reverse
+        if (request.checkNotModified("\"" + favouritesRepository.getVersion(username) + "\"")) {
+            return null;
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache().cachePrivate()).body(favouritesRepository.findByUserName(username));
+    }
+
+    /**
+     * Returns the aggregated ratings of the favourites of the user, which are maintained on every write.
+     */
+    @RequestMapping(value = "/favourites/{username}/statistics", method = RequestMethod.GET)
+    @RequiresAuthority(value = ROLE_USER, owner = "username")
+    public ResponseEntity<RatingStatistics> getRatingStatisticsOfUser(@PathVariable final String username) {
+        return ResponseEntity.ok(favouritesRepository.getRatingStatistics(username));
+    }
+
+    /**
+     * Returns the aggregated ratings of all favourites, which are maintained on every write.
+     */
+    @RequestMapping(value = "/favourites:statistics", method = RequestMethod.GET)
+    @RequiresAuthority(ROLE_ADMIN)
+    public ResponseEntity<RatingStatistics> getRatingStatistics() {
+        return ResponseEntity.ok(favouritesRepository.getRatingStatistics());
+    }
+
+    /**
+     * Searches the comments of the favourites of the user, see {@link #searchFavourites}.
+     */
+    @RequestMapping(value = "/favourites/{username}/search", method = RequestMethod.GET)
+    @RequiresAuthority(value = ROLE_USER, owner = "username")
+    public ResponseEntity<List<Favourite>> searchFavouritesOfUser(@PathVariable final String username,
+                                                                  @RequestParam final String q,
+                                                                  @RequestParam(required = false) final Integer minRating,
+                                                                  @RequestParam(required = false) final Integer maxRating) {
+        final SearchQuery query;
+        try {
+            query = SearchQuery.parse(q, minRating, maxRating);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache().cachePrivate()).body(favouritesRepository.search(username, query));
+    }
+
+    /**
+     * Searches the comments of all favourites for all words of {@code q}, a word ending with {@code *} is a prefix,
+     * e.g. {@code ?q=nice restau*&minRating=4}. The matching favourites are paged like {@code GET /favourites}.
+     */
+    @RequestMapping(value = "/favourites:search", method = RequestMethod.GET)
+    @RequiresAuthority(ROLE_ADMIN)
+    public ResponseEntity<List<Favourite>> searchFavourites(@RequestParam final String q,
+                                                            @RequestParam(required = false) final Integer minRating,
+                                                            @RequestParam(required = false) final Integer maxRating,
+                                                            @RequestParam(required = false) final String cursor,
+                                                            @RequestParam(required = false) final Integer limit) {
+        final SearchQuery query;
+        final Long afterPosition;
+        final FavouritesPage page;
+        final int pageSize = limit == null ? defaultPageSize : Math.min(limit, maxPageSize);
+        try {
+            query = SearchQuery.parse(q, minRating, maxRating);
+            afterPosition = cursor == null ? null : decodeCursor(cursor);
+            if (pageSize < 1) {
+                return ResponseEntity.badRequest().build();
+            }
+            page = favouritesRepository.search(query, afterPosition, pageSize);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (page.getNextPosition() == null) {
+            return ResponseEntity.ok(page.getFavourites());
+        }
+
+        final String next = UriComponentsBuilder.fromPath("/favourites:search")
+                                                .queryParam("q", q)
+                                                .queryParam("minRating", query.getMinRating())
+                                                .queryParam("maxRating", query.getMaxRating())
+                                                .queryParam("cursor", encodeCursor(page.getNextPosition()))
+                                                .queryParam("limit", pageSize)
+                                                .build()
+                                                .encode()
+                                                .toUriString();
+        return ResponseEntity.ok().header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"").body(page.getFavourites());
+    }
+
+    /**
+     * Returns the favourites of several users in one call, e.g. for a dashboard of a team. The body is a JSON array
+     * of user names. Each user name is authorized like {@code GET /favourites/{username}}: the favourites of a user
+     * are returned to the user, admins get the favourites of all users. The result is streamed as a JSON object with
+     * an entry per user name, the status of the entry and the favourites if it's 200:
+     * <pre>
+     * {"tom":{"status":200,"favourites":[...]},"tim":{"status":403}}
+     * </pre>
+     */
+    @RequestMapping(value = "/favourites:batchGet", method = RequestMethod.POST)
+    @RequiresAuthority({ROLE_USER, ROLE_ADMIN})
+    public ResponseEntity<StreamingResponseBody> batchGetFavourites(@RequestBody final List<String> usernames, final Authentication authentication) {
+        final Set<String> requested = new LinkedHashSet<>(usernames);
+        if (requested.isEmpty() || requested.size() > maxBatchSize || requested.contains(null)) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        final Set<String> authorities = authorities(authentication);
+        final Set<String> permitted = new LinkedHashSet<>(requested.size() * 4 / 3 + 1);
+        for (String username : requested) {
+            if (authorities.contains(ROLE_ADMIN) || authorities.contains(ROLE_USER) && isOwner(username, authentication)) {
+                permitted.add(username);
+            }
+        }
+        final Map<String, List<Favourite>> favourites = favouritesRepository.findByUserNames(permitted);
+
+        final StreamingResponseBody body = outputStream -> {
+            final JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartObject();
+            for (String username : requested) {
+                generator.writeObjectFieldStart(username);
+                final List<Favourite> favouritesOfUser = favourites.get(username);
+                if (favouritesOfUser == null) {
+                    generator.writeNumberField("status", HttpStatus.FORBIDDEN.value());
+                } else {
+                    generator.writeNumberField("status", HttpStatus.OK.value());
+                    generator.writeFieldName("favourites");
+                    favouritesWriter.writeValue(generator, favouritesOfUser);
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+            generator.close();
+        };
+        return ResponseEntity.ok()
+                             .cacheControl(CacheControl.noStore())
+                             .contentType(MediaType.APPLICATION_JSON_UTF8)
+                             .body(body);
+    }
+
+    @RequestMapping(value = "/favourites/{username}", method = RequestMethod.POST)
+    @RequiresAuthority(value = ROLE_USER, owner = "username")
+    public ResponseEntity<Favourite> createFavourite(@PathVariable final String username,
+                                                     @RequestBody final Favourite favourite) {
+        if (!isValidRating(favourite.getRating())) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        final Favourite created = favouritesRepository.save(favourite.toBuilder()
+                                                                     .withId(UUID.randomUUID().toString())
+                                                                     .withUserName(username)
+                                                                     .build());
+        return ResponseEntity.created(URI.create("/favourites/" + username + "/" + created.getId())).body(created);
+    }
+
+    @RequestMapping(value = "/favourites/{username}/{id}", method = RequestMethod.PUT)
+    @RequiresAuthority(value = ROLE_USER, owner = "username")
+    public ResponseEntity<Favourite> updateFavourite(@PathVariable final String username,
+                                                     @PathVariable final String id,
+                                                     @RequestBody final Favourite favourite) {
+        if (!isValidRating(favourite.getRating())) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (!findFavouriteOfUser(username, id).isPresent()) {
+            return ResponseEntity.notFound().build();
         }
 
-        final String authenticatedUserName = principal.getName();
-        if (!username.equals(authenticatedUserName)) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        return ResponseEntity.ok(favouritesRepository.save(favourite.toBuilder().withId(id).withUserName(username).build()));
+    }
+
+    @RequestMapping(value = "/favourites/{username}/{id}", method = RequestMethod.DELETE)
+    @RequiresAuthority(value = ROLE_USER, owner = "username")
+    public ResponseEntity<Void> deleteFavourite(@PathVariable final String username, @PathVariable final String id) {
+        if (!findFavouriteOfUser(username, id).isPresent()) {
+            return ResponseEntity.notFound().build();
         }
-        final List<Favourite> favouritesByUser = this.favourites.stream().filter(r -> r.getUserName().equalsIgnoreCase(authenticatedUserName)).collect(Collectors.toList());
-        return ResponseEntity.ok(favouritesByUser);
+
+        favouritesRepository.delete(id);
+        return ResponseEntity.noContent().build();
     }
 
+    /**
+     * Returns a page of all favourites. The response carries a {@code Link} header with {@code rel="next"} as long
+     * as there are more favourites.
+     */
     @RequestMapping(value = "/favourites", method = RequestMethod.GET)
-    @PreAuthorize("hasRole('ROLE_ADMIN')")
-    public ResponseEntity<List<Favourite>> getAllFavourites() {
-        return ResponseEntity.ok(favourites);
+    @RequiresAuthority(ROLE_ADMIN)
+    public ResponseEntity<List<Favourite>> getAllFavourites(@RequestParam(required = false) final String cursor,
+                                                            @RequestParam(required = false) final Integer limit) {
+        final Long afterPosition;
+        try {
+            afterPosition = cursor == null ? null : decodeCursor(cursor);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        if (limit != null && limit < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        final int pageSize = limit == null ? defaultPageSize : Math.min(limit, maxPageSize);
+        final FavouritesPage page = favouritesRepository.findAll(afterPosition, pageSize);
+        if (page.getNextPosition() == null) {
+            return ResponseEntity.ok(page.getFavourites());
+        }
+
+        final String next = "/favourites?cursor=" + encodeCursor(page.getNextPosition()) + "&limit=" + pageSize;
+        return ResponseEntity.ok().header(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"").body(page.getFavourites());
+    }
+
+    /**
+     * Streams all favourites as newline delimited JSON, one favourite per line, straight from the store.
+     */
+    @RequestMapping(value = "/favourites", method = RequestMethod.GET, produces = APPLICATION_NDJSON_VALUE)
+    @RequiresAuthority(ROLE_ADMIN)
+    public ResponseEntity<StreamingResponseBody> streamAllFavourites() {
+        final StreamingResponseBody body = outputStream -> {
+            final JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // the lines are separated by the new lines only
+            generator.setRootValueSeparator(null);
+            final Iterator<Favourite> favourites = favouritesRepository.iterateAll();
+            while (favourites.hasNext()) {
+                favouriteWriter.writeValue(generator, favourites.next());
+                generator.writeRaw('\n');
+            }
+            generator.close();
+        };
+        return ResponseEntity.ok().contentType(MediaType.valueOf(APPLICATION_NDJSON_VALUE)).body(body);
+    }
+
+    private static String encodeCursor(final long position) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Long.toString(position).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static long decodeCursor(final String cursor) {
+        return Long.parseLong(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.US_ASCII));
+    }
+
+    private Optional<Favourite> findFavouriteOfUser(final String username, final String id) {
+        return favouritesRepository.findById(id).filter(favourite -> favourite.getUserName().equalsIgnoreCase(username));
+    }
+
+    private static Set<String> authorities(final Authentication authentication) {
+        if (authentication == null) {
+            return Collections.emptySet();
+        }
+        final Set<String> authorities = new LinkedHashSet<>();
+        for (GrantedAuthority authority : authentication.getAuthorities()) {
+            authorities.add(authority.getAuthority());
+        }
+        return authorities;
+    }
+
+    private static boolean isValidRating(final int rating) {
+        return rating == Favourite.NO_RATING || RatingStatistics.isRated(rating);
+    }
+
+    private static boolean isOwner(final String username, final Principal principal) {
+        return principal != null && username.equals(principal.getName());
     }
 }
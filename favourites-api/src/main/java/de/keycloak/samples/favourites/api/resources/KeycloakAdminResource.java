@@ -0,0 +1,67 @@
+package de.keycloak.samples.favourites.api.resources;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.keycloak.samples.favourites.api.security.JwksKeyProvider;
+import de.keycloak.samples.favourites.api.security.RevocationCheckingTokenStore;
+import java.util.Map;
+import org.jboss.logging.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.jwt.Jwt;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Receives the admin actions keycloak sends to the admin URL of the client. Only "push not-before" is of interest
+ * for a resource server: it revokes all tokens issued before the given time.
+ * <p>
+ * The action is a token signed with the realm key, so no bearer token is needed to call this endpoint.
+ */
+@RestController
+public class KeycloakAdminResource {
+    private static final Logger LOG = Logger.getLogger(KeycloakAdminResource.class);
+
+    private static final String PUSH_NOT_BEFORE = "PUSH_NOT_BEFORE";
+
+    private final JwksKeyProvider keyProvider;
+    private final RevocationCheckingTokenStore revocationCheckingTokenStore;
+    private final ObjectMapper objectMapper;
+    private final String resourceId;
+
+    public KeycloakAdminResource(final JwksKeyProvider keyProvider,
+                                 final RevocationCheckingTokenStore revocationCheckingTokenStore,
+                                 final ObjectMapper objectMapper,
+                                 @Value("${security.oauth2.resource.id}") final String resourceId) {
+        this.keyProvider = keyProvider;
+        this.revocationCheckingTokenStore = revocationCheckingTokenStore;
+        this.objectMapper = objectMapper;
+        this.resourceId = resourceId;
+    }
+
+    @RequestMapping(value = "/k_push_not_before", method = RequestMethod.POST)
+    public ResponseEntity<Void> pushNotBefore(@RequestBody final String actionToken) {
+        final JsonNode action;
+        try {
+            final Map<String, String> headers = JwtHelper.headers(actionToken);
+            final Jwt jwt = JwtHelper.decode(actionToken);
+            jwt.verifySignature(keyProvider.getVerifier(headers.get("kid"), headers.get("alg")));
+            action = objectMapper.readTree(jwt.getClaims());
+        } catch (Exception e) {
+            LOG.warn("Rejected admin action with invalid signature", e);
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        if (!PUSH_NOT_BEFORE.equals(action.path("action").asText())
+            || !resourceId.equals(action.path("resource").asText())
+            || action.path("expiration").asLong() < System.currentTimeMillis() / 1000) {
+            return ResponseEntity.badRequest().build();
+        }
+        revocationCheckingTokenStore.setNotBefore(action.path("notBefore").asLong());
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,302 @@
+package de.keycloak.samples.favourites.api.search;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index of the comments of the favourites, maintained with every write of the store. Favourites are
+ * referenced by their position in the creation order of the store. Every term of the sorted dictionary has the
+ * ascending positions of the favourites it occurs in, and the rating of every position is kept as a byte, so the
+ * index answers queries without reading the favourites.
+ * <p>
+ * A query walks the postings of its terms in lockstep, skipping ahead by binary search to the next position all of
+ * them have in common, and stops as soon as enough favourites were found. Prefixes are expanded into the union of
+ * the postings of all matching terms. Writes are serialized by the store, reads take a read lock.
+ */
+public class CommentIndex {
+    /**
+     * Prefixes matching more terms are rejected, the union of their postings would be too expensive.
+     */
+    static final int MAX_PREFIX_EXPANSIONS = 10_000;
+
+    private static final int NO_MORE = Integer.MAX_VALUE;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = lock.readLock();
+    private final Lock writeLock = lock.writeLock();
+
+    private final NavigableMap<String, Postings> postingsByTerm = new TreeMap<>();
+    private byte[] ratings = new byte[1024];
+
+    public void add(final int position, final Favourite favourite) {
+        final Set<String> terms = terms(favourite);
+        writeLock.lock();
+        try {
+            setRating(position, favourite.getRating());
+            for (String term : terms) {
+                postingsByTerm.computeIfAbsent(term, key -> new Postings()).add(position);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the previous version of the favourite at the position.
+     */
+    public void update(final int position, final Favourite previous, final Favourite favourite) {
+        final Set<String> previousTerms = terms(previous);
+        final Set<String> terms = terms(favourite);
+        writeLock.lock();
+        try {
+            setRating(position, favourite.getRating());
+            for (String term : previousTerms) {
+                if (!terms.contains(term)) {
+                    removePosting(term, position);
+                }
+            }
+            for (String term : terms) {
+                if (!previousTerms.contains(term)) {
+                    postingsByTerm.computeIfAbsent(term, key -> new Postings()).add(position);
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void remove(final int position, final Favourite favourite) {
+        final Set<String> terms = terms(favourite);
+        writeLock.lock();
+        try {
+            for (String term : terms) {
+                removePosting(term, position);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @param afterPosition position of the last favourite of the previous page, or -1 for the first page
+     * @param limit maximum number of positions to return
+     * @return the positions of the matching favourites following the given position in ascending order
+     * @throws IllegalArgumentException if a prefix of the query matches more than {@link #MAX_PREFIX_EXPANSIONS} terms
+     */
+    public int[] search(final SearchQuery query, final int afterPosition, final int limit) {
+        readLock.lock();
+        try {
+            final List<PostingsIterator> clauses = new ArrayList<>();
+            for (String term : query.getTerms()) {
+                final Postings postings = postingsByTerm.get(term);
+                if (postings == null) {
+                    return new int[0];
+                }
+                clauses.add(new TermIterator(postings));
+            }
+            for (String prefix : query.getPrefixes()) {
+                final Collection<Postings> expansions = postingsByTerm.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+                if (expansions.isEmpty()) {
+                    return new int[0];
+                }
+                if (expansions.size() > MAX_PREFIX_EXPANSIONS) {
+                    throw new IllegalArgumentException("The prefix " + prefix + " matches more than " + MAX_PREFIX_EXPANSIONS + " terms");
+                }
+                clauses.add(expansions.size() == 1 ? new TermIterator(expansions.iterator().next()) : new UnionIterator(expansions));
+            }
+            // the rarest clause leads, the others only have to confirm its positions
+            clauses.sort(Comparator.comparingLong(PostingsIterator::cost));
+            return intersect(clauses, query, afterPosition, limit);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @return number of distinct terms
+     */
+    public int termCount() {
+        readLock.lock();
+        try {
+            return postingsByTerm.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private int[] intersect(final List<PostingsIterator> clauses, final SearchQuery query, final int afterPosition, final int limit) {
+        final PostingsIterator lead = clauses.get(0);
+        int[] positions = new int[Math.min(limit, 1024)];
+        int count = 0;
+        int position = lead.advance(afterPosition < 0 ? 0 : afterPosition + 1);
+        while (position != NO_MORE && count < limit) {
+            int candidate = position;
+            for (int i = 1; i < clauses.size() && candidate == position; i++) {
+                candidate = clauses.get(i).advance(position);
+            }
+            if (candidate != position) {
+                position = lead.advance(candidate);
+                continue;
+            }
+            if (position < ratings.length && query.matchesRating(ratings[position])) {
+                if (count == positions.length) {
+                    positions = Arrays.copyOf(positions, Math.min(limit, count * 2));
+                }
+                positions[count++] = position;
+            }
+            position = lead.advance(position + 1);
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    private void setRating(final int position, final int rating) {
+        if (position >= ratings.length) {
+            ratings = Arrays.copyOf(ratings, Math.max(position + 1, ratings.length + (ratings.length >> 1)));
+        }
+        ratings[position] = (byte) rating;
+    }
+
+    private void removePosting(final String term, final int position) {
+        final Postings postings = postingsByTerm.get(term);
+        if (postings != null && postings.remove(position) && postings.size == 0) {
+            postingsByTerm.remove(term);
+        }
+    }
+
+    private static Set<String> terms(final Favourite favourite) {
+        return new LinkedHashSet<>(Tokenizer.tokenize(favourite.getComment()));
+    }
+
+    /**
+     * Ascending positions of the favourites a term occurs in. Positions are appended in ascending order, except
+     * when an existing favourite gets a new comment.
+     */
+    private static final class Postings {
+        private int[] positions = new int[2];
+        private int size;
+
+        void add(final int position) {
+            if (size > 0 && positions[size - 1] >= position) {
+                final int index = Arrays.binarySearch(positions, 0, size, position);
+                if (index >= 0) {
+                    return;
+                }
+                insert(-index - 1, position);
+                return;
+            }
+            insert(size, position);
+        }
+
+        boolean remove(final int position) {
+            final int index = Arrays.binarySearch(positions, 0, size, position);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(positions, index + 1, positions, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        private void insert(final int index, final int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size + (size >> 1) + 1);
+            }
+            System.arraycopy(positions, index, positions, index + 1, size - index);
+            positions[index] = position;
+            size++;
+        }
+    }
+
+    private interface PostingsIterator {
+        /**
+         * @return the first position at or after the target, {@link #NO_MORE} if there is none
+         */
+        int advance(int target);
+
+        long cost();
+    }
+
+    private static final class TermIterator implements PostingsIterator {
+        private final Postings postings;
+        private int index;
+
+        TermIterator(final Postings postings) {
+            this.postings = postings;
+        }
+
+        @Override
+        public int advance(final int target) {
+            final int[] positions = postings.positions;
+            final int size = postings.size;
+            if (index >= size) {
+                return NO_MORE;
+            }
+            if (positions[index] >= target) {
+                return positions[index];
+            }
+            // gallop ahead, then binary search within the last step
+            int step = 1;
+            int low = index;
+            int high = index + 1;
+            while (high < size && positions[high] < target) {
+                low = high;
+                step <<= 1;
+                high = low + step;
+            }
+            final int found = Arrays.binarySearch(positions, low, Math.min(high + 1, size), target);
+            index = found >= 0 ? found : -found - 1;
+            return index < size ? positions[index] : NO_MORE;
+        }
+
+        @Override
+        public long cost() {
+            return postings.size;
+        }
+    }
+
+    /**
+     * Merges the postings of the terms matching a prefix.
+     */
+    private static final class UnionIterator implements PostingsIterator {
+        private final PriorityQueue<int[]> heads = new PriorityQueue<>(Comparator.comparingInt(head -> head[0]));
+        private final List<TermIterator> iterators = new ArrayList<>();
+        private final long cost;
+
+        UnionIterator(final Collection<Postings> expansions) {
+            long total = 0;
+            for (Postings postings : expansions) {
+                final TermIterator iterator = new TermIterator(postings);
+                heads.add(new int[]{iterator.advance(0), iterators.size()});
+                iterators.add(iterator);
+                total += postings.size;
+            }
+            this.cost = total;
+        }
+
+        @Override
+        public int advance(final int target) {
+            while (heads.peek()[0] < target) {
+                final int[] head = heads.poll();
+                head[0] = iterators.get(head[1]).advance(target);
+                heads.add(head);
+            }
+            return heads.peek()[0];
+        }
+
+        @Override
+        public long cost() {
+            return cost;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package de.keycloak.samples.favourites.api.search;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Query over the comments of the favourites: all terms must occur in the comment. A word ending with {@code *} is a
+ * prefix, e.g. {@code restau*} matches restaurant and restaurants. The ratings can be restricted to a range.
+ */
+public final class SearchQuery {
+    static final int MAX_CLAUSES = 8;
+    static final int MIN_PREFIX_LENGTH = 2;
+
+    private final List<String> terms;
+    private final List<String> prefixes;
+    private final int minRating;
+    private final int maxRating;
+
+    private SearchQuery(final List<String> terms, final List<String> prefixes, final int minRating, final int maxRating) {
+        this.terms = terms;
+        this.prefixes = prefixes;
+        this.minRating = minRating;
+        this.maxRating = maxRating;
+    }
+
+    /**
+     * @param text words to search for, separated by whitespace
+     * @param minRating lowest rating of the favourites to find, or null for any
+     * @param maxRating highest rating of the favourites to find, or null for any
+     * @throws IllegalArgumentException if the text has no terms, too many, too short prefixes, or the ratings are out
+     * of range
+     */
+    public static SearchQuery parse(final String text, final Integer minRating, final Integer maxRating) {
+        final Set<String> terms = new LinkedHashSet<>();
+        final Set<String> prefixes = new LinkedHashSet<>();
+        for (String word : text == null ? new String[0] : text.trim().split("\\s+")) {
+            final List<String> tokens = Tokenizer.tokenize(word);
+            if (tokens.isEmpty()) {
+                continue;
+            }
+            final int last = tokens.size() - 1;
+            terms.addAll(tokens.subList(0, last));
+            if (word.endsWith("*")) {
+                if (tokens.get(last).length() < MIN_PREFIX_LENGTH) {
+                    throw new IllegalArgumentException("A prefix needs at least " + MIN_PREFIX_LENGTH + " characters");
+                }
+                prefixes.add(tokens.get(last));
+            } else {
+                terms.add(tokens.get(last));
+            }
+        }
+        if (terms.isEmpty() && prefixes.isEmpty()) {
+            throw new IllegalArgumentException("The query has no terms");
+        }
+        if (terms.size() + prefixes.size() > MAX_CLAUSES) {
+            throw new IllegalArgumentException("The query has more than " + MAX_CLAUSES + " terms");
+        }
+
+        final int min = minRating == null ? Favourite.NO_RATING : minRating;
+        final int max = maxRating == null ? Favourite.MAX_RATING : maxRating;
+        if (min < Favourite.NO_RATING || max > Favourite.MAX_RATING || min > max) {
+            throw new IllegalArgumentException("The ratings must be a range within " + Favourite.NO_RATING + " and " + Favourite.MAX_RATING);
+        }
+        return new SearchQuery(Collections.unmodifiableList(new ArrayList<>(terms)), Collections.unmodifiableList(new ArrayList<>(prefixes)), min, max);
+    }
+
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    public List<String> getPrefixes() {
+        return prefixes;
+    }
+
+    public int getMinRating() {
+        return minRating;
+    }
+
+    public int getMaxRating() {
+        return maxRating;
+    }
+
+    public boolean matchesRating(final int rating) {
+        return rating >= minRating && rating <= maxRating;
+    }
+
+    /**
+     * Matches the favourite without the index, e.g. to search the few favourites of a user.
+     */
+    public boolean matches(final Favourite favourite) {
+        if (!matchesRating(favourite.getRating())) {
+            return false;
+        }
+        final Set<String> commentTerms = new LinkedHashSet<>(Tokenizer.tokenize(favourite.getComment()));
+        if (!commentTerms.containsAll(terms)) {
+            return false;
+        }
+        for (String prefix : prefixes) {
+            if (commentTerms.stream().noneMatch(term -> term.startsWith(prefix))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchQuery{terms=" + terms + ", prefixes=" + prefixes + ", ratings=" + minRating + ".." + maxRating + "}";
+    }
+}
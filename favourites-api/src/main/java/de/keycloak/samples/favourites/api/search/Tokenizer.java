@@ -0,0 +1,38 @@
+package de.keycloak.samples.favourites.api.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits text into the terms of the {@link CommentIndex}: runs of letters and digits, lower-cased. Terms longer than
+ * {@link #MAX_TERM_LENGTH} are cut, e.g. URLs pasted into a comment.
+ */
+public final class Tokenizer {
+    static final int MAX_TERM_LENGTH = 32;
+
+    private Tokenizer() {
+    }
+
+    /**
+     * @return the terms of the text in the order they occur, with duplicates
+     */
+    public static List<String> tokenize(final String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<String> terms = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            final boolean partOfTerm = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (partOfTerm && start < 0) {
+                start = i;
+            } else if (!partOfTerm && start >= 0) {
+                terms.add(text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,103 @@
+package de.keycloak.samples.favourites.api.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.jboss.logging.Logger;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.RsaSigner;
+import org.springframework.security.jwt.crypto.sign.RsaVerifier;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+
+/**
+ * Runs a token through the request path of the API before it accepts requests: the JWT is parsed, its signature
+ * verified, the keycloak roles mapped to authorities and their bits, and a page of favourites is written as JSON. The
+ * first real request then finds the classes loaded and the code interpreted often enough to be compiled.
+ * <p>
+ * The token is signed with a key generated for the warmup and verified by converters of their own, so keycloak is
+ * not called, the realm keys stay untouched and the warmup token can't authenticate a request. The converters are not
+ * timed, the metrics only show real requests.
+ */
+public class AuthPipelineWarmup implements SmartInitializingSingleton {
+    private static final Logger LOG = Logger.getLogger(AuthPipelineWarmup.class);
+
+    private static final String KEY_ID = "warmup";
+    private static final int FAVOURITES = 20;
+
+    private final String resourceId;
+    private final AuthorityBits authorityBits;
+    private final ObjectMapper objectMapper;
+    private final int iterations;
+
+    /**
+     * @param resourceId client id of this resource server, its roles are put into the tokens
+     * @param iterations times the token is converted, the converters cache nothing
+     */
+    public AuthPipelineWarmup(final String resourceId, final AuthorityBits authorityBits, final ObjectMapper objectMapper,
+                              final int iterations) {
+        this.resourceId = resourceId;
+        this.authorityBits = authorityBits;
+        this.objectMapper = objectMapper;
+        this.iterations = iterations;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        final long start = System.nanoTime();
+        try {
+            warmUp();
+            LOG.infof("Warmed up the token validation %d times in %d ms", iterations, (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            // only the first requests are slower
+            LOG.warn("Could not warm up the token validation", e);
+        }
+    }
+
+    private void warmUp() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        final KeyPair keyPair = generator.generateKeyPair();
+        final RsaSigner signer = new RsaSigner((RSAPrivateKey) keyPair.getPrivate());
+        final SignatureVerifier verifier = new RsaVerifier((RSAPublicKey) keyPair.getPublic());
+
+        final CustomJwtAccessTokenConverter converter = new CustomJwtAccessTokenConverter(resourceId);
+        converter.setAuthorityBits(authorityBits);
+        // the keys are not looked up, every token is verified with the warmup key
+        final JwksJwtAccessTokenConverter tokenConverter = new JwksJwtAccessTokenConverter(null) {
+            @Override
+            protected SignatureVerifier getVerifier(final String kid, final String alg, final Map<String, Object> claims) {
+                return verifier;
+            }
+        };
+        converter.configure(tokenConverter);
+
+        final List<Favourite> favourites = new ArrayList<>(FAVOURITES);
+        for (int i = 0; i < FAVOURITES; i++) {
+            favourites.add(Favourite.builder().withId("warmup-" + i).withUserName(KEY_ID).withRating(i % Favourite.MAX_RATING + 1)
+                                    .withComment("Favourite " + i).build());
+        }
+
+        final String token = JwtHelper.encode(claims(System.currentTimeMillis() / 1000 + 60), signer,
+                                              Collections.singletonMap("kid", KEY_ID)).getEncoded();
+        for (int i = 0; i < iterations; i++) {
+            tokenConverter.extractAuthentication(tokenConverter.decode(token));
+            objectMapper.writeValueAsBytes(favourites);
+        }
+    }
+
+    private String claims(final long expiresAt) {
+        return "{\"jti\":\"warmup\",\"exp\":" + expiresAt + ",\"iat\":" + (expiresAt - 60) + ","
+               + "\"iss\":\"warmup/realms/warmup\",\"typ\":\"Bearer\",\"azp\":\"" + resourceId + "\","
+               + "\"preferred_username\":\"" + KEY_ID + "\",\"scope\":\"profile email\","
+               + "\"realm_access\":{\"roles\":[\"offline_access\",\"uma_authorization\"]},"
+               + "\"resource_access\":{\"" + resourceId + "\":{\"roles\":[\"USER\"]},\"account\":{\"roles\":[\"manage-account\",\"view-profile\"]}}}";
+    }
+}
@@ -0,0 +1,69 @@
+package de.keycloak.samples.favourites.api.security;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * Assigns a bit to every authority an endpoint requires, so that the authorities of a principal are a single long
+ * and checking them is a bitwise and. Authorities no endpoint requires get no bit, they can't make a difference.
+ * <p>
+ * Authorities are registered while the application starts, before the first token is converted. The bits of a
+ * principal are computed once per token and cached with its authentication.
+ */
+public class AuthorityBits {
+    static final int MAX_AUTHORITIES = Long.SIZE;
+
+    private final Lock registrationLock = new ReentrantLock();
+
+    /**
+     * Copied on every registration, so that lookups don't need a lock.
+     */
+    private volatile Map<String, Long> bitByAuthority = Collections.emptyMap();
+
+    /**
+     * @return the bits of the given authorities, assigning a new bit to each authority which has none yet
+     * @throws IllegalStateException if there are more than {@link #MAX_AUTHORITIES} distinct authorities
+     */
+    public long register(final Collection<String> authorities) {
+        registrationLock.lock();
+        try {
+            final Map<String, Long> registered = new HashMap<>(bitByAuthority);
+            long bits = 0;
+            for (String authority : authorities) {
+                Long bit = registered.get(authority);
+                if (bit == null) {
+                    if (registered.size() == MAX_AUTHORITIES) {
+                        throw new IllegalStateException("Endpoints can't require more than " + MAX_AUTHORITIES + " distinct authorities");
+                    }
+                    bit = 1L << registered.size();
+                    registered.put(authority, bit);
+                }
+                bits |= bit;
+            }
+            bitByAuthority = Collections.unmodifiableMap(registered);
+            return bits;
+        } finally {
+            registrationLock.unlock();
+        }
+    }
+
+    /**
+     * @return the bits of the registered authorities among the given ones
+     */
+    public long bitsOf(final Collection<? extends GrantedAuthority> authorities) {
+        final Map<String, Long> registered = bitByAuthority;
+        long bits = 0;
+        for (GrantedAuthority authority : authorities) {
+            final Long bit = registered.get(authority.getAuthority());
+            if (bit != null) {
+                bits |= bit;
+            }
+        }
+        return bits;
+    }
+}
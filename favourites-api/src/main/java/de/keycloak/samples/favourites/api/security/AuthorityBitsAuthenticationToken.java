@@ -0,0 +1,25 @@
+package de.keycloak.samples.favourites.api.security;
+
+import java.util.Collection;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * Authenticated user of a token, carrying its {@link AuthorityBits} next to the authorities.
+ */
+public class AuthorityBitsAuthenticationToken extends UsernamePasswordAuthenticationToken {
+    private static final long serialVersionUID = 1L;
+
+    private final long authorityBits;
+
+    public AuthorityBitsAuthenticationToken(final Object principal,
+                                            final Collection<? extends GrantedAuthority> authorities,
+                                            final long authorityBits) {
+        super(principal, "N/A", authorities);
+        this.authorityBits = authorityBits;
+    }
+
+    public long getAuthorityBits() {
+        return authorityBits;
+    }
+}
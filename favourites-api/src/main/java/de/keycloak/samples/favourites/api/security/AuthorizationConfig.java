@@ -0,0 +1,54 @@
+package de.keycloak.samples.favourites.api.security;
+
+import de.keycloak.samples.favourites.api.metrics.AuthPipelineMetrics;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+
+@Configuration
+public class AuthorizationConfig implements WebMvcConfigurer {
+
+    private final AuthorityBits authorityBits = new AuthorityBits();
+    private final AuthorizationInterceptor authorizationInterceptor;
+
+    public AuthorizationConfig(final AuthPipelineMetrics authPipelineMetrics) {
+        this.authorizationInterceptor = new AuthorizationInterceptor(authorityBits, authPipelineMetrics);
+    }
+
+    /**
+     * Shared with the token converter, which computes the bits of the authorities of every token.
+     */
+    @Bean
+    public AuthorityBits authorityBits() {
+        return authorityBits;
+    }
+
+    @Override
+    public void addInterceptors(final InterceptorRegistry registry) {
+        registry.addInterceptor(authorizationInterceptor);
+    }
+
+    /**
+     * Compiles the rules of all handler methods, the web server only starts after the context was refreshed.
+     */
+    @EventListener
+    public void compileAuthorizationRules(final ContextRefreshedEvent event) {
+        final ApplicationContext context = event.getApplicationContext();
+        final List<Method> handlerMethods = new ArrayList<>();
+        for (RequestMappingHandlerMapping handlerMapping : context.getBeansOfType(RequestMappingHandlerMapping.class).values()) {
+            for (HandlerMethod handlerMethod : handlerMapping.getHandlerMethods().values()) {
+                handlerMethods.add(handlerMethod.getMethod());
+            }
+        }
+        authorizationInterceptor.compile(handlerMethods);
+    }
+}
@@ -0,0 +1,121 @@
+package de.keycloak.samples.favourites.api.security;
+
+import de.keycloak.samples.favourites.api.metrics.AuthPipelineMetrics;
+import de.keycloak.samples.favourites.api.metrics.AuthPipelineMetrics.Stage;
+import java.lang.reflect.Method;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.InsufficientAuthenticationException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Checks the {@link RequiresAuthority} rules of the handler methods. The rules are compiled once, when the
+ * application context is refreshed, into the bits of the required authorities and the name of the owner path
+ * variable, so that a check is a map lookup, a bitwise and and a string comparison.
+ * <p>
+ * Requests without an authenticated principal are rejected with an {@link InsufficientAuthenticationException},
+ * which the security filter chain answers with 401. Principals without one of the authorities or which don't own the
+ * resource get 403.
+ */
+public class AuthorizationInterceptor implements HandlerInterceptor {
+
+    private static final Rule PERMIT_ALL = new Rule(0, null);
+
+    private final AuthorityBits authorityBits;
+    private final AuthPipelineMetrics metrics;
+    private final ConcurrentMap<Method, Rule> rules = new ConcurrentHashMap<>();
+
+    public AuthorizationInterceptor(final AuthorityBits authorityBits, final AuthPipelineMetrics metrics) {
+        this.authorityBits = authorityBits;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Compiles the rules of the given handler methods. Has to be called before the first token is converted, as the
+     * authorities of a token only get the bits of the authorities registered at that time.
+     */
+    public void compile(final Collection<Method> handlerMethods) {
+        for (Method method : handlerMethods) {
+            final RequiresAuthority annotation = AnnotatedElementUtils.findMergedAnnotation(method, RequiresAuthority.class);
+            rules.put(method, annotation == null ? PERMIT_ALL : new Rule(authorityBits.register(Arrays.asList(annotation.value())),
+                                                                         annotation.owner().isEmpty() ? null : annotation.owner()));
+        }
+    }
+
+    @Override
+    public boolean preHandle(final HttpServletRequest request, final HttpServletResponse response, final Object handler) {
+        if (!(handler instanceof HandlerMethod)) {
+            return true;
+        }
+        final Rule rule = rule(((HandlerMethod) handler).getMethod());
+        if (rule == PERMIT_ALL) {
+            return true;
+        }
+
+        final long start = System.nanoTime();
+        boolean granted = false;
+        try {
+            final Principal principal = request.getUserPrincipal();
+            if (principal == null || principal instanceof AnonymousAuthenticationToken) {
+                throw new InsufficientAuthenticationException("Full authentication is required to access this resource");
+            }
+            granted = (authorityBits(principal) & rule.requiredBits) != 0 && (rule.owner == null || isOwner(request, rule.owner, principal));
+            if (!granted) {
+                response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            }
+            return granted;
+        } finally {
+            metrics.record(Stage.AUTHORIZATION, System.nanoTime() - start, granted);
+        }
+    }
+
+    private Rule rule(final Method method) {
+        final Rule rule = rules.get(method);
+        if (rule != null) {
+            return rule;
+        }
+        // e.g. a handler of another handler mapping, a rule can't be added once tokens were converted
+        if (AnnotatedElementUtils.hasAnnotation(method, RequiresAuthority.class)) {
+            throw new IllegalStateException("The authorization rule of " + method + " was not compiled");
+        }
+        rules.putIfAbsent(method, PERMIT_ALL);
+        return PERMIT_ALL;
+    }
+
+    private long authorityBits(final Principal principal) {
+        if (principal instanceof OAuth2Authentication) {
+            final Authentication user = ((OAuth2Authentication) principal).getUserAuthentication();
+            if (user instanceof AuthorityBitsAuthenticationToken) {
+                return ((AuthorityBitsAuthenticationToken) user).getAuthorityBits();
+            }
+        }
+        return principal instanceof Authentication ? authorityBits.bitsOf(((Authentication) principal).getAuthorities()) : 0;
+    }
+
+    private static boolean isOwner(final HttpServletRequest request, final String owner, final Principal principal) {
+        final Object variables = request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        return variables instanceof Map && principal.getName().equals(((Map<?, ?>) variables).get(owner));
+    }
+
+    private static final class Rule {
+        private final long requiredBits;
+        private final String owner;
+
+        Rule(final long requiredBits, final String owner) {
+            this.requiredBits = requiredBits;
+            this.owner = owner;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package de.keycloak.samples.favourites.api.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+/**
+ * Caches the result of verifying and converting a bearer token, so that a client which reuses its access token
+ * only pays for the signature check and the claim conversion once.
+ * <p>
+ * Entries are keyed by the signature part of the JWT and live until the token's "exp" claim, but never longer
+ * than the configured maximum TTL. The full token value is kept with the entry and compared on every hit, so a
+ * forged header or payload carrying a known signature never resolves to a cached authentication.
+ * <p>
+ * Hits, misses, evictions and the size of the cache are published as the "cache.*" meters of the cache "token-cache".
+ */
+public class CachingTokenStore extends DelegatingTokenStore implements MeterBinder {
+    public static final String CACHE_NAME = "token-cache";
+
+    private final Cache<String, Entry> cache;
+
+    public CachingTokenStore(final TokenStore delegate, final long maximumSize, final long maxTtlSeconds) {
+        this(delegate, maximumSize, maxTtlSeconds, Ticker.systemTicker());
+    }
+
+    CachingTokenStore(final TokenStore delegate, final long maximumSize, final long maxTtlSeconds, final Ticker ticker) {
+        super(delegate);
+        this.cache = Caffeine.newBuilder()
+                             .maximumSize(maximumSize)
+                             .expireAfter(new TokenExpiry(TimeUnit.SECONDS.toNanos(maxTtlSeconds)))
+                             .ticker(ticker)
+                             .recordStats()
+                             .build();
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(final String tokenValue) {
+        final Entry cached = lookup(tokenValue);
+        if (cached != null) {
+            return cached.accessToken;
+        }
+
+        final OAuth2AccessToken accessToken = delegate.readAccessToken(tokenValue);
+        if (accessToken == null || accessToken.isExpired()) {
+            return accessToken;
+        }
+
+        final OAuth2Authentication authentication = delegate.readAuthentication(accessToken);
+        if (authentication != null) {
+            cache.put(signatureOf(tokenValue), new Entry(tokenValue, accessToken, authentication));
+        }
+        return accessToken;
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(final OAuth2AccessToken token) {
+        return readAuthentication(token.getValue());
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(final String tokenValue) {
+        final Entry cached = lookup(tokenValue);
+        return cached != null ? cached.authentication : delegate.readAuthentication(tokenValue);
+    }
+
+    @Override
+    public void removeAccessToken(final OAuth2AccessToken token) {
+        cache.invalidate(signatureOf(token.getValue()));
+        delegate.removeAccessToken(token);
+    }
+
+    /**
+     * @return hit, miss and eviction counters of the verified token cache
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, CACHE_NAME);
+    }
+
+    private Entry lookup(final String tokenValue) {
+        final Entry entry = cache.getIfPresent(signatureOf(tokenValue));
+        return entry != null && entry.tokenValue.equals(tokenValue) ? entry : null;
+    }
+
+    private static String signatureOf(final String tokenValue) {
+        final int lastDot = tokenValue.lastIndexOf('.');
+        return lastDot >= 0 ? tokenValue.substring(lastDot + 1) : tokenValue;
+    }
+
+    private static final class Entry {
+        private final String tokenValue;
+        private final OAuth2AccessToken accessToken;
+        private final OAuth2Authentication authentication;
+
+        private Entry(final String tokenValue, final OAuth2AccessToken accessToken, final OAuth2Authentication authentication) {
+            this.tokenValue = tokenValue;
+            this.accessToken = accessToken;
+            this.authentication = authentication;
+        }
+    }
+
+    /**
+     * Lets every entry expire together with its token, capped by the maximum TTL.
+     */
+    private static final class TokenExpiry implements Expiry<String, Entry> {
+        private final long maxTtlNanos;
+
+        private TokenExpiry(final long maxTtlNanos) {
+            this.maxTtlNanos = maxTtlNanos;
+        }
+
+        @Override
+        public long expireAfterCreate(final String key, final Entry entry, final long currentTime) {
+            final Date expiration = entry.accessToken.getExpiration();
+            if (expiration == null) {
+                return maxTtlNanos;
+            }
+            final long remaining = TimeUnit.MILLISECONDS.toNanos(expiration.getTime() - System.currentTimeMillis());
+            return Math.max(0, Math.min(remaining, maxTtlNanos));
+        }
+
+        @Override
+        public long expireAfterUpdate(final String key, final Entry entry, final long currentTime, final long currentDuration) {
+            return expireAfterCreate(key, entry, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(final String key, final Entry entry, final long currentTime, final long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
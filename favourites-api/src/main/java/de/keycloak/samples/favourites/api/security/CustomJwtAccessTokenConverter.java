@@ -1,37 +1,66 @@
 package de.keycloak.samples.favourites.api.security;
 
+import de.keycloak.samples.favourites.api.metrics.AuthPipelineMetrics;
+import de.keycloak.samples.favourites.api.metrics.AuthPipelineMetrics.Stage;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
 import org.springframework.boot.autoconfigure.security.oauth2.resource.JwtAccessTokenConverterConfigurer;
 import org.springframework.boot.autoconfigure.security.oauth2.resource.ResourceServerProperties;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.provider.OAuth2Authentication;
 import org.springframework.security.oauth2.provider.OAuth2Request;
 import org.springframework.security.oauth2.provider.token.DefaultAccessTokenConverter;
 import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
-import org.springframework.util.CollectionUtils;
 
 public class CustomJwtAccessTokenConverter extends DefaultAccessTokenConverter implements JwtAccessTokenConverterConfigurer {
 
-    private static final String CLIENT_ACCESS_ROLES = "resource_access";
-    private static final String REALM_ACCESS_ROLES = "realm_access";
-    private static final String ROLE_ELEMENT_IN_JWT = "roles";
-    private static final String ROLE_PREFIX = "ROLE_";
     private static final String USER_NAME_ATTRIBUTE = "preferred_username";
+    private static final String ADMIN_AUTHORITY = "ROLE_ADMIN";
+    private static final char REALM_SEPARATOR = ':';
 
-    private final ResourceServerProperties resourceServerProperties;
+    private final KeycloakAuthoritiesExtractor authoritiesExtractor;
+    private AuthPipelineMetrics metrics = AuthPipelineMetrics.noop();
+    private AuthorityBits authorityBits = new AuthorityBits();
+    private String realm;
+    private boolean defaultRealm;
 
     public CustomJwtAccessTokenConverter(final ResourceServerProperties resourceServerProperties) {
-        this.resourceServerProperties = resourceServerProperties;
+        this(resourceServerProperties.getResourceId());
+    }
+
+    /**
+     * @param resourceId client id of this resource server in the realm, its client roles are mapped
+     */
+    public CustomJwtAccessTokenConverter(final String resourceId) {
+        this.authoritiesExtractor = new KeycloakAuthoritiesExtractor(resourceId);
+    }
+
+    public void setMetrics(final AuthPipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param authorityBits bits of the authorities the endpoints require, see {@link AuthorizationInterceptor}
+     */
+    public void setAuthorityBits(final AuthorityBits authorityBits) {
+        this.authorityBits = authorityBits;
+    }
+
+    /**
+     * Qualifies the user names with the realm, for when the tokens of several realms are accepted, see
+     * {@link #userNameOf}. The admin role of a realm besides the default realm is not mapped, as the admin endpoints
+     * cover the favourites of the users of all realms.
+     *
+     * @param realm name of the realm whose tokens are converted
+     * @param defaultRealm whether it's the default realm, whose users keep their plain names
+     */
+    public void setRealm(final String realm, final boolean defaultRealm) {
+        this.realm = realm;
+        this.defaultRealm = defaultRealm;
     }
 
     @Override
@@ -47,6 +76,18 @@ public class CustomJwtAccessTokenConverter extends DefaultAccessTokenConverter i
      */
     @Override
     public OAuth2Authentication extractAuthentication(Map<String, ?> tokenMap) {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try {
+            final OAuth2Authentication authentication = toAuthentication(tokenMap);
+            success = true;
+            return authentication;
+        } finally {
+            metrics.record(Stage.ROLE_MAPPING, System.nanoTime() - start, success);
+        }
+    }
+
+    private OAuth2Authentication toAuthentication(final Map<String, ?> tokenMap) {
         final OAuth2Authentication authentication = super.extractAuthentication(tokenMap);
         final OAuth2Request oAuth2Request = authentication.getOAuth2Request();
 
@@ -73,11 +114,9 @@ public class CustomJwtAccessTokenConverter extends DefaultAccessTokenConverter i
          * The audiences is empty for now as we don't have configured keycloak to set the clientId
          * of this application to the "aud" claim.
          */
-        final Set<String> audiences = new HashSet<>();
+        final Set<String> audiences = Collections.emptySet();
 
-        final List<GrantedAuthority> authorities = new ArrayList<>();
-        authorities.addAll(extractClientRoles(tokenMap, resourceServerProperties.getResourceId()));
-        authorities.addAll(extractRealmRoles(tokenMap));
+        final List<GrantedAuthority> authorities = extractAuthorities(tokenMap);
 
         final OAuth2Request request = new OAuth2Request(oAuth2Request.getRequestParameters(),
                                                         oAuth2Request.getClientId(),
@@ -91,58 +130,44 @@ public class CustomJwtAccessTokenConverter extends DefaultAccessTokenConverter i
 
 
 
-        final Authentication usernamePasswordAuthentication = new UsernamePasswordAuthenticationToken(tokenMap.get(USER_NAME_ATTRIBUTE), "N/A", authorities);
-        return new OAuth2Authentication(request, usernamePasswordAuthentication);
+        // the bits are cached with the authentication, so that authorizing a request doesn't look at the authorities
+        final Authentication userAuthentication = new AuthorityBitsAuthenticationToken(userNameOf(tokenMap),
+                                                                                       authorities,
+                                                                                       authorityBits.bitsOf(authorities));
+        return new OAuth2Authentication(request, userAuthentication);
     }
 
     /**
-     * Extracts the client specific roles which exists for the specified resourceId.
-     * Keycloak puts the roles for clients into the token like this:
+     * Extracts the client specific roles of this resource server and the realm roles from the given token.
      *
-     * <code>
-     * "resource_access": {
-     *      "favourites-api": { "roles": [ "USER" ] },
-     *      "account": { "roles": [ "manage-account", "manage-account-links", "view-profile" ]
-     *      }
-     *  }
-     * </code>
-     *
-     * @param tokenMap   token
-     * @param resourceId the resource ID to get the roles for
-     * @return list of roles
+     * @param tokenMap token
+     * @return immutable list of the authorities, client roles first
      */
-    private List<GrantedAuthority> extractClientRoles(Map<String, ?> tokenMap, final String resourceId) {
-        return Optional.ofNullable((Map<String, Object>) tokenMap.get(CLIENT_ACCESS_ROLES))
-                       .map(resourceAccess -> (Map<String, Map<String, Object>>) resourceAccess.get(resourceId))
-                       .map(cr -> (List<String>) cr.get(ROLE_ELEMENT_IN_JWT))
-                       .map(roles -> createGrantedAuthorities(roles))
-                       .orElse(Collections.emptyList());
+    public List<GrantedAuthority> extractAuthorities(final Map<String, ?> tokenMap) {
+        final List<GrantedAuthority> authorities = authoritiesExtractor.extractAuthorities(tokenMap);
+        if (realm == null || defaultRealm) {
+            return authorities;
+        }
+        final List<GrantedAuthority> withoutAdmin = new ArrayList<>(authorities.size());
+        for (GrantedAuthority authority : authorities) {
+            if (!ADMIN_AUTHORITY.equals(authority.getAuthority())) {
+                withoutAdmin.add(authority);
+            }
+        }
+        return Collections.unmodifiableList(withoutAdmin);
     }
 
     /**
-     * Extracts the realm specific roles from the given token.
-     * Keycloak puts the realm roles into the token like this:
-     * <code>
-     * "realm_access": {
-     *      "roles": [ "offline_access", "uma_authorization" ]
- *      }
-     * </code>
-     *
-     * @param tokenMap token
-     * @return realm specific roles
+     * The users of the default realm keep their plain names, so that the favourites stored before other realms were
+     * accepted stay theirs. The users of the other realms are named {@code <realm>:<username>}, and so are the users
+     * of the default realm whose name contains a ':'. Realm names contain no ':', so a user can't get the name of a
+     * user of another realm.
      */
-    private List<GrantedAuthority> extractRealmRoles(Map<String, ?> tokenMap) {
-        return Optional.ofNullable((Map<String, Object>) tokenMap.get(REALM_ACCESS_ROLES))
-                       .map(cr -> (List<String>) cr.get(ROLE_ELEMENT_IN_JWT))
-                       .map(roles -> createGrantedAuthorities(roles))
-                       .orElse(Collections.emptyList());
-    }
-
-    private List<GrantedAuthority> createGrantedAuthorities(final List<String> roles) {
-        if (CollectionUtils.isEmpty(roles)) {
-            return Collections.emptyList();
+    private Object userNameOf(final Map<String, ?> tokenMap) {
+        final Object userName = tokenMap.get(USER_NAME_ATTRIBUTE);
+        if (realm == null || userName == null || defaultRealm && userName.toString().indexOf(REALM_SEPARATOR) < 0) {
+            return userName;
         }
-
-        return roles.stream().map(r -> new SimpleGrantedAuthority(ROLE_PREFIX + r)).collect(Collectors.toList());
+        return realm + REALM_SEPARATOR + userName;
     }
 }
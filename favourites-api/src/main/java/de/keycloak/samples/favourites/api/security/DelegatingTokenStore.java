@@ -0,0 +1,84 @@
+package de.keycloak.samples.favourites.api.security;
+
+import java.util.Collection;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2RefreshToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+/**
+ * Passes every call to the delegate, base class for token stores which only decorate the reading of access tokens.
+ */
+public abstract class DelegatingTokenStore implements TokenStore {
+
+    protected final TokenStore delegate;
+
+    protected DelegatingTokenStore(final TokenStore delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(final String tokenValue) {
+        return delegate.readAccessToken(tokenValue);
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(final OAuth2AccessToken token) {
+        return delegate.readAuthentication(token);
+    }
+
+    @Override
+    public OAuth2Authentication readAuthentication(final String tokenValue) {
+        return delegate.readAuthentication(tokenValue);
+    }
+
+    @Override
+    public void removeAccessToken(final OAuth2AccessToken token) {
+        delegate.removeAccessToken(token);
+    }
+
+    @Override
+    public void storeAccessToken(final OAuth2AccessToken token, final OAuth2Authentication authentication) {
+        delegate.storeAccessToken(token, authentication);
+    }
+
+    @Override
+    public void storeRefreshToken(final OAuth2RefreshToken refreshToken, final OAuth2Authentication authentication) {
+        delegate.storeRefreshToken(refreshToken, authentication);
+    }
+
+    @Override
+    public OAuth2RefreshToken readRefreshToken(final String tokenValue) {
+        return delegate.readRefreshToken(tokenValue);
+    }
+
+    @Override
+    public OAuth2Authentication readAuthenticationForRefreshToken(final OAuth2RefreshToken token) {
+        return delegate.readAuthenticationForRefreshToken(token);
+    }
+
+    @Override
+    public void removeRefreshToken(final OAuth2RefreshToken token) {
+        delegate.removeRefreshToken(token);
+    }
+
+    @Override
+    public void removeAccessTokenUsingRefreshToken(final OAuth2RefreshToken refreshToken) {
+        delegate.removeAccessTokenUsingRefreshToken(refreshToken);
+    }
+
+    @Override
+    public OAuth2AccessToken getAccessToken(final OAuth2Authentication authentication) {
+        return delegate.getAccessToken(authentication);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientIdAndUserName(final String clientId, final String userName) {
+        return delegate.findTokensByClientIdAndUserName(clientId, userName);
+    }
+
+    @Override
+    public Collection<OAuth2AccessToken> findTokensByClientId(final String clientId) {
+        return delegate.findTokensByClientId(clientId);
+    }
+}
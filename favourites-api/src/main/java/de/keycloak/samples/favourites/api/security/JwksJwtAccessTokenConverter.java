@@ -0,0 +1,85 @@
+package de.keycloak.samples.favourites.api.security;
+
+import de.keycloak.samples.favourites.api.metrics.AuthPipelineMetrics;
+import de.keycloak.samples.favourites.api.metrics.AuthPipelineMetrics.Stage;
+import java.util.Map;
+import org.springframework.security.jwt.Jwt;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.common.util.JsonParser;
+import org.springframework.security.oauth2.common.util.JsonParserFactory;
+import org.springframework.security.oauth2.provider.token.AccessTokenConverter;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+
+/**
+ * Verifies tokens with the realm key referenced by the "kid" header, looked up in the {@link JwksKeyProvider}.
+ */
+public class JwksJwtAccessTokenConverter extends JwtAccessTokenConverter {
+    private static final String KEY_ID_HEADER = "kid";
+    private static final String ALGORITHM_HEADER = "alg";
+
+    private final JwksKeyProvider keyProvider;
+    private final JsonParser jsonParser = JsonParserFactory.create();
+    private AuthPipelineMetrics metrics = AuthPipelineMetrics.noop();
+
+    public JwksJwtAccessTokenConverter(final JwksKeyProvider keyProvider) {
+        this.keyProvider = keyProvider;
+    }
+
+    public void setMetrics(final AuthPipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Parsing the token and its claims is timed as stage "jwt-parse", finding the key and checking the signature as
+     * stage "signature".
+     */
+    @Override
+    protected Map<String, Object> decode(final String token) {
+        final long start = System.nanoTime();
+        long signatureStart = 0;
+        long signatureNanos = 0;
+        Stage stage = Stage.JWT_PARSE;
+        try {
+            final Map<String, String> headers = JwtHelper.headers(token);
+            final Jwt jwt = JwtHelper.decode(token);
+            // parsed before the signature is checked, the issuer selects the keys
+            final Map<String, Object> claims = jsonParser.parseMap(jwt.getClaims());
+
+            stage = Stage.SIGNATURE;
+            signatureStart = System.nanoTime();
+            jwt.verifySignature(getVerifier(headers.get(KEY_ID_HEADER), headers.get(ALGORITHM_HEADER), claims));
+            signatureNanos = System.nanoTime() - signatureStart;
+            metrics.record(Stage.SIGNATURE, signatureNanos, true);
+
+            stage = Stage.JWT_PARSE;
+            final Object exp = claims.get(AccessTokenConverter.EXP);
+            if (exp instanceof Integer) {
+                claims.put(AccessTokenConverter.EXP, ((Integer) exp).longValue());
+            }
+            getJwtClaimsSetVerifier().verify(claims);
+            metrics.record(Stage.JWT_PARSE, System.nanoTime() - start - signatureNanos, true);
+            return claims;
+        } catch (InvalidTokenException e) {
+            recordFailure(stage, stage == Stage.SIGNATURE ? signatureStart : start, signatureNanos);
+            throw e;
+        } catch (Exception e) {
+            recordFailure(stage, stage == Stage.SIGNATURE ? signatureStart : start, signatureNanos);
+            throw new InvalidTokenException("Cannot convert access token to JSON", e);
+        }
+    }
+
+    /**
+     * @param claims the claims of the token, whose signature is not verified yet
+     * @return verifier of the key the token was signed with
+     * @throws InvalidTokenException if there is no such key
+     */
+    protected SignatureVerifier getVerifier(final String kid, final String alg, final Map<String, Object> claims) {
+        return keyProvider.getVerifier(kid, alg);
+    }
+
+    private void recordFailure(final Stage stage, final long stageStart, final long signatureNanos) {
+        metrics.record(stage, System.nanoTime() - stageStart - signatureNanos, false);
+    }
+}
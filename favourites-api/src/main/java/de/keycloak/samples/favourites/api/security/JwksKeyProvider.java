@@ -0,0 +1,396 @@
+package de.keycloak.samples.favourites.api.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.KeyFactory;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import org.jboss.logging.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.security.jwt.crypto.sign.RsaVerifier;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Keeps the signing keys of the keycloak realm (JWKS) in memory, so that verifying a token never waits for the
+ * certs endpoint on the request path.
+ * <p>
+ * The key set is fetched as soon as the bean is initialized, unless {@link #setFetchOnStartup(boolean) disabled}, and
+ * refreshed periodically in the background. A token with an unknown "kid" (e.g. right after a key rotation) triggers
+ * a single re-fetch which all concurrent requests share. Re-fetches caused by unknown kids are rate limited with an
+ * exponential backoff, so that tokens with made-up kids can't be used to flood keycloak. When keycloak is not
+ * reachable the last known keys stay in use.
+ * <p>
+ * Publishes the number of known keys, the fetches by trigger and outcome and the tokens with unknown kids.
+ * <p>
+ * The key providers of many realms can share one scheduler for their fetches, see {@link RealmRegistry}.
+ */
+public class JwksKeyProvider implements InitializingBean, DisposableBean, MeterBinder {
+    public static final String FETCH_COUNTER = "favourites.jwks.fetches";
+    public static final String KID_MISS_COUNTER = "favourites.jwks.kid.misses";
+    public static final String KEYS_GAUGE = "favourites.jwks.keys";
+
+    private static final Logger LOG = Logger.getLogger(JwksKeyProvider.class);
+
+    private static final Map<String, String> ALGORITHMS;
+
+    static {
+        final Map<String, String> algorithms = new HashMap<>();
+        algorithms.put("RS256", "SHA256withRSA");
+        algorithms.put("RS384", "SHA384withRSA");
+        algorithms.put("RS512", "SHA512withRSA");
+        ALGORITHMS = Collections.unmodifiableMap(algorithms);
+    }
+
+    private final URI keySetUri;
+    private final RestTemplate restTemplate;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final long refreshIntervalMillis;
+    private final long minRefreshIntervalNanos;
+    private final long maxBackoffNanos;
+    private final long fetchTimeoutMillis;
+    private final ScheduledExecutorService executor;
+    private final boolean ownsExecutor;
+    private volatile ScheduledFuture<?> scheduledRefresh;
+    private boolean fetchOnStartup = true;
+
+    private final AtomicReference<CompletableFuture<Map<String, JwkKey>>> inFlight = new AtomicReference<>();
+    private volatile Map<String, JwkKey> keys = Collections.emptyMap();
+    private final AtomicReference<KidMissRefresh> lastKidMissRefresh = new AtomicReference<>();
+    private volatile int consecutiveFailures;
+
+    private final Map<Trigger, LongAdder> successfulFetches = new EnumMap<>(Trigger.class);
+    private final Map<Trigger, LongAdder> failedFetches = new EnumMap<>(Trigger.class);
+    private final LongAdder kidMisses = new LongAdder();
+
+    public JwksKeyProvider(final String keySetUri,
+                           final long refreshIntervalMillis,
+                           final long minRefreshIntervalMillis,
+                           final long maxBackoffMillis,
+                           final int connectTimeoutMillis,
+                           final int readTimeoutMillis) {
+        this(keySetUri, refreshIntervalMillis, minRefreshIntervalMillis, maxBackoffMillis, connectTimeoutMillis, readTimeoutMillis,
+             newScheduler(), true);
+    }
+
+    /**
+     * @param executor runs the fetches, it's not shut down by {@link #destroy()}
+     */
+    public JwksKeyProvider(final String keySetUri,
+                           final long refreshIntervalMillis,
+                           final long minRefreshIntervalMillis,
+                           final long maxBackoffMillis,
+                           final int connectTimeoutMillis,
+                           final int readTimeoutMillis,
+                           final ScheduledExecutorService executor) {
+        this(keySetUri, refreshIntervalMillis, minRefreshIntervalMillis, maxBackoffMillis, connectTimeoutMillis, readTimeoutMillis,
+             executor, false);
+    }
+
+    private JwksKeyProvider(final String keySetUri,
+                            final long refreshIntervalMillis,
+                            final long minRefreshIntervalMillis,
+                            final long maxBackoffMillis,
+                            final int connectTimeoutMillis,
+                            final int readTimeoutMillis,
+                            final ScheduledExecutorService executor,
+                            final boolean ownsExecutor) {
+        this.keySetUri = URI.create(keySetUri);
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        this.minRefreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minRefreshIntervalMillis);
+        this.maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(maxBackoffMillis);
+        this.fetchTimeoutMillis = (long) connectTimeoutMillis + readTimeoutMillis;
+
+        final SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeoutMillis);
+        requestFactory.setReadTimeout(readTimeoutMillis);
+        this.restTemplate = new RestTemplate(requestFactory);
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+
+        for (final Trigger trigger : Trigger.values()) {
+            successfulFetches.put(trigger, new LongAdder());
+            failedFetches.put(trigger, new LongAdder());
+        }
+    }
+
+    /**
+     * @param threads fetches which can run at the same time
+     * @return scheduler for the key providers of several realms
+     */
+    public static ScheduledExecutorService newScheduler(final int threads) {
+        final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "jwks-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the refreshes of evicted realms are cancelled, they shouldn't stay in the queue until they are due
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    private static ScheduledExecutorService newScheduler() {
+        return newScheduler(1);
+    }
+
+    /**
+     * @param fetchOnStartup {@code false} to start without calling keycloak, the first token then waits for the keys
+     *                       like after a key rotation
+     */
+    public void setFetchOnStartup(final boolean fetchOnStartup) {
+        this.fetchOnStartup = fetchOnStartup;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (fetchOnStartup) {
+            refreshKeys(Trigger.STARTUP);
+        }
+        scheduledRefresh = executor.scheduleWithFixedDelay(() -> refreshKeys(Trigger.SCHEDULED), refreshIntervalMillis, refreshIntervalMillis,
+                                                           TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        Gauge.builder(KEYS_GAUGE, this, keyProvider -> keyProvider.keys.size())
+             .description("Signing keys of the realm which are known")
+             .register(registry);
+        for (final Trigger trigger : Trigger.values()) {
+            bindFetchCounter(registry, trigger, "success", successfulFetches.get(trigger));
+            bindFetchCounter(registry, trigger, "failure", failedFetches.get(trigger));
+        }
+        FunctionCounter.builder(KID_MISS_COUNTER, kidMisses, LongAdder::sum)
+                       .description("Tokens signed with a key id which was not known")
+                       .register(registry);
+    }
+
+    @Override
+    public void destroy() {
+        final ScheduledFuture<?> refresh = scheduledRefresh;
+        if (refresh != null) {
+            refresh.cancel(false);
+        }
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the verifier for the key the token was signed with.
+     *
+     * @param kid the "kid" header of the token
+     * @param alg the "alg" header of the token
+     * @return verifier for the signature of the token
+     * @throws InvalidTokenException if there is no such key or the key does not belong to the given algorithm
+     */
+    public SignatureVerifier getVerifier(final String kid, final String alg) {
+        JwkKey key = find(kid);
+        if (key == null) {
+            kidMisses.increment();
+            key = find(kid, awaitKidMissRefresh());
+        }
+        if (key == null) {
+            throw new InvalidTokenException("No signing key found for kid: " + kid);
+        }
+        if (key.algorithm != null && !key.algorithm.equals(alg)) {
+            throw new InvalidTokenException("Token algorithm " + alg + " does not match the signing key algorithm " + key.algorithm);
+        }
+        return key.verifier;
+    }
+
+    /**
+     * @return ids of the keys which are currently known
+     */
+    public Iterable<String> getKeyIds() {
+        return keys.keySet();
+    }
+
+    /**
+     * Waits for the fetch which is in flight if no keys are known yet, e.g. the fetch started by
+     * {@link #afterPropertiesSet()}. Doesn't start a fetch.
+     *
+     * @return whether keys are known
+     */
+    public boolean awaitKeys() {
+        final CompletableFuture<Map<String, JwkKey>> fetch = inFlight.get();
+        if (keys.isEmpty() && fetch != null) {
+            try {
+                fetch.get(fetchTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                // logged by the fetch
+            }
+        }
+        return !keys.isEmpty();
+    }
+
+    /**
+     * Fetches the key set in the background. Concurrent calls share the same fetch.
+     *
+     * @return completes when the fetch is done
+     */
+    public CompletableFuture<?> refresh() {
+        return refreshKeys(Trigger.MANUAL);
+    }
+
+    private CompletableFuture<Map<String, JwkKey>> refreshKeys(final Trigger trigger) {
+        final CompletableFuture<Map<String, JwkKey>> fetch = new CompletableFuture<>();
+        while (true) {
+            final CompletableFuture<Map<String, JwkKey>> existing = inFlight.get();
+            if (existing != null) {
+                return existing;
+            }
+            if (inFlight.compareAndSet(null, fetch)) {
+                break;
+            }
+        }
+
+        try {
+            executor.execute(() -> fetch(fetch, trigger));
+        } catch (RuntimeException e) {
+            inFlight.set(null);
+            fetch.completeExceptionally(e);
+        }
+        return fetch;
+    }
+
+    private void fetch(final CompletableFuture<Map<String, JwkKey>> fetch, final Trigger trigger) {
+        try {
+            final Map<String, JwkKey> fetched = parse(restTemplate.getForObject(keySetUri, String.class));
+            keys = fetched;
+            consecutiveFailures = 0;
+            successfulFetches.get(trigger).increment();
+            inFlight.set(null);
+            fetch.complete(fetched);
+        } catch (Exception e) {
+            consecutiveFailures++;
+            failedFetches.get(trigger).increment();
+            LOG.warn("Could not fetch signing keys from " + keySetUri + ", keeping the " + keys.size() + " known keys", e);
+            inFlight.set(null);
+            fetch.completeExceptionally(e);
+        }
+    }
+
+    private Map<String, JwkKey> awaitKidMissRefresh() {
+        KidMissRefresh refresh;
+        while (true) {
+            final KidMissRefresh last = lastKidMissRefresh.get();
+            final long now = System.nanoTime();
+            if (last != null && now - last.notBeforeNanos < 0) {
+                // refreshed recently: share that fetch, or get the keys it fetched
+                refresh = last;
+                break;
+            }
+            final KidMissRefresh next = new KidMissRefresh(now + backoffNanos());
+            if (lastKidMissRefresh.compareAndSet(last, next)) {
+                refreshKeys(Trigger.KID_MISS).whenComplete((fetched, failure) -> next.fetch.complete(keys));
+                refresh = next;
+                break;
+            }
+        }
+
+        try {
+            return refresh.fetch.get(fetchTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return keys;
+        } catch (Exception e) {
+            return keys;
+        }
+    }
+
+    private long backoffNanos() {
+        final int exponent = Math.min(consecutiveFailures, 16);
+        return Math.min(minRefreshIntervalNanos << exponent, maxBackoffNanos);
+    }
+
+    private JwkKey find(final String kid) {
+        return find(kid, keys);
+    }
+
+    private static JwkKey find(final String kid, final Map<String, JwkKey> keys) {
+        if (kid == null) {
+            return keys.size() == 1 ? keys.values().iterator().next() : null;
+        }
+        return keys.get(kid);
+    }
+
+    private Map<String, JwkKey> parse(final String keySet) throws Exception {
+        final Map<String, JwkKey> parsed = new HashMap<>();
+        for (final JsonNode key : objectMapper.readTree(keySet).path("keys")) {
+            final String use = key.path("use").asText("sig");
+            if (!"RSA".equals(key.path("kty").asText()) || !"sig".equals(use)) {
+                continue;
+            }
+
+            final String algorithm = key.hasNonNull("alg") ? key.get("alg").asText() : null;
+            final String jcaAlgorithm = algorithm != null ? ALGORITHMS.get(algorithm) : ALGORITHMS.get("RS256");
+            if (jcaAlgorithm == null) {
+                continue;
+            }
+
+            final BigInteger modulus = new BigInteger(1, Base64.getUrlDecoder().decode(key.path("n").asText()));
+            final BigInteger exponent = new BigInteger(1, Base64.getUrlDecoder().decode(key.path("e").asText()));
+            final RSAPublicKey publicKey = (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(modulus, exponent));
+            parsed.put(key.path("kid").asText(null), new JwkKey(algorithm, new RsaVerifier(publicKey, jcaAlgorithm)));
+        }
+        return Collections.unmodifiableMap(parsed);
+    }
+
+    private static void bindFetchCounter(final MeterRegistry registry, final Trigger trigger, final String outcome, final LongAdder fetches) {
+        FunctionCounter.builder(FETCH_COUNTER, fetches, LongAdder::sum)
+                       .description("Fetches of the signing keys of the realm")
+                       .tag("trigger", trigger.name().toLowerCase(Locale.ROOT).replace('_', '-'))
+                       .tag("outcome", outcome)
+                       .register(registry);
+    }
+
+    /**
+     * Why the key set is fetched.
+     */
+    private enum Trigger {
+        STARTUP, SCHEDULED, KID_MISS, MANUAL
+    }
+
+    private static final class KidMissRefresh {
+        private final long notBeforeNanos;
+        private final CompletableFuture<Map<String, JwkKey>> fetch = new CompletableFuture<>();
+
+        private KidMissRefresh(final long notBeforeNanos) {
+            this.notBeforeNanos = notBeforeNanos;
+        }
+    }
+
+    private static final class JwkKey {
+        private final String algorithm;
+        private final SignatureVerifier verifier;
+
+        private JwkKey(final String algorithm, final SignatureVerifier verifier) {
+            this.algorithm = algorithm;
+            this.verifier = verifier;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package de.keycloak.samples.favourites.api.security;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+/**
+ * Maps the roles keycloak puts into a token to granted authorities with the "ROLE_" prefix. It only depends on the
+ * claims, so it is shared by the servlet and the reactive resource servers.
+ */
+public class KeycloakAuthoritiesExtractor {
+
+    private static final String CLIENT_ACCESS_ROLES = "resource_access";
+    private static final String REALM_ACCESS_ROLES = "realm_access";
+    private static final String ROLE_ELEMENT_IN_JWT = "roles";
+    private static final String ROLE_PREFIX = "ROLE_";
+    private static final int MAX_CANONICAL_AUTHORITIES = 1024;
+
+    private final String resourceId;
+
+    /**
+     * One authority instance per role name, so that converting a token doesn't allocate an authority and a
+     * "ROLE_" string for every role. Roles beyond the bound are still converted, just not cached.
+     */
+    private final ConcurrentMap<String, GrantedAuthority> canonicalAuthorities = new ConcurrentHashMap<>();
+
+    /**
+     * @param resourceId client id of the resource server, whose client roles are extracted
+     */
+    public KeycloakAuthoritiesExtractor(final String resourceId) {
+        this.resourceId = resourceId;
+    }
+
+    /**
+     * Extracts the client specific roles of this resource server and the realm roles from the given token.
+     *
+     * @param tokenMap token
+     * @return immutable list of the authorities, client roles first
+     */
+    public List<GrantedAuthority> extractAuthorities(final Map<String, ?> tokenMap) {
+        final Collection<?> clientRoles = extractClientRoles(tokenMap, resourceId);
+        final Collection<?> realmRoles = extractRealmRoles(tokenMap);
+
+        final int size = sizeOf(clientRoles) + sizeOf(realmRoles);
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+
+        final GrantedAuthority[] authorities = new GrantedAuthority[size];
+        int count = addGrantedAuthorities(clientRoles, authorities, 0);
+        count = addGrantedAuthorities(realmRoles, authorities, count);
+        return Collections.unmodifiableList(Arrays.asList(count == size ? authorities : Arrays.copyOf(authorities, count)));
+    }
+
+    /**
+     * Extracts the client specific roles which exists for the specified resourceId.
+     * Keycloak puts the roles for clients into the token like this:
+     *
+     * <code>
+     * "resource_access": {
+     *      "favourites-api": { "roles": [ "USER" ] },
+     *      "account": { "roles": [ "manage-account", "manage-account-links", "view-profile" ]
+     *      }
+     *  }
+     * </code>
+     *
+     * @param tokenMap   token
+     * @param resourceId the resource ID to get the roles for
+     * @return roles or null if there are none
+     */
+    private Collection<?> extractClientRoles(final Map<String, ?> tokenMap, final String resourceId) {
+        final Object resourceAccess = tokenMap.get(CLIENT_ACCESS_ROLES);
+        return resourceAccess instanceof Map ? rolesOf(((Map<?, ?>) resourceAccess).get(resourceId)) : null;
+    }
+
+    /**
+     * Extracts the realm specific roles from the given token.
+     * Keycloak puts the realm roles into the token like this:
+     * <code>
+     * "realm_access": {
+     *      "roles": [ "offline_access", "uma_authorization" ]
+     *      }
+     * </code>
+     *
+     * @param tokenMap token
+     * @return realm specific roles or null if there are none
+     */
+    private Collection<?> extractRealmRoles(final Map<String, ?> tokenMap) {
+        return rolesOf(tokenMap.get(REALM_ACCESS_ROLES));
+    }
+
+    private static Collection<?> rolesOf(final Object access) {
+        if (!(access instanceof Map)) {
+            return null;
+        }
+        final Object roles = ((Map<?, ?>) access).get(ROLE_ELEMENT_IN_JWT);
+        return roles instanceof Collection ? (Collection<?>) roles : null;
+    }
+
+    private static int sizeOf(final Collection<?> roles) {
+        return roles == null ? 0 : roles.size();
+    }
+
+    private int addGrantedAuthorities(final Collection<?> roles, final GrantedAuthority[] authorities, final int offset) {
+        if (roles == null) {
+            return offset;
+        }
+
+        int count = offset;
+        if (roles instanceof List && roles instanceof RandomAccess) {
+            final List<?> roleList = (List<?>) roles;
+            for (int i = 0; i < roleList.size(); i++) {
+                count = addGrantedAuthority(roleList.get(i), authorities, count);
+            }
+        } else {
+            for (final Object role : roles) {
+                count = addGrantedAuthority(role, authorities, count);
+            }
+        }
+        return count;
+    }
+
+    private int addGrantedAuthority(final Object role, final GrantedAuthority[] authorities, final int count) {
+        if (!(role instanceof String)) {
+            return count;
+        }
+        authorities[count] = grantedAuthority((String) role);
+        return count + 1;
+    }
+
+    private GrantedAuthority grantedAuthority(final String role) {
+        final GrantedAuthority authority = canonicalAuthorities.get(role);
+        if (authority != null) {
+            return authority;
+        }
+
+        final GrantedAuthority created = new SimpleGrantedAuthority(ROLE_PREFIX + role);
+        if (canonicalAuthorities.size() >= MAX_CANONICAL_AUTHORITIES) {
+            return created;
+        }
+        final GrantedAuthority existing = canonicalAuthorities.putIfAbsent(role, created);
+        return existing != null ? existing : created;
+    }
+}
@@ -0,0 +1,55 @@
+package de.keycloak.samples.favourites.api.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.net.URI;
+import org.jboss.logging.Logger;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Calls the token introspection endpoint of keycloak (RFC 7662), authenticated with the credentials of this
+ * resource server's client.
+ */
+public class KeycloakTokenIntrospector implements TokenIntrospector {
+    private static final Logger LOG = Logger.getLogger(KeycloakTokenIntrospector.class);
+
+    private final URI introspectionUri;
+    private final RestTemplate restTemplate;
+    private final HttpHeaders headers = new HttpHeaders();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public KeycloakTokenIntrospector(final String introspectionUri,
+                                     final String clientId,
+                                     final String clientSecret,
+                                     final int connectTimeoutMillis,
+                                     final int readTimeoutMillis) {
+        this.introspectionUri = URI.create(introspectionUri);
+
+        final SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeoutMillis);
+        requestFactory.setReadTimeout(readTimeoutMillis);
+        this.restTemplate = new RestTemplate(requestFactory);
+
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        headers.setBasicAuth(clientId, clientSecret);
+    }
+
+    @Override
+    public Status introspect(final String tokenValue) {
+        final MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("token", tokenValue);
+        form.add("token_type_hint", "access_token");
+        try {
+            final String response = restTemplate.postForObject(introspectionUri, new HttpEntity<>(form, headers), String.class);
+            return objectMapper.readTree(response).path("active").asBoolean(false) ? Status.ACTIVE : Status.INACTIVE;
+        } catch (Exception e) {
+            LOG.warn("Could not introspect token at " + introspectionUri, e);
+            return Status.UNKNOWN;
+        }
+    }
+}
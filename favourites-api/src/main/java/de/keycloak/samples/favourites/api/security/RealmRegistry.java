@@ -0,0 +1,287 @@
+package de.keycloak.samples.favourites.api.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import org.jboss.logging.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+
+/**
+ * The keycloak realms whose tokens are accepted, each with its signing keys and the conversion of its tokens to an
+ * authentication with the client roles of its resource id. The realm of a token is the last path segment of its
+ * "iss" claim, {@code <keycloak>/realms/<realm>}.
+ * <p>
+ * The default realm is loaded on startup and kept. The other realms are loaded by the first token of the realm and
+ * evicted once they weren't used for the idle time or when there are more than the maximum, so thousands of realms
+ * cost memory and key fetches only while their tokens come in. Looking up the realm of a token is a single hash
+ * lookup, no matter how many realms are loaded.
+ * <p>
+ * With {@link #ANY_REALM} the name of a realm is taken from tokens which are not verified yet, so anybody can make up
+ * realms. A realm whose keys can't be fetched is dropped and its tokens are rejected for a while without asking
+ * keycloak again, and the realms which are not named are loaded at a limited rate.
+ * <p>
+ * Loaded, evicted and looked up realms are published as the "cache.*" meters of the cache "realms".
+ */
+public class RealmRegistry implements MeterBinder, DisposableBean {
+    public static final String CACHE_NAME = "realms";
+    /**
+     * Accepts the tokens of every realm of keycloak.
+     */
+    public static final String ANY_REALM = "*";
+
+    private static final Logger LOG = Logger.getLogger(RealmRegistry.class);
+
+    private static final String REALMS_PATH = "/realms/";
+
+    private final Realm defaultRealm;
+    private final Map<String, String> resourceIds;
+    private final boolean anyRealm;
+    private final Function<String, Realm> loader;
+    private final Cache<String, Realm> realms;
+    private final Cache<String, Boolean> unknownRealms;
+    private final LoadLimiter loadLimiter;
+
+    /**
+     * @param defaultRealm realm which is always loaded, also used for tokens without issuer
+     * @param accepted names of the accepted realms with their resource id, or {@link #ANY_REALM} with the resource id
+     *                 of realms which are not named
+     * @param loader creates the key provider and converter of a realm, called with the name and the resource id
+     * @param unknownSeconds time for which the tokens of a realm whose keys could not be fetched are rejected
+     * @param loadsPerSecond realms which are not named in {@code accepted} and can be loaded per second
+     */
+    public RealmRegistry(final Realm defaultRealm,
+                         final Map<String, String> accepted,
+                         final RealmLoader loader,
+                         final long maximumSize,
+                         final long idleSeconds,
+                         final long unknownSeconds,
+                         final int loadsPerSecond) {
+        this(defaultRealm, accepted, loader, maximumSize, idleSeconds, unknownSeconds, loadsPerSecond, Ticker.systemTicker());
+    }
+
+    RealmRegistry(final Realm defaultRealm,
+                  final Map<String, String> accepted,
+                  final RealmLoader loader,
+                  final long maximumSize,
+                  final long idleSeconds,
+                  final long unknownSeconds,
+                  final int loadsPerSecond,
+                  final Ticker ticker) {
+        this.defaultRealm = defaultRealm;
+        this.resourceIds = Collections.unmodifiableMap(new HashMap<>(accepted));
+        this.anyRealm = accepted.containsKey(ANY_REALM);
+        this.loader = name -> {
+            final Realm realm = loader.load(name, resourceIdOf(name));
+            LOG.info("Loaded realm " + name);
+            return realm;
+        };
+        this.realms = Caffeine.newBuilder()
+                              .maximumSize(maximumSize)
+                              .expireAfterAccess(idleSeconds, TimeUnit.SECONDS)
+                              .ticker(ticker)
+                              // only cancels the key refresh of the realm
+                              .executor(Runnable::run)
+                              .removalListener((String name, Realm realm, RemovalCause cause) -> {
+                                  if (realm != null) {
+                                      LOG.info("Evicted realm " + name + " (" + cause + ")");
+                                      realm.getKeyProvider().destroy();
+                                  }
+                              })
+                              .recordStats()
+                              .build();
+        this.unknownRealms = Caffeine.newBuilder()
+                                     .maximumSize(maximumSize)
+                                     .expireAfterWrite(unknownSeconds, TimeUnit.SECONDS)
+                                     .ticker(ticker)
+                                     .build();
+        this.loadLimiter = new LoadLimiter(loadsPerSecond, ticker);
+    }
+
+    /**
+     * @param issuer the "iss" claim of a token
+     * @return the realm which issued the token, loaded if it wasn't
+     * @throws InvalidTokenException if the tokens of the realm are not accepted
+     */
+    public Realm resolve(final Object issuer) {
+        if (issuer == null) {
+            return defaultRealm;
+        }
+        final String name = realmOf(issuer.toString());
+        if (name.equals(defaultRealm.getName())) {
+            return defaultRealm;
+        }
+        final Realm loaded = realms.getIfPresent(name);
+        if (loaded != null) {
+            return loaded;
+        }
+        if (!isAccepted(name)) {
+            throw new InvalidTokenException("Tokens of the realm " + name + " are not accepted");
+        }
+        if (unknownRealms.getIfPresent(name) != null) {
+            throw new InvalidTokenException("The keys of the realm " + name + " could not be fetched");
+        }
+        if (!resourceIds.containsKey(name) && !loadLimiter.tryAcquire()) {
+            throw new InvalidTokenException("Too many realms are loaded at once, the realm " + name + " is not loaded yet");
+        }
+
+        final Realm realm = realms.get(name, loader);
+        // the tokens of the realm which come in meanwhile wait for the same fetch
+        if (!realm.getKeyProvider().awaitKeys()) {
+            unknownRealms.put(name, Boolean.TRUE);
+            realms.asMap().remove(name, realm);
+            throw new InvalidTokenException("The keys of the realm " + name + " could not be fetched");
+        }
+        return realm;
+    }
+
+    /**
+     * @param issuer the "iss" claim of a verified token
+     * @return whether the token was issued by the default realm
+     */
+    public boolean isDefaultRealm(final Object issuer) {
+        return issuer == null || realmOf(issuer.toString()).equals(defaultRealm.getName());
+    }
+
+    public Realm getDefaultRealm() {
+        return defaultRealm;
+    }
+
+    /**
+     * @return number of loaded realms besides the default realm
+     */
+    public long getLoadedRealms() {
+        realms.cleanUp();
+        return realms.estimatedSize();
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, realms, CACHE_NAME);
+    }
+
+    @Override
+    public void destroy() {
+        realms.invalidateAll();
+        realms.cleanUp();
+    }
+
+    private boolean isAccepted(final String name) {
+        return (anyRealm || resourceIds.containsKey(name)) && isValidName(name);
+    }
+
+    private String resourceIdOf(final String name) {
+        final String resourceId = resourceIds.get(name);
+        return resourceId != null ? resourceId : resourceIds.get(ANY_REALM);
+    }
+
+    private static String realmOf(final String issuer) {
+        final int start = issuer.lastIndexOf(REALMS_PATH);
+        if (start < 0) {
+            throw new InvalidTokenException("The issuer " + issuer + " is not a realm of keycloak");
+        }
+        return issuer.substring(start + REALMS_PATH.length());
+    }
+
+    /**
+     * The name becomes part of the URL of the keys, with {@link #ANY_REALM} it's taken from tokens which are not
+     * verified yet.
+     */
+    private static boolean isValidName(final String name) {
+        if (name.isEmpty() || name.equals(".") || name.equals("..")) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '_' || c == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates the key provider and the converter of a realm when its first token comes in.
+     */
+    @FunctionalInterface
+    public interface RealmLoader {
+
+        /**
+         * @param name name of the realm
+         * @param resourceId client id of this resource server in the realm
+         * @return the realm, its key provider fetching the keys already
+         */
+        Realm load(String name, String resourceId);
+    }
+
+    /**
+     * Permits up to the given number of loads per second, and as many at once.
+     */
+    private static final class LoadLimiter {
+        // no monitor, tryAcquire runs on the request threads, which may be virtual
+        private final ReentrantLock lock = new ReentrantLock();
+        private final long nanosPerLoad;
+        private final long burstNanos;
+        private final Ticker ticker;
+        private long nextFreeNanos;
+
+        private LoadLimiter(final int loadsPerSecond, final Ticker ticker) {
+            this.nanosPerLoad = TimeUnit.SECONDS.toNanos(1) / Math.max(loadsPerSecond, 1);
+            this.burstNanos = TimeUnit.SECONDS.toNanos(1) - nanosPerLoad;
+            this.ticker = ticker;
+            this.nextFreeNanos = ticker.read();
+        }
+
+        boolean tryAcquire() {
+            lock.lock();
+            try {
+                final long now = ticker.read();
+                final long next = now - nextFreeNanos > 0 ? now : nextFreeNanos;
+                if (next - now > burstNanos) {
+                    return false;
+                }
+                nextFreeNanos = next + nanosPerLoad;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A realm whose tokens are accepted.
+     */
+    public static final class Realm {
+        private final String name;
+        private final JwksKeyProvider keyProvider;
+        private final CustomJwtAccessTokenConverter converter;
+
+        public Realm(final String name, final JwksKeyProvider keyProvider, final CustomJwtAccessTokenConverter converter) {
+            this.name = name;
+            this.keyProvider = keyProvider;
+            this.converter = converter;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public JwksKeyProvider getKeyProvider() {
+            return keyProvider;
+        }
+
+        public CustomJwtAccessTokenConverter getConverter() {
+            return converter;
+        }
+    }
+}
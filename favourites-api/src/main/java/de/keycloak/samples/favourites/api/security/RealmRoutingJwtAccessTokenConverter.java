@@ -0,0 +1,33 @@
+package de.keycloak.samples.favourites.api.security;
+
+import java.util.Map;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+/**
+ * Verifies and converts every token with the keys and the converter of the realm which issued it, see
+ * {@link RealmRegistry}.
+ */
+public class RealmRoutingJwtAccessTokenConverter extends JwksJwtAccessTokenConverter {
+    private static final String ISSUER_CLAIM = "iss";
+
+    private final RealmRegistry realms;
+
+    public RealmRoutingJwtAccessTokenConverter(final RealmRegistry realms) {
+        super(realms.getDefaultRealm().getKeyProvider());
+        this.realms = realms;
+    }
+
+    @Override
+    protected SignatureVerifier getVerifier(final String kid, final String alg, final Map<String, Object> claims) {
+        return realms.resolve(claims.get(ISSUER_CLAIM)).getKeyProvider().getVerifier(kid, alg);
+    }
+
+    /**
+     * Only called with the claims of verified tokens, so the realm is loaded already.
+     */
+    @Override
+    public OAuth2Authentication extractAuthentication(final Map<String, ?> map) {
+        return realms.resolve(map.get(ISSUER_CLAIM)).getConverter().extractAuthentication(map);
+    }
+}
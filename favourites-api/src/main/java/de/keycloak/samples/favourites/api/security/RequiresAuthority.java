@@ -0,0 +1,33 @@
+package de.keycloak.samples.favourites.api.security;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Restricts a handler method to principals with one of the given authorities, optionally only to the owner of the
+ * resource. The rule is compiled once when the application starts and checked by the {@link AuthorizationInterceptor}
+ * against the {@link AuthorityBits} of the principal, instead of evaluating an expression on every call like
+ * {@code @PreAuthorize}.
+ * <pre>
+ * &#64;RequiresAuthority(value = "ROLE_USER", owner = "username")
+ * </pre>
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface RequiresAuthority {
+
+    /**
+     * @return authorities of which the principal needs at least one, e.g. "ROLE_USER"
+     */
+    String[] value();
+
+    /**
+     * @return name of the path variable which has to be the name of the principal, or empty if any principal with
+     * one of the authorities is permitted
+     */
+    String owner() default "";
+}
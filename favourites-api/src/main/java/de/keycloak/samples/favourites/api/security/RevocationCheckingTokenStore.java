@@ -0,0 +1,251 @@
+package de.keycloak.samples.favourites.api.security;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import de.keycloak.samples.favourites.api.security.TokenIntrospector.Status;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.jboss.logging.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.token.TokenStore;
+
+/**
+ * Rejects locally verified tokens which were revoked in keycloak, without asking keycloak on every request.
+ * <p>
+ * Tokens issued before the not-before time which keycloak pushes to {@code /k_push_not_before} (e.g. after
+ * "Revocation / Push" in the admin console) are rejected locally. Optionally, in hybrid mode, tokens are also
+ * introspected: the result is cached per "jti", concurrent requests with the same token share one call and a token
+ * is introspected again at most once per refresh interval, in the background while the last result is still used.
+ * Only the first request with a new token waits for keycloak, and never longer than the timeout.
+ * <p>
+ * With tokens of several realms, only the tokens of the default realm are checked, see {@link #setRealms}.
+ */
+public class RevocationCheckingTokenStore extends DelegatingTokenStore implements MeterBinder, DisposableBean {
+    public static final String CACHE_NAME = "introspection-cache";
+    public static final String REJECTION_COUNTER = "favourites.revocation.rejections";
+
+    private static final Logger LOG = Logger.getLogger(RevocationCheckingTokenStore.class);
+
+    private static final String ISSUER_CLAIM = "iss";
+
+    private enum Rejection {
+        NOT_BEFORE, INACTIVE, UNAVAILABLE
+    }
+
+    private final TokenIntrospector introspector;
+    private final AsyncLoadingCache<IntrospectionKey, Status> introspections;
+    private final ExecutorService ownExecutor;
+    private final long timeoutMillis;
+    private final boolean failOpen;
+    private final Map<Rejection, LongAdder> rejections = new EnumMap<>(Rejection.class);
+
+    private RealmRegistry realms;
+    private final AtomicLong notBefore = new AtomicLong();
+
+    /**
+     * Checks the not-before time only.
+     */
+    public RevocationCheckingTokenStore(final TokenStore delegate) {
+        super(delegate);
+        this.introspector = null;
+        this.introspections = null;
+        this.ownExecutor = null;
+        this.timeoutMillis = 0;
+        this.failOpen = true;
+        initRejections();
+    }
+
+    /**
+     * Checks the not-before time and introspects the tokens.
+     *
+     * @param failOpen whether tokens are accepted when keycloak can't be asked
+     */
+    public RevocationCheckingTokenStore(final TokenStore delegate,
+                                        final TokenIntrospector introspector,
+                                        final long refreshSeconds,
+                                        final long maxStaleSeconds,
+                                        final long maximumSize,
+                                        final long timeoutMillis,
+                                        final boolean failOpen) {
+        this(delegate, introspector, refreshSeconds, maxStaleSeconds, maximumSize, timeoutMillis, failOpen,
+             Ticker.systemTicker(), newIntrospectionExecutor());
+    }
+
+    RevocationCheckingTokenStore(final TokenStore delegate,
+                                 final TokenIntrospector introspector,
+                                 final long refreshSeconds,
+                                 final long maxStaleSeconds,
+                                 final long maximumSize,
+                                 final long timeoutMillis,
+                                 final boolean failOpen,
+                                 final Ticker ticker,
+                                 final Executor executor) {
+        super(delegate);
+        this.introspector = introspector;
+        this.introspections = Caffeine.newBuilder()
+                                      .maximumSize(maximumSize)
+                                      .refreshAfterWrite(refreshSeconds, TimeUnit.SECONDS)
+                                      .expireAfterWrite(maxStaleSeconds, TimeUnit.SECONDS)
+                                      .executor(executor)
+                                      .ticker(ticker)
+                                      .recordStats()
+                                      .buildAsync(key -> introspector.introspect(key.tokenValue));
+        this.ownExecutor = executor instanceof ExecutorService ? (ExecutorService) executor : null;
+        this.timeoutMillis = timeoutMillis;
+        this.failOpen = failOpen;
+        initRejections();
+    }
+
+    @Override
+    public OAuth2AccessToken readAccessToken(final String tokenValue) {
+        final OAuth2AccessToken accessToken = delegate.readAccessToken(tokenValue);
+        if (accessToken != null && !accessToken.isExpired()) {
+            checkNotRevoked(tokenValue, accessToken);
+        }
+        return accessToken;
+    }
+
+    /**
+     * Only ever raises the time, so that a push which arrives late doesn't accept revoked tokens again.
+     *
+     * @param notBefore tokens issued before this time (epoch seconds) are rejected
+     */
+    public void setNotBefore(final long notBefore) {
+        final long previous = this.notBefore.getAndAccumulate(notBefore, Math::max);
+        if (notBefore > previous) {
+            LOG.info("Rejecting tokens issued before " + notBefore);
+        } else {
+            LOG.info("Ignoring the not-before time " + notBefore + ", tokens issued before " + previous + " are rejected already");
+        }
+    }
+
+    public long getNotBefore() {
+        return notBefore.get();
+    }
+
+    /**
+     * Only checks the tokens of the default realm of the registry. Keycloak pushes the not-before time of a realm
+     * without naming the realm, and the introspection endpoint and client belong to the default realm, which would
+     * answer "inactive" for the tokens of every other realm.
+     */
+    public void setRealms(final RealmRegistry realms) {
+        this.realms = realms;
+    }
+
+    @Override
+    public void bindTo(final MeterRegistry registry) {
+        for (final Rejection rejection : Rejection.values()) {
+            FunctionCounter.builder(REJECTION_COUNTER, rejections.get(rejection), LongAdder::sum)
+                           .description("Locally valid tokens which were rejected as revoked")
+                           .tag("reason", rejection.name().toLowerCase(Locale.ROOT).replace('_', '-'))
+                           .register(registry);
+        }
+        if (introspections != null) {
+            CaffeineCacheMetrics.monitor(registry, introspections.synchronous(), CACHE_NAME);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdownNow();
+        }
+    }
+
+    private void checkNotRevoked(final String tokenValue, final OAuth2AccessToken accessToken) {
+        final Map<String, Object> claims = accessToken.getAdditionalInformation();
+        if (realms != null && !realms.isDefaultRealm(claims.get(ISSUER_CLAIM))) {
+            return;
+        }
+        final Object issuedAt = claims.get("iat");
+        final long notBefore = this.notBefore.get();
+        if (notBefore > 0 && (!(issuedAt instanceof Number) || ((Number) issuedAt).longValue() < notBefore)) {
+            reject(Rejection.NOT_BEFORE);
+        }
+        if (introspections == null) {
+            return;
+        }
+
+        final Object jti = claims.get("jti");
+        final Status status = introspect(new IntrospectionKey(jti != null ? jti.toString() : tokenValue, tokenValue));
+        if (status == Status.INACTIVE) {
+            reject(Rejection.INACTIVE);
+        }
+        if (status == Status.UNKNOWN && !failOpen) {
+            reject(Rejection.UNAVAILABLE);
+        }
+    }
+
+    private Status introspect(final IntrospectionKey key) {
+        try {
+            return introspections.get(key).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Status.UNKNOWN;
+        } catch (ExecutionException | TimeoutException e) {
+            return Status.UNKNOWN;
+        }
+    }
+
+    private void reject(final Rejection rejection) {
+        rejections.get(rejection).increment();
+        throw new InvalidTokenException(rejection == Rejection.UNAVAILABLE ? "Token could not be introspected" : "Token was revoked");
+    }
+
+    private void initRejections() {
+        for (final Rejection rejection : Rejection.values()) {
+            rejections.put(rejection, new LongAdder());
+        }
+    }
+
+    private static ExecutorService newIntrospectionExecutor() {
+        // a few threads are enough, as every token is introspected once per refresh interval
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "token-introspection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Identifies a token by its "jti" and carries the token value, which is needed to introspect the token again.
+     */
+    private static final class IntrospectionKey {
+        private final String tokenId;
+        private final String tokenValue;
+
+        private IntrospectionKey(final String tokenId, final String tokenValue) {
+            this.tokenId = tokenId;
+            this.tokenValue = tokenValue;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return o instanceof IntrospectionKey && tokenId.equals(((IntrospectionKey) o).tokenId);
+        }
+
+        @Override
+        public int hashCode() {
+            return tokenId.hashCode();
+        }
+    }
+}
@@ -1,37 +1,126 @@
 package de.keycloak.samples.favourites.api.security;
 
+import de.keycloak.samples.favourites.api.metrics.AuthPipelineMetrics;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.security.oauth2.resource.ResourceServerProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.security.config.annotation.method.configuration.EnableGlobalMethodSecurity;
+import org.springframework.context.annotation.Primary;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.oauth2.config.annotation.web.configuration.EnableResourceServer;
 import org.springframework.security.oauth2.config.annotation.web.configuration.ResourceServerConfigurerAdapter;
 import org.springframework.security.oauth2.config.annotation.web.configurers.ResourceServerSecurityConfigurer;
 import org.springframework.security.oauth2.provider.token.DefaultTokenServices;
-import org.springframework.security.oauth2.provider.token.TokenStore;
-import org.springframework.security.oauth2.provider.token.store.jwk.JwkTokenStore;
+import org.springframework.security.oauth2.provider.token.store.JwtAccessTokenConverter;
+import org.springframework.security.oauth2.provider.token.store.JwtTokenStore;
 import org.springframework.security.web.authentication.session.NullAuthenticatedSessionStrategy;
 
 @Configuration
 @EnableResourceServer
 @EnableWebSecurity
-@EnableGlobalMethodSecurity(prePostEnabled = true)
 public class SecurityConfig extends ResourceServerConfigurerAdapter {
 
     @Autowired
     private ResourceServerProperties resourceServerProperties;
 
+    @Autowired
+    private AuthPipelineMetrics authPipelineMetrics;
+
+    @Autowired
+    private AuthorityBits authorityBits;
+
     @Value("${security.oauth2.resource.jwk.key-set-uri}")
     private String jwkUrl;
 
+    @Value("${security.oauth2.resource.jwk.refresh-interval-seconds:300}")
+    private long jwkRefreshIntervalSeconds;
+
+    @Value("${security.oauth2.resource.jwk.min-refresh-interval-seconds:5}")
+    private long jwkMinRefreshIntervalSeconds;
+
+    @Value("${security.oauth2.resource.jwk.max-backoff-seconds:120}")
+    private long jwkMaxBackoffSeconds;
+
+    @Value("${security.oauth2.resource.jwk.connect-timeout-millis:2000}")
+    private int jwkConnectTimeoutMillis;
+
+    @Value("${security.oauth2.resource.jwk.read-timeout-millis:2000}")
+    private int jwkReadTimeoutMillis;
+
+    @Value("${security.oauth2.resource.jwk.fetch-on-startup:true}")
+    private boolean jwkFetchOnStartup;
+
+    @Value("${sso.realm}")
+    private String realm;
+
+    /**
+     * Comma separated names of the realms whose tokens are accepted besides {@code sso.realm}, {@code name=resource-id}
+     * if the client of this resource server has another id in the realm. {@code *} accepts every realm.
+     */
+    @Value("${favourites.realms.accepted:}")
+    private String acceptedRealms;
+
+    @Value("${favourites.realms.key-set-uri:${sso.base-url}/realms/{realm}/protocol/openid-connect/certs}")
+    private String realmKeySetUri;
+
+    @Value("${favourites.realms.maximum-size:10000}")
+    private long realmsMaximumSize;
+
+    @Value("${favourites.realms.idle-seconds:3600}")
+    private long realmsIdleSeconds;
+
+    @Value("${favourites.realms.unknown-seconds:60}")
+    private long realmsUnknownSeconds;
+
+    @Value("${favourites.realms.loads-per-second:10}")
+    private int realmsLoadsPerSecond;
+
+    @Value("${favourites.realms.refresh-threads:2}")
+    private int realmsRefreshThreads;
+
+    @Value("${security.oauth2.resource.token-cache.maximum-size:10000}")
+    private long tokenCacheMaximumSize;
+
+    @Value("${security.oauth2.resource.token-cache.max-ttl-seconds:300}")
+    private long tokenCacheMaxTtlSeconds;
+
+    @Value("${security.oauth2.resource.token-info-uri}")
+    private String tokenInfoUri;
+
+    @Value("${security.oauth2.resource.introspection.enabled:false}")
+    private boolean introspectionEnabled;
+
+    @Value("${security.oauth2.resource.introspection.client-id:${security.oauth2.resource.id}}")
+    private String introspectionClientId;
+
+    @Value("${security.oauth2.resource.introspection.client-secret:}")
+    private String introspectionClientSecret;
+
+    @Value("${security.oauth2.resource.introspection.refresh-seconds:30}")
+    private long introspectionRefreshSeconds;
+
+    @Value("${security.oauth2.resource.introspection.max-stale-seconds:300}")
+    private long introspectionMaxStaleSeconds;
+
+    @Value("${security.oauth2.resource.introspection.maximum-size:10000}")
+    private long introspectionMaximumSize;
+
+    @Value("${security.oauth2.resource.introspection.timeout-millis:500}")
+    private long introspectionTimeoutMillis;
+
+    @Value("${security.oauth2.resource.introspection.fail-open:true}")
+    private boolean introspectionFailOpen;
+
     @Override
     public void configure(ResourceServerSecurityConfigurer resources) {
         DefaultTokenServices dts = new DefaultTokenServices();
-        dts.setTokenStore(tokenStore());
+        dts.setTokenStore(revocationCheckingTokenStore());
         dts.setSupportRefreshToken(true);
 
         // resources.resourceId(resourceServerProperties.getResourceId());
@@ -46,17 +135,121 @@ public class SecurityConfig extends ResourceServerConfigurerAdapter {
         http.sessionManagement()
             // as it is a backend service it should have stateless session
             .sessionAuthenticationStrategy(new NullAuthenticatedSessionStrategy()).and()
-            // we will have authorization on method level
+            // we will have authorization on method level, see AuthorizationInterceptor
             .authorizeRequests().anyRequest().permitAll();
     }
 
     @Bean
-    public TokenStore tokenStore() {
-        return new JwkTokenStore(jwkUrl, customJwtAccessTokenConverter(), null);
+    public CachingTokenStore tokenStore() {
+        // verifying the signature is the most expensive part of a request, so verified tokens are cached until they expire
+        return new CachingTokenStore(new JwtTokenStore(jwtAccessTokenConverter()),
+                                     tokenCacheMaximumSize,
+                                     tokenCacheMaxTtlSeconds);
+    }
+
+    @Bean
+    @Primary
+    public RevocationCheckingTokenStore revocationCheckingTokenStore() {
+        // wraps the cache, so that tokens are checked for revocation on every request, after they were verified
+        final RevocationCheckingTokenStore tokenStore;
+        if (!introspectionEnabled) {
+            tokenStore = new RevocationCheckingTokenStore(tokenStore());
+        } else {
+            final int timeoutMillis = (int) introspectionTimeoutMillis;
+            tokenStore = new RevocationCheckingTokenStore(tokenStore(),
+                                                          new KeycloakTokenIntrospector(tokenInfoUri, introspectionClientId, introspectionClientSecret,
+                                                                                        timeoutMillis, timeoutMillis),
+                                                          introspectionRefreshSeconds,
+                                                          introspectionMaxStaleSeconds,
+                                                          introspectionMaximumSize,
+                                                          introspectionTimeoutMillis,
+                                                          introspectionFailOpen);
+        }
+        // the not-before time and the introspection are those of sso.realm
+        tokenStore.setRealms(realmRegistry());
+        return tokenStore;
+    }
+
+    @Bean
+    public JwtAccessTokenConverter jwtAccessTokenConverter() {
+        final JwksJwtAccessTokenConverter converter = new RealmRoutingJwtAccessTokenConverter(realmRegistry());
+        converter.setMetrics(authPipelineMetrics);
+        customJwtAccessTokenConverter().configure(converter);
+        return converter;
+    }
+
+    @Bean
+    public RealmRegistry realmRegistry() {
+        final RealmRegistry.Realm defaultRealm = new RealmRegistry.Realm(realm, jwksKeyProvider(), customJwtAccessTokenConverter());
+        return new RealmRegistry(defaultRealm, acceptedRealms(), this::loadRealm, realmsMaximumSize, realmsIdleSeconds, realmsUnknownSeconds,
+                                 realmsLoadsPerSecond);
+    }
+
+    /**
+     * Fetches the keys of the realms besides the default realm.
+     */
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService realmKeyScheduler() {
+        return JwksKeyProvider.newScheduler(realmsRefreshThreads);
+    }
+
+    @Bean
+    public JwksKeyProvider jwksKeyProvider() {
+        final JwksKeyProvider keyProvider = new JwksKeyProvider(jwkUrl,
+                                                                TimeUnit.SECONDS.toMillis(jwkRefreshIntervalSeconds),
+                                                                TimeUnit.SECONDS.toMillis(jwkMinRefreshIntervalSeconds),
+                                                                TimeUnit.SECONDS.toMillis(jwkMaxBackoffSeconds),
+                                                                jwkConnectTimeoutMillis,
+                                                                jwkReadTimeoutMillis);
+        keyProvider.setFetchOnStartup(jwkFetchOnStartup);
+        return keyProvider;
     }
 
     @Bean
     public CustomJwtAccessTokenConverter customJwtAccessTokenConverter() {
-        return new CustomJwtAccessTokenConverter(resourceServerProperties);
+        final CustomJwtAccessTokenConverter converter = customJwtAccessTokenConverter(resourceServerProperties.getResourceId());
+        if (!acceptedRealms().isEmpty()) {
+            converter.setRealm(realm, true);
+        }
+        return converter;
+    }
+
+    private CustomJwtAccessTokenConverter customJwtAccessTokenConverter(final String resourceId) {
+        final CustomJwtAccessTokenConverter converter = new CustomJwtAccessTokenConverter(resourceId);
+        converter.setMetrics(authPipelineMetrics);
+        converter.setAuthorityBits(authorityBits);
+        return converter;
+    }
+
+    private RealmRegistry.Realm loadRealm(final String name, final String resourceId) {
+        // the first token of the realm waits for the fetch, like after a key rotation
+        final JwksKeyProvider keyProvider = new JwksKeyProvider(realmKeySetUri.replace("{realm}", name),
+                                                                TimeUnit.SECONDS.toMillis(jwkRefreshIntervalSeconds),
+                                                                TimeUnit.SECONDS.toMillis(jwkMinRefreshIntervalSeconds),
+                                                                TimeUnit.SECONDS.toMillis(jwkMaxBackoffSeconds),
+                                                                jwkConnectTimeoutMillis,
+                                                                jwkReadTimeoutMillis,
+                                                                realmKeyScheduler());
+        keyProvider.afterPropertiesSet();
+        final CustomJwtAccessTokenConverter converter = customJwtAccessTokenConverter(resourceId);
+        converter.setRealm(name, false);
+        return new RealmRegistry.Realm(name, keyProvider, converter);
+    }
+
+    private Map<String, String> acceptedRealms() {
+        final Map<String, String> accepted = new LinkedHashMap<>();
+        for (String entry : acceptedRealms.split(",")) {
+            final String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            final int separator = trimmed.indexOf('=');
+            if (separator < 0) {
+                accepted.put(trimmed, resourceServerProperties.getResourceId());
+            } else {
+                accepted.put(trimmed.substring(0, separator).trim(), trimmed.substring(separator + 1).trim());
+            }
+        }
+        return accepted;
     }
 }
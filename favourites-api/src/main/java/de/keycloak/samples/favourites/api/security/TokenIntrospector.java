@@ -0,0 +1,18 @@
+package de.keycloak.samples.favourites.api.security;
+
+/**
+ * Asks the authorization server whether an access token is still active.
+ */
+public interface TokenIntrospector {
+
+    enum Status {
+        ACTIVE,
+        INACTIVE,
+        /**
+         * The authorization server could not be asked, e.g. it is down.
+         */
+        UNKNOWN
+    }
+
+    Status introspect(String tokenValue);
+}
@@ -0,0 +1,639 @@
+package de.keycloak.samples.favourites.api.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static de.keycloak.samples.favourites.api.store.FileFavouritesRepository.normalize;
+
+/**
+ * Keeps the favourites packed into columns instead of one object per favourite, which saves most of the heap taken
+ * by object headers, references and the copies of the same user name:
+ * <ul>
+ * <li>the user name of a row is an index into a dictionary, which holds every user name once</li>
+ * <li>the rating is a byte</li>
+ * <li>id and comment are encoded as UTF-8 into byte slabs of {@link #SLAB_SIZE}, the row holds the address and the
+ * record the row</li>
+ * </ul>
+ * The ids are indexed by an open addressing hash table of rows, the user names by a sorted array of rows per user.
+ * {@link Favourite} objects are only created by reads, e.g. one at a time while all favourites are streamed.
+ * <p>
+ * The position of a favourite is its row. Rows of deleted favourites stay empty until the store is loaded from a
+ * snapshot on the next start. Replaced ids and comments are reclaimed one slab at a time: once most of a slab is garbage,
+ * its remaining records are moved to the current slab, which costs O(slab size) no matter how many favourites are
+ * stored. As the columns are replaced when they grow, reads take a read lock.
+ */
+public class ColumnarFavouritesTable implements FavouritesTable {
+    static final int SLAB_SIZE = 1 << 20;
+
+    private static final int INITIAL_ROWS = 1024;
+    private static final int NO_USER = -1;
+    private static final int NO_SLAB = -1;
+    private static final long NO_ADDRESS = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = lock.readLock();
+    private final Lock writeLock = lock.writeLock();
+
+    private int rowCount;
+    private int liveRows;
+    private int[] userIds = new int[INITIAL_ROWS];
+    private byte[] ratings = new byte[INITIAL_ROWS];
+    private long[] addresses = new long[INITIAL_ROWS];
+
+    // row + 1 of the favourite with the id hashed to the slot, 0 if the slot is empty
+    private int[] idSlots = new int[INITIAL_ROWS * 2];
+
+    private final Map<String, Integer> userIdsByName = new HashMap<>();
+    private String[] userNames = new String[64];
+    private int[] userReferences = new int[64];
+    private int userCount;
+    private int[] freeUserIds = new int[16];
+    private int freeUserIdCount;
+    private final Map<String, RowList> rowsByUserName = new HashMap<>();
+
+    private byte[][] slabs = new byte[16][];
+    private int[] slabUsed = new int[16];
+    private int[] slabGarbage = new int[16];
+    private int slabCount;
+    private int[] freeSlabs = new int[16];
+    private int freeSlabCount;
+    private int currentSlab = NO_SLAB;
+
+    @Override
+    public Optional<Favourite> findById(final String id) {
+        final byte[] encodedId = encode(id);
+        final int hash = hash(encodedId, 0, encodedId.length);
+        readLock.lock();
+        try {
+            final int row = idSlots[findSlot(encodedId, hash)] - 1;
+            return row < 0 ? Optional.empty() : Optional.of(materialize(row));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public long positionOf(final String id) {
+        final byte[] encodedId = encode(id);
+        final int hash = hash(encodedId, 0, encodedId.length);
+        readLock.lock();
+        try {
+            return idSlots[findSlot(encodedId, hash)] - 1;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public Favourite findByPosition(final long position) {
+        readLock.lock();
+        try {
+            if (position < 0 || position >= rowCount || userIds[(int) position] == NO_USER) {
+                return null;
+            }
+            return materialize((int) position);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public List<Favourite> findByUserName(final String userName) {
+        readLock.lock();
+        try {
+            final RowList rows = rowsByUserName.get(normalize(userName));
+            if (rows == null) {
+                return Collections.emptyList();
+            }
+            final List<Favourite> favourites = new ArrayList<>(rows.size);
+            for (int i = 0; i < rows.size; i++) {
+                favourites.add(materialize(rows.rows[i]));
+            }
+            return favourites;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public FavouritesPage findAll(final Long afterPosition, final int limit) {
+        final List<Favourite> favourites = new ArrayList<>(Math.min(limit, 1024));
+        readLock.lock();
+        try {
+            Long lastPosition = null;
+            for (int row = firstRowAfter(afterPosition); row < rowCount; row++) {
+                if (userIds[row] == NO_USER) {
+                    continue;
+                }
+                if (favourites.size() == limit) {
+                    return new FavouritesPage(favourites, lastPosition);
+                }
+                favourites.add(materialize(row));
+                lastPosition = (long) row;
+            }
+            return new FavouritesPage(favourites, null);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<Favourite> iterateAll() {
+        return new Iterator<Favourite>() {
+            private int row;
+            private Favourite next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    next = advance();
+                }
+                return next != null;
+            }
+
+            @Override
+            public Favourite next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Favourite favourite = next;
+                next = null;
+                return favourite;
+            }
+
+            private Favourite advance() {
+                readLock.lock();
+                try {
+                    while (row < rowCount) {
+                        final int current = row++;
+                        if (userIds[current] != NO_USER) {
+                            return materialize(current);
+                        }
+                    }
+                    return null;
+                } finally {
+                    readLock.unlock();
+                }
+            }
+        };
+    }
+
+    @Override
+    public long count() {
+        readLock.lock();
+        try {
+            return liveRows;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public Favourite put(final Favourite favourite) {
+        if (favourite.getRating() < Byte.MIN_VALUE || favourite.getRating() > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Rating " + favourite.getRating() + " doesn't fit into a byte");
+        }
+        final byte[] id = encode(favourite.getId());
+        final byte[] comment = favourite.getComment() == null ? null : encode(favourite.getComment());
+        final int hash = hash(id, 0, id.length);
+
+        writeLock.lock();
+        try {
+            int slot = findSlot(id, hash);
+            if (idSlots[slot] != 0) {
+                final int row = idSlots[slot] - 1;
+                final Favourite previous = materialize(row);
+                replace(row, previous, favourite, id, comment);
+                return previous;
+            }
+
+            if ((liveRows + 1) * 2 > idSlots.length) {
+                resizeIdSlots(idSlots.length * 2);
+                slot = findSlot(id, hash);
+            }
+            if (rowCount == userIds.length) {
+                growRows();
+            }
+            final int row = rowCount++;
+            userIds[row] = referenceUser(favourite.getUserName());
+            ratings[row] = (byte) favourite.getRating();
+            addresses[row] = write(row, id, comment);
+            idSlots[slot] = row + 1;
+            rowsByUserName.computeIfAbsent(normalize(favourite.getUserName()), userName -> new RowList()).add(row);
+            liveRows++;
+            return null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Favourite remove(final String id) {
+        final byte[] encodedId = encode(id);
+        final int hash = hash(encodedId, 0, encodedId.length);
+
+        writeLock.lock();
+        try {
+            final int slot = findSlot(encodedId, hash);
+            final int row = idSlots[slot] - 1;
+            if (row < 0) {
+                return null;
+            }
+            final Favourite previous = materialize(row);
+            clearSlot(slot);
+            removeFromUserIndex(previous.getUserName(), row);
+            releaseUser(userIds[row]);
+            userIds[row] = NO_USER;
+            final long address = addresses[row];
+            addresses[row] = NO_ADDRESS;
+            liveRows--;
+            release(address);
+            return previous;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void replace(final int row, final Favourite previous, final Favourite favourite, final byte[] id, final byte[] comment) {
+        ratings[row] = (byte) favourite.getRating();
+        if (!previous.getUserName().equals(favourite.getUserName())) {
+            final int userId = referenceUser(favourite.getUserName());
+            releaseUser(userIds[row]);
+            userIds[row] = userId;
+            if (!normalize(previous.getUserName()).equals(normalize(favourite.getUserName()))) {
+                removeFromUserIndex(previous.getUserName(), row);
+                rowsByUserName.computeIfAbsent(normalize(favourite.getUserName()), userName -> new RowList()).add(row);
+            }
+        }
+        if (!Objects.equals(previous.getComment(), favourite.getComment())) {
+            // released first, so that compacting its slab doesn't move the record
+            final long address = addresses[row];
+            addresses[row] = NO_ADDRESS;
+            release(address);
+            addresses[row] = write(row, id, comment);
+        }
+    }
+
+    private Favourite materialize(final int row) {
+        final long address = addresses[row];
+        final byte[] slab = slabs[(int) (address >>> 32)];
+        int position = idPosition(slab, (int) address);
+        final int idLength = readVarint(slab, position);
+        position += varintSize(idLength);
+        final String id = new String(slab, position, idLength, StandardCharsets.UTF_8);
+        position += idLength;
+        final int commentLength = readVarint(slab, position) - 1;
+        position += varintSize(commentLength + 1);
+        final String comment = commentLength < 0 ? null : new String(slab, position, commentLength, StandardCharsets.UTF_8);
+        return Favourite.builder()
+                        .withId(id)
+                        .withUserName(userNames[userIds[row]])
+                        .withRating(ratings[row])
+                        .withComment(comment)
+                        .build();
+    }
+
+    private int firstRowAfter(final Long afterPosition) {
+        if (afterPosition == null || afterPosition < 0) {
+            return 0;
+        }
+        return afterPosition >= rowCount ? rowCount : (int) (afterPosition + 1);
+    }
+
+    private void growRows() {
+        final int capacity = userIds.length + (userIds.length >> 1);
+        userIds = Arrays.copyOf(userIds, capacity);
+        ratings = Arrays.copyOf(ratings, capacity);
+        addresses = Arrays.copyOf(addresses, capacity);
+    }
+
+    // id index, linear probing
+
+    /**
+     * @return the slot of the favourite with the id, or the empty slot where it belongs
+     */
+    private int findSlot(final byte[] id, final int hash) {
+        final int mask = idSlots.length - 1;
+        int slot = hash & mask;
+        while (idSlots[slot] != 0 && !idEquals(idSlots[slot] - 1, id)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Removes the entry and moves the following entries of the probe sequence into the gap, so lookups don't need
+     * tombstones.
+     */
+    private void clearSlot(final int slot) {
+        final int mask = idSlots.length - 1;
+        int gap = slot;
+        idSlots[gap] = 0;
+        for (int next = (gap + 1) & mask; idSlots[next] != 0; next = (next + 1) & mask) {
+            final int home = rowHash(idSlots[next] - 1) & mask;
+            if (((next - gap) & mask) <= ((next - home) & mask)) {
+                idSlots[gap] = idSlots[next];
+                idSlots[next] = 0;
+                gap = next;
+            }
+        }
+    }
+
+    private void resizeIdSlots(final int capacity) {
+        idSlots = new int[capacity];
+        final int mask = capacity - 1;
+        for (int row = 0; row < rowCount; row++) {
+            if (userIds[row] != NO_USER) {
+                int slot = rowHash(row) & mask;
+                while (idSlots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                idSlots[slot] = row + 1;
+            }
+        }
+    }
+
+    private boolean idEquals(final int row, final byte[] id) {
+        final long address = addresses[row];
+        final byte[] slab = slabs[(int) (address >>> 32)];
+        final int position = idPosition(slab, (int) address);
+        final int idLength = readVarint(slab, position);
+        if (idLength != id.length) {
+            return false;
+        }
+        final int start = position + varintSize(idLength);
+        for (int i = 0; i < idLength; i++) {
+            if (slab[start + i] != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int rowHash(final int row) {
+        final long address = addresses[row];
+        final byte[] slab = slabs[(int) (address >>> 32)];
+        final int position = idPosition(slab, (int) address);
+        final int idLength = readVarint(slab, position);
+        return hash(slab, position + varintSize(idLength), idLength);
+    }
+
+    private static int hash(final byte[] bytes, final int offset, final int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    // user names
+
+    private int referenceUser(final String userName) {
+        Integer userId = userIdsByName.get(userName);
+        if (userId == null) {
+            if (freeUserIdCount > 0) {
+                userId = freeUserIds[--freeUserIdCount];
+            } else {
+                if (userCount == userNames.length) {
+                    userNames = Arrays.copyOf(userNames, userCount * 2);
+                    userReferences = Arrays.copyOf(userReferences, userCount * 2);
+                }
+                userId = userCount++;
+            }
+            userNames[userId] = userName;
+            userIdsByName.put(userName, userId);
+        }
+        userReferences[userId]++;
+        return userId;
+    }
+
+    private void releaseUser(final int userId) {
+        if (--userReferences[userId] > 0) {
+            return;
+        }
+        userIdsByName.remove(userNames[userId]);
+        userNames[userId] = null;
+        if (freeUserIdCount == freeUserIds.length) {
+            freeUserIds = Arrays.copyOf(freeUserIds, freeUserIdCount * 2);
+        }
+        freeUserIds[freeUserIdCount++] = userId;
+    }
+
+    private void removeFromUserIndex(final String userName, final int row) {
+        final String key = normalize(userName);
+        final RowList rows = rowsByUserName.get(key);
+        if (rows != null && rows.remove(row) && rows.size == 0) {
+            rowsByUserName.remove(key);
+        }
+    }
+
+    // slabs
+
+    private long write(final int row, final byte[] id, final byte[] comment) {
+        final int commentLength = comment == null ? 0 : comment.length;
+        final int commentCode = comment == null ? 0 : comment.length + 1;
+        final int length = varintSize(row) + varintSize(id.length) + id.length + varintSize(commentCode) + commentLength;
+        final long address = allocate(length);
+        final byte[] slab = slabs[(int) (address >>> 32)];
+        int position = writeVarint(slab, (int) address, row);
+        position = writeVarint(slab, position, id.length);
+        System.arraycopy(id, 0, slab, position, id.length);
+        position = writeVarint(slab, position + id.length, commentCode);
+        if (comment != null) {
+            System.arraycopy(comment, 0, slab, position, commentLength);
+        }
+        return address;
+    }
+
+    private long allocate(final int length) {
+        if (length > SLAB_SIZE) {
+            final int slab = addSlab(new byte[length]);
+            slabUsed[slab] = length;
+            return (long) slab << 32;
+        }
+        int retired = NO_SLAB;
+        if (currentSlab == NO_SLAB || slabUsed[currentSlab] + length > SLAB_SIZE) {
+            retired = currentSlab;
+            currentSlab = addSlab(new byte[SLAB_SIZE]);
+        }
+        final long address = (long) currentSlab << 32 | slabUsed[currentSlab];
+        slabUsed[currentSlab] += length;
+        if (retired != NO_SLAB) {
+            // garbage of the current slab is only reclaimed once it's full
+            compactIfMostlyGarbage(retired);
+        }
+        return address;
+    }
+
+    private int addSlab(final byte[] bytes) {
+        final int slab;
+        if (freeSlabCount > 0) {
+            slab = freeSlabs[--freeSlabCount];
+        } else {
+            if (slabCount == slabs.length) {
+                slabs = Arrays.copyOf(slabs, slabCount * 2);
+                slabUsed = Arrays.copyOf(slabUsed, slabCount * 2);
+                slabGarbage = Arrays.copyOf(slabGarbage, slabCount * 2);
+            }
+            slab = slabCount++;
+        }
+        slabs[slab] = bytes;
+        slabUsed[slab] = 0;
+        slabGarbage[slab] = 0;
+        return slab;
+    }
+
+    /**
+     * Counts the record of a replaced or deleted favourite as garbage of its slab.
+     */
+    private void release(final long address) {
+        final int slab = (int) (address >>> 32);
+        slabGarbage[slab] += recordLength(slabs[slab], (int) address);
+        compactIfMostlyGarbage(slab);
+    }
+
+    /**
+     * Moves the records of the favourites out of the slab once most of its bytes belong to replaced or deleted ones,
+     * and frees the slab. The records tell their row, a record is live if its row still has its address.
+     */
+    private void compactIfMostlyGarbage(final int slab) {
+        if (slab == currentSlab || slabGarbage[slab] * 2L < slabUsed[slab]) {
+            return;
+        }
+        final byte[] bytes = slabs[slab];
+        final int end = slabUsed[slab];
+        int position = 0;
+        while (position < end) {
+            final int length = recordLength(bytes, position);
+            final int row = readVarint(bytes, position);
+            if (userIds[row] != NO_USER && addresses[row] == ((long) slab << 32 | position)) {
+                final long address = allocate(length);
+                System.arraycopy(bytes, position, slabs[(int) (address >>> 32)], (int) address, length);
+                addresses[row] = address;
+            }
+            position += length;
+        }
+        slabs[slab] = null;
+        slabUsed[slab] = 0;
+        slabGarbage[slab] = 0;
+        if (freeSlabCount == freeSlabs.length) {
+            freeSlabs = Arrays.copyOf(freeSlabs, freeSlabCount * 2);
+        }
+        freeSlabs[freeSlabCount++] = slab;
+    }
+
+    /**
+     * @return the bytes of all slabs in use
+     */
+    long slabBytes() {
+        readLock.lock();
+        try {
+            long bytes = 0;
+            for (int slab = 0; slab < slabCount; slab++) {
+                bytes += slabs[slab] == null ? 0 : slabs[slab].length;
+            }
+            return bytes;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private static int idPosition(final byte[] slab, final int start) {
+        return start + varintSize(readVarint(slab, start));
+    }
+
+    private static int recordLength(final byte[] slab, final int start) {
+        final int idPosition = idPosition(slab, start);
+        final int idLength = readVarint(slab, idPosition);
+        final int commentPosition = idPosition + varintSize(idLength) + idLength;
+        final int commentCode = readVarint(slab, commentPosition);
+        return commentPosition + varintSize(commentCode) + Math.max(commentCode - 1, 0) - start;
+    }
+
+    private static byte[] encode(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int writeVarint(final byte[] slab, final int position, final int value) {
+        int remaining = value;
+        int current = position;
+        while ((remaining & ~0x7F) != 0) {
+            slab[current++] = (byte) ((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        slab[current++] = (byte) remaining;
+        return current;
+    }
+
+    private static int readVarint(final byte[] slab, final int position) {
+        int value = 0;
+        int shift = 0;
+        int current = position;
+        byte b;
+        do {
+            b = slab[current++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int varintSize(final int value) {
+        int size = 1;
+        int remaining = value >>> 7;
+        while (remaining != 0) {
+            size++;
+            remaining >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * Rows of the favourites of a user in ascending order, which is the order they were created.
+     */
+    private static final class RowList {
+        private int[] rows = new int[4];
+        private int size;
+
+        void add(final int row) {
+            // new rows are the last ones, only a favourite moved to another user goes in between
+            int insertion = size;
+            if (size > 0 && rows[size - 1] >= row) {
+                final int index = Arrays.binarySearch(rows, 0, size, row);
+                if (index >= 0) {
+                    return;
+                }
+                insertion = -index - 1;
+            }
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            System.arraycopy(rows, insertion, rows, insertion + 1, size - insertion);
+            rows[insertion] = row;
+            size++;
+        }
+
+        boolean remove(final int row) {
+            final int index = Arrays.binarySearch(rows, 0, size, row);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(rows, index + 1, rows, index, size - index - 1);
+            size--;
+            return true;
+        }
+    }
+}
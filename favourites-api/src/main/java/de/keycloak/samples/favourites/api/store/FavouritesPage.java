@@ -0,0 +1,28 @@
+package de.keycloak.samples.favourites.api.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.util.List;
+
+/**
+ * A slice of the favourites in creation order.
+ */
+public final class FavouritesPage {
+    private final List<Favourite> favourites;
+    private final Long nextPosition;
+
+    public FavouritesPage(final List<Favourite> favourites, final Long nextPosition) {
+        this.favourites = favourites;
+        this.nextPosition = nextPosition;
+    }
+
+    public List<Favourite> getFavourites() {
+        return favourites;
+    }
+
+    /**
+     * @return position to continue after, or null if this is the last page
+     */
+    public Long getNextPosition() {
+        return nextPosition;
+    }
+}
@@ -0,0 +1,107 @@
+package de.keycloak.samples.favourites.api.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import de.keycloak.samples.favourites.api.model.RatingStatistics;
+import de.keycloak.samples.favourites.api.search.SearchQuery;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Stores the favourites of all users. User names are matched case-insensitively.
+ */
+public interface FavouritesRepository {
+
+    /**
+     * @param userName name of the user, matched case-insensitively
+     * @return the favourites of the user in the order they were created
+     */
+    List<Favourite> findByUserName(String userName);
+
+    /**
+     * Looks up the favourites of several users at once.
+     *
+     * @param userNames names of the users, matched case-insensitively
+     * @return the favourites of each of the given user names in the order they were created, keyed by the user name
+     * as given, in the order of the given user names
+     */
+    Map<String, List<Favourite>> findByUserNames(Collection<String> userNames);
+
+    /**
+     * @return all favourites in the order they were created
+     */
+    List<Favourite> findAll();
+
+    /**
+     * @param afterPosition position returned with the previous page, or null for the first page
+     * @param limit maximum number of favourites in the page
+     * @return the favourites following the given position in the order they were created
+     */
+    FavouritesPage findAll(Long afterPosition, int limit);
+
+    /**
+     * Iterates all favourites in the order they were created without copying them. The iterator is weakly
+     * consistent: it never fails because of concurrent changes and may or may not reflect them.
+     *
+     * @return iterator over all favourites
+     */
+    Iterator<Favourite> iterateAll();
+
+    Optional<Favourite> findById(String id);
+
+    /**
+     * Searches the comments of all favourites.
+     *
+     * @param afterPosition position returned with the previous page, or null for the first page
+     * @param limit maximum number of favourites in the page
+     * @return the matching favourites following the given position in the order they were created
+     * @throws IllegalArgumentException if the query is too broad to be answered
+     */
+    FavouritesPage search(SearchQuery query, Long afterPosition, int limit);
+
+    /**
+     * Searches the comments of the favourites of a user.
+     *
+     * @param userName name of the user, matched case-insensitively
+     * @return the matching favourites of the user in the order they were created
+     */
+    List<Favourite> search(String userName, SearchQuery query);
+
+    /**
+     * Creates the favourite or replaces the existing one with the same id.
+     *
+     * @param favourite favourite with id and user name
+     * @return the stored favourite
+     */
+    Favourite save(Favourite favourite);
+
+    /**
+     * @param id id of the favourite
+     * @return true if the favourite existed
+     */
+    boolean delete(String id);
+
+    long count();
+
+    /**
+     * @param userName name of the user, matched case-insensitively
+     * @return the aggregated ratings of the favourites of the user, maintained on every write
+     */
+    RatingStatistics getRatingStatistics(String userName);
+
+    /**
+     * @return the aggregated ratings of all favourites, maintained on every write
+     */
+    RatingStatistics getRatingStatistics();
+
+    /**
+     * Returns the version of the favourites of the user. It changes with every mutation of the favourites of the
+     * user and is never reused, not even after the store was wiped.
+     *
+     * @param userName name of the user, matched case-insensitively
+     * @return opaque version of the favourites of the user
+     */
+    String getVersion(String userName);
+}
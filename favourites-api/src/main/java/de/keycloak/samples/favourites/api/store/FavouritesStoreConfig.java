@@ -0,0 +1,59 @@
+package de.keycloak.samples.favourites.api.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Locale;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class FavouritesStoreConfig {
+
+    @Value("${favourites.store.directory}")
+    private String directory;
+
+    /**
+     * {@code columnar} or {@code objects}, see {@link FavouritesTable.Layout}.
+     */
+    @Value("${favourites.store.layout:columnar}")
+    private String layout;
+
+    @Value("${favourites.store.seed-sample-data:true}")
+    private boolean seedSampleData;
+
+    /**
+     * {@code none}, {@code periodic} or {@code sync}, see {@link WriteAheadLog.Durability}.
+     */
+    @Value("${favourites.store.durability:periodic}")
+    private String durability;
+
+    @Value("${favourites.store.sync-interval-millis:1000}")
+    private long syncIntervalMillis;
+
+    @Value("${favourites.store.segment-size-mb:64}")
+    private int segmentSizeMb;
+
+    @Value("${favourites.store.snapshot-after-mb:256}")
+    private long snapshotAfterMb;
+
+    @Bean(destroyMethod = "close")
+    public FileFavouritesRepository favouritesRepository() throws IOException {
+        final FileFavouritesRepository.Options options = FileFavouritesRepository.Options.builder()
+                                                                                         .withDurability(WriteAheadLog.Durability.valueOf(durability.toUpperCase(Locale.ROOT)))
+                                                                                         .withSyncInterval(Duration.ofMillis(syncIntervalMillis))
+                                                                                         .withSegmentSize(segmentSizeMb << 20)
+                                                                                         .withSnapshotAfterBytes(snapshotAfterMb << 20)
+                                                                                         .build();
+        final FileFavouritesRepository repository = new FileFavouritesRepository(Paths.get(directory),
+                                                                                 FavouritesTable.Layout.valueOf(layout.toUpperCase(Locale.ROOT)).create(),
+                                                                                 options);
+        if (seedSampleData && repository.count() == 0) {
+            repository.save(Favourite.builder().withComment("Bad restaurant").withId("225588").withRating(2).withUserName("tim").build());
+            repository.save(Favourite.builder().withComment("Nice restaurant").withId("123456").withRating(5).withUserName("tom").build());
+        }
+        return repository;
+    }
+}
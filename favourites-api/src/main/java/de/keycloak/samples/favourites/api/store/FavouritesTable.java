@@ -0,0 +1,73 @@
+package de.keycloak.samples.favourites.api.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * In-memory part of the {@link FileFavouritesRepository}: the favourites with their indexes by id, creation order and
+ * user name. Writes are serialized by the repository, reads may run concurrently with them.
+ */
+public interface FavouritesTable {
+
+    /**
+     * Layouts of the favourites in memory, selected by {@code favourites.store.layout}.
+     */
+    enum Layout {
+        /**
+         * One object per favourite, the indexes are concurrent maps. Reads don't take locks.
+         */
+        OBJECTS,
+        /**
+         * Favourites packed into columns of primitives and byte slabs, see {@link ColumnarFavouritesTable}.
+         */
+        COLUMNAR;
+
+        public FavouritesTable create() {
+            return this == COLUMNAR ? new ColumnarFavouritesTable() : new ObjectFavouritesTable();
+        }
+    }
+
+    Optional<Favourite> findById(String id);
+
+    /**
+     * @return the position of the favourite in the creation order, or -1 if there is none with the id
+     */
+    long positionOf(String id);
+
+    /**
+     * @return the favourite at the position in the creation order, or null if it was removed
+     */
+    Favourite findByPosition(long position);
+
+    /**
+     * @param userName name of the user, matched case-insensitively
+     * @return the favourites of the user in the order they were created
+     */
+    List<Favourite> findByUserName(String userName);
+
+    /**
+     * @see FavouritesRepository#findAll(Long, int)
+     */
+    FavouritesPage findAll(Long afterPosition, int limit);
+
+    /**
+     * @see FavouritesRepository#iterateAll()
+     */
+    Iterator<Favourite> iterateAll();
+
+    long count();
+
+    /**
+     * Adds the favourite or replaces the one with the same id, which keeps its position in the creation order.
+     *
+     * @return the replaced favourite, or null if it's a new one
+     */
+    Favourite put(Favourite favourite);
+
+    /**
+     * @return the removed favourite, or null if there was none with the id
+     */
+    Favourite remove(String id);
+}
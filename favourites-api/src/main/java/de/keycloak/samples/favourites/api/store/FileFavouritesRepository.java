@@ -0,0 +1,481 @@
+package de.keycloak.samples.favourites.api.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import de.keycloak.samples.favourites.api.model.RatingStatistics;
+import de.keycloak.samples.favourites.api.search.CommentIndex;
+import de.keycloak.samples.favourites.api.search.SearchQuery;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jboss.logging.Logger;
+
+/**
+ * Embedded favourites store which keeps all favourites in memory and survives restarts by appending every mutation
+ * to a {@link WriteAheadLog}. Once enough was appended, a {@link Snapshot} of the favourites is written in the
+ * background and the log before it is deleted, so a restart only reads the snapshot and the log written since.
+ * <p>
+ * The favourites are held by a {@link FavouritesTable}, which indexes them by id, creation order and lower-cased
+ * user name, so looking up the favourites of a user costs O(favourites of the user) no matter how many favourites are
+ * stored. The rating statistics per user and of all favourites and the {@link CommentIndex} of the comments are
+ * updated with every write, so reading the statistics costs O(1) and searching the comments doesn't scan the
+ * favourites. Writes are serialized, but wait for their record to be forced to disk outside of the lock, so that
+ * concurrent writers share one force with {@link WriteAheadLog.Durability#SYNC}.
+ */
+public class FileFavouritesRepository implements FavouritesRepository, Closeable {
+    private static final Logger LOG = Logger.getLogger(FileFavouritesRepository.class);
+
+    static final String STORE_ID_FILE = "store.id";
+    static final String CLOSED_FILE = "store.closed";
+    static final String LOG_DIRECTORY = "wal";
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+
+    private final FavouritesTable table;
+    private final CommentIndex commentIndex = new CommentIndex();
+    private final Map<String, Long> versions = new ConcurrentHashMap<>();
+    private final Map<String, RatingStatistics> statisticsByUserName = new ConcurrentHashMap<>();
+    private volatile RatingStatistics statistics = RatingStatistics.EMPTY;
+
+    private final String storeId;
+
+    private final Path directory;
+    private final Options options;
+    private final WriteAheadLog log;
+    private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "favourites-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+    private volatile long appendedAtSnapshot;
+
+    public FileFavouritesRepository(final Path directory) throws IOException {
+        this(directory, new ObjectFavouritesTable());
+    }
+
+    /**
+     * @param table empty table which holds the favourites in memory
+     */
+    public FileFavouritesRepository(final Path directory, final FavouritesTable table) throws IOException {
+        this(directory, table, Options.builder().build());
+    }
+
+    /**
+     * @param table empty table which holds the favourites in memory
+     */
+    public FileFavouritesRepository(final Path directory, final FavouritesTable table, final Options options) throws IOException {
+        this.table = table;
+        this.directory = directory;
+        this.options = options;
+        Files.createDirectories(directory);
+        this.storeId = readOrCreateStoreId(directory);
+
+        final long start = System.nanoTime();
+        // left by a crash while a snapshot was written, the previous snapshot is still complete
+        Files.deleteIfExists(directory.resolve(Snapshot.TEMPORARY_FILE));
+        final Path snapshotFile = directory.resolve(Snapshot.FILE);
+        long firstSegment = 0;
+        if (Files.exists(snapshotFile)) {
+            firstSegment = Snapshot.read(snapshotFile, new LogRecords.Visitor() {
+                @Override
+                public void put(final Favourite favourite) {
+                    load(favourite);
+                }
+
+                @Override
+                public void delete(final String id) {
+                    remove(id);
+                }
+
+                @Override
+                public void version(final String userName, final long version) {
+                    versions.put(normalize(userName), version);
+                }
+            });
+        }
+        this.log = new WriteAheadLog(directory.resolve(LOG_DIRECTORY), firstSegment, options.durability, options.syncInterval,
+                                     options.segmentSize, new LogRecords.Visitor() {
+                                         @Override
+                                         public void put(final Favourite favourite) {
+                                             FileFavouritesRepository.this.put(favourite);
+                                         }
+
+                                         @Override
+                                         public void delete(final String id) {
+                                             remove(id);
+                                         }
+                                     });
+        LOG.infof("Loaded %d favourites from %s in %d ms", table.count(), directory, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    @Override
+    public List<Favourite> findByUserName(final String userName) {
+        return table.findByUserName(userName);
+    }
+
+    @Override
+    public Map<String, List<Favourite>> findByUserNames(final Collection<String> userNames) {
+        final Map<String, List<Favourite>> favouritesByUserName = new LinkedHashMap<>(userNames.size() * 4 / 3 + 1);
+        for (String userName : userNames) {
+            favouritesByUserName.put(userName, findByUserName(userName));
+        }
+        return favouritesByUserName;
+    }
+
+    @Override
+    public List<Favourite> findAll() {
+        final List<Favourite> favourites = new ArrayList<>((int) Math.min(table.count(), Integer.MAX_VALUE - 8));
+        table.iterateAll().forEachRemaining(favourites::add);
+        return favourites;
+    }
+
+    @Override
+    public FavouritesPage findAll(final Long afterPosition, final int limit) {
+        return table.findAll(afterPosition, limit);
+    }
+
+    @Override
+    public Iterator<Favourite> iterateAll() {
+        return table.iterateAll();
+    }
+
+    @Override
+    public Optional<Favourite> findById(final String id) {
+        return table.findById(id);
+    }
+
+    @Override
+    public FavouritesPage search(final SearchQuery query, final Long afterPosition, final int limit) {
+        final int after = afterPosition == null ? -1 : (int) Math.min(afterPosition, Integer.MAX_VALUE);
+        // one more than requested tells whether there is a next page
+        final int[] positions = commentIndex.search(query, after, limit + 1);
+        final List<Favourite> favourites = new ArrayList<>(Math.min(positions.length, limit));
+        for (int i = 0; i < positions.length && favourites.size() < limit; i++) {
+            final Favourite favourite = table.findByPosition(positions[i]);
+            // the favourite may have changed since the index was searched
+            if (favourite != null && query.matches(favourite)) {
+                favourites.add(favourite);
+            }
+        }
+        final boolean more = positions.length > limit;
+        return new FavouritesPage(favourites, more ? Long.valueOf(positions[limit - 1]) : null);
+    }
+
+    @Override
+    public List<Favourite> search(final String userName, final SearchQuery query) {
+        final List<Favourite> favourites = new ArrayList<>();
+        for (Favourite favourite : table.findByUserName(userName)) {
+            if (query.matches(favourite)) {
+                favourites.add(favourite);
+            }
+        }
+        return favourites;
+    }
+
+    @Override
+    public Favourite save(final Favourite favourite) {
+        if (favourite.getId() == null || favourite.getUserName() == null) {
+            throw new IllegalArgumentException("A favourite needs an id and a user name");
+        }
+        if (favourite.getRating() != Favourite.NO_RATING && !RatingStatistics.isRated(favourite.getRating())) {
+            throw new IllegalArgumentException("A favourite is rated from " + Favourite.MIN_RATING + " to " + Favourite.MAX_RATING
+                                               + ", or " + Favourite.NO_RATING + " if it's not rated");
+        }
+
+        final long position;
+        writeLock.lock();
+        try {
+            position = log.appendPut(favourite);
+            put(favourite);
+            scheduleSnapshotIfDue();
+        } finally {
+            writeLock.unlock();
+        }
+        log.commit(position);
+        return favourite;
+    }
+
+    @Override
+    public boolean delete(final String id) {
+        final long position;
+        writeLock.lock();
+        try {
+            if (!table.findById(id).isPresent()) {
+                return false;
+            }
+            position = log.appendDelete(id);
+            remove(id);
+            scheduleSnapshotIfDue();
+        } finally {
+            writeLock.unlock();
+        }
+        log.commit(position);
+        return true;
+    }
+
+    @Override
+    public long count() {
+        return table.count();
+    }
+
+    @Override
+    public RatingStatistics getRatingStatistics(final String userName) {
+        return statisticsByUserName.getOrDefault(normalize(userName), RatingStatistics.EMPTY);
+    }
+
+    @Override
+    public RatingStatistics getRatingStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public String getVersion(final String userName) {
+        return storeId + "-" + versions.getOrDefault(normalize(userName), 0L);
+    }
+
+    /**
+     * Writes a snapshot of the favourites and deletes the log before it. Writers are only blocked while the log
+     * starts a new segment: the snapshot is taken while they go on, the records of the new segment are replayed on top
+     * of it, which puts and deletes the same favourites again.
+     */
+    public void snapshot() throws IOException {
+        snapshotLock.lock();
+        try {
+            final long firstSegment;
+            writeLock.lock();
+            try {
+                appendedAtSnapshot = log.getAppended();
+                firstSegment = log.roll();
+            } finally {
+                writeLock.unlock();
+            }
+            final long start = System.nanoTime();
+            final long count = Snapshot.write(directory, firstSegment, table.iterateAll(), versions);
+            log.deleteSegmentsBefore(firstSegment);
+            LOG.infof("Wrote a snapshot of %d favourites in %d ms", count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * @return the bytes appended to the log since the repository was opened
+     */
+    long getLogAppended() {
+        return log.getAppended();
+    }
+
+    /**
+     * @return the number of times the log was forced to disk
+     */
+    long getLogSyncs() {
+        return log.getSyncs();
+    }
+
+    @Override
+    public void close() throws IOException {
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeLock.lock();
+        try {
+            log.close();
+            // everything appended is on disk now, so the versions handed out can be handed out again after a restart
+            Files.write(directory.resolve(CLOSED_FILE), new byte[0]);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void put(final Favourite favourite) {
+        final Favourite previous = table.put(favourite);
+        final int position = Math.toIntExact(table.positionOf(favourite.getId()));
+        if (previous != null) {
+            commentIndex.update(position, previous, favourite);
+            removeRating(previous);
+            incrementVersion(previous.getUserName());
+        } else {
+            commentIndex.add(position, favourite);
+        }
+        incrementVersion(favourite.getUserName());
+        addRating(favourite);
+    }
+
+    /**
+     * Adds a favourite of the snapshot, which holds every favourite once and the versions of the users.
+     */
+    private void load(final Favourite favourite) {
+        table.put(favourite);
+        commentIndex.add(Math.toIntExact(table.positionOf(favourite.getId())), favourite);
+        addRating(favourite);
+    }
+
+    private void remove(final String id) {
+        final long position = table.positionOf(id);
+        final Favourite removed = table.remove(id);
+        if (removed != null) {
+            commentIndex.remove((int) position, removed);
+            removeRating(removed);
+            incrementVersion(removed.getUserName());
+        }
+    }
+
+    // only called by writers, which are serialized
+    private void addRating(final Favourite favourite) {
+        if (RatingStatistics.isRated(favourite.getRating())) {
+            statistics = statistics.plus(favourite.getRating());
+            statisticsByUserName.compute(normalize(favourite.getUserName()),
+                                         (userName, current) -> (current == null ? RatingStatistics.EMPTY : current).plus(favourite.getRating()));
+        }
+    }
+
+    private void removeRating(final Favourite favourite) {
+        if (RatingStatistics.isRated(favourite.getRating())) {
+            statistics = statistics.minus(favourite.getRating());
+            statisticsByUserName.computeIfPresent(normalize(favourite.getUserName()), (userName, current) -> {
+                final RatingStatistics updated = current.minus(favourite.getRating());
+                return updated.getCount() == 0 ? null : updated;
+            });
+        }
+    }
+
+    private void incrementVersion(final String userName) {
+        versions.merge(normalize(userName), 1L, Long::sum);
+    }
+
+    // only called by writers, which are serialized
+    private void scheduleSnapshotIfDue() {
+        if (log.getAppended() - appendedAtSnapshot >= options.snapshotAfterBytes && snapshotScheduled.compareAndSet(false, true)) {
+            snapshotter.execute(() -> {
+                try {
+                    snapshot();
+                } catch (IOException | UncheckedIOException e) {
+                    LOG.warn("Could not write a snapshot of the favourites, the log is kept", e);
+                } finally {
+                    snapshotScheduled.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * The store id is part of every version, so that versions handed out before the store was wiped never match
+     * versions of the new store. A version is handed out before its write is forced to disk, so after a crash the
+     * store may come back with an older version and would hand it out again for other favourites. Unless the store
+     * was closed cleanly the id is replaced, which tells the clients that all their versions are stale.
+     */
+    private static String readOrCreateStoreId(final Path directory) throws IOException {
+        final Path storeIdFile = directory.resolve(STORE_ID_FILE);
+        final boolean closed = Files.deleteIfExists(directory.resolve(CLOSED_FILE));
+        if (closed && Files.exists(storeIdFile)) {
+            // the marker must be gone before the first write, or a crash after it would keep the id
+            Snapshot.forceDirectory(directory);
+            return new String(Files.readAllBytes(storeIdFile), StandardCharsets.US_ASCII).trim();
+        }
+        if (Files.exists(storeIdFile)) {
+            LOG.info("The favourites store wasn't closed cleanly, versions handed out before are stale");
+        }
+        final String storeId = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+        try (FileChannel channel = FileChannel.open(storeIdFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(storeId.getBytes(StandardCharsets.US_ASCII)));
+            channel.force(true);
+        }
+        Snapshot.forceDirectory(directory);
+        return storeId;
+    }
+
+    static String normalize(final String userName) {
+        return userName.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Durability of the writes and sizes of the log.
+     */
+    public static final class Options {
+        private final WriteAheadLog.Durability durability;
+        private final Duration syncInterval;
+        private final int segmentSize;
+        private final long snapshotAfterBytes;
+
+        private Options(final Builder builder) {
+            this.durability = builder.durability;
+            this.syncInterval = builder.syncInterval;
+            this.segmentSize = builder.segmentSize;
+            this.snapshotAfterBytes = builder.snapshotAfterBytes;
+        }
+
+        public static Builder builder() {
+            return new Builder();
+        }
+
+        public static final class Builder {
+            private WriteAheadLog.Durability durability = WriteAheadLog.Durability.PERIODIC;
+            private Duration syncInterval = Duration.ofSeconds(1);
+            private int segmentSize = 64 << 20;
+            private long snapshotAfterBytes = 256L << 20;
+
+            private Builder() {
+            }
+
+            public Builder withDurability(final WriteAheadLog.Durability durability) {
+                this.durability = durability;
+                return this;
+            }
+
+            /**
+             * How often the log is forced to disk with {@link WriteAheadLog.Durability#PERIODIC}.
+             */
+            public Builder withSyncInterval(final Duration syncInterval) {
+                this.syncInterval = syncInterval;
+                return this;
+            }
+
+            /**
+             * Size of a segment file of the log, which is the largest favourite that can be written.
+             */
+            public Builder withSegmentSize(final int segmentSize) {
+                this.segmentSize = segmentSize;
+                return this;
+            }
+
+            /**
+             * A snapshot is written once this many bytes were appended to the log since the last one.
+             */
+            public Builder withSnapshotAfterBytes(final long snapshotAfterBytes) {
+                this.snapshotAfterBytes = snapshotAfterBytes;
+                return this;
+            }
+
+            public Options build() {
+                return new Options(this);
+            }
+        }
+    }
+}
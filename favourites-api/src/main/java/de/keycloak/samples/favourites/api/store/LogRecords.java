@@ -0,0 +1,210 @@
+package de.keycloak.samples.favourites.api.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Binary encoding of the mutations in the {@link WriteAheadLog} and the records of a {@link Snapshot}. A record is
+ * {@code length, crc, type, fields}: the length and the CRC-32 cover type and fields, strings are written as length
+ * and UTF-8 bytes with length -1 for null.
+ * <p>
+ * The length is written last, so a record is only complete once its length is set. A length of 0 marks the end of
+ * the records, a record whose CRC doesn't match was torn by a crash while it was written.
+ */
+final class LogRecords {
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    static final byte VERSION = 3;
+    static final byte END = 4;
+
+    static final int HEADER_SIZE = 8;
+
+    /**
+     * Receives the decoded records.
+     */
+    interface Visitor {
+
+        void put(Favourite favourite);
+
+        void delete(String id);
+
+        default void version(final String userName, final long version) {
+        }
+    }
+
+    /**
+     * Result of {@link #read(ByteBuffer, Visitor)}.
+     */
+    enum Outcome {
+        /**
+         * All records were read up to the end marker or the end of the buffer.
+         */
+        END,
+        /**
+         * A record is incomplete or its CRC doesn't match, the buffer is positioned at its start.
+         */
+        TORN,
+        /**
+         * An {@link #END} record was read.
+         */
+        END_RECORD
+    }
+
+    private LogRecords() {
+    }
+
+    /**
+     * @return the bytes of the encoded record
+     */
+    static int put(final ByteBuffer target, final byte[] id, final byte[] userName, final byte[] comment, final int rating) {
+        final int start = target.position();
+        target.position(start + HEADER_SIZE);
+        target.put(PUT);
+        putBytes(target, id);
+        putBytes(target, userName);
+        putBytes(target, comment);
+        target.putInt(rating);
+        return finish(target, start);
+    }
+
+    static int delete(final ByteBuffer target, final byte[] id) {
+        final int start = target.position();
+        target.position(start + HEADER_SIZE);
+        target.put(DELETE);
+        putBytes(target, id);
+        return finish(target, start);
+    }
+
+    static int version(final ByteBuffer target, final byte[] userName, final long version) {
+        final int start = target.position();
+        target.position(start + HEADER_SIZE);
+        target.put(VERSION);
+        putBytes(target, userName);
+        target.putLong(version);
+        return finish(target, start);
+    }
+
+    static int end(final ByteBuffer target, final long records) {
+        final int start = target.position();
+        target.position(start + HEADER_SIZE);
+        target.put(END);
+        target.putLong(records);
+        return finish(target, start);
+    }
+
+    static int putSize(final byte[] id, final byte[] userName, final byte[] comment) {
+        return HEADER_SIZE + 1 + bytesSize(id) + bytesSize(userName) + bytesSize(comment) + Integer.BYTES;
+    }
+
+    static int deleteSize(final byte[] id) {
+        return HEADER_SIZE + 1 + bytesSize(id);
+    }
+
+    static int versionSize(final byte[] userName) {
+        return HEADER_SIZE + 1 + bytesSize(userName) + Long.BYTES;
+    }
+
+    static int endSize() {
+        return HEADER_SIZE + 1 + Long.BYTES;
+    }
+
+    static byte[] utf8(final String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads records from the position of the buffer until its limit, an end marker or a torn record.
+     */
+    static Outcome read(final ByteBuffer source, final Visitor visitor) {
+        final CRC32 crc = new CRC32();
+        while (source.remaining() >= HEADER_SIZE) {
+            final int start = source.position();
+            final int length = source.getInt(start);
+            if (length == 0) {
+                return Outcome.END;
+            }
+            if (length < 0 || length > source.limit() - start - HEADER_SIZE) {
+                return Outcome.TORN;
+            }
+            final ByteBuffer body = source.duplicate();
+            body.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != source.getInt(start + Integer.BYTES)) {
+                return Outcome.TORN;
+            }
+            source.position(start + HEADER_SIZE + length);
+            final byte type = body.get();
+            if (type == PUT) {
+                visitor.put(Favourite.builder()
+                                     .withId(getString(body))
+                                     .withUserName(getString(body))
+                                     .withComment(getString(body))
+                                     .withRating(body.getInt())
+                                     .build());
+            } else if (type == DELETE) {
+                visitor.delete(getString(body));
+            } else if (type == VERSION) {
+                visitor.version(getString(body), body.getLong());
+            } else if (type == END) {
+                return Outcome.END_RECORD;
+            } else {
+                throw new IllegalStateException("Unknown record type " + type + " at " + start);
+            }
+        }
+        return source.remaining() == 0 || allZero(source) ? Outcome.END : Outcome.TORN;
+    }
+
+    private static int finish(final ByteBuffer target, final int start) {
+        final int end = target.position();
+        final int length = end - start - HEADER_SIZE;
+        final ByteBuffer body = target.duplicate();
+        body.position(start + HEADER_SIZE).limit(end);
+        final CRC32 crc = new CRC32();
+        crc.update(body);
+        target.putInt(start + Integer.BYTES, (int) crc.getValue());
+        target.putInt(start, length);
+        return end - start;
+    }
+
+    private static int bytesSize(final byte[] bytes) {
+        return Integer.BYTES + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void putBytes(final ByteBuffer target, final byte[] bytes) {
+        if (bytes == null) {
+            target.putInt(-1);
+        } else {
+            target.putInt(bytes.length);
+            target.put(bytes);
+        }
+    }
+
+    private static String getString(final ByteBuffer source) {
+        final int length = source.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final String value;
+        if (source.hasArray()) {
+            value = new String(source.array(), source.arrayOffset() + source.position(), length, StandardCharsets.UTF_8);
+        } else {
+            final byte[] bytes = new byte[length];
+            source.duplicate().get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        source.position(source.position() + length);
+        return value;
+    }
+
+    private static boolean allZero(final ByteBuffer source) {
+        for (int i = source.position(); i < source.limit(); i++) {
+            if (source.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,123 @@
+package de.keycloak.samples.favourites.api.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static de.keycloak.samples.favourites.api.store.FileFavouritesRepository.normalize;
+
+/**
+ * Keeps the favourites as objects in concurrent maps: by id, by position in the creation order and by the lower-cased
+ * user name, so looking up the favourites of a user costs O(favourites of the user). Reads don't take locks.
+ */
+public class ObjectFavouritesTable implements FavouritesTable {
+
+    private final Map<String, Entry> byId = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, Favourite> bySequence = new ConcurrentSkipListMap<>();
+    private final Map<String, ConcurrentNavigableMap<Long, Favourite>> byUserName = new ConcurrentHashMap<>();
+
+    // only written by writers, which are serialized
+    private long nextSequence;
+
+    @Override
+    public Optional<Favourite> findById(final String id) {
+        final Entry entry = byId.get(id);
+        return entry == null ? Optional.empty() : Optional.of(entry.favourite);
+    }
+
+    @Override
+    public long positionOf(final String id) {
+        final Entry entry = byId.get(id);
+        return entry == null ? -1 : entry.sequence;
+    }
+
+    @Override
+    public Favourite findByPosition(final long position) {
+        return bySequence.get(position);
+    }
+
+    @Override
+    public List<Favourite> findByUserName(final String userName) {
+        final ConcurrentNavigableMap<Long, Favourite> favourites = byUserName.get(normalize(userName));
+        return favourites == null ? Collections.emptyList() : new ArrayList<>(favourites.values());
+    }
+
+    @Override
+    public FavouritesPage findAll(final Long afterPosition, final int limit) {
+        final ConcurrentNavigableMap<Long, Favourite> following = afterPosition == null ? bySequence : bySequence.tailMap(afterPosition, false);
+        final List<Favourite> favourites = new ArrayList<>(Math.min(limit, 1024));
+        Long lastPosition = null;
+        for (final Map.Entry<Long, Favourite> entry : following.entrySet()) {
+            if (favourites.size() == limit) {
+                return new FavouritesPage(favourites, lastPosition);
+            }
+            favourites.add(entry.getValue());
+            lastPosition = entry.getKey();
+        }
+        return new FavouritesPage(favourites, null);
+    }
+
+    @Override
+    public Iterator<Favourite> iterateAll() {
+        return Collections.unmodifiableCollection(bySequence.values()).iterator();
+    }
+
+    @Override
+    public long count() {
+        return byId.size();
+    }
+
+    @Override
+    public Favourite put(final Favourite favourite) {
+        final Entry previous = byId.get(favourite.getId());
+        final long sequence = previous != null ? previous.sequence : nextSequence++;
+        if (previous != null) {
+            removeFromUserIndex(previous);
+        }
+
+        byId.put(favourite.getId(), new Entry(sequence, favourite));
+        bySequence.put(sequence, favourite);
+        byUserName.computeIfAbsent(normalize(favourite.getUserName()), userName -> new ConcurrentSkipListMap<>())
+                  .put(sequence, favourite);
+        return previous != null ? previous.favourite : null;
+    }
+
+    @Override
+    public Favourite remove(final String id) {
+        final Entry entry = byId.remove(id);
+        if (entry == null) {
+            return null;
+        }
+        bySequence.remove(entry.sequence);
+        removeFromUserIndex(entry);
+        return entry.favourite;
+    }
+
+    private void removeFromUserIndex(final Entry entry) {
+        final String userName = normalize(entry.favourite.getUserName());
+        final ConcurrentNavigableMap<Long, Favourite> favourites = byUserName.get(userName);
+        if (favourites != null) {
+            favourites.remove(entry.sequence);
+            if (favourites.isEmpty()) {
+                byUserName.remove(userName);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final long sequence;
+        private final Favourite favourite;
+
+        private Entry(final long sequence, final Favourite favourite) {
+            this.sequence = sequence;
+            this.favourite = favourite;
+        }
+    }
+}
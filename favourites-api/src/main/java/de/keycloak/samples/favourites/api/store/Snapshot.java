@@ -0,0 +1,153 @@
+package de.keycloak.samples.favourites.api.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The favourites and versions of the {@link FileFavouritesRepository} up to the start of a segment of the
+ * {@link WriteAheadLog}, so only the segments from there on have to be replayed. Deleted favourites are left out,
+ * which compacts the positions of the favourites.
+ * <p>
+ * The snapshot is written to a temporary file, forced to disk and then renamed, so there is either the complete new
+ * snapshot or the previous one.
+ */
+final class Snapshot {
+    static final String FILE = "favourites.snapshot";
+    static final String TEMPORARY_FILE = FILE + ".tmp";
+
+    private static final int MAGIC = 0x46415653;
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private Snapshot() {
+    }
+
+    /**
+     * @param firstSegment the segment of the log from which on the mutations are not part of the snapshot
+     * @return the number of favourites written
+     */
+    static long write(final Path directory,
+                      final long firstSegment,
+                      final Iterator<Favourite> favourites,
+                      final Map<String, Long> versions) throws IOException {
+        final Path temporary = directory.resolve(TEMPORARY_FILE);
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                                    StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.putInt(MAGIC).putInt(FORMAT).putLong(firstSegment);
+            while (favourites.hasNext()) {
+                final Favourite favourite = favourites.next();
+                final byte[] id = LogRecords.utf8(favourite.getId());
+                final byte[] userName = LogRecords.utf8(favourite.getUserName());
+                final byte[] comment = LogRecords.utf8(favourite.getComment());
+                buffer = ensureRemaining(channel, buffer, LogRecords.putSize(id, userName, comment));
+                LogRecords.put(buffer, id, userName, comment, favourite.getRating());
+                count++;
+            }
+            for (Map.Entry<String, Long> version : versions.entrySet()) {
+                final byte[] userName = LogRecords.utf8(version.getKey());
+                buffer = ensureRemaining(channel, buffer, LogRecords.versionSize(userName));
+                LogRecords.version(buffer, userName, version.getValue());
+            }
+            buffer = ensureRemaining(channel, buffer, LogRecords.endSize());
+            LogRecords.end(buffer, count);
+            flush(channel, buffer);
+            channel.force(true);
+        }
+        final Path file = directory.resolve(FILE);
+        try {
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        forceDirectory(directory);
+        return count;
+    }
+
+    /**
+     * @return the segment of the log from which on the mutations have to be replayed
+     * @throws IOException if the snapshot can't be read or is corrupt
+     */
+    static long read(final Path file, final LogRecords.Visitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            fill(channel, buffer);
+            buffer.flip();
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a favourites snapshot");
+            }
+            final int format = buffer.getInt();
+            if (format != FORMAT) {
+                throw new IOException("Unknown format " + format + " of the favourites snapshot " + file);
+            }
+            final long firstSegment = buffer.getLong();
+            while (LogRecords.read(buffer, visitor) != LogRecords.Outcome.END_RECORD) {
+                // the next record continues in the file, or doesn't fit into the buffer at all
+                if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer);
+                } else {
+                    buffer.compact();
+                }
+                if (fill(channel, buffer) < 0) {
+                    throw new IOException("The favourites snapshot " + file + " is incomplete");
+                }
+                buffer.flip();
+            }
+            return firstSegment;
+        }
+    }
+
+    private static ByteBuffer ensureRemaining(final FileChannel channel, final ByteBuffer buffer, final int size) throws IOException {
+        if (buffer.remaining() >= size) {
+            return buffer;
+        }
+        flush(channel, buffer);
+        return size <= buffer.capacity() ? buffer : ByteBuffer.allocate(size);
+    }
+
+    private static void flush(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return the bytes read, -1 if the end of the file was reached before anything was read
+     */
+    private static int fill(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer);
+            if (read < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * Makes renamed, created and deleted files of the directory durable. Not every platform can open a directory,
+     * it's durable there anyway.
+     */
+    static void forceDirectory(final Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // e.g. on windows
+        }
+    }
+}
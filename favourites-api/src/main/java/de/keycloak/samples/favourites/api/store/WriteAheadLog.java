@@ -0,0 +1,377 @@
+package de.keycloak.samples.favourites.api.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jboss.logging.Logger;
+
+/**
+ * Append-only log of the mutations of the {@link FileFavouritesRepository}, written to memory-mapped segment files
+ * of a fixed size. Appending a record copies it into the mapping, so it survives a crash of the process right away;
+ * when it's forced to disk is up to the {@link Durability}.
+ * <p>
+ * Forcing is done by group commit: one writer forces everything appended so far, the writers which arrive meanwhile
+ * wait for it and are mostly covered by the next force, so concurrent writers share a single fsync instead of one each.
+ * <p>
+ * The segments are numbered, a {@link Snapshot} holds the state up to the start of a segment and the older segments
+ * are deleted. On startup the remaining segments are replayed, a record torn by a crash ends the last segment.
+ */
+public final class WriteAheadLog implements Closeable {
+    private static final Logger LOG = Logger.getLogger(WriteAheadLog.class);
+
+    static final String SEGMENT_SUFFIX = ".wal";
+
+    /**
+     * When appended records are forced to disk, selected by {@code favourites.store.durability}.
+     */
+    public enum Durability {
+        /**
+         * Records are left to the operating system, which writes the mapped pages when it likes. They survive a crash
+         * of the process, but not of the machine.
+         */
+        NONE,
+        /**
+         * Records are forced every sync interval by a background thread, a crash of the machine loses at most the
+         * writes of the last interval.
+         */
+        PERIODIC,
+        /**
+         * A write returns once its record is forced to disk. Concurrent writers are committed as a group.
+         */
+        SYNC
+    }
+
+    private final Path directory;
+    private final Durability durability;
+    private final int segmentSize;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final ScheduledExecutorService syncer;
+
+    private volatile Segment current;
+    // bytes appended since the log was opened, the position of a record in the log
+    private volatile long appended;
+    private volatile long durable;
+    private volatile long syncs;
+
+    /**
+     * Opens the log in the directory and replays the records of the segments from {@code firstSegment} on. Older
+     * segments are deleted, they are part of the snapshot.
+     *
+     * @param segmentSize size of new segment files, the largest record which can be appended
+     */
+    WriteAheadLog(final Path directory,
+                  final long firstSegment,
+                  final Durability durability,
+                  final Duration syncInterval,
+                  final int segmentSize,
+                  final LogRecords.Visitor visitor) throws IOException {
+        this.directory = directory;
+        this.durability = durability;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        this.current = replay(firstSegment, visitor);
+        if (durability == Durability.PERIODIC) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "favourites-wal-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            final long intervalMillis = Math.max(1, syncInterval.toMillis());
+            this.syncer.scheduleWithFixedDelay(this::syncQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+    }
+
+    /**
+     * @return the position after the record, to be passed to {@link #commit(long)}
+     */
+    long appendPut(final Favourite favourite) {
+        final byte[] id = LogRecords.utf8(favourite.getId());
+        final byte[] userName = LogRecords.utf8(favourite.getUserName());
+        final byte[] comment = LogRecords.utf8(favourite.getComment());
+        final int size = LogRecords.putSize(id, userName, comment);
+        appendLock.lock();
+        try {
+            LogRecords.put(segmentFor(size), id, userName, comment, favourite.getRating());
+            appended += size;
+            return appended;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * @return the position after the record, to be passed to {@link #commit(long)}
+     */
+    long appendDelete(final String id) {
+        final byte[] idBytes = LogRecords.utf8(id);
+        final int size = LogRecords.deleteSize(idBytes);
+        appendLock.lock();
+        try {
+            LogRecords.delete(segmentFor(size), idBytes);
+            appended += size;
+            return appended;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Returns once the records up to the position are as durable as configured: with {@link Durability#SYNC} they
+     * are forced to disk, together with the records of concurrent writers.
+     */
+    void commit(final long position) {
+        if (durability == Durability.SYNC) {
+            sync(position);
+        }
+    }
+
+    /**
+     * Forces the records up to the position to disk, unless they already are.
+     */
+    void sync(final long position) {
+        if (durable >= position) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            // the force of the previous leader may have covered the position
+            if (durable >= position) {
+                return;
+            }
+            // read before the segment: the records up to it are in the segment or in older ones, which were forced
+            // before the segment became the current one
+            final long target = appended;
+            current.force();
+            syncs++;
+            durable = target;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Starts a new segment. The records appended before are in the segments before the returned one.
+     *
+     * @return the number of the new segment
+     */
+    long roll() {
+        appendLock.lock();
+        try {
+            final Segment previous = current;
+            if (previous.buffer.position() == 0) {
+                return previous.number;
+            }
+            startSegment(previous);
+            return current.number;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start a new segment of the favourites log", e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the segments before the given one, once a snapshot holds their records.
+     */
+    void deleteSegmentsBefore(final long segment) throws IOException {
+        for (Path file : segmentFiles()) {
+            if (segmentNumber(file) < segment) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * @return the bytes appended since the log was opened
+     */
+    long getAppended() {
+        return appended;
+    }
+
+    /**
+     * @return the number of times the log was forced to disk by commits, the sync interval and the close
+     */
+    long getSyncs() {
+        return syncs;
+    }
+
+    Durability getDurability() {
+        return durability;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        appendLock.lock();
+        try {
+            if (durability != Durability.NONE) {
+                sync(appended);
+            }
+            current.close();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    private MappedByteBuffer segmentFor(final int size) {
+        if (size > segmentSize) {
+            throw new IllegalArgumentException("The record of " + size + " bytes doesn't fit into a segment of " + segmentSize + " bytes");
+        }
+        if (current.buffer.remaining() < size) {
+            try {
+                startSegment(current);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not start a new segment of the favourites log", e);
+            }
+        }
+        return current.buffer;
+    }
+
+    private void startSegment(final Segment previous) throws IOException {
+        // forced before the next segment is used, so a force of the current segment covers all records before
+        if (durability != Durability.NONE) {
+            previous.force();
+        }
+        current = Segment.create(directory.resolve(fileName(previous.number + 1)), previous.number + 1, segmentSize);
+        previous.close();
+    }
+
+    private void syncQuietly() {
+        try {
+            sync(appended);
+        } catch (RuntimeException e) {
+            LOG.warn("Could not force the favourites log to disk", e);
+        }
+    }
+
+    private Segment replay(final long firstSegment, final LogRecords.Visitor visitor) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        for (Path file : segmentFiles()) {
+            if (segmentNumber(file) < firstSegment) {
+                Files.delete(file);
+            } else {
+                files.add(file);
+            }
+        }
+        if (files.isEmpty()) {
+            return Segment.create(directory.resolve(fileName(firstSegment)), firstSegment, segmentSize);
+        }
+
+        final long start = System.nanoTime();
+        final CountingVisitor counter = new CountingVisitor(visitor);
+        for (int i = 0; i < files.size() - 1; i++) {
+            final Path file = files.get(i);
+            try (Segment segment = Segment.open(file, segmentNumber(file))) {
+                if (LogRecords.read(segment.buffer, counter) == LogRecords.Outcome.TORN) {
+                    LOG.warn("Skipping the corrupt end of " + file + " at byte " + segment.buffer.position());
+                }
+            }
+        }
+        final Path last = files.get(files.size() - 1);
+        final Segment segment = Segment.open(last, segmentNumber(last));
+        if (LogRecords.read(segment.buffer, counter) == LogRecords.Outcome.TORN) {
+            // a crash while the record was written, it was never acknowledged
+            LOG.warn("Discarding the incomplete last record of " + last + " at byte " + segment.buffer.position());
+            for (int i = segment.buffer.position(); i < segment.buffer.limit(); i++) {
+                segment.buffer.put(i, (byte) 0);
+            }
+        }
+        LOG.infof("Replayed %d records of %d segments of the favourites log in %d ms",
+                  counter.records, files.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return segment;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static String fileName(final long segment) {
+        return String.format("%020d%s", segment, SEGMENT_SUFFIX);
+    }
+
+    private static long segmentNumber(final Path file) {
+        final String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static final class Segment implements Closeable {
+        private final long number;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(final long number, final FileChannel channel, final MappedByteBuffer buffer) {
+            this.number = number;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(final Path file, final long number, final int size) throws IOException {
+            final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            // the file is sparse, the zeros mark the end of the records
+            return new Segment(number, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        static Segment open(final Path file, final long number) throws IOException {
+            final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(number, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        /**
+         * Closes the file, the mapping stays valid until the buffer is collected.
+         */
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class CountingVisitor implements LogRecords.Visitor {
+        private final LogRecords.Visitor delegate;
+        private long records;
+
+        private CountingVisitor(final LogRecords.Visitor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void put(final Favourite favourite) {
+            records++;
+            delegate.put(favourite);
+        }
+
+        @Override
+        public void delete(final String id) {
+            records++;
+            delegate.delete(id);
+        }
+    }
+}
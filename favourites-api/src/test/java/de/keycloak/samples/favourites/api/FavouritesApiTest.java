@@ -0,0 +1,53 @@
+package de.keycloak.samples.favourites.api;
+
+import de.keycloak.samples.favourites.api.resources.FavouritesResource;
+import de.keycloak.samples.favourites.api.security.CachingTokenStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Starts the whole application context, so that e.g. circular references between the beans fail the unit tests.
+ * Keycloak isn't needed: the keys of the realm are only fetched with the first token. The context is closed after
+ * the class, before the temporary folder of its store is deleted.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(properties = {"security.oauth2.resource.jwk.fetch-on-startup=false", "favourites.store.seed-sample-data=false"})
+@DirtiesContext
+public class FavouritesApiTest {
+
+    private static final String STORE_DIRECTORY = "favourites.store.directory";
+
+    @ClassRule
+    public static TemporaryFolder folder = new TemporaryFolder();
+
+    @Autowired
+    private ApplicationContext context;
+
+    @BeforeClass
+    public static void setUpClass() {
+        System.setProperty(STORE_DIRECTORY, folder.getRoot().getAbsolutePath());
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        System.clearProperty(STORE_DIRECTORY);
+    }
+
+    @Test
+    public void shouldLoadContext() {
+        assertThat(context.getBean(FavouritesResource.class), notNullValue());
+        assertThat(context.getBean(MeterRegistry.class).find("cache.size").tag("cache", CachingTokenStore.CACHE_NAME).meter(), notNullValue());
+    }
+}
@@ -0,0 +1,44 @@
+package de.keycloak.samples.favourites.api.model;
+
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class FavouriteSerializerTest {
+
+    private static final List<Favourite> FAVOURITES = Arrays.asList(
+            Favourite.builder().withId("1").withUserName("tom").withRating(5).withComment("Nice \"restaurant\" ä").build(),
+            Favourite.builder().withId("2").withUserName("tom").build());
+
+    @Test
+    public void shouldWriteLikeTheBeanSerializer() throws Exception {
+        final ObjectMapper reflective = new ObjectMapper().addMixIn(Favourite.class, BeanSerialized.class);
+
+        assertThat(new ObjectMapper().writeValueAsString(FAVOURITES), is(reflective.writeValueAsString(FAVOURITES)));
+        assertThat(new ObjectMapper().writeValueAsString(FAVOURITES.get(1)),
+                   is("{\"id\":\"2\",\"rating\":0,\"comment\":null,\"userName\":\"tom\"}"));
+    }
+
+    @Test
+    public void shouldReadWhatItWritesAsSmile() throws Exception {
+        final ObjectMapper smile = new ObjectMapper(new SmileFactory());
+
+        final Favourite[] favourites = smile.readValue(smile.writeValueAsBytes(FAVOURITES), Favourite[].class);
+
+        assertThat(favourites[0].getComment(), is(FAVOURITES.get(0).getComment()));
+        assertThat(favourites[0].getRating(), is(5));
+        assertThat(favourites[1].getComment(), nullValue());
+        assertThat(favourites[1].getUserName(), is("tom"));
+    }
+
+    @JsonSerialize(using = JsonSerializer.None.class)
+    private abstract static class BeanSerialized {
+    }
+}
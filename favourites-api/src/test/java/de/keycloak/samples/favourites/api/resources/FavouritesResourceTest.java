@@ -0,0 +1,318 @@
+package de.keycloak.samples.favourites.api.resources;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import de.keycloak.samples.favourites.api.metrics.AuthPipelineMetrics;
+import de.keycloak.samples.favourites.api.model.Favourite;
+import de.keycloak.samples.favourites.api.security.AuthorityBits;
+import de.keycloak.samples.favourites.api.security.AuthorizationInterceptor;
+import de.keycloak.samples.favourites.api.security.CustomJwtAccessTokenConverter;
+import de.keycloak.samples.favourites.api.store.FileFavouritesRepository;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Covers the request handling of the resource with its authorization rules, but without the security filter chain,
+ * which is covered by the integration test. Requests are made by an admin unless they have a principal of their own.
+ */
+public class FavouritesResourceTest {
+
+    private static final TestingAuthenticationToken ADMIN = new TestingAuthenticationToken("admin", null, "ROLE_ADMIN");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileFavouritesRepository repository;
+    private AuthorityBits authorityBits;
+    private MockMvc mockMvc;
+
+    @Before
+    public void setUp() throws IOException {
+        repository = new FileFavouritesRepository(folder.getRoot().toPath());
+        for (int i = 1; i <= 3; i++) {
+            repository.save(Favourite.builder().withId(String.valueOf(i)).withUserName("tom").withRating(i).withComment("Comment " + i).build());
+        }
+        authorityBits = new AuthorityBits();
+        final AuthorizationInterceptor authorizationInterceptor = new AuthorizationInterceptor(authorityBits, AuthPipelineMetrics.noop());
+        authorizationInterceptor.compile(Arrays.asList(FavouritesResource.class.getMethods()));
+        mockMvc = MockMvcBuilders.standaloneSetup(new FavouritesResource(repository, new ObjectMapper(), 2, 2, 3))
+                                 .addInterceptors(authorizationInterceptor)
+                                 .defaultRequest(get("/").principal(ADMIN))
+                                 .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        repository.close();
+    }
+
+    @Test
+    public void shouldLinkToNextPage() throws Exception {
+        final MvcResult first = mockMvc.perform(get("/favourites"))
+                                       .andExpect(status().isOk())
+                                       .andExpect(jsonPath("$.length()").value(2))
+                                       .andReturn();
+
+        final String link = first.getResponse().getHeader(HttpHeaders.LINK);
+        final String next = link.substring(1, link.indexOf('>'));
+
+        mockMvc.perform(get(next))
+               .andExpect(status().isOk())
+               .andExpect(jsonPath("$[0].id").value("3"))
+               .andExpect(header().doesNotExist(HttpHeaders.LINK));
+    }
+
+    @Test
+    public void shouldCapPageSize() throws Exception {
+        mockMvc.perform(get("/favourites").param("limit", "1000")).andExpect(jsonPath("$.length()").value(2));
+    }
+
+    @Test
+    public void shouldRejectInvalidCursor() throws Exception {
+        mockMvc.perform(get("/favourites").param("cursor", "not a cursor")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/favourites").param("limit", "0")).andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void shouldAnswerMatchingIfNoneMatchWithNotModified() throws Exception {
+        final String etag = mockMvc.perform(get("/favourites/tom").principal(user("tom")))
+                                   .andExpect(status().isOk())
+                                   .andExpect(jsonPath("$.length()").value(3))
+                                   .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/favourites/tom").principal(user("tom")).header(HttpHeaders.IF_NONE_MATCH, etag))
+               .andExpect(status().isNotModified())
+               .andExpect(header().string(HttpHeaders.ETAG, etag))
+               .andExpect(content().string(""));
+
+        repository.delete("1");
+
+        mockMvc.perform(get("/favourites/tom").principal(user("tom")).header(HttpHeaders.IF_NONE_MATCH, etag))
+               .andExpect(status().isOk())
+               .andExpect(jsonPath("$.length()").value(2));
+    }
+
+    @Test
+    public void shouldNotRevealVersionToOtherUsers() throws Exception {
+        mockMvc.perform(get("/favourites/tom").principal(user("tim")).header(HttpHeaders.IF_NONE_MATCH, "*"))
+               .andExpect(status().isForbidden())
+               .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void shouldStreamAllFavouritesAsNdjson() throws Exception {
+        final MvcResult result = mockMvc.perform(get("/favourites").header(HttpHeaders.ACCEPT, FavouritesResource.APPLICATION_NDJSON_VALUE))
+                                        .andExpect(request().asyncStarted())
+                                        .andReturn();
+
+        final String body = mockMvc.perform(asyncDispatch(result))
+                                   .andExpect(status().isOk())
+                                   .andExpect(content().contentType(FavouritesResource.APPLICATION_NDJSON_VALUE))
+                                   .andReturn().getResponse().getContentAsString();
+
+        final String[] lines = body.split("\n");
+        assertThat(lines.length, is(3));
+        for (String line : lines) {
+            assertThat(line.startsWith("{"), is(true));
+        }
+        assertThat(new ObjectMapper().readValue(lines[2], Favourite.class).getComment(), is("Comment 3"));
+        assertThat(body.endsWith("\n"), is(true));
+    }
+
+    @Test
+    public void shouldBatchGetOwnFavouritesAndForbidOthers() throws Exception {
+        final MvcResult result = mockMvc.perform(post("/favourites:batchGet").principal(user("tom"))
+                                                                            .contentType(MediaType.APPLICATION_JSON)
+                                                                            .content("[\"tom\", \"tim\", \"tom\"]"))
+                                        .andExpect(request().asyncStarted())
+                                        .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+               .andExpect(status().isOk())
+               .andExpect(jsonPath("$.length()").value(2))
+               .andExpect(jsonPath("$.tom.status").value(200))
+               .andExpect(jsonPath("$.tom.favourites.length()").value(3))
+               .andExpect(jsonPath("$.tom.favourites[2].comment").value("Comment 3"))
+               .andExpect(jsonPath("$.tim.status").value(403))
+               .andExpect(jsonPath("$.tim.favourites").doesNotExist());
+    }
+
+    @Test
+    public void shouldBatchGetFavouritesOfAllUsersForAdmins() throws Exception {
+        repository.save(Favourite.builder().withId("4").withUserName("tim").withRating(4).withComment("Comment 4").build());
+
+        final MvcResult result = mockMvc.perform(post("/favourites:batchGet").principal(ADMIN)
+                                                                            .contentType(MediaType.APPLICATION_JSON)
+                                                                            .content("[\"tim\", \"tom\", \"nobody\"]"))
+                                        .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+               .andExpect(status().isOk())
+               .andExpect(jsonPath("$.tim.favourites[0].id").value("4"))
+               .andExpect(jsonPath("$.tom.favourites.length()").value(3))
+               .andExpect(jsonPath("$.nobody.status").value(200))
+               .andExpect(jsonPath("$.nobody.favourites.length()").value(0));
+    }
+
+    @Test
+    public void shouldRejectEmptyAndOversizedBatches() throws Exception {
+        mockMvc.perform(post("/favourites:batchGet").principal(user("tom"))
+                                                   .contentType(MediaType.APPLICATION_JSON)
+                                                   .content("[]"))
+               .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/favourites:batchGet").principal(user("tom"))
+                                                   .contentType(MediaType.APPLICATION_JSON)
+                                                   .content("[\"a\", \"b\", \"c\", \"d\"]"))
+               .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void shouldReturnRatingStatisticsOfOwnFavourites() throws Exception {
+        mockMvc.perform(get("/favourites/tom/statistics").principal(user("tom")))
+               .andExpect(status().isOk())
+               .andExpect(jsonPath("$.count").value(3))
+               .andExpect(jsonPath("$.sum").value(6))
+               .andExpect(jsonPath("$.min").value(1))
+               .andExpect(jsonPath("$.max").value(3))
+               .andExpect(jsonPath("$.average").value(2.0))
+               .andExpect(jsonPath("$.histogram.length()").value(5));
+        mockMvc.perform(get("/favourites/tom/statistics").principal(user("tim"))).andExpect(status().isForbidden());
+        mockMvc.perform(get("/favourites:statistics")).andExpect(status().isOk()).andExpect(jsonPath("$.count").value(3));
+    }
+
+    @Test
+    public void shouldSearchCommentsOfAllFavouritesPageByPage() throws Exception {
+        final MvcResult first = mockMvc.perform(get("/favourites:search").param("q", "comm*"))
+                                       .andExpect(status().isOk())
+                                       .andExpect(jsonPath("$.length()").value(2))
+                                       .andExpect(jsonPath("$[0].id").value("1"))
+                                       .andReturn();
+
+        final String link = first.getResponse().getHeader(HttpHeaders.LINK);
+        final String next = link.substring(1, link.indexOf('>'));
+
+        mockMvc.perform(get(URI.create(next)))
+               .andExpect(status().isOk())
+               .andExpect(jsonPath("$.length()").value(1))
+               .andExpect(jsonPath("$[0].id").value("3"))
+               .andExpect(header().doesNotExist(HttpHeaders.LINK));
+        mockMvc.perform(get("/favourites:search").param("q", "comment").param("minRating", "2"))
+               .andExpect(jsonPath("$.length()").value(2))
+               .andExpect(jsonPath("$[0].id").value("2"))
+               .andExpect(header().doesNotExist(HttpHeaders.LINK));
+        mockMvc.perform(get("/favourites:search").param("q", "comment 3")).andExpect(jsonPath("$[0].id").value("3"));
+    }
+
+    @Test
+    public void shouldSearchOwnFavouritesOnly() throws Exception {
+        mockMvc.perform(get("/favourites/tom/search").param("q", "comment").param("maxRating", "2").principal(user("tom")))
+               .andExpect(status().isOk())
+               .andExpect(jsonPath("$.length()").value(2));
+        mockMvc.perform(get("/favourites/tom/search").param("q", "comment").principal(user("tim"))).andExpect(status().isForbidden());
+    }
+
+    @Test
+    public void shouldRejectInvalidSearches() throws Exception {
+        mockMvc.perform(get("/favourites:search").param("q", "  ")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/favourites:search").param("q", "c*")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/favourites:search").param("q", "comment").param("minRating", "4").param("maxRating", "2"))
+               .andExpect(status().isBadRequest());
+        mockMvc.perform(get("/favourites/tom/search").param("q", "comment").param("minRating", "9").principal(user("tom")))
+               .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void shouldRejectRatingOutOfRange() throws Exception {
+        mockMvc.perform(post("/favourites/tom").principal(user("tom"))
+                                               .contentType(MediaType.APPLICATION_JSON)
+                                               .content("{\"rating\":6,\"comment\":\"Too good\"}"))
+               .andExpect(status().isBadRequest());
+        mockMvc.perform(put("/favourites/tom/1").principal(user("tom"))
+                                                .contentType(MediaType.APPLICATION_JSON)
+                                                .content("{\"rating\":-1,\"comment\":\"Too bad\"}"))
+               .andExpect(status().isBadRequest());
+        assertThat(repository.getRatingStatistics("tom").getSum(), is(6L));
+    }
+
+    @Test
+    public void shouldNegotiateSmile() throws Exception {
+        final byte[] body = mockMvc.perform(get("/favourites").param("limit", "2").header(HttpHeaders.ACCEPT, "application/x-jackson-smile"))
+                                   .andExpect(status().isOk())
+                                   .andExpect(content().contentTypeCompatibleWith("application/x-jackson-smile"))
+                                   .andReturn().getResponse().getContentAsByteArray();
+
+        final List<Favourite> favourites = new ObjectMapper(new SmileFactory()).readValue(body, new TypeReference<List<Favourite>>() {
+        });
+        assertThat(favourites.size(), is(2));
+        assertThat(favourites.get(1).getComment(), is("Comment 2"));
+        assertThat(favourites.get(1).getRating(), is(2));
+    }
+
+    @Test
+    public void shouldForbidEndpointsWithoutRequiredRole() throws Exception {
+        mockMvc.perform(get("/favourites").principal(user("tom"))).andExpect(status().isForbidden());
+        mockMvc.perform(get("/favourites:search").param("q", "comment").principal(user("tom"))).andExpect(status().isForbidden());
+        mockMvc.perform(get("/favourites/tom").principal(new TestingAuthenticationToken("tom", null, "ROLE_GUEST"))).andExpect(status().isForbidden());
+        mockMvc.perform(get("/favourites/tom").principal(ADMIN)).andExpect(status().isForbidden());
+        assertThat(repository.findByUserName("tom").size(), is(3));
+    }
+
+    @Test
+    public void shouldForbidUserOfAnotherRealmWithTheSameName() throws Exception {
+        final OAuth2Authentication ofDefaultRealm = userOfRealm("my-apps", true);
+        final OAuth2Authentication ofOtherRealm = userOfRealm("acme", false);
+
+        assertThat(ofOtherRealm.getName(), is("acme:tom"));
+        mockMvc.perform(get("/favourites/tom").principal(ofDefaultRealm)).andExpect(status().isOk()).andExpect(jsonPath("$.length()").value(3));
+        mockMvc.perform(get("/favourites/tom").principal(ofOtherRealm)).andExpect(status().isForbidden());
+        mockMvc.perform(get("/favourites").principal(ofOtherRealm)).andExpect(status().isForbidden());
+        mockMvc.perform(get("/favourites/acme:tom").principal(ofOtherRealm)).andExpect(status().isOk()).andExpect(jsonPath("$.length()").value(0));
+    }
+
+    /**
+     * A user "tom" of the realm with the roles USER and ADMIN, converted like a verified token of the realm.
+     */
+    private OAuth2Authentication userOfRealm(final String realm, final boolean defaultRealm) {
+        final CustomJwtAccessTokenConverter converter = new CustomJwtAccessTokenConverter("favourites-api");
+        converter.setAuthorityBits(authorityBits);
+        converter.setRealm(realm, defaultRealm);
+        final Map<String, Object> claims = new HashMap<>();
+        claims.put("preferred_username", "tom");
+        claims.put("resource_access", Collections.singletonMap("favourites-api", Collections.singletonMap("roles", Arrays.asList("USER", "ADMIN"))));
+        return converter.extractAuthentication(claims);
+    }
+
+    private static TestingAuthenticationToken user(final String name) {
+        return new TestingAuthenticationToken(name, null, "ROLE_USER");
+    }
+}
@@ -0,0 +1,91 @@
+package de.keycloak.samples.favourites.api.resources;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.keycloak.samples.favourites.api.security.JwksKeyProvider;
+import de.keycloak.samples.favourites.api.security.RevocationCheckingTokenStore;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.RsaSigner;
+import org.springframework.security.jwt.crypto.sign.RsaVerifier;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+import org.springframework.security.oauth2.provider.token.store.InMemoryTokenStore;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+public class KeycloakAdminResourceTest {
+
+    private KeyPair realmKey;
+    private KeyPair otherKey;
+    private JwksKeyProvider keyProvider;
+    private RevocationCheckingTokenStore revocationCheckingTokenStore;
+    private MockMvc mockMvc;
+
+    @Before
+    public void setUp() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        realmKey = generator.generateKeyPair();
+        otherKey = generator.generateKeyPair();
+
+        keyProvider = new JwksKeyProvider("http://localhost/certs", 1000, 1000, 1000, 1000, 1000) {
+            @Override
+            public SignatureVerifier getVerifier(final String kid, final String alg) {
+                return new RsaVerifier((RSAPublicKey) realmKey.getPublic());
+            }
+        };
+        revocationCheckingTokenStore = new RevocationCheckingTokenStore(new InMemoryTokenStore());
+        mockMvc = MockMvcBuilders.standaloneSetup(new KeycloakAdminResource(keyProvider, revocationCheckingTokenStore, new ObjectMapper(), "favourites-api"))
+                                 .build();
+    }
+
+    @After
+    public void tearDown() {
+        keyProvider.destroy();
+    }
+
+    @Test
+    public void shouldApplyPushedNotBefore() throws Exception {
+        push(action("PUSH_NOT_BEFORE", "favourites-api", 60, 1_600_000_000L, realmKey)).andExpect(status().isNoContent());
+
+        assertThat(revocationCheckingTokenStore.getNotBefore(), is(1_600_000_000L));
+    }
+
+    @Test
+    public void shouldRejectActionSignedWithOtherKey() throws Exception {
+        push(action("PUSH_NOT_BEFORE", "favourites-api", 60, 1_600_000_000L, otherKey)).andExpect(status().isUnauthorized());
+
+        assertThat(revocationCheckingTokenStore.getNotBefore(), is(0L));
+    }
+
+    @Test
+    public void shouldRejectExpiredActionAndActionForOtherClient() throws Exception {
+        push(action("PUSH_NOT_BEFORE", "favourites-api", -1, 1_600_000_000L, realmKey)).andExpect(status().isBadRequest());
+        push(action("PUSH_NOT_BEFORE", "favourites-app", 60, 1_600_000_000L, realmKey)).andExpect(status().isBadRequest());
+
+        assertThat(revocationCheckingTokenStore.getNotBefore(), is(0L));
+    }
+
+    private ResultActions push(final String action) throws Exception {
+        return mockMvc.perform(post("/k_push_not_before").contentType(MediaType.TEXT_PLAIN).content(action));
+    }
+
+    private static String action(final String action, final String resource, final int expiresInSeconds, final long notBefore, final KeyPair keyPair) {
+        final String claims = "{\"id\":\"1\",\"action\":\"" + action + "\",\"resource\":\"" + resource + "\","
+                              + "\"expiration\":" + (System.currentTimeMillis() / 1000 + expiresInSeconds) + ","
+                              + "\"notBefore\":" + notBefore + "}";
+        return JwtHelper.encode(claims, new RsaSigner((RSAPrivateKey) keyPair.getPrivate()), Collections.singletonMap("kid", "realm")).getEncoded();
+    }
+}
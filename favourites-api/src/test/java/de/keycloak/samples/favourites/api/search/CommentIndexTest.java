@@ -0,0 +1,107 @@
+package de.keycloak.samples.favourites.api.search;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CommentIndexTest {
+
+    private static final List<String> WORDS = Arrays.asList("nice", "bad", "restaurant", "restaurants", "rest", "bar", "pizza", "Pizzeria",
+                                                            "view", "cheap", "expensive", "quiet");
+
+    private final CommentIndex index = new CommentIndex();
+
+    @Test
+    public void shouldFindAllTermsAndPrefixes() {
+        index.add(0, favourite("Nice restaurant, great view!", 5));
+        index.add(1, favourite("Bad restaurant", 1));
+        index.add(2, favourite("nice bar", 4));
+        index.add(3, favourite("Restaurants everywhere", 3));
+
+        assertThat(search("restaurant"), is(new int[]{0, 1}));
+        assertThat(search("RESTAURANT nice"), is(new int[]{0}));
+        assertThat(search("restau*"), is(new int[]{0, 1, 3}));
+        assertThat(search("nice restau*"), is(new int[]{0}));
+        assertThat(search("pizza"), is(new int[0]));
+        assertThat(index.search(SearchQuery.parse("restau*", 3, null), -1, 10), is(new int[]{0, 3}));
+        assertThat(index.search(SearchQuery.parse("restau*", null, null), 0, 1), is(new int[]{1}));
+    }
+
+    @Test
+    public void shouldFollowUpdatesAndRemovals() {
+        index.add(0, favourite("nice restaurant", 5));
+        index.add(1, favourite("nice bar", 2));
+
+        index.update(0, favourite("nice restaurant", 5), favourite("bad pizza", 1));
+        index.remove(1, favourite("nice bar", 2));
+
+        assertThat(search("nice"), is(new int[0]));
+        assertThat(search("pizza"), is(new int[]{0}));
+        assertThat(index.search(SearchQuery.parse("pizza", 2, 5), -1, 10), is(new int[0]));
+        assertThat(index.termCount(), is(2));
+    }
+
+    @Test
+    public void shouldMatchLikeScanningTheComments() {
+        final Random random = new Random(7);
+        final Favourite[] favourites = new Favourite[2_000];
+        for (int i = 0; i < 20_000; i++) {
+            final int position = random.nextInt(favourites.length);
+            final Favourite favourite = random.nextInt(5) == 0 ? null : favourite(randomComment(random), random.nextInt(6));
+            if (favourites[position] != null && favourite != null) {
+                index.update(position, favourites[position], favourite);
+            } else if (favourites[position] != null) {
+                index.remove(position, favourites[position]);
+            } else if (favourite != null) {
+                index.add(position, favourite);
+            }
+            favourites[position] = favourite;
+        }
+
+        for (String text : Arrays.asList("nice", "restaurant", "nice restaurant", "rest*", "pizz* nice", "bar view cheap", "rest* restaurants")) {
+            final SearchQuery query = SearchQuery.parse(text, 2, 4);
+            final List<Integer> expected = new ArrayList<>();
+            for (int position = 0; position < favourites.length; position++) {
+                if (favourites[position] != null && query.matches(favourites[position])) {
+                    expected.add(position);
+                }
+            }
+            final List<Integer> found = new ArrayList<>();
+            for (int position : index.search(query, -1, favourites.length)) {
+                found.add(position);
+            }
+            assertThat(text, found, is(expected));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectQueryWithoutTerms() {
+        SearchQuery.parse(" !? ", null, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectTooShortPrefix() {
+        SearchQuery.parse("r*", null, null);
+    }
+
+    private int[] search(final String text) {
+        return index.search(SearchQuery.parse(text, null, null), -1, 10);
+    }
+
+    private static String randomComment(final Random random) {
+        final StringBuilder comment = new StringBuilder();
+        for (int i = 0, words = 1 + random.nextInt(4); i < words; i++) {
+            comment.append(WORDS.get(random.nextInt(WORDS.size()))).append(i % 2 == 0 ? ", " : " ");
+        }
+        return comment.toString();
+    }
+
+    private static Favourite favourite(final String comment, final int rating) {
+        return Favourite.builder().withId("1").withUserName("tom").withRating(rating).withComment(comment).build();
+    }
+}
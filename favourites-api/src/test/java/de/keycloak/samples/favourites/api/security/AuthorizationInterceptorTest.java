@@ -0,0 +1,103 @@
+package de.keycloak.samples.favourites.api.security;
+
+import de.keycloak.samples.favourites.api.metrics.AuthPipelineMetrics;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.ResourceServerProperties;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.InsufficientAuthenticationException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AuthorizationInterceptorTest {
+
+    private final AuthorityBits authorityBits = new AuthorityBits();
+    private final AuthorizationInterceptor interceptor = new AuthorizationInterceptor(authorityBits, AuthPipelineMetrics.noop());
+    private CustomJwtAccessTokenConverter converter;
+
+    @Before
+    public void setUp() {
+        interceptor.compile(Arrays.asList(Endpoints.class.getDeclaredMethods()));
+        final ResourceServerProperties properties = new ResourceServerProperties();
+        properties.setId("favourites-api");
+        converter = new CustomJwtAccessTokenConverter(properties);
+        converter.setAuthorityBits(authorityBits);
+    }
+
+    @Test
+    public void shouldAuthorizeByTheBitsOfTheToken() throws Exception {
+        final OAuth2Authentication tom = converter.extractAuthentication(tokenMap("tom", "USER"));
+        assertThat(((AuthorityBitsAuthenticationToken) tom.getUserAuthentication()).getAuthorityBits() != 0, is(true));
+
+        assertThat(preHandle("ofUser", tom, "tom").getStatus(), is(200));
+        assertThat(preHandle("ofUser", tom, "tim").getStatus(), is(403));
+        assertThat(preHandle("all", tom, null).getStatus(), is(403));
+        assertThat(preHandle("all", converter.extractAuthentication(tokenMap("admin", "ADMIN", "USER")), null).getStatus(), is(200));
+        assertThat(preHandle("ofUser", converter.extractAuthentication(tokenMap("tom", "GUEST")), "tom").getStatus(), is(403));
+        assertThat(preHandle("open", null, null).getStatus(), is(200));
+    }
+
+    @Test(expected = InsufficientAuthenticationException.class)
+    public void shouldRequireAuthentication() throws Exception {
+        preHandle("ofUser", null, "tom");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectRulesCompiledTooLate() throws Exception {
+        new AuthorizationInterceptor(authorityBits, AuthPipelineMetrics.noop())
+                .preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), new HandlerMethod(new Endpoints(), Endpoints.class.getDeclaredMethod("all")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldLimitTheNumberOfAuthorities() {
+        final List<String> authorities = new ArrayList<>();
+        for (int i = 0; i <= AuthorityBits.MAX_AUTHORITIES; i++) {
+            authorities.add("ROLE_" + i);
+        }
+        authorityBits.register(authorities);
+    }
+
+    private MockHttpServletResponse preHandle(final String method, final OAuth2Authentication authentication, final String username) throws Exception {
+        final MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setUserPrincipal(authentication);
+        if (username != null) {
+            request.setAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE, Collections.singletonMap("username", username));
+        }
+        final MockHttpServletResponse response = new MockHttpServletResponse();
+        final boolean proceed = interceptor.preHandle(request, response, new HandlerMethod(new Endpoints(), Endpoints.class.getDeclaredMethod(method)));
+        assertThat(proceed, is(response.getStatus() == 200));
+        return response;
+    }
+
+    private static Map<String, Object> tokenMap(final String userName, final String... clientRoles) {
+        final Map<String, Object> tokenMap = new HashMap<>();
+        tokenMap.put("preferred_username", userName);
+        tokenMap.put("resource_access", Collections.singletonMap("favourites-api", Collections.singletonMap("roles", Arrays.asList(clientRoles))));
+        tokenMap.put("realm_access", Collections.singletonMap("roles", Collections.singletonList("offline_access")));
+        return tokenMap;
+    }
+
+    static class Endpoints {
+
+        @RequiresAuthority(value = "ROLE_USER", owner = "username")
+        void ofUser() {
+        }
+
+        @RequiresAuthority("ROLE_ADMIN")
+        void all() {
+        }
+
+        void open() {
+        }
+    }
+}
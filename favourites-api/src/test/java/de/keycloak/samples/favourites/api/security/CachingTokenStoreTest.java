@@ -0,0 +1,122 @@
+package de.keycloak.samples.favourites.api.security;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.store.InMemoryTokenStore;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class CachingTokenStoreTest {
+
+    private static final String TOKEN = "header.payload.signature";
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = nanos::get;
+
+    private CountingTokenStore delegate;
+    private OAuth2Authentication authentication;
+    private CachingTokenStore tokenStore;
+
+    @Before
+    public void setUp() {
+        delegate = new CountingTokenStore();
+        authentication = new OAuth2Authentication(new OAuth2Request(Collections.<String, String>emptyMap(), "favourites-api",
+                                                                    Collections.emptyList(), true, Collections.<String>emptySet(),
+                                                                    Collections.<String>emptySet(), null, null, null), null);
+        tokenStore = new CachingTokenStore(delegate, 100, 300, ticker);
+    }
+
+    @Test
+    public void shouldVerifyTokenOnlyOnceWhileItIsValid() {
+        final DefaultOAuth2AccessToken accessToken = accessToken(TOKEN, 60);
+        delegate.storeAccessToken(accessToken, authentication);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(tokenStore.readAccessToken(TOKEN), is(sameInstance((OAuth2AccessToken) accessToken)));
+            assertThat(tokenStore.readAuthentication(accessToken), is(sameInstance(authentication)));
+        }
+
+        assertThat(delegate.accessTokenReads.get(), is(1));
+        assertThat(delegate.authenticationReads.get(), is(1));
+        assertThat(tokenStore.stats().hitCount(), is(5L));
+        assertThat(tokenStore.stats().missCount(), is(1L));
+    }
+
+    @Test
+    public void shouldPublishHitsAndMisses() {
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        tokenStore.bindTo(registry);
+        delegate.storeAccessToken(accessToken(TOKEN, 60), authentication);
+
+        tokenStore.readAccessToken(TOKEN);
+        tokenStore.readAccessToken(TOKEN);
+
+        assertThat(registry.get("cache.gets").tags("cache", CachingTokenStore.CACHE_NAME, "result", "hit").functionCounter().count(), is(1.0));
+        assertThat(registry.get("cache.gets").tags("cache", CachingTokenStore.CACHE_NAME, "result", "miss").functionCounter().count(), is(1.0));
+    }
+
+    @Test
+    public void shouldEvictEntryWhenTokenExpires() {
+        delegate.storeAccessToken(accessToken(TOKEN, 60), authentication);
+
+        tokenStore.readAccessToken(TOKEN);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        tokenStore.readAccessToken(TOKEN);
+
+        assertThat(delegate.accessTokenReads.get(), is(2));
+    }
+
+    @Test
+    public void shouldNotResolveCachedAuthenticationForForgedPayloadWithKnownSignature() {
+        delegate.storeAccessToken(accessToken(TOKEN, 60), authentication);
+        tokenStore.readAccessToken(TOKEN);
+
+        assertThat(tokenStore.readAccessToken("header.forged.signature"), is(nullValue()));
+        assertThat(tokenStore.readAuthentication("header.forged.signature"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotCacheExpiredTokens() {
+        delegate.storeAccessToken(accessToken(TOKEN, -1), authentication);
+
+        tokenStore.readAccessToken(TOKEN);
+
+        assertThat(tokenStore.size(), is(0L));
+    }
+
+    private static DefaultOAuth2AccessToken accessToken(final String value, final int expiresInSeconds) {
+        final DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(value);
+        accessToken.setExpiration(new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expiresInSeconds)));
+        return accessToken;
+    }
+
+    private static final class CountingTokenStore extends InMemoryTokenStore {
+        private final AtomicInteger accessTokenReads = new AtomicInteger();
+        private final AtomicInteger authenticationReads = new AtomicInteger();
+
+        @Override
+        public OAuth2AccessToken readAccessToken(final String tokenValue) {
+            accessTokenReads.incrementAndGet();
+            return super.readAccessToken(tokenValue);
+        }
+
+        @Override
+        public OAuth2Authentication readAuthentication(final String token) {
+            authenticationReads.incrementAndGet();
+            return super.readAuthentication(token);
+        }
+    }
+}
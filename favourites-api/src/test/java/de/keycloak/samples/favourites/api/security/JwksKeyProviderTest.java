@@ -0,0 +1,208 @@
+package de.keycloak.samples.favourites.api.security;
+
+import com.sun.net.httpserver.HttpServer;
+import de.keycloak.samples.favourites.api.metrics.AuthPipelineMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.RsaSigner;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class JwksKeyProviderTest {
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger status = new AtomicInteger(200);
+    private final AtomicReference<String> keySet = new AtomicReference<>();
+
+    private KeyPair firstKey;
+    private KeyPair rotatedKey;
+    private JwksKeyProvider keyProvider;
+    private JwksJwtAccessTokenConverter converter;
+
+    @Before
+    public void setUp() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        firstKey = generator.generateKeyPair();
+        rotatedKey = generator.generateKeyPair();
+        keySet.set(keySet(jwk("first", firstKey)));
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/certs", exchange -> {
+            requests.incrementAndGet();
+            final byte[] body = keySet.get().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status.get(), body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        // no test waits for the next refresh, the tokens of a test are decoded well within a minute however slow
+        keyProvider = new JwksKeyProvider("http://localhost:" + server.getAddress().getPort() + "/certs",
+                                          TimeUnit.HOURS.toMillis(1), TimeUnit.MINUTES.toMillis(1), TimeUnit.MINUTES.toMillis(1), 1000, 1000);
+        converter = new JwksJwtAccessTokenConverter(keyProvider);
+    }
+
+    @After
+    public void tearDown() {
+        keyProvider.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldVerifyFirstTokensAfterColdStartWithSingleFetch() throws Exception {
+        keyProvider.afterPropertiesSet();
+
+        final List<Map<String, ?>> claims = decodeConcurrently(token("first", firstKey), 50);
+
+        assertThat(claims.size(), is(50));
+        assertThat(claims.get(0).get("preferred_username"), is((Object) "tom"));
+        assertThat(requests.get(), is(1));
+    }
+
+    @Test
+    public void shouldFetchKeysWithFirstTokenWhenNotFetchedOnStartup() throws Exception {
+        keyProvider.setFetchOnStartup(false);
+        keyProvider.afterPropertiesSet();
+        assertThat(requests.get(), is(0));
+
+        final List<Map<String, ?>> claims = decodeConcurrently(token("first", firstKey), 50);
+
+        assertThat(claims.size(), is(50));
+        assertThat(requests.get(), is(1));
+    }
+
+    @Test
+    public void shouldRefetchOnceWhenKeyIsRotated() throws Exception {
+        keyProvider.afterPropertiesSet();
+        keyProvider.refresh().get();
+        keySet.set(keySet(jwk("first", firstKey), jwk("rotated", rotatedKey)));
+
+        final List<Map<String, ?>> claims = decodeConcurrently(token("rotated", rotatedKey), 50);
+
+        assertThat(claims.size(), is(50));
+        assertThat(requests.get(), is(2));
+    }
+
+    @Test
+    public void shouldKeepServingKnownKeysWhileKeycloakIsDown() throws Exception {
+        keyProvider.afterPropertiesSet();
+        keyProvider.refresh().get();
+        status.set(503);
+
+        try {
+            keyProvider.refresh().get();
+        } catch (Exception expected) {
+            // keycloak is down
+        }
+
+        assertThat(converter.decode(token("first", firstKey)).get("preferred_username"), is((Object) "tom"));
+    }
+
+    @Test
+    public void shouldBackOffForUnknownKeyIds() throws Exception {
+        keyProvider.afterPropertiesSet();
+        keyProvider.refresh().get();
+        final int requestsBefore = requests.get();
+
+        for (int i = 0; i < 20; i++) {
+            try {
+                converter.decode(token("unknown", rotatedKey));
+            } catch (InvalidTokenException expected) {
+                // unknown key
+            }
+        }
+
+        assertThat(requests.get() - requestsBefore, is(1));
+    }
+
+    @Test
+    public void shouldRecordStagesAndFetchesWithoutUserNames() throws Exception {
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final AuthPipelineMetrics metrics = new AuthPipelineMetrics(registry);
+        keyProvider.bindTo(registry);
+        converter.setMetrics(metrics);
+        keyProvider.afterPropertiesSet();
+        keyProvider.refresh().get();
+
+        converter.decode(token("first", firstKey));
+        try {
+            converter.decode(token("first", rotatedKey));
+        } catch (InvalidTokenException expected) {
+            // wrong key
+        }
+
+        assertThat(registry.get(AuthPipelineMetrics.STAGE_TIMER).tags("stage", "jwt-parse", "outcome", "success").timer().count(), is(1L));
+        assertThat(registry.get(AuthPipelineMetrics.STAGE_TIMER).tags("stage", "signature", "outcome", "success").timer().count(), is(1L));
+        assertThat(registry.get(AuthPipelineMetrics.STAGE_TIMER).tags("stage", "signature", "outcome", "failure").timer().count(), is(1L));
+        assertThat(registry.get(JwksKeyProvider.FETCH_COUNTER).tags("trigger", "startup", "outcome", "success").functionCounter().count(), is(1.0));
+        assertThat(registry.get(JwksKeyProvider.KEYS_GAUGE).gauge().value(), is(1.0));
+        assertThat(registry.getMeters().stream().flatMap(meter -> meter.getId().getTags().stream()).anyMatch(tag -> tag.getValue().equals("tom")), is(false));
+    }
+
+    @Test(expected = InvalidTokenException.class)
+    public void shouldRejectTokenSignedWithOtherKey() throws Exception {
+        keyProvider.afterPropertiesSet();
+        keyProvider.refresh().get();
+
+        converter.decode(token("first", rotatedKey));
+    }
+
+    private List<Map<String, ?>> decodeConcurrently(final String token, final int callers) throws Exception {
+        final ExecutorService callerPool = Executors.newFixedThreadPool(callers);
+        try {
+            final List<Callable<Map<String, ?>>> calls = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                calls.add(() -> converter.decode(token));
+            }
+            final List<Map<String, ?>> results = new ArrayList<>();
+            for (final Future<Map<String, ?>> result : callerPool.invokeAll(calls)) {
+                results.add(result.get());
+            }
+            return results;
+        } finally {
+            callerPool.shutdownNow();
+        }
+    }
+
+    private static String token(final String kid, final KeyPair keyPair) {
+        final String claims = "{\"exp\":" + (System.currentTimeMillis() / 1000 + 300) + ",\"preferred_username\":\"tom\"}";
+        return JwtHelper.encode(claims, new RsaSigner((RSAPrivateKey) keyPair.getPrivate()), Collections.singletonMap("kid", kid)).getEncoded();
+    }
+
+    private static String jwk(final String kid, final KeyPair keyPair) {
+        final RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return "{\"kid\":\"" + kid + "\",\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\","
+               + "\"n\":\"" + encoder.encodeToString(publicKey.getModulus().toByteArray()) + "\","
+               + "\"e\":\"" + encoder.encodeToString(publicKey.getPublicExponent().toByteArray()) + "\"}";
+    }
+
+    private static String keySet(final String... keys) {
+        return "{\"keys\":[" + String.join(",", keys) + "]}";
+    }
+}
@@ -0,0 +1,264 @@
+package de.keycloak.samples.favourites.api.security;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.RsaSigner;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class RealmRegistryTest {
+
+    private HttpServer server;
+    private final Map<String, KeyPair> keys = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = nanos::get;
+
+    private ScheduledThreadPoolExecutor scheduler;
+    private JwksKeyProvider defaultKeyProvider;
+    private RealmRegistry realms;
+    private RealmRoutingJwtAccessTokenConverter converter;
+
+    @Before
+    public void setUp() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        for (String realm : asList("my-apps", "acme", "globex")) {
+            keys.put(realm, generator.generateKeyPair());
+        }
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/auth/realms/", exchange -> {
+            // /auth/realms/<realm>/protocol/openid-connect/certs
+            final String realm = exchange.getRequestURI().getPath().split("/")[3];
+            final KeyPair keyPair = keys.get(realm);
+            final byte[] body = keyPair == null ? new byte[0] : keySet(jwk("key-" + realm, keyPair)).getBytes(StandardCharsets.UTF_8);
+            fetches.computeIfAbsent(realm, name -> new AtomicInteger()).incrementAndGet();
+            exchange.sendResponseHeaders(keyPair == null ? 404 : 200, body.length == 0 ? -1 : body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        scheduler = (ScheduledThreadPoolExecutor) JwksKeyProvider.newScheduler(1);
+        defaultKeyProvider = keyProvider("my-apps");
+        final Map<String, String> accepted = new HashMap<>();
+        accepted.put("acme", "acme-favourites");
+        realms = new RealmRegistry(new RealmRegistry.Realm("my-apps", defaultKeyProvider, converter("my-apps", true, "favourites-api")), accepted,
+                                   (name, resourceId) -> new RealmRegistry.Realm(name, keyProvider(name), converter(name, false, resourceId)),
+                                   100, 3600, 60, 2, ticker);
+        converter = new RealmRoutingJwtAccessTokenConverter(realms);
+    }
+
+    @After
+    public void tearDown() {
+        realms.destroy();
+        defaultKeyProvider.destroy();
+        scheduler.shutdownNow();
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldVerifyAndConvertTokensWithKeysAndResourceIdOfTheirRealm() {
+        final OAuth2Authentication ofDefault = authenticate(token("my-apps", "my-apps", "favourites-api"));
+        final OAuth2Authentication ofAcme = authenticate(token("acme", "acme", "acme-favourites"));
+
+        assertThat(authorities(ofDefault), is(asList("ROLE_USER")));
+        assertThat(authorities(ofAcme), is(asList("ROLE_USER")));
+        assertThat(fetchesOf("acme"), is(1));
+        assertThat(realms.getLoadedRealms(), is(1L));
+    }
+
+    @Test
+    public void shouldQualifyUsersOfOtherRealmsAndNotMapTheirAdminRole() {
+        final OAuth2Authentication ofDefault = authenticate(token("my-apps", "my-apps", "favourites-api", "tom", "USER", "ADMIN"));
+        final OAuth2Authentication ofAcme = authenticate(token("acme", "acme", "acme-favourites", "tom", "USER", "ADMIN"));
+        final OAuth2Authentication lookingQualified = authenticate(token("my-apps", "my-apps", "favourites-api", "acme:tom", "USER"));
+
+        assertThat(ofDefault.getName(), is("tom"));
+        assertThat(authorities(ofDefault), is(asList("ROLE_USER", "ROLE_ADMIN")));
+        assertThat(ofAcme.getName(), is("acme:tom"));
+        assertThat(authorities(ofAcme), is(asList("ROLE_USER")));
+        assertThat(lookingQualified.getName(), is("my-apps:acme:tom"));
+    }
+
+    @Test
+    public void shouldNotMapClientRolesOfOtherResourceIds() {
+        assertThat(authorities(authenticate(token("acme", "acme", "favourites-api"))).isEmpty(), is(true));
+    }
+
+    @Test(expected = InvalidTokenException.class)
+    public void shouldRejectTokenSignedWithKeyOfAnotherRealm() {
+        authenticate(token("acme", "my-apps", "acme-favourites"));
+    }
+
+    @Test
+    public void shouldRejectTokensOfRealmsWhichAreNotAcceptedWithoutFetchingKeys() {
+        try {
+            authenticate(token("globex", "globex", "favourites-api"));
+            fail("The realm globex is not accepted");
+        } catch (InvalidTokenException e) {
+            assertThat(fetchesOf("globex"), is(0));
+            assertThat(realms.getLoadedRealms(), is(0L));
+        }
+    }
+
+    @Test
+    public void shouldAcceptEveryRealmWithWildcardButNoMadeUpNames() {
+        acceptEveryRealm();
+
+        assertThat(authorities(authenticate(token("globex", "globex", "favourites-api"))), is(asList("ROLE_USER")));
+        for (String name : asList("..%2Fadmin", "..", ".")) {
+            try {
+                realms.resolve("http://localhost/auth/realms/" + name);
+                fail("Realm names which are no path segment are rejected");
+            } catch (InvalidTokenException e) {
+                assertThat(realms.getLoadedRealms(), is(1L));
+            }
+        }
+        assertThat(fetches.keySet(), is(new HashSet<>(asList("my-apps", "globex"))));
+    }
+
+    @Test
+    public void shouldRejectRealmsWithoutKeysForAWhileWithoutFetchingAgain() {
+        acceptEveryRealm();
+
+        for (int i = 0; i < 3; i++) {
+            assertRejected(token("initech", "globex", "favourites-api"));
+        }
+        assertThat(fetchesOf("initech"), is(1));
+        assertThat(realms.getLoadedRealms(), is(0L));
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        assertRejected(token("initech", "globex", "favourites-api"));
+        assertThat(fetchesOf("initech"), is(2));
+    }
+
+    @Test
+    public void shouldLimitTheLoadsOfRealmsWhichAreNotNamed() {
+        acceptEveryRealm();
+
+        assertRejected(token("initech", "globex", "favourites-api"));
+        assertRejected(token("umbrella", "globex", "favourites-api"));
+        assertRejected(token("globex", "globex", "favourites-api"));
+        assertThat(fetchesOf("globex"), is(0));
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(authorities(authenticate(token("globex", "globex", "favourites-api"))), is(asList("ROLE_USER")));
+    }
+
+    @Test
+    public void shouldEvictIdleRealmsAndStopRefreshingTheirKeys() throws Exception {
+        // the startup fetch of the default realm is queued on the same scheduler
+        defaultKeyProvider.refresh().get();
+        final int refreshes = scheduler.getQueue().size();
+        authenticate(token("acme", "acme", "acme-favourites"));
+        assertThat(scheduler.getQueue().size(), is(refreshes + 1));
+
+        nanos.addAndGet(TimeUnit.HOURS.toNanos(2));
+
+        assertThat(realms.getLoadedRealms(), is(0L));
+        assertThat(scheduler.getQueue().size(), is(refreshes));
+        authenticate(token("acme", "acme", "acme-favourites"));
+        assertThat(fetchesOf("acme"), is(2));
+    }
+
+    private int fetchesOf(final String realm) {
+        final AtomicInteger count = fetches.get(realm);
+        return count == null ? 0 : count.get();
+    }
+
+    private void acceptEveryRealm() {
+        realms = new RealmRegistry(realms.getDefaultRealm(), Collections.singletonMap(RealmRegistry.ANY_REALM, "favourites-api"),
+                                   (name, resourceId) -> new RealmRegistry.Realm(name, keyProvider(name), converter(name, false, resourceId)),
+                                   100, 3600, 60, 2, ticker);
+        converter = new RealmRoutingJwtAccessTokenConverter(realms);
+    }
+
+    private void assertRejected(final String token) {
+        try {
+            authenticate(token);
+        } catch (InvalidTokenException expected) {
+            return;
+        }
+        fail("Expected the token to be rejected");
+    }
+
+    private OAuth2Authentication authenticate(final String token) {
+        return converter.extractAuthentication(converter.decode(token));
+    }
+
+    private JwksKeyProvider keyProvider(final String realm) {
+        final JwksKeyProvider keyProvider = new JwksKeyProvider("http://localhost:" + server.getAddress().getPort()
+                                                                + "/auth/realms/" + realm + "/protocol/openid-connect/certs",
+                                                                TimeUnit.HOURS.toMillis(1), 200, 1000, 1000, 1000, scheduler);
+        keyProvider.afterPropertiesSet();
+        return keyProvider;
+    }
+
+    private static CustomJwtAccessTokenConverter converter(final String realm, final boolean defaultRealm, final String resourceId) {
+        final CustomJwtAccessTokenConverter converter = new CustomJwtAccessTokenConverter(resourceId);
+        converter.setRealm(realm, defaultRealm);
+        return converter;
+    }
+
+    private static List<String> authorities(final OAuth2Authentication authentication) {
+        return authentication.getAuthorities().stream()
+                             .map(GrantedAuthority::getAuthority)
+                             .filter(authority -> !authority.equals("ROLE_OFFLINE_ACCESS"))
+                             .collect(Collectors.toList());
+    }
+
+    private String token(final String realm, final String signingRealm, final String client) {
+        return token(realm, signingRealm, client, "tom", "USER");
+    }
+
+    private String token(final String realm, final String signingRealm, final String client, final String userName, final String... roles) {
+        final String claims = "{\"exp\":" + (System.currentTimeMillis() / 1000 + 300) + ",\"preferred_username\":\"" + userName + "\","
+                              + "\"iss\":\"http://localhost/auth/realms/" + realm + "\","
+                              + "\"resource_access\":{\"" + client + "\":{\"roles\":[\"" + String.join("\",\"", roles) + "\"]}}}";
+        return JwtHelper.encode(claims, new RsaSigner((RSAPrivateKey) keys.get(signingRealm).getPrivate()),
+                                Collections.singletonMap("kid", "key-" + realm)).getEncoded();
+    }
+
+    private static String jwk(final String kid, final KeyPair keyPair) {
+        final RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return "{\"kid\":\"" + kid + "\",\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\","
+               + "\"n\":\"" + encoder.encodeToString(publicKey.getModulus().toByteArray()) + "\","
+               + "\"e\":\"" + encoder.encodeToString(publicKey.getPublicExponent().toByteArray()) + "\"}";
+    }
+
+    private static String keySet(final String... keys) {
+        return "{\"keys\":[" + String.join(",", keys) + "]}";
+    }
+}
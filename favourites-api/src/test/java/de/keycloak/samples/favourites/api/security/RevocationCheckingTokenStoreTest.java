@@ -0,0 +1,208 @@
+package de.keycloak.samples.favourites.api.security;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+import de.keycloak.samples.favourites.api.security.TokenIntrospector.Status;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.security.oauth2.common.exceptions.InvalidTokenException;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.security.oauth2.provider.OAuth2Request;
+import org.springframework.security.oauth2.provider.token.store.InMemoryTokenStore;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RevocationCheckingTokenStoreTest {
+
+    private static final long ISSUED_AT = 1_500_000_000L;
+    private static final String ISSUER = "http://localhost/auth/realms/";
+
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = nanos::get;
+    private final AtomicInteger introspections = new AtomicInteger();
+    private final AtomicReference<Status> status = new AtomicReference<>(Status.ACTIVE);
+    private final AtomicReference<CountDownLatch> introspectionGate = new AtomicReference<>(new CountDownLatch(0));
+    private final TokenIntrospector introspector = tokenValue -> {
+        introspections.incrementAndGet();
+        try {
+            introspectionGate.get().await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return status.get();
+    };
+
+    private InMemoryTokenStore delegate;
+    private ExecutorService introspectionExecutor;
+
+    @Before
+    public void setUp() {
+        delegate = new InMemoryTokenStore();
+        store("first", "jti-1");
+        introspectionExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        introspectionExecutor.shutdownNow();
+    }
+
+    @Test
+    public void shouldRejectTokensIssuedBeforeNotBefore() {
+        final RevocationCheckingTokenStore tokenStore = new RevocationCheckingTokenStore(delegate);
+
+        tokenStore.setNotBefore(ISSUED_AT);
+        assertThat(tokenStore.readAccessToken("first").getValue(), is("first"));
+
+        tokenStore.setNotBefore(ISSUED_AT + 1);
+        assertRevoked(tokenStore, "first");
+    }
+
+    @Test
+    public void shouldNeverLowerNotBefore() {
+        final RevocationCheckingTokenStore tokenStore = new RevocationCheckingTokenStore(delegate);
+
+        tokenStore.setNotBefore(ISSUED_AT + 1);
+        // pushed earlier, but arrived later
+        tokenStore.setNotBefore(ISSUED_AT);
+        tokenStore.setNotBefore(0);
+
+        assertThat(tokenStore.getNotBefore(), is(ISSUED_AT + 1));
+        assertRevoked(tokenStore, "first");
+    }
+
+    @Test
+    public void shouldIntrospectConcurrentRequestsWithSameTokenOnce() throws Exception {
+        final RevocationCheckingTokenStore tokenStore = hybrid(true);
+        final CountDownLatch gate = new CountDownLatch(1);
+        introspectionGate.set(gate);
+
+        final ExecutorService callers = Executors.newFixedThreadPool(20);
+        try {
+            final List<Callable<OAuth2AccessToken>> calls = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                calls.add(() -> tokenStore.readAccessToken("first"));
+            }
+            final List<Future<OAuth2AccessToken>> results = new ArrayList<>();
+            for (final Callable<OAuth2AccessToken> call : calls) {
+                results.add(callers.submit(call));
+            }
+            Thread.sleep(200);
+            gate.countDown();
+            for (final Future<OAuth2AccessToken> result : results) {
+                assertThat(result.get().getValue(), is("first"));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+
+        assertThat(introspections.get(), is(1));
+    }
+
+    @Test
+    public void shouldIntrospectAgainInBackgroundAfterRefreshInterval() throws Exception {
+        final RevocationCheckingTokenStore tokenStore = hybrid(true);
+        tokenStore.readAccessToken("first");
+
+        status.set(Status.INACTIVE);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(31));
+        // the last result is used while the token is introspected again
+        assertThat(tokenStore.readAccessToken("first").getValue(), is("first"));
+        awaitIntrospections(2);
+
+        assertRevoked(tokenStore, "first");
+    }
+
+    @Test
+    public void shouldRejectInactiveTokens() {
+        status.set(Status.INACTIVE);
+
+        assertRevoked(hybrid(true), "first");
+    }
+
+    @Test
+    public void shouldAcceptTokensWhenKeycloakIsDownOnlyIfFailOpen() {
+        status.set(Status.UNKNOWN);
+        store("second", "jti-2");
+
+        assertThat(hybrid(true).readAccessToken("first").getValue(), is("first"));
+        assertRevoked(hybrid(false), "second");
+    }
+
+    @Test
+    public void shouldOnlyCheckTokensOfTheDefaultRealm() {
+        store("second", "jti-2", ISSUER + "my-apps");
+        store("third", "jti-3", ISSUER + "acme");
+        final RealmRegistry realms = new RealmRegistry(new RealmRegistry.Realm("my-apps", null, null), Collections.singletonMap("acme", "favourites-api"),
+                                                       (name, resourceId) -> {
+                                                           throw new AssertionError("No realm is loaded");
+                                                       }, 100, 3600, 60, 10);
+        status.set(Status.INACTIVE);
+        final RevocationCheckingTokenStore tokenStore = hybrid(true);
+        tokenStore.setRealms(realms);
+        tokenStore.setNotBefore(ISSUED_AT + 1);
+
+        assertRevoked(tokenStore, "first");
+        assertRevoked(tokenStore, "second");
+        assertThat(tokenStore.readAccessToken("third").getValue(), is("third"));
+        assertThat(introspections.get(), is(0));
+    }
+
+    private RevocationCheckingTokenStore hybrid(final boolean failOpen) {
+        return new RevocationCheckingTokenStore(delegate, introspector, 30, 300, 100, 2000, failOpen, ticker, introspectionExecutor);
+    }
+
+    private void awaitIntrospections(final int expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (introspections.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // give the refreshed result time to replace the cached one
+        Thread.sleep(100);
+    }
+
+    private static void assertRevoked(final RevocationCheckingTokenStore tokenStore, final String tokenValue) {
+        try {
+            tokenStore.readAccessToken(tokenValue);
+        } catch (InvalidTokenException expected) {
+            return;
+        }
+        throw new AssertionError("Expected " + tokenValue + " to be rejected");
+    }
+
+    private void store(final String tokenValue, final String jti) {
+        store(tokenValue, jti, null);
+    }
+
+    private void store(final String tokenValue, final String jti, final String issuer) {
+        final DefaultOAuth2AccessToken accessToken = new DefaultOAuth2AccessToken(tokenValue);
+        accessToken.setExpiration(new Date(System.currentTimeMillis() + 60_000));
+        final Map<String, Object> claims = new HashMap<>();
+        claims.put("jti", jti);
+        claims.put("iat", (int) ISSUED_AT);
+        if (issuer != null) {
+            claims.put("iss", issuer);
+        }
+        accessToken.setAdditionalInformation(claims);
+        delegate.storeAccessToken(accessToken, new OAuth2Authentication(new OAuth2Request(Collections.<String, String>emptyMap(), "favourites-api",
+                                                                                          Collections.emptyList(), true, Collections.<String>emptySet(),
+                                                                                          Collections.<String>emptySet(), null, null, null), null));
+    }
+}
@@ -0,0 +1,141 @@
+package de.keycloak.samples.favourites.api.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ColumnarFavouritesTableTest {
+
+    private final ColumnarFavouritesTable table = new ColumnarFavouritesTable();
+
+    @Test
+    public void shouldBehaveLikeObjectTableUnderRandomMutations() {
+        final ObjectFavouritesTable expected = new ObjectFavouritesTable();
+        final List<String> userNames = Arrays.asList("tom", "Tom", "tim", "jane", "JOHN", "john");
+        final Random random = new Random(42);
+
+        for (int i = 0; i < 20_000; i++) {
+            final String id = "id-" + random.nextInt(3_000);
+            if (random.nextInt(4) == 0) {
+                assertThat(describe(table.remove(id)), is(describe(expected.remove(id))));
+            } else {
+                final Favourite favourite = Favourite.builder()
+                                                     .withId(id)
+                                                     .withUserName(userNames.get(random.nextInt(userNames.size())))
+                                                     .withRating(random.nextInt(6))
+                                                     .withComment(random.nextInt(10) == 0 ? null : "Comment ü " + random.nextInt(1_000))
+                                                     .build();
+                assertThat(describe(table.put(favourite)), is(describe(expected.put(favourite))));
+            }
+        }
+
+        assertThat(table.count(), is(expected.count()));
+        assertThat(describe(table.iterateAll()), is(describe(expected.iterateAll())));
+        for (String userName : userNames) {
+            assertThat(describe(table.findByUserName(userName).iterator()), is(describe(expected.findByUserName(userName).iterator())));
+        }
+        for (int i = 0; i < 3_000; i++) {
+            assertThat(describe(table.findById("id-" + i)), is(describe(expected.findById("id-" + i))));
+        }
+    }
+
+    @Test
+    public void shouldPageThroughRowsSkippingDeletedOnes() {
+        for (int i = 0; i < 5; i++) {
+            table.put(favourite(String.valueOf(i), "tom", "Comment " + i));
+        }
+        table.remove("1");
+        table.remove("2");
+
+        final FavouritesPage first = table.findAll(null, 2);
+        final FavouritesPage second = table.findAll(first.getNextPosition(), 2);
+
+        assertThat(ids(first.getFavourites()), is(Arrays.asList("0", "3")));
+        assertThat(ids(second.getFavourites()), is(Arrays.asList("4")));
+        assertThat(second.getNextPosition(), is(nullValue()));
+        assertThat(table.findAll(Long.MAX_VALUE, 2).getFavourites().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldKeepCommentsLargerThanSlabAndCompactReplacedOnes() {
+        final String large = repeat('x', ColumnarFavouritesTable.SLAB_SIZE + 1);
+        table.put(favourite("large", "tom", large));
+        for (int i = 0; i < 100; i++) {
+            table.put(favourite("small", "tim", repeat((char) ('a' + i % 26), 64 * 1024) + i));
+        }
+        table.put(favourite("large", "tom", "short"));
+
+        assertThat(table.findById("large").get().getComment(), is("short"));
+        assertThat(table.findById("small").get().getComment().endsWith("99"), is(true));
+        assertThat(table.findByUserName("TIM").size(), is(1));
+    }
+
+    @Test
+    public void shouldReclaimSlabsWhichAreMostlyGarbage() {
+        final String padding = repeat('p', 2000);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 1000; i++) {
+                table.put(favourite(String.valueOf(i), "tom", padding + round));
+            }
+            for (int i = 0; i < 1000; i += 10) {
+                table.remove(String.valueOf(i));
+            }
+        }
+
+        // about 2 MiB are live, 40 MiB were written
+        assertThat(table.slabBytes() <= 6L * ColumnarFavouritesTable.SLAB_SIZE, is(true));
+        assertThat(table.count(), is(900L));
+        for (int i = 1; i < 1000; i++) {
+            final Optional<Favourite> favourite = table.findById(String.valueOf(i));
+            assertThat(i % 10 == 0 ? null : favourite.get().getComment(), is(i % 10 == 0 ? null : padding + 19));
+        }
+        assertThat(table.findByUserName("tom").size(), is(900));
+    }
+
+    @Test
+    public void shouldShareUserNamesOfTheDictionary() {
+        table.put(favourite("1", new String("tom".toCharArray()), "Comment"));
+        table.put(favourite("2", new String("tom".toCharArray()), "Comment"));
+
+        final List<Favourite> favourites = table.findByUserName("tom");
+        assertThat(favourites.get(0).getUserName() == favourites.get(1).getUserName(), is(true));
+    }
+
+    private static Favourite favourite(final String id, final String userName, final String comment) {
+        return Favourite.builder().withId(id).withUserName(userName).withRating(3).withComment(comment).build();
+    }
+
+    private static String repeat(final char character, final int count) {
+        final char[] characters = new char[count];
+        Arrays.fill(characters, character);
+        return new String(characters);
+    }
+
+    private static List<String> ids(final List<Favourite> favourites) {
+        return favourites.stream().map(Favourite::getId).collect(Collectors.toList());
+    }
+
+    private static String describe(final Favourite favourite) {
+        return favourite == null ? null
+                                 : favourite.getId() + "|" + favourite.getUserName() + "|" + favourite.getRating() + "|" + favourite.getComment();
+    }
+
+    private static String describe(final Optional<Favourite> favourite) {
+        return describe(favourite.orElse(null));
+    }
+
+    private static List<String> describe(final Iterator<Favourite> favourites) {
+        final List<String> descriptions = new ArrayList<>();
+        favourites.forEachRemaining(favourite -> descriptions.add(describe(favourite)));
+        return descriptions;
+    }
+}
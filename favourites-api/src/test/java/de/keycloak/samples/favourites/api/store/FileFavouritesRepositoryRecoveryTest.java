@@ -0,0 +1,335 @@
+package de.keycloak.samples.favourites.api.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Crashes are simulated by opening the store again without closing it, or by changing its files like a crash would
+ * have left them.
+ */
+@RunWith(Parameterized.class)
+public class FileFavouritesRepositoryRecoveryTest {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> layouts() {
+        return asList(new Object[]{FavouritesTable.Layout.OBJECTS}, new Object[]{FavouritesTable.Layout.COLUMNAR});
+    }
+
+    @Parameterized.Parameter
+    public FavouritesTable.Layout layout;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<FileFavouritesRepository> repositories = new ArrayList<>();
+    private Path directory;
+
+    @Before
+    public void setUp() {
+        directory = folder.getRoot().toPath();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (FileFavouritesRepository repository : repositories) {
+            repository.close();
+        }
+    }
+
+    @Test
+    public void shouldRecoverWritesOfCrashedProcess() throws IOException {
+        final FileFavouritesRepository crashed = open(options().withDurability(WriteAheadLog.Durability.NONE));
+        crashed.save(favourite("1", "tom"));
+        crashed.save(favourite("2", "tim"));
+        crashed.delete("1");
+
+        final FileFavouritesRepository recovered = open(options());
+
+        assertThat(ids(recovered.findAll()), is(asList("2")));
+    }
+
+    @Test
+    public void shouldDiscardTornLastRecordAndAppendAfterIt() throws IOException {
+        FileFavouritesRepository repository = open(options());
+        repository.save(favourite("1", "tom"));
+        repository.save(favourite("2", "tim"));
+        final long end = repository.getLogAppended();
+        repository.close();
+        repositories.remove(repository);
+        // the crash happened after the body and the CRC of a record were written, but not all of it
+        final ByteBuffer torn = ByteBuffer.allocate(13).putInt(40).putInt(0x12345678).put(LogRecords.PUT).putInt(7);
+        torn.flip();
+        writeToSegment(end, torn);
+
+        repository = open(options());
+        assertThat(ids(repository.findAll()), is(asList("1", "2")));
+        repository.save(favourite("3", "tom"));
+        repository.close();
+        repositories.remove(repository);
+
+        assertThat(ids(open(options()).findAll()), is(asList("1", "2", "3")));
+    }
+
+    @Test
+    public void shouldRecoverFromSnapshotAndLogWrittenSinceAndDeleteOlderLog() throws IOException {
+        final FileFavouritesRepository crashed = open(options());
+        crashed.save(favourite("1", "tom"));
+        crashed.save(favourite("2", "tim"));
+        crashed.save(favourite("3", "tom"));
+        crashed.snapshot();
+        crashed.delete("1");
+        crashed.save(favourite("2", "tim").toBuilder().withRating(5).build());
+        crashed.save(favourite("4", "tim"));
+
+        final FileFavouritesRepository recovered = open(options());
+
+        assertThat(ids(recovered.findAll()), is(asList("2", "3", "4")));
+        assertThat(recovered.findById("2").get().getRating(), is(5));
+        assertThat(recovered.getRatingStatistics("tim").getCount(), is(2));
+        assertThat(segments().size(), is(1));
+    }
+
+    @Test
+    public void shouldIgnoreIncompleteSnapshot() throws IOException {
+        final FileFavouritesRepository repository = open(options());
+        repository.save(favourite("1", "tom"));
+        repository.snapshot();
+        repository.save(favourite("2", "tom"));
+        Files.write(directory.resolve(Snapshot.TEMPORARY_FILE), "FAVS".getBytes(StandardCharsets.US_ASCII));
+
+        final FileFavouritesRepository recovered = open(options());
+
+        assertThat(ids(recovered.findAll()), is(asList("1", "2")));
+        assertThat(Files.exists(directory.resolve(Snapshot.TEMPORARY_FILE)), is(false));
+    }
+
+    @Test
+    public void shouldIgnoreLogBeforeSnapshotLeftByCrash() throws IOException {
+        final FileFavouritesRepository repository = open(options());
+        repository.save(favourite("1", "tom"));
+        repository.save(favourite("2", "tom"));
+        final Path oldSegment = segments().get(0);
+        final byte[] oldRecords = Files.readAllBytes(oldSegment);
+        repository.snapshot();
+        repository.delete("1");
+        // the crash happened after the snapshot was renamed, but before the old log was deleted
+        Files.write(oldSegment, oldRecords);
+
+        final FileFavouritesRepository recovered = open(options());
+
+        assertThat(ids(recovered.findAll()), is(asList("2")));
+        assertThat(Files.exists(oldSegment), is(false));
+    }
+
+    @Test
+    public void shouldWriteSnapshotInBackgroundOnceEnoughWasLogged() throws IOException {
+        FileFavouritesRepository repository = open(options().withSnapshotAfterBytes(4096));
+        for (int i = 0; i < 500; i++) {
+            repository.save(favourite(String.valueOf(i % 100), "tom"));
+        }
+        repository.close();
+        repositories.remove(repository);
+
+        assertThat(Files.exists(directory.resolve(Snapshot.FILE)), is(true));
+        repository = open(options());
+        assertThat(repository.count(), is(100L));
+        assertThat(repository.getRatingStatistics("tom").getCount(), is(100));
+    }
+
+    @Test
+    public void shouldRollSegmentsWhenTheyAreFull() throws IOException {
+        final FileFavouritesRepository crashed = open(options().withSegmentSize(4096));
+        for (int i = 0; i < 500; i++) {
+            crashed.save(favourite(String.valueOf(i), "tom"));
+        }
+        for (int i = 0; i < 500; i += 2) {
+            crashed.delete(String.valueOf(i));
+        }
+
+        assertThat(segments().size(), greaterThanOrEqualTo(5));
+        final FileFavouritesRepository recovered = open(options().withSegmentSize(4096));
+        assertThat(recovered.count(), is(250L));
+        assertThat(recovered.findById("499").isPresent(), is(true));
+        assertThat(recovered.findById("498").isPresent(), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectFavouriteLargerThanSegment() throws IOException {
+        final FileFavouritesRepository repository = open(options().withSegmentSize(4096));
+        final char[] comment = new char[5000];
+        Arrays.fill(comment, 'x');
+
+        try {
+            repository.save(favourite("1", "tom").toBuilder().withComment(new String(comment)).build());
+        } finally {
+            assertThat(repository.count(), is(0L));
+        }
+    }
+
+    @Test
+    public void shouldNotHandOutVersionsAgainAfterRecovery() throws IOException {
+        final FileFavouritesRepository crashed = open(options());
+        crashed.save(favourite("1", "tom"));
+        crashed.snapshot();
+        crashed.save(favourite("2", "tom"));
+        final String version = crashed.getVersion("tom");
+
+        final FileFavouritesRepository recovered = open(options());
+        assertThat(counter(recovered.getVersion("tom")), greaterThanOrEqualTo(counter(version)));
+        recovered.save(favourite("3", "tom"));
+        assertThat(recovered.getVersion("tom"), is(not(version)));
+    }
+
+    @Test
+    public void shouldNotHandOutVersionOfLostWriteForOtherFavourites() throws IOException {
+        final FileFavouritesRepository crashed = open(options().withDurability(WriteAheadLog.Durability.PERIODIC)
+                                                               .withSyncInterval(Duration.ofHours(1)));
+        crashed.save(favourite("1", "tom"));
+        final long durable = crashed.getLogAppended();
+        crashed.save(favourite("2", "tom"));
+        final String lostVersion = crashed.getVersion("tom");
+        // the crash of the machine lost the second write, which was not forced to disk yet
+        writeToSegment(durable, ByteBuffer.allocate((int) (crashed.getLogAppended() - durable)));
+
+        final FileFavouritesRepository recovered = open(options());
+        assertThat(ids(recovered.findAll()), is(asList("1")));
+        recovered.save(favourite("3", "tom"));
+
+        assertThat(counter(recovered.getVersion("tom")), is(counter(lostVersion)));
+        assertThat(recovered.getVersion("tom"), is(not(lostVersion)));
+    }
+
+    @Test
+    public void shouldKeepVersionsAfterCleanClose() throws IOException {
+        final FileFavouritesRepository closed = open(options());
+        closed.save(favourite("1", "tom"));
+        final String version = closed.getVersion("tom");
+        closed.close();
+        repositories.remove(closed);
+
+        assertThat(open(options()).getVersion("tom"), is(version));
+    }
+
+    @Test
+    public void shouldCommitConcurrentWritersDurably() throws Exception {
+        final FileFavouritesRepository repository = open(options().withDurability(WriteAheadLog.Durability.SYNC));
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                final int offset = thread * 100;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 100; i++) {
+                        repository.save(favourite(String.valueOf(offset + i), "tom"));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(repository.getLogSyncs(), is(lessThanOrEqualTo(800L)));
+        assertThat(open(options()).count(), is(800L));
+    }
+
+    @Test
+    public void shouldForceRecordsOfSeveralWritersOnce() throws IOException {
+        try (WriteAheadLog log = new WriteAheadLog(directory, 0, WriteAheadLog.Durability.SYNC, Duration.ofSeconds(1), 4096,
+                                                   new CollectingVisitor())) {
+            final long first = log.appendPut(favourite("1", "tom"));
+            final long second = log.appendPut(favourite("2", "tom"));
+            final long third = log.appendDelete("1");
+
+            log.commit(first);
+            log.commit(second);
+            log.commit(third);
+
+            assertThat(log.getSyncs(), is(1L));
+        }
+        final CollectingVisitor visitor = new CollectingVisitor();
+        try (WriteAheadLog log = new WriteAheadLog(directory, 0, WriteAheadLog.Durability.NONE, Duration.ofSeconds(1), 4096, visitor)) {
+            assertThat(visitor.records, is(asList("put 1", "put 2", "delete 1")));
+            assertThat(log.getSyncs(), is(0L));
+        }
+    }
+
+    private FileFavouritesRepository open(final FileFavouritesRepository.Options.Builder options) throws IOException {
+        final FileFavouritesRepository repository = new FileFavouritesRepository(directory, layout.create(), options.build());
+        repositories.add(repository);
+        return repository;
+    }
+
+    private static FileFavouritesRepository.Options.Builder options() {
+        return FileFavouritesRepository.Options.builder().withSegmentSize(1 << 20).withSyncInterval(Duration.ofMillis(10));
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory.resolve(FileFavouritesRepository.LOG_DIRECTORY))) {
+            return files.filter(file -> file.toString().endsWith(WriteAheadLog.SEGMENT_SUFFIX)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private void writeToSegment(final long position, final ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+            channel.write(bytes, position);
+        }
+    }
+
+    private static long counter(final String version) {
+        return Long.parseLong(version.substring(version.lastIndexOf('-') + 1));
+    }
+
+    private static Favourite favourite(final String id, final String userName) {
+        return Favourite.builder().withId(id).withUserName(userName).withComment("Comment " + id).withRating(3).build();
+    }
+
+    private static List<String> ids(final List<Favourite> favourites) {
+        return favourites.stream().map(Favourite::getId).collect(Collectors.toList());
+    }
+
+    private static final class CollectingVisitor implements LogRecords.Visitor {
+        private final List<String> records = new ArrayList<>();
+
+        @Override
+        public void put(final Favourite favourite) {
+            records.add("put " + favourite.getId());
+        }
+
+        @Override
+        public void delete(final String id) {
+            records.add("delete " + id);
+        }
+    }
+}
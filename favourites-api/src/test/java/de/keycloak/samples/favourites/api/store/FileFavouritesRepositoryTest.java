@@ -0,0 +1,242 @@
+package de.keycloak.samples.favourites.api.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import de.keycloak.samples.favourites.api.model.RatingStatistics;
+import de.keycloak.samples.favourites.api.search.SearchQuery;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.springframework.util.FileSystemUtils;
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(Parameterized.class)
+public class FileFavouritesRepositoryTest {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> layouts() {
+        return asList(new Object[]{FavouritesTable.Layout.OBJECTS}, new Object[]{FavouritesTable.Layout.COLUMNAR});
+    }
+
+    @Parameterized.Parameter
+    public FavouritesTable.Layout layout;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private FileFavouritesRepository repository;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.getRoot().toPath();
+        repository = new FileFavouritesRepository(directory, layout.create());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        repository.close();
+    }
+
+    @Test
+    public void shouldFindFavouritesOfUserIgnoringCase() {
+        repository.save(favourite("1", "tom"));
+        repository.save(favourite("2", "Tim"));
+        repository.save(favourite("3", "TOM"));
+
+        assertThat(ids(repository.findByUserName("Tom")), is(asList("1", "3")));
+        assertThat(ids(repository.findByUserName("tim")), is(asList("2")));
+        assertThat(repository.findByUserName("john").isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldKeepCreationOrderWhenFavouriteIsUpdated() {
+        repository.save(favourite("1", "tom"));
+        repository.save(favourite("2", "tom"));
+        repository.save(favourite("1", "tom").toBuilder().withRating(1).build());
+
+        assertThat(ids(repository.findAll()), is(asList("1", "2")));
+        assertThat(repository.findById("1").get().getRating(), is(1));
+    }
+
+    @Test
+    public void shouldMoveFavouriteWhenUserNameChanges() {
+        repository.save(favourite("1", "tom"));
+        repository.save(favourite("1", "tim"));
+
+        assertThat(repository.findByUserName("tom").isEmpty(), is(true));
+        assertThat(ids(repository.findByUserName("tim")), is(asList("1")));
+    }
+
+    @Test
+    public void shouldDeleteFavourite() {
+        repository.save(favourite("1", "tom"));
+
+        assertThat(repository.delete("1"), is(true));
+        assertThat(repository.delete("1"), is(false));
+        assertThat(repository.findById("1").isPresent(), is(false));
+        assertThat(repository.count(), is(0L));
+    }
+
+    @Test
+    public void shouldRestoreFavouritesAfterRestart() throws IOException {
+        repository.save(favourite("1", "tom"));
+        repository.save(favourite("2", "tim"));
+        repository.save(favourite("3", "tom"));
+        repository.delete("2");
+        repository.close();
+
+        repository = new FileFavouritesRepository(directory, layout.create());
+
+        assertThat(ids(repository.findAll()), is(asList("1", "3")));
+        assertThat(repository.findById("3").get().getComment(), is("Comment 3"));
+    }
+
+    @Test
+    public void shouldPageThroughFavouritesInCreationOrder() {
+        for (int i = 1; i <= 5; i++) {
+            repository.save(favourite(String.valueOf(i), "tom"));
+        }
+        repository.delete("3");
+
+        final FavouritesPage first = repository.findAll(null, 2);
+        final FavouritesPage second = repository.findAll(first.getNextPosition(), 2);
+
+        assertThat(ids(first.getFavourites()), is(asList("1", "2")));
+        assertThat(ids(second.getFavourites()), is(asList("4", "5")));
+        assertThat(second.getNextPosition(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldIterateAllFavourites() {
+        repository.save(favourite("1", "tom"));
+        repository.save(favourite("2", "tim"));
+
+        final List<Favourite> favourites = new ArrayList<>();
+        for (final Iterator<Favourite> iterator = repository.iterateAll(); iterator.hasNext(); ) {
+            favourites.add(iterator.next());
+        }
+
+        assertThat(ids(favourites), is(asList("1", "2")));
+    }
+
+    @Test
+    public void shouldChangeVersionOfAffectedUsersOnEveryMutation() {
+        final String initialOfTom = repository.getVersion("tom");
+        final String initialOfTim = repository.getVersion("tim");
+
+        repository.save(favourite("1", "Tom"));
+        final String createdOfTom = repository.getVersion("tom");
+        repository.save(favourite("1", "tim"));
+        final String movedOfTom = repository.getVersion("TOM");
+        final String movedOfTim = repository.getVersion("tim");
+        repository.delete("1");
+
+        assertThat(createdOfTom, is(not(initialOfTom)));
+        assertThat(movedOfTom, is(not(createdOfTom)));
+        assertThat(movedOfTim, is(not(initialOfTim)));
+        assertThat(repository.getVersion("tim"), is(not(movedOfTim)));
+        assertThat(repository.getVersion("john"), is(repository.getVersion("jane")));
+    }
+
+    @Test
+    public void shouldKeepVersionsAfterRestartButNotAfterWipe() throws IOException {
+        repository.save(favourite("1", "tom"));
+        final String version = repository.getVersion("tom");
+        repository.close();
+
+        repository = new FileFavouritesRepository(directory, layout.create());
+        assertThat(repository.getVersion("tom"), is(version));
+        repository.close();
+
+        FileSystemUtils.deleteRecursively(directory.resolve(FileFavouritesRepository.LOG_DIRECTORY));
+        Files.deleteIfExists(directory.resolve(Snapshot.FILE));
+        Files.delete(directory.resolve(FileFavouritesRepository.STORE_ID_FILE));
+        repository = new FileFavouritesRepository(directory, layout.create());
+        repository.save(favourite("1", "tom"));
+        assertThat(repository.getVersion("tom"), is(not(version)));
+    }
+
+    @Test
+    public void shouldMaintainRatingStatisticsOnEveryMutation() {
+        repository.save(favourite("1", "tom"));
+        repository.save(favourite("2", "Tom").toBuilder().withRating(5).build());
+        repository.save(favourite("3", "tim").toBuilder().withRating(Favourite.NO_RATING).build());
+        repository.save(favourite("2", "tom").toBuilder().withRating(1).build());
+
+        final RatingStatistics ofTom = repository.getRatingStatistics("TOM");
+        assertThat(ofTom.getCount(), is(2));
+        assertThat(ofTom.getMin(), is(1));
+        assertThat(ofTom.getMax(), is(3));
+        assertThat(ofTom.getAverage(), is(2.0));
+        assertThat(repository.getRatingStatistics("tim"), is(RatingStatistics.EMPTY));
+
+        repository.save(favourite("1", "tim"));
+        repository.delete("2");
+
+        assertThat(repository.getRatingStatistics("tom"), is(RatingStatistics.EMPTY));
+        assertThat(repository.getRatingStatistics("tim").getHistogram(), is(new int[]{0, 0, 1, 0, 0}));
+        assertThat(repository.getRatingStatistics(), is(repository.getRatingStatistics("tim")));
+    }
+
+    @Test
+    public void shouldRebuildRatingStatisticsAfterRestart() throws IOException {
+        repository.save(favourite("1", "tom"));
+        repository.save(favourite("2", "tim").toBuilder().withRating(5).build());
+        repository.save(favourite("3", "tom").toBuilder().withRating(4).build());
+        repository.delete("3");
+        final RatingStatistics statistics = repository.getRatingStatistics();
+        repository.close();
+
+        repository = new FileFavouritesRepository(directory, layout.create());
+
+        assertThat(repository.getRatingStatistics(), is(statistics));
+        assertThat(repository.getRatingStatistics().getSum(), is(8L));
+        assertThat(repository.getRatingStatistics("tom").getCount(), is(1));
+    }
+
+    @Test
+    public void shouldSearchCommentsAfterUpdatesDeletesAndRestart() throws IOException {
+        repository.save(favourite("1", "tom").toBuilder().withComment("Nice restaurant").build());
+        repository.save(favourite("2", "tim").toBuilder().withComment("Nice bar").build());
+        repository.save(favourite("3", "tom").toBuilder().withComment("Bad restaurant").build());
+        repository.save(favourite("4", "tom").toBuilder().withComment("Restaurant with a view").build());
+        repository.save(favourite("3", "tom").toBuilder().withComment("Bad pizza").build());
+        repository.delete("4");
+        repository.close();
+
+        repository = new FileFavouritesRepository(directory, layout.create());
+
+        final SearchQuery nice = SearchQuery.parse("nice", null, null);
+        final FavouritesPage first = repository.search(nice, null, 1);
+        assertThat(ids(first.getFavourites()), is(asList("1")));
+        assertThat(ids(repository.search(nice, first.getNextPosition(), 1).getFavourites()), is(asList("2")));
+        assertThat(repository.search(nice, first.getNextPosition(), 1).getNextPosition(), is(nullValue()));
+        assertThat(ids(repository.search(SearchQuery.parse("restau*", null, null), null, 10).getFavourites()), is(asList("1")));
+        assertThat(ids(repository.search("TOM", SearchQuery.parse("nice", null, null))), is(asList("1")));
+        assertThat(ids(repository.search("tom", SearchQuery.parse("bad pi*", null, null))), is(asList("3")));
+    }
+
+    private static Favourite favourite(final String id, final String userName) {
+        return Favourite.builder().withId(id).withUserName(userName).withRating(3).withComment("Comment " + id).build();
+    }
+
+    private static List<String> ids(final List<Favourite> favourites) {
+        return favourites.stream().map(Favourite::getId).collect(Collectors.toList());
+    }
+}
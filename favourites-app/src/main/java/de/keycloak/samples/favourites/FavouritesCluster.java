@@ -0,0 +1,64 @@
+package de.keycloak.samples.favourites;
+
+import de.keycloak.samples.favourites.session.OffHeapSessionRepository;
+import de.keycloak.samples.favourites.session.SessionCodec;
+import de.keycloak.samples.favourites.session.SessionStoreConfig;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+/**
+ * Starts several instances of the app in one JVM which share one {@link OffHeapSessionRepository}, e.g. to try a login
+ * on one instance and the backchannel logout on another. The instances listen on {@code server.port} and the
+ * following ports, {@code favourites.cluster.instances} sets their number (2 by default).
+ */
+public final class FavouritesCluster {
+
+    private FavouritesCluster() {
+    }
+
+    public static void main(final String[] args) {
+        final ConfigurableApplicationContext sessionStore = new SpringApplicationBuilder(SharedSessionStore.class)
+                .web(WebApplicationType.NONE)
+                .run(args);
+        final int instances = sessionStore.getEnvironment().getProperty("favourites.cluster.instances", Integer.class, 2);
+        final int port = sessionStore.getEnvironment().getProperty("server.port", Integer.class, 8383);
+
+        for (int i = 0; i < instances; i++) {
+            final List<String> instanceArgs = new ArrayList<>();
+            for (String arg : args) {
+                if (!arg.startsWith("--server.port=")) {
+                    instanceArgs.add(arg);
+                }
+            }
+            instanceArgs.add("--server.port=" + (port + i));
+            new SpringApplicationBuilder(FavouritesApplication.class)
+                    .parent(sessionStore)
+                    .run(instanceArgs.toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Parent context of the instances, whose {@link SessionStoreConfig} uses the repository of this context. It's no
+     * {@code @Configuration}, so the component scan of a standalone app doesn't find it.
+     */
+    static class SharedSessionStore {
+
+        @Bean
+        public OffHeapSessionRepository offHeapSessionRepository(final Environment environment,
+                                                                 @Value("${favourites.session.maximum-sessions:100000}") final int maximumSessions,
+                                                                 @Value("${favourites.session.cleanup-interval-seconds:60}") final int cleanupIntervalSeconds) {
+            return new OffHeapSessionRepository(new SessionCodec(getClass().getClassLoader()),
+                                                Binder.get(environment).bind("server.servlet.session.timeout", Duration.class).orElse(Duration.ofMinutes(30)),
+                                                maximumSessions,
+                                                cleanupIntervalSeconds);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package de.keycloak.samples.favourites;
+
+import de.keycloak.samples.favourites.security.FavouritesSecurityConfig;
+import de.keycloak.samples.favourites.security.KeycloakPipelineWarmup;
+import de.keycloak.samples.favourites.view.TemplateRenderer;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import org.jboss.logging.Logger;
+import org.keycloak.adapters.springboot.KeycloakSpringBootProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Shortens the way from a cold JVM to fast responses, see {@code application-fast-startup.properties}.
+ * <p>
+ * {@code favourites.startup.warmup.enabled=true} runs a token through the keycloak adapter before the app accepts
+ * requests and sends the app a request as soon as its port is open. {@code favourites.startup.training-run=true}
+ * exits once the app is started, the build uses it to record the classes of the startup and the first request in a
+ * class data sharing archive.
+ */
+@Configuration
+public class StartupConfig {
+    private static final Logger LOG = Logger.getLogger(StartupConfig.class);
+
+    private static final String WARMUP_PATH = "/warmup";
+    private static final int WARMUP_TIMEOUT_MILLIS = 5000;
+
+    @Value("${favourites.startup.warmup.iterations:100}")
+    private int warmupIterations;
+
+    @Bean
+    @ConditionalOnProperty(name = "favourites.startup.warmup.enabled", havingValue = "true")
+    public KeycloakPipelineWarmup keycloakPipelineWarmup(final KeycloakSpringBootProperties keycloakProperties,
+                                                         final TemplateRenderer templateRenderer) {
+        return new KeycloakPipelineWarmup(keycloakProperties, FavouritesSecurityConfig.authenticationProvider(), templateRenderer,
+                                          warmupIterations);
+    }
+
+    /**
+     * The first request through tomcat, the filter chain and the dispatcher servlet takes longer than all the tokens of
+     * the warmup together. It's sent to a page which doesn't exist and needs no login, so that neither keycloak is
+     * called nor a session is created, and is answered with 404.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "favourites.startup.warmup.enabled", havingValue = "true")
+    public ApplicationListener<WebServerInitializedEvent> warmupRequest() {
+        return event -> {
+            final long start = System.nanoTime();
+            try {
+                final URL url = new URL("http://localhost:" + event.getWebServer().getPort() + WARMUP_PATH);
+                final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+                connection.setConnectTimeout(WARMUP_TIMEOUT_MILLIS);
+                connection.setReadTimeout(WARMUP_TIMEOUT_MILLIS);
+                final int status = connection.getResponseCode();
+                connection.disconnect();
+                LOG.infof("Warmup request answered with %d in %d ms", status, (System.nanoTime() - start) / 1_000_000);
+            } catch (IOException e) {
+                LOG.warn("Could not send the warmup request", e);
+            }
+        };
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "favourites.startup.training-run", havingValue = "true")
+    public ApplicationListener<ApplicationReadyEvent> trainingRun() {
+        return event -> System.exit(SpringApplication.exit(event.getApplicationContext()));
+    }
+}
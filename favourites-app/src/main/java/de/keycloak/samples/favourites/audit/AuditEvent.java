@@ -0,0 +1,56 @@
+package de.keycloak.samples.favourites.audit;
+
+/**
+ * A security relevant event, e.g. a denied access, written by the {@link AuditLog}.
+ */
+public final class AuditEvent {
+    public static final String ACCESS_DENIED = "access-denied";
+
+    private final String type;
+    private final long timestamp;
+    private final String principal;
+    private final String method;
+    private final String uri;
+    private final String remoteAddress;
+
+    public AuditEvent(final String type,
+                      final long timestamp,
+                      final String principal,
+                      final String method,
+                      final String uri,
+                      final String remoteAddress) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.principal = principal;
+        this.method = method;
+        this.uri = uri;
+        this.remoteAddress = remoteAddress;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return the time of the event in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getPrincipal() {
+        return principal;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+}
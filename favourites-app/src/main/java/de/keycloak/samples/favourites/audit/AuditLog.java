@@ -0,0 +1,332 @@
+package de.keycloak.samples.favourites.audit;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.jboss.logging.Logger;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Writes {@link AuditEvent}s as JSON lines to a local file, without slowing down the request which causes them:
+ * the request thread only puts the event into an {@link AuditRingBuffer}, a background thread takes the events in
+ * batches and appends each batch with a single write. While there are no events the writer is parked until the next
+ * window ends, and is only unparked by the request thread when it's idle.
+ * <p>
+ * The events of a principal and URI are rate limited: in every window only the first {@code eventsPerWindow} events
+ * are written, the others are counted and written as one summary when the window ends, e.g.
+ * {@code {"time":"...","type":"access-denied","principal":"tom","uri":"/favourites","suppressed":4711,"since":"..."}}.
+ * At most {@code maximumKeys} principals and URIs are tracked per window, the events of others are summarized with
+ * the principal and URI {@code *}. If the buffer is full, e.g. because the file can't be written fast enough, the
+ * events are dropped and the number of dropped events is written instead.
+ */
+public class AuditLog implements DisposableBean {
+    private static final Logger LOG = Logger.getLogger(AuditLog.class);
+
+    private static final int BATCH_SIZE = 1024;
+    private static final String ANY = "*";
+
+    private final AuditRingBuffer buffer;
+    private final Path file;
+    private final long windowMillis;
+    private final int eventsPerWindow;
+    private final int maximumKeys;
+    private final long sweepIntervalMillis;
+    private final Clock clock;
+    private final JsonFactory jsonFactory = new JsonFactory().setRootValueSeparator(null);
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile boolean idle;
+
+    // only used by the writer thread
+    private final Map<String, Window> windows = new HashMap<>();
+    private Window overflow;
+    private JsonGenerator generator;
+    private boolean failing;
+    private long nextSweep;
+
+    // only written by the writer thread
+    private volatile long written;
+    private volatile long suppressed;
+    private volatile long dropped;
+
+    public AuditLog(final Path file,
+                    final int bufferSize,
+                    final Duration window,
+                    final int eventsPerWindow,
+                    final int maximumKeys) {
+        this(file, bufferSize, window, eventsPerWindow, maximumKeys, Clock.systemUTC());
+    }
+
+    AuditLog(final Path file,
+             final int bufferSize,
+             final Duration window,
+             final int eventsPerWindow,
+             final int maximumKeys,
+             final Clock clock) {
+        this.buffer = new AuditRingBuffer(bufferSize);
+        this.file = file;
+        this.windowMillis = window.toMillis();
+        this.eventsPerWindow = eventsPerWindow;
+        this.maximumKeys = maximumKeys;
+        this.sweepIntervalMillis = Math.max(1, Math.min(windowMillis, 1000));
+        this.clock = clock;
+        this.nextSweep = clock.millis() + sweepIntervalMillis;
+        this.writer = new Thread(this::run, "audit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Records that {@code principal} was denied the access to {@code uri}.
+     *
+     * @return {@code false} if the event was dropped, as the buffer is full
+     */
+    public boolean accessDenied(final String principal, final String method, final String uri, final String remoteAddress) {
+        return publish(new AuditEvent(AuditEvent.ACCESS_DENIED, clock.millis(), principal, method, uri, remoteAddress));
+    }
+
+    /**
+     * @return {@code false} if the event was dropped, as the buffer is full
+     */
+    public boolean publish(final AuditEvent event) {
+        if (!buffer.offer(event)) {
+            return false;
+        }
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public long getSuppressed() {
+        return suppressed;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(writer);
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    private void run() {
+        final List<AuditEvent> batch = new ArrayList<>(BATCH_SIZE);
+        while (running) {
+            if (buffer.drainTo(batch, BATCH_SIZE) == 0 && clock.millis() < nextSweep) {
+                awaitEvents();
+                continue;
+            }
+            write(batch, false);
+            batch.clear();
+        }
+        // the events which were published before the shutdown, and the summaries of all windows
+        while (buffer.drainTo(batch, BATCH_SIZE) > 0) {
+            write(batch, false);
+            batch.clear();
+        }
+        write(batch, true);
+        close();
+    }
+
+    /**
+     * Parks the writer until an event is published, or until the next sweep if there are windows to close.
+     */
+    private void awaitEvents() {
+        idle = true;
+        // a publisher takes its position before it reads idle, so either the event is seen here or the publisher
+        // unparks the writer
+        if (buffer.isEmpty() && running) {
+            if (windows.isEmpty() && overflow == null) {
+                LockSupport.park(this);
+            } else {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(nextSweep - clock.millis()));
+            }
+        }
+        idle = false;
+    }
+
+    private void write(final List<AuditEvent> batch, final boolean closeAllWindows) {
+        final long now = clock.millis();
+        try {
+            final JsonGenerator out = generator();
+            for (AuditEvent event : batch) {
+                if (admit(out, event)) {
+                    writeEvent(out, event);
+                    written++;
+                }
+            }
+            if (closeAllWindows || now >= nextSweep) {
+                sweep(out, now, closeAllWindows);
+                nextSweep = now + sweepIntervalMillis;
+            }
+            final long droppedNow = buffer.takeDropped();
+            if (droppedNow > 0) {
+                writeDropped(out, now, droppedNow);
+                dropped += droppedNow;
+            }
+            out.flush();
+            failing = false;
+        } catch (IOException e) {
+            // logged once until the file can be written again, the events of the batch are lost
+            if (!failing) {
+                LOG.warn("Audit events can't be written to " + file, e);
+                failing = true;
+            }
+            close();
+        }
+    }
+
+    /**
+     * @return {@code true} if the event is within the limit of the window of its principal and URI
+     */
+    private boolean admit(final JsonGenerator out, final AuditEvent event) throws IOException {
+        final String key = event.getPrincipal() + '\u0000' + event.getUri();
+        Window window = windows.get(key);
+        if (window != null && event.getTimestamp() >= window.end) {
+            writeSummary(out, window, event.getTimestamp());
+            window.reset(event.getTimestamp());
+        } else if (window == null) {
+            if (windows.size() >= maximumKeys) {
+                if (overflow == null) {
+                    overflow = new Window(ANY, ANY, event.getTimestamp());
+                }
+                overflow.suppressed++;
+                suppressed++;
+                return false;
+            }
+            window = new Window(event.getPrincipal(), event.getUri(), event.getTimestamp());
+            windows.put(key, window);
+        }
+        if (window.count < eventsPerWindow) {
+            window.count++;
+            return true;
+        }
+        window.suppressed++;
+        suppressed++;
+        return false;
+    }
+
+    private void sweep(final JsonGenerator out, final long now, final boolean closeAll) throws IOException {
+        final Iterator<Window> iterator = windows.values().iterator();
+        while (iterator.hasNext()) {
+            final Window window = iterator.next();
+            if (closeAll || now >= window.end) {
+                writeSummary(out, window, now);
+                iterator.remove();
+            }
+        }
+        if (overflow != null && (closeAll || now >= overflow.end)) {
+            writeSummary(out, overflow, now);
+            overflow = null;
+        }
+    }
+
+    private void writeEvent(final JsonGenerator out, final AuditEvent event) throws IOException {
+        out.writeStartObject();
+        out.writeStringField("time", Instant.ofEpochMilli(event.getTimestamp()).toString());
+        out.writeStringField("type", event.getType());
+        out.writeStringField("principal", event.getPrincipal());
+        out.writeStringField("method", event.getMethod());
+        out.writeStringField("uri", event.getUri());
+        out.writeStringField("remoteAddress", event.getRemoteAddress());
+        out.writeEndObject();
+        out.writeRaw('\n');
+    }
+
+    private void writeSummary(final JsonGenerator out, final Window window, final long now) throws IOException {
+        if (window.suppressed == 0) {
+            return;
+        }
+        out.writeStartObject();
+        out.writeStringField("time", Instant.ofEpochMilli(now).toString());
+        out.writeStringField("type", AuditEvent.ACCESS_DENIED);
+        out.writeStringField("principal", window.principal);
+        out.writeStringField("uri", window.uri);
+        out.writeNumberField("suppressed", window.suppressed);
+        out.writeStringField("since", Instant.ofEpochMilli(window.start).toString());
+        out.writeEndObject();
+        out.writeRaw('\n');
+    }
+
+    private void writeDropped(final JsonGenerator out, final long now, final long count) throws IOException {
+        out.writeStartObject();
+        out.writeStringField("time", Instant.ofEpochMilli(now).toString());
+        out.writeStringField("type", "audit-buffer-full");
+        out.writeNumberField("dropped", count);
+        out.writeEndObject();
+        out.writeRaw('\n');
+    }
+
+    private JsonGenerator generator() throws IOException {
+        if (generator == null) {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            generator = jsonFactory.createGenerator(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND),
+                                                                             1 << 16),
+                                                    JsonEncoding.UTF8);
+        }
+        return generator;
+    }
+
+    private void close() {
+        if (generator == null) {
+            return;
+        }
+        try {
+            generator.close();
+        } catch (IOException e) {
+            LOG.debug("Audit log can't be closed", e);
+        }
+        generator = null;
+    }
+
+    private final class Window {
+        private final String principal;
+        private final String uri;
+        private long start;
+        private long end;
+        private int count;
+        private long suppressed;
+
+        private Window(final String principal, final String uri, final long start) {
+            this.principal = principal;
+            this.uri = uri;
+            reset(start);
+        }
+
+        private void reset(final long start) {
+            this.start = start;
+            this.end = start + windowMillis;
+            this.count = 0;
+            this.suppressed = 0;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package de.keycloak.samples.favourites.audit;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Writes the audit events, e.g. of the {@link de.keycloak.samples.favourites.security.CustomAccessDeniedHandler}, to
+ * {@code favourites.audit.file}.
+ */
+@Configuration
+public class AuditLogConfig {
+
+    @Bean
+    public AuditLog auditLog(@Value("${favourites.audit.file:logs/audit.log}") final String file,
+                             @Value("${favourites.audit.buffer-size:8192}") final int bufferSize,
+                             @Value("${favourites.audit.window-seconds:60}") final int windowSeconds,
+                             @Value("${favourites.audit.events-per-window:5}") final int eventsPerWindow,
+                             @Value("${favourites.audit.maximum-keys:10000}") final int maximumKeys) {
+        return new AuditLog(Paths.get(file), bufferSize, Duration.ofSeconds(windowSeconds), eventsPerWindow, maximumKeys);
+    }
+}
@@ -0,0 +1,106 @@
+package de.keycloak.samples.favourites.audit;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded queue of {@link AuditEvent}s for many producers and a single consumer, without locks. Every slot carries a
+ * sequence which tells whether it's free for the producer of a position or filled for the consumer, so a producer
+ * only competes with the other producers for the next position and never waits for the consumer.
+ * <p>
+ * When the buffer is full the event is dropped and counted instead of blocking the request thread.
+ */
+final class AuditRingBuffer {
+    private final AtomicReferenceArray<AuditEvent> events;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Only read and written by the consumer.
+     */
+    private long head;
+
+    AuditRingBuffer(final int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("The capacity must be at least 2, but is " + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.events = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return {@code false} if the buffer is full and the event was dropped
+     */
+    boolean offer(final AuditEvent event) {
+        long position = tail.get();
+        while (true) {
+            final int index = (int) position & mask;
+            final long available = sequences.get(index) - position;
+            if (available == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    events.lazySet(index, event);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (available < 0) {
+                // the consumer didn't take the event written one round before
+                dropped.increment();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Moves up to {@code maxEvents} events to {@code batch}, in the order they were offered. Must only be called by
+     * the consumer.
+     *
+     * @return the number of events moved
+     */
+    int drainTo(final List<AuditEvent> batch, final int maxEvents) {
+        int drained = 0;
+        while (drained < maxEvents) {
+            final int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                break;
+            }
+            batch.add(events.get(index));
+            events.lazySet(index, null);
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * @return {@code true} if no position was taken since the last drain, an event whose position was taken may not
+     *         be drained yet. Must only be called by the consumer.
+     */
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    /**
+     * @return the number of events dropped since the last call
+     */
+    long takeDropped() {
+        return dropped.sumThenReset();
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,80 @@
+package de.keycloak.samples.favourites.cookie;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.security.web.savedrequest.RequestCache;
+import org.springframework.security.web.savedrequest.SavedRequest;
+import org.springframework.security.web.savedrequest.SimpleSavedRequest;
+
+/**
+ * Remembers the page requested before the login in a cookie instead of the http session, so the user is sent back to
+ * it after the login. Only the path and the query of GET requests are kept.
+ */
+public class CookieRequestCache implements RequestCache {
+    public static final String COOKIE_NAME = "FAVOURITES_REDIRECT";
+
+    private static final int MAX_AGE_SECONDS = 300;
+
+    @Override
+    public void saveRequest(final HttpServletRequest request, final HttpServletResponse response) {
+        if (!"GET".equals(request.getMethod())) {
+            return;
+        }
+        final String target = request.getRequestURI().substring(request.getContextPath().length())
+                              + (request.getQueryString() == null ? "" : '?' + request.getQueryString());
+        final Cookie cookie = newCookie(request, Base64.getUrlEncoder().withoutPadding().encodeToString(target.getBytes(StandardCharsets.UTF_8)));
+        cookie.setMaxAge(MAX_AGE_SECONDS);
+        response.addCookie(cookie);
+    }
+
+    @Override
+    public SavedRequest getRequest(final HttpServletRequest request, final HttpServletResponse response) {
+        final String target = target(request);
+        return target == null ? null : new SimpleSavedRequest(target);
+    }
+
+    @Override
+    public HttpServletRequest getMatchingRequest(final HttpServletRequest request, final HttpServletResponse response) {
+        return null;
+    }
+
+    @Override
+    public void removeRequest(final HttpServletRequest request, final HttpServletResponse response) {
+        if (target(request) != null) {
+            final Cookie cookie = newCookie(request, "");
+            cookie.setMaxAge(0);
+            response.addCookie(cookie);
+        }
+    }
+
+    /**
+     * @return path within the app, never an absolute url which could redirect to another site
+     */
+    private static String target(final HttpServletRequest request) {
+        if (request.getCookies() == null) {
+            return null;
+        }
+        for (Cookie cookie : request.getCookies()) {
+            if (COOKIE_NAME.equals(cookie.getName())) {
+                try {
+                    final String target = new String(Base64.getUrlDecoder().decode(cookie.getValue()), StandardCharsets.UTF_8);
+                    return target.startsWith("/") && !target.startsWith("//") && !target.startsWith("/\\") ? target : null;
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Cookie newCookie(final HttpServletRequest request, final String value) {
+        final Cookie cookie = new Cookie(COOKIE_NAME, value);
+        cookie.setPath(request.getContextPath().isEmpty() ? "/" : request.getContextPath());
+        cookie.setHttpOnly(true);
+        cookie.setSecure(request.isSecure());
+        return cookie;
+    }
+}
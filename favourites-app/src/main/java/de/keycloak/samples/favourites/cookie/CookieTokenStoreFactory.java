@@ -0,0 +1,31 @@
+package de.keycloak.samples.favourites.cookie;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.keycloak.adapters.AdapterTokenStore;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.springsecurity.token.AdapterTokenStoreFactory;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * Creates {@link EncryptedCookieTokenStore}s. The adapter only passes the request to the factory, the response is
+ * taken from the request attributes which spring boot binds for every request.
+ */
+public class CookieTokenStoreFactory implements AdapterTokenStoreFactory {
+
+    private final TokenCookieCodec codec;
+
+    public CookieTokenStoreFactory(final TokenCookieCodec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public AdapterTokenStore createAdapterTokenStore(final KeycloakDeployment deployment, final HttpServletRequest request) {
+        final HttpServletResponse response = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getResponse();
+        if (response == null) {
+            throw new IllegalStateException("No response bound to the current request");
+        }
+        return new EncryptedCookieTokenStore(deployment, request, response, codec);
+    }
+}
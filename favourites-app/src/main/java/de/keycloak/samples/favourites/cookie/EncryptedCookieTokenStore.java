@@ -0,0 +1,190 @@
+package de.keycloak.samples.favourites.cookie;
+
+import de.keycloak.samples.favourites.cookie.TokenCookieCodec.Tokens;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.jboss.logging.Logger;
+import org.keycloak.adapters.AdapterTokenStore;
+import org.keycloak.adapters.AdapterUtils;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.OidcKeycloakAccount;
+import org.keycloak.adapters.RefreshableKeycloakSecurityContext;
+import org.keycloak.adapters.RequestAuthenticator;
+import org.keycloak.adapters.springsecurity.account.SimpleKeycloakAccount;
+import org.keycloak.adapters.springsecurity.token.KeycloakAuthenticationToken;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.IDToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+/**
+ * Keeps the tokens of a user in encrypted cookies instead of the http session, so the app holds no state per user and
+ * any instance can serve any request. The cookies are read on every request; expired tokens are refreshed and the
+ * refreshed tokens are written back to the cookies.
+ * <p>
+ * The tokens are not verified again, the cookies are authenticated by the {@link TokenCookieCodec} and only hold
+ * tokens which were verified on the login.
+ */
+public class EncryptedCookieTokenStore implements AdapterTokenStore {
+    private static final Logger LOG = Logger.getLogger(EncryptedCookieTokenStore.class);
+
+    /**
+     * Name of the first cookie, the following chunks are named {@code KEYCLOAK_ADAPTER_STATE_1} and so on.
+     */
+    public static final String COOKIE_NAME = "KEYCLOAK_ADAPTER_STATE";
+
+    /**
+     * Matches the requests of logged in users, the keycloak authentication filter only handles the login otherwise.
+     */
+    public static final RequestMatcher REQUEST_MATCHER = request -> cookie(request, COOKIE_NAME) != null;
+
+    private final KeycloakDeployment deployment;
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+    private final TokenCookieCodec codec;
+
+    public EncryptedCookieTokenStore(final KeycloakDeployment deployment,
+                                     final HttpServletRequest request,
+                                     final HttpServletResponse response,
+                                     final TokenCookieCodec codec) {
+        this.deployment = deployment;
+        this.request = request;
+        this.response = response;
+        this.codec = codec;
+    }
+
+    @Override
+    public void checkCurrentToken() {
+        // the cookies are read and the tokens refreshed in isCached on every request
+    }
+
+    @Override
+    public boolean isCached(final RequestAuthenticator authenticator) {
+        final RefreshableKeycloakSecurityContext securityContext = readSecurityContext();
+        if (securityContext == null) {
+            return false;
+        }
+        if (!deployment.getRealm().equals(securityContext.getRealm())) {
+            LOG.debug("Tokens in the cookie were issued by another realm");
+            logout();
+            return false;
+        }
+        if (!securityContext.isActive() || deployment.isAlwaysRefreshToken()) {
+            // writes the refreshed tokens by refreshCallback
+            if (!securityContext.refreshExpiredToken(false) || !securityContext.isActive()) {
+                LOG.debug("Tokens in the cookie expired and can't be refreshed");
+                logout();
+                return false;
+            }
+        }
+        final OidcKeycloakAccount account = new SimpleKeycloakAccount(AdapterUtils.createPrincipal(deployment, securityContext),
+                                                                      AdapterUtils.getRolesFromSecurityContext(securityContext),
+                                                                      securityContext);
+        SecurityContextHolder.getContext().setAuthentication(new KeycloakAuthenticationToken(account, false));
+        return true;
+    }
+
+    @Override
+    public void saveAccountInfo(final OidcKeycloakAccount account) {
+        SecurityContextHolder.getContext().setAuthentication(new KeycloakAuthenticationToken(account, true));
+        write((RefreshableKeycloakSecurityContext) account.getKeycloakSecurityContext());
+    }
+
+    @Override
+    public void logout() {
+        final List<Cookie> expired = new ArrayList<>();
+        for (int i = 0; cookie(request, chunkName(i)) != null; i++) {
+            expired.add(newCookie(chunkName(i), ""));
+        }
+        for (Cookie cookie : expired) {
+            cookie.setMaxAge(0);
+            response.addCookie(cookie);
+        }
+    }
+
+    @Override
+    public void refreshCallback(final RefreshableKeycloakSecurityContext securityContext) {
+        write(securityContext);
+    }
+
+    @Override
+    public void saveRequest() {
+        // the url requested before the login is kept by the CookieRequestCache
+    }
+
+    @Override
+    public boolean restoreRequest() {
+        return false;
+    }
+
+    private void write(final RefreshableKeycloakSecurityContext securityContext) {
+        final List<String> chunks = codec.encode(new Tokens(securityContext.getTokenString(),
+                                                            securityContext.getIdTokenString(),
+                                                            securityContext.getRefreshToken()));
+        for (int i = 0; i < chunks.size(); i++) {
+            response.addCookie(newCookie(chunkName(i), chunks.get(i)));
+        }
+        // remove the chunks which are left over from larger tokens
+        for (int i = chunks.size(); cookie(request, chunkName(i)) != null; i++) {
+            final Cookie cookie = newCookie(chunkName(i), "");
+            cookie.setMaxAge(0);
+            response.addCookie(cookie);
+        }
+    }
+
+    private RefreshableKeycloakSecurityContext readSecurityContext() {
+        final List<String> chunks = new ArrayList<>();
+        for (Cookie cookie = cookie(request, chunkName(0)); cookie != null; cookie = cookie(request, chunkName(chunks.size()))) {
+            chunks.add(cookie.getValue());
+        }
+        final Tokens tokens = codec.decode(chunks);
+        if (tokens == null || tokens.getAccessToken() == null) {
+            if (!chunks.isEmpty()) {
+                LOG.debug("Cookie can't be decrypted, it was written with another key or changed");
+                logout();
+            }
+            return null;
+        }
+        try {
+            final AccessToken accessToken = new JWSInput(tokens.getAccessToken()).readJsonContent(AccessToken.class);
+            final IDToken idToken = tokens.getIdToken() == null ? null : new JWSInput(tokens.getIdToken()).readJsonContent(IDToken.class);
+            return new RefreshableKeycloakSecurityContext(deployment, this,
+                                                          tokens.getAccessToken(), accessToken,
+                                                          tokens.getIdToken(), idToken,
+                                                          tokens.getRefreshToken());
+        } catch (JWSInputException e) {
+            LOG.debug("Tokens in the cookie can't be parsed", e);
+            logout();
+            return null;
+        }
+    }
+
+    private Cookie newCookie(final String name, final String value) {
+        final Cookie cookie = new Cookie(name, value);
+        cookie.setPath(request.getContextPath().isEmpty() ? "/" : request.getContextPath());
+        cookie.setHttpOnly(true);
+        cookie.setSecure(request.isSecure());
+        return cookie;
+    }
+
+    private static String chunkName(final int index) {
+        return index == 0 ? COOKIE_NAME : COOKIE_NAME + '_' + index;
+    }
+
+    private static Cookie cookie(final HttpServletRequest request, final String name) {
+        final Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (name.equals(cookie.getName())) {
+                    return cookie;
+                }
+            }
+        }
+        return null;
+    }
+}
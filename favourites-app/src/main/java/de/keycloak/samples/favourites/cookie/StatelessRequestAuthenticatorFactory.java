@@ -0,0 +1,31 @@
+package de.keycloak.samples.favourites.cookie;
+
+import javax.servlet.http.HttpServletRequest;
+import org.keycloak.adapters.AdapterTokenStore;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.RequestAuthenticator;
+import org.keycloak.adapters.spi.HttpFacade;
+import org.keycloak.adapters.springsecurity.authentication.RequestAuthenticatorFactory;
+import org.keycloak.adapters.springsecurity.authentication.SpringSecurityRequestAuthenticator;
+
+/**
+ * The adapter creates an http session on the login to pass its id to keycloak for the backchannel logout. Without
+ * sessions there is nothing to log out, the tokens in the cookies can't be refreshed any more once the user logged
+ * out at keycloak.
+ */
+public class StatelessRequestAuthenticatorFactory implements RequestAuthenticatorFactory {
+
+    @Override
+    public RequestAuthenticator createRequestAuthenticator(final HttpFacade facade,
+                                                           final HttpServletRequest request,
+                                                           final KeycloakDeployment deployment,
+                                                           final AdapterTokenStore tokenStore,
+                                                           final int sslRedirectPort) {
+        return new SpringSecurityRequestAuthenticator(facade, request, deployment, tokenStore, sslRedirectPort) {
+            @Override
+            protected String changeHttpSessionId(final boolean create) {
+                return null;
+            }
+        };
+    }
+}
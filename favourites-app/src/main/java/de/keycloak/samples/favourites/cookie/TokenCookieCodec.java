@@ -0,0 +1,229 @@
+package de.keycloak.samples.favourites.cookie;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Turns the tokens of a user into the values of one or more cookies and back. The tokens are compressed (the JSON
+ * of a JWT compresses well once its base64 encoding is undone), encrypted and authenticated with AES-GCM and split
+ * into chunks which fit into a cookie each. A value which was not encrypted with the same key, or was changed, is
+ * rejected.
+ */
+public class TokenCookieCodec {
+    /**
+     * Cookie values are limited to about 4KB by the browsers, including the name and the attributes of the cookie.
+     */
+    public static final int CHUNK_SIZE = 3800;
+
+    private static final byte VERSION = 1;
+    private static final byte ABSENT = 0;
+    private static final byte RAW = 1;
+    private static final byte JWT = 2;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * @param key AES key, 16, 24 or 32 bytes
+     */
+    public TokenCookieCodec(final byte[] key) {
+        this.key = new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * @param secret long random secret shared by all instances of the app, the AES key is its SHA-256 hash
+     */
+    public static TokenCookieCodec fromSecret(final String secret) {
+        try {
+            return new TokenCookieCodec(MessageDigest.getInstance("SHA-256").digest(secret.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return a codec with a random key, cookies written by it can't be read by other instances or after a restart
+     */
+    public static TokenCookieCodec withRandomKey() {
+        final byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return new TokenCookieCodec(key);
+    }
+
+    public List<String> encode(final Tokens tokens) {
+        try {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream(4096);
+            final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+            try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(compressed, deflater))) {
+                out.writeByte(VERSION);
+                writeToken(tokens.getAccessToken(), out);
+                writeToken(tokens.getIdToken(), out);
+                writeToken(tokens.getRefreshToken(), out);
+            } finally {
+                deflater.end();
+            }
+
+            final byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            final byte[] encrypted = cipher.doFinal(compressed.toByteArray());
+
+            final byte[] value = Arrays.copyOf(iv, IV_LENGTH + encrypted.length);
+            System.arraycopy(encrypted, 0, value, IV_LENGTH, encrypted.length);
+            return chunk(ENCODER.encodeToString(value));
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Tokens can't be encrypted", e);
+        }
+    }
+
+    /**
+     * @param chunks values of the cookies in the order written by {@link #encode(Tokens)}
+     * @return the tokens, null if the value was not written by this codec or was changed
+     */
+    public Tokens decode(final List<String> chunks) {
+        if (chunks.isEmpty()) {
+            return null;
+        }
+        try {
+            final byte[] value = DECODER.decode(String.join("", chunks));
+            if (value.length <= IV_LENGTH) {
+                return null;
+            }
+            final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, value, 0, IV_LENGTH));
+            final byte[] compressed = cipher.doFinal(value, IV_LENGTH, value.length - IV_LENGTH);
+
+            final Inflater inflater = new Inflater(true);
+            try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed), inflater))) {
+                if (in.readByte() != VERSION) {
+                    return null;
+                }
+                return new Tokens(readToken(in), readToken(in), readToken(in));
+            } finally {
+                inflater.end();
+            }
+        } catch (IllegalArgumentException | IOException | GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    private static List<String> chunk(final String value) {
+        final List<String> chunks = new ArrayList<>(value.length() / CHUNK_SIZE + 1);
+        for (int start = 0; start < value.length(); start += CHUNK_SIZE) {
+            chunks.add(value.substring(start, Math.min(value.length(), start + CHUNK_SIZE)));
+        }
+        return chunks;
+    }
+
+    /**
+     * Writes the three parts of a JWT decoded from base64, the compression doesn't find much to compress in base64.
+     */
+    private static void writeToken(final String token, final DataOutputStream out) throws IOException {
+        if (token == null) {
+            out.writeByte(ABSENT);
+            return;
+        }
+        final String[] parts = token.split("\\.", -1);
+        if (parts.length == 3 && isCanonicalBase64(parts)) {
+            out.writeByte(JWT);
+            for (String part : parts) {
+                final byte[] decoded = DECODER.decode(part);
+                out.writeInt(decoded.length);
+                out.write(decoded);
+            }
+        } else {
+            out.writeByte(RAW);
+            final byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readToken(final DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        if (type == ABSENT) {
+            return null;
+        }
+        if (type == RAW) {
+            return new String(readBytes(in), StandardCharsets.UTF_8);
+        }
+        if (type != JWT) {
+            throw new IOException("Unknown token type " + type);
+        }
+        return ENCODER.encodeToString(readBytes(in)) + '.' + ENCODER.encodeToString(readBytes(in)) + '.' + ENCODER.encodeToString(readBytes(in));
+    }
+
+    private static byte[] readBytes(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Only parts which are encoded again to the same string can be stored decoded, the signature would not match
+     * otherwise.
+     */
+    private static boolean isCanonicalBase64(final String[] parts) {
+        try {
+            for (String part : parts) {
+                if (!ENCODER.encodeToString(DECODER.decode(part)).equals(part)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Access, id and refresh token of a user as issued by keycloak.
+     */
+    public static final class Tokens {
+        private final String accessToken;
+        private final String idToken;
+        private final String refreshToken;
+
+        public Tokens(final String accessToken, final String idToken, final String refreshToken) {
+            this.accessToken = accessToken;
+            this.idToken = idToken;
+            this.refreshToken = refreshToken;
+        }
+
+        public String getAccessToken() {
+            return accessToken;
+        }
+
+        public String getIdToken() {
+            return idToken;
+        }
+
+        public String getRefreshToken() {
+            return refreshToken;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package de.keycloak.samples.favourites.cookie;
+
+import org.jboss.logging.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Keeps the tokens of the users in encrypted cookies instead of the http session with
+ * {@code favourites.token-store=cookie}. All instances of the app need the same {@code favourites.token-cookie.secret}
+ * to read the cookies written by the others.
+ */
+@Configuration
+@ConditionalOnProperty(name = "favourites.token-store", havingValue = "cookie")
+public class TokenCookieConfig {
+    private static final Logger LOG = Logger.getLogger(TokenCookieConfig.class);
+
+    @Bean
+    public TokenCookieCodec tokenCookieCodec(@Value("${favourites.token-cookie.secret:}") final String secret) {
+        if (secret.isEmpty()) {
+            LOG.warn("No favourites.token-cookie.secret configured, using a random key: users have to log in again after a restart and on other instances");
+            return TokenCookieCodec.withRandomKey();
+        }
+        return TokenCookieCodec.fromSecret(secret);
+    }
+}
@@ -0,0 +1,31 @@
+package de.keycloak.samples.favourites.cookie;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.keycloak.adapters.AdapterDeploymentContext;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.springsecurity.authentication.KeycloakLogoutHandler;
+import org.keycloak.adapters.springsecurity.facade.SimpleHttpFacade;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Logs out at keycloak like the {@link KeycloakLogoutHandler} and removes the cookies with the tokens.
+ */
+public class TokenCookieLogoutHandler extends KeycloakLogoutHandler {
+
+    private final AdapterDeploymentContext adapterDeploymentContext;
+    private final TokenCookieCodec codec;
+
+    public TokenCookieLogoutHandler(final AdapterDeploymentContext adapterDeploymentContext, final TokenCookieCodec codec) {
+        super(adapterDeploymentContext);
+        this.adapterDeploymentContext = adapterDeploymentContext;
+        this.codec = codec;
+    }
+
+    @Override
+    public void logout(final HttpServletRequest request, final HttpServletResponse response, final Authentication authentication) {
+        super.logout(request, response, authentication);
+        final KeycloakDeployment deployment = adapterDeploymentContext.resolveDeployment(new SimpleHttpFacade(request, response));
+        new EncryptedCookieTokenStore(deployment, request, response, codec).logout();
+    }
+}
@@ -1,19 +1,36 @@
 package de.keycloak.samples.favourites.resource;
 
+import de.keycloak.samples.favourites.view.RenderedPageCache;
+import de.keycloak.samples.favourites.view.TemplateRenderer;
 import java.util.Arrays;
+import java.util.Collections;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Controller;
-import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
 
 @Controller
 public class FavouritesResource {
 
-    @GetMapping(path = "/favourites")
-    public String getFavourites(Model model) {
-        model.addAttribute("favourites", Arrays.asList("VW Passat", "Audi A4", "BMW 520i"));
-        return "favourites";
+    private final TemplateRenderer templateRenderer;
+    private final RenderedPageCache pageCache;
+
+    public FavouritesResource(final TemplateRenderer templateRenderer, final RenderedPageCache pageCache) {
+        this.templateRenderer = templateRenderer;
+        this.pageCache = pageCache;
+    }
+
+    /**
+     * The page only depends on the user and the roles, it's rendered once and then served from the {@link RenderedPageCache}.
+     */
+    @GetMapping(path = "/favourites", produces = MediaType.TEXT_HTML_VALUE)
+    @ResponseBody
+    public String getFavourites(final Authentication authentication) {
+        return pageCache.get("favourites", authentication, () -> templateRenderer.render(
+                "favourites", Collections.singletonMap("favourites", Arrays.asList("VW Passat", "Audi A4", "BMW 520i"))));
     }
 
     @GetMapping(path = "/logout")
@@ -1,17 +1,26 @@
 package de.keycloak.samples.favourites.security;
 
+import de.keycloak.samples.favourites.audit.AuditLog;
 import java.io.IOException;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.jboss.logging.Logger;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.access.AccessDeniedHandler;
 
+/**
+ * Logs the user out and sends them to the access denied page. The denied access is recorded in the {@link AuditLog},
+ * which writes it in the background, so a flood of forbidden requests isn't slowed down by the logging.
+ */
 public class CustomAccessDeniedHandler implements AccessDeniedHandler {
-    private static final Logger LOG = Logger.getLogger(CustomAccessDeniedHandler.class);
+
+    private final AuditLog auditLog;
+
+    public CustomAccessDeniedHandler(final AuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
 
     @Override
     public void handle(final HttpServletRequest request,
@@ -20,7 +29,7 @@ public class CustomAccessDeniedHandler implements AccessDeniedHandler {
 
         final Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         if (auth != null) {
-            LOG.warn("User: " + auth.getName() + " attempted to access the protected URL: " + request.getRequestURI());
+            auditLog.accessDenied(auth.getName(), request.getMethod(), request.getRequestURI(), request.getRemoteAddr());
             request.logout();
         }
 
@@ -1,55 +1,155 @@
 package de.keycloak.samples.favourites.security;
 
+import de.keycloak.samples.favourites.audit.AuditLog;
+import de.keycloak.samples.favourites.cookie.CookieRequestCache;
+import de.keycloak.samples.favourites.cookie.CookieTokenStoreFactory;
+import de.keycloak.samples.favourites.cookie.EncryptedCookieTokenStore;
+import de.keycloak.samples.favourites.cookie.StatelessRequestAuthenticatorFactory;
+import de.keycloak.samples.favourites.cookie.TokenCookieCodec;
+import de.keycloak.samples.favourites.cookie.TokenCookieLogoutHandler;
+import de.keycloak.samples.favourites.session.KeycloakDeploymentRebindingFilter;
+import de.keycloak.samples.favourites.session.SharedHttpSessionManager;
+import de.keycloak.samples.favourites.view.RenderedPageCache;
 import org.keycloak.adapters.springboot.KeycloakSpringBootConfigResolver;
-import org.keycloak.adapters.springsecurity.KeycloakSecurityComponents;
 import org.keycloak.adapters.springsecurity.authentication.KeycloakAuthenticationProvider;
+import org.keycloak.adapters.springsecurity.authentication.KeycloakLogoutHandler;
 import org.keycloak.adapters.springsecurity.config.KeycloakWebSecurityConfigurerAdapter;
 import org.keycloak.adapters.springsecurity.filter.KeycloakAuthenticatedActionsFilter;
 import org.keycloak.adapters.springsecurity.filter.KeycloakAuthenticationProcessingFilter;
 import org.keycloak.adapters.springsecurity.filter.KeycloakPreAuthActionsFilter;
 import org.keycloak.adapters.springsecurity.filter.KeycloakSecurityContextRequestFilter;
 import org.keycloak.adapters.springsecurity.management.HttpSessionManager;
+import org.keycloak.adapters.springsecurity.token.AdapterTokenStoreFactory;
+import org.keycloak.adapters.springsecurity.token.SpringSecurityAdapterTokenStoreFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.authority.mapping.SimpleAuthorityMapper;
-import org.springframework.security.core.session.SessionRegistryImpl;
+import org.springframework.security.core.session.SessionRegistry;
 import org.springframework.security.web.access.AccessDeniedHandler;
+import org.springframework.security.web.authentication.SavedRequestAwareAuthenticationSuccessHandler;
+import org.springframework.security.web.authentication.session.NullAuthenticatedSessionStrategy;
 import org.springframework.security.web.authentication.session.RegisterSessionAuthenticationStrategy;
 import org.springframework.security.web.authentication.session.SessionAuthenticationStrategy;
+import org.springframework.security.web.savedrequest.HttpSessionRequestCache;
+import org.springframework.security.web.savedrequest.RequestCache;
+import org.springframework.security.web.util.matcher.OrRequestMatcher;
+import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.Session;
+import org.springframework.session.security.SpringSessionBackedSessionRegistry;
 
 @Configuration
 @EnableWebSecurity
-@ComponentScan(basePackageClasses = KeycloakSecurityComponents.class)
 public class FavouritesSecurityConfig extends KeycloakWebSecurityConfigurerAdapter {
 
+    @Autowired
+    private FindByIndexNameSessionRepository<? extends Session> sessionRepository;
+
+    /**
+     * Only present with {@code favourites.token-store=cookie}, the tokens are kept in the http session otherwise.
+     */
+    @Autowired(required = false)
+    private TokenCookieCodec tokenCookieCodec;
+
+    @Autowired
+    private RenderedPageCache renderedPageCache;
+
+    @Autowired
+    private AuditLog auditLog;
+
     @Bean
     @Override
     protected SessionAuthenticationStrategy sessionAuthenticationStrategy() {
-        return new RegisterSessionAuthenticationStrategy(new SessionRegistryImpl());
+        if (tokenCookieCodec != null) {
+            return new NullAuthenticatedSessionStrategy();
+        }
+        return new RegisterSessionAuthenticationStrategy(sessionRegistry());
+    }
+
+    @Bean
+    public AdapterTokenStoreFactory adapterTokenStoreFactory() {
+        if (tokenCookieCodec != null) {
+            return new CookieTokenStoreFactory(tokenCookieCodec);
+        }
+        return new SpringSecurityAdapterTokenStoreFactory();
+    }
+
+    @Bean
+    public RequestCache requestCache() {
+        if (tokenCookieCodec != null) {
+            return new CookieRequestCache();
+        }
+        return new HttpSessionRequestCache();
+    }
+
+    /**
+     * In the cookie mode the filter authenticates every request which carries the cookie, not only the login and
+     * bearer requests, and sends the user back to the page requested before the login from the {@link CookieRequestCache}.
+     */
+    @Bean
+    @Override
+    protected KeycloakAuthenticationProcessingFilter keycloakAuthenticationProcessingFilter() throws Exception {
+        if (tokenCookieCodec == null) {
+            return super.keycloakAuthenticationProcessingFilter();
+        }
+        final KeycloakAuthenticationProcessingFilter filter = new KeycloakAuthenticationProcessingFilter(
+                authenticationManagerBean(),
+                new OrRequestMatcher(KeycloakAuthenticationProcessingFilter.DEFAULT_REQUEST_MATCHER, EncryptedCookieTokenStore.REQUEST_MATCHER));
+        filter.setAdapterTokenStoreFactory(adapterTokenStoreFactory());
+        filter.setRequestAuthenticatorFactory(new StatelessRequestAuthenticatorFactory());
+        filter.setSessionAuthenticationStrategy(sessionAuthenticationStrategy());
+        final SavedRequestAwareAuthenticationSuccessHandler successHandler = new SavedRequestAwareAuthenticationSuccessHandler();
+        successHandler.setRequestCache(requestCache());
+        filter.setAuthenticationSuccessHandler(successHandler);
+        return filter;
     }
 
     @Bean
     @Override
-    @ConditionalOnMissingBean(HttpSessionManager.class)
+    protected KeycloakLogoutHandler keycloakLogoutHandler() throws Exception {
+        if (tokenCookieCodec != null) {
+            return new TokenCookieLogoutHandler(adapterDeploymentContext(), tokenCookieCodec);
+        }
+        return super.keycloakLogoutHandler();
+    }
+
+    /**
+     * Registry on top of the session store, so it knows the sessions of all instances and forgets them when they
+     * expire in the store.
+     */
+    @Bean
+    public SessionRegistry sessionRegistry() {
+        return sessionRegistryOf(sessionRepository);
+    }
+
+    /**
+     * Replaces the http session manager of the keycloak adapter, so a backchannel logout deletes the sessions from
+     * the store of all instances. The components of the adapter are not scanned, its own {@code HttpSessionManager}
+     * component would take the place of this one.
+     */
+    @Bean
+    @Override
     protected HttpSessionManager httpSessionManager() {
-        return new HttpSessionManager();
+        return new SharedHttpSessionManager(sessionRepository);
     }
 
     @Override
     protected void configure(final HttpSecurity http) throws Exception {
         super.configure(http);
 
-        http.sessionManagement()
-                .sessionCreationPolicy(SessionCreationPolicy.IF_REQUIRED)
+        http.addFilterBefore(new KeycloakDeploymentRebindingFilter(adapterDeploymentContext(), adapterTokenStoreFactory()), KeycloakPreAuthActionsFilter.class)
+            .sessionManagement()
+                .sessionCreationPolicy(tokenCookieCodec != null ? SessionCreationPolicy.STATELESS : SessionCreationPolicy.IF_REQUIRED)
                 .sessionAuthenticationStrategy(sessionAuthenticationStrategy())
+            .and()
+                .requestCache().requestCache(requestCache())
+            .and()
+                .logout().addLogoutHandler(renderedPageCache)
             .and()
                 .authorizeRequests()
                 .antMatchers("/favourites").hasRole("OWNER")
@@ -60,18 +160,29 @@ public class FavouritesSecurityConfig extends KeycloakWebSecurityConfigurerAdapt
 
     @Bean
     public AccessDeniedHandler accessDeniedHandler(){
-        return new CustomAccessDeniedHandler();
+        return new CustomAccessDeniedHandler(auditLog);
     }
 
     @Autowired
     public void configureGlobal(final AuthenticationManagerBuilder auth) {
-        final KeycloakAuthenticationProvider provider = keycloakAuthenticationProvider();
+        auth.authenticationProvider(authenticationProvider());
+    }
+
+    /**
+     * Maps the keycloak roles to authorities in upper case, e.g. {@code owner} to {@code ROLE_OWNER}.
+     */
+    public static KeycloakAuthenticationProvider authenticationProvider() {
+        final KeycloakAuthenticationProvider provider = new KeycloakAuthenticationProvider();
 
         final SimpleAuthorityMapper mapper = new SimpleAuthorityMapper();
         mapper.setConvertToUpperCase(true);
         provider.setGrantedAuthoritiesMapper(mapper);
 
-        auth.authenticationProvider(provider);
+        return provider;
+    }
+
+    private static <S extends Session> SessionRegistry sessionRegistryOf(final FindByIndexNameSessionRepository<S> sessionRepository) {
+        return new SpringSessionBackedSessionRegistry<>(sessionRepository);
     }
 
     @Bean
@@ -0,0 +1,104 @@
+package de.keycloak.samples.favourites.security;
+
+import de.keycloak.samples.favourites.view.TemplateRenderer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import org.jboss.logging.Logger;
+import org.keycloak.KeycloakPrincipal;
+import org.keycloak.adapters.AdapterUtils;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.KeycloakDeploymentBuilder;
+import org.keycloak.adapters.RefreshableKeycloakSecurityContext;
+import org.keycloak.adapters.rotation.AdapterTokenVerifier;
+import org.keycloak.adapters.rotation.HardcodedPublicKeyLocator;
+import org.keycloak.adapters.springsecurity.account.SimpleKeycloakAccount;
+import org.keycloak.adapters.springsecurity.token.KeycloakAuthenticationToken;
+import org.keycloak.crypto.Algorithm;
+import org.keycloak.crypto.AsymmetricSignatureSignerContext;
+import org.keycloak.crypto.KeyWrapper;
+import org.keycloak.jose.jws.JWSBuilder;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.adapters.config.AdapterConfig;
+import org.keycloak.util.TokenUtil;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.security.authentication.AuthenticationProvider;
+
+/**
+ * Runs a bearer token through the keycloak adapter before the app accepts requests: the token is parsed and its
+ * signature verified like by the adapter, the roles are read with the settings of the deployment and mapped to
+ * authorities, and the favourites page is rendered. The first requests then find the classes loaded and the code
+ * interpreted often enough to be compiled.
+ * <p>
+ * The token is signed and verified with a key generated for the warmup, and the deployment is built for the warmup
+ * only, so keycloak is not called and the keys of the realm are not fetched. The page is not put into the {@link de.keycloak.samples.favourites.view.RenderedPageCache}.
+ */
+public class KeycloakPipelineWarmup implements SmartInitializingSingleton {
+    private static final Logger LOG = Logger.getLogger(KeycloakPipelineWarmup.class);
+
+    private static final String KEY_ID = "warmup";
+    private static final Map<String, ?> MODEL = Collections.singletonMap("favourites", Arrays.asList("VW Passat", "Audi A4", "BMW 520i"));
+
+    private final AdapterConfig adapterConfig;
+    private final AuthenticationProvider authenticationProvider;
+    private final TemplateRenderer templateRenderer;
+    private final int iterations;
+
+    /**
+     * @param adapterConfig configuration of the keycloak deployment, a deployment of its own is built from it
+     * @param iterations times the token is verified and the page is rendered
+     */
+    public KeycloakPipelineWarmup(final AdapterConfig adapterConfig, final AuthenticationProvider authenticationProvider,
+                                  final TemplateRenderer templateRenderer, final int iterations) {
+        this.adapterConfig = adapterConfig;
+        this.authenticationProvider = authenticationProvider;
+        this.templateRenderer = templateRenderer;
+        this.iterations = iterations;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        final long start = System.nanoTime();
+        try {
+            warmUp();
+            LOG.infof("Warmed up the token validation %d times in %d ms", iterations, (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            // only the first requests are slower
+            LOG.warn("Could not warm up the token validation", e);
+        }
+    }
+
+    private void warmUp() throws Exception {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        final KeyPair keyPair = generator.generateKeyPair();
+        final KeycloakDeployment deployment = KeycloakDeploymentBuilder.build(adapterConfig);
+        deployment.setPublicKeyLocator(new HardcodedPublicKeyLocator(keyPair.getPublic()));
+
+        final AccessToken accessToken = new AccessToken();
+        accessToken.id(KEY_ID).subject(KEY_ID).type(TokenUtil.TOKEN_TYPE_BEARER).issuer(deployment.getRealmInfoUrl())
+                   .expiration((int) (System.currentTimeMillis() / 1000) + 60).issuedNow();
+        accessToken.setPreferredUsername(KEY_ID);
+        accessToken.setRealmAccess(new AccessToken.Access().addRole("offline_access"));
+        accessToken.addAccess(deployment.getResourceName()).addRole("owner");
+        final KeyWrapper signingKey = new KeyWrapper();
+        signingKey.setKid(KEY_ID);
+        signingKey.setAlgorithm(Algorithm.RS256);
+        signingKey.setSignKey(keyPair.getPrivate());
+        final String token = new JWSBuilder().jsonContent(accessToken).sign(new AsymmetricSignatureSignerContext(signingKey));
+
+        for (int i = 0; i < iterations; i++) {
+            final AccessToken verified = AdapterTokenVerifier.verifyToken(token, deployment);
+            final RefreshableKeycloakSecurityContext context = new RefreshableKeycloakSecurityContext(deployment, null, token, verified,
+                                                                                                      null, null, null);
+            final Set<String> roles = AdapterUtils.getRolesFromSecurityContext(context);
+            final KeycloakPrincipal<RefreshableKeycloakSecurityContext> principal =
+                    new KeycloakPrincipal<>(AdapterUtils.getPrincipalName(deployment, verified), context);
+            authenticationProvider.authenticate(new KeycloakAuthenticationToken(new SimpleKeycloakAccount(principal, roles, context), false));
+            templateRenderer.render("favourites", MODEL);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package de.keycloak.samples.favourites.session;
+
+import java.io.IOException;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.keycloak.KeycloakSecurityContext;
+import org.keycloak.adapters.AdapterDeploymentContext;
+import org.keycloak.adapters.KeycloakDeployment;
+import org.keycloak.adapters.RefreshableKeycloakSecurityContext;
+import org.keycloak.adapters.springsecurity.facade.SimpleHttpFacade;
+import org.keycloak.adapters.springsecurity.token.AdapterTokenStoreFactory;
+import org.keycloak.adapters.springsecurity.token.KeycloakAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.GenericFilterBean;
+
+/**
+ * The deployment and the token store of a keycloak security context are transient. When the context was read from a
+ * session store they are missing, and the adapter fails as soon as it checks or refreshes the token. This filter binds
+ * them again for the current request.
+ */
+public class KeycloakDeploymentRebindingFilter extends GenericFilterBean {
+
+    private final AdapterDeploymentContext adapterDeploymentContext;
+    private final AdapterTokenStoreFactory adapterTokenStoreFactory;
+
+    public KeycloakDeploymentRebindingFilter(final AdapterDeploymentContext adapterDeploymentContext,
+                                             final AdapterTokenStoreFactory adapterTokenStoreFactory) {
+        this.adapterDeploymentContext = adapterDeploymentContext;
+        this.adapterTokenStoreFactory = adapterTokenStoreFactory;
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain) throws IOException, ServletException {
+        final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication instanceof KeycloakAuthenticationToken) {
+            final KeycloakSecurityContext securityContext = ((KeycloakAuthenticationToken) authentication).getAccount().getKeycloakSecurityContext();
+            if (securityContext instanceof RefreshableKeycloakSecurityContext
+                && ((RefreshableKeycloakSecurityContext) securityContext).getDeployment() == null) {
+                final HttpServletRequest httpRequest = (HttpServletRequest) request;
+                final KeycloakDeployment deployment = adapterDeploymentContext.resolveDeployment(new SimpleHttpFacade(httpRequest, (HttpServletResponse) response));
+                ((RefreshableKeycloakSecurityContext) securityContext).setCurrentRequestInfo(deployment, adapterTokenStoreFactory.createAdapterTokenStore(deployment, httpRequest));
+            }
+        }
+        chain.doFilter(request, response);
+    }
+}
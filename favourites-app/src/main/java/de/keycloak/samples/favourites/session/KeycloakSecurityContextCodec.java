@@ -0,0 +1,142 @@
+package de.keycloak.samples.favourites.session;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.keycloak.KeycloakPrincipal;
+import org.keycloak.adapters.OidcKeycloakAccount;
+import org.keycloak.adapters.RefreshableKeycloakSecurityContext;
+import org.keycloak.adapters.springsecurity.account.SimpleKeycloakAccount;
+import org.keycloak.adapters.springsecurity.token.KeycloakAuthenticationToken;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.IDToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+
+/**
+ * Writes the security context of a user logged in with keycloak as the raw tokens, the principal name, the roles and the
+ * authorities. Java serialization would store the parsed access and id token next to the token strings, including
+ * the class descriptors of the whole object graph, which is several times the size of the tokens.
+ * <p>
+ * The tokens are parsed again when the context is read, without verifying the signature as they were verified on
+ * login and the session store is trusted. The deployment and the token store of the adapter are transient, they are
+ * bound to the context per request by {@link KeycloakDeploymentRebindingFilter}.
+ */
+public final class KeycloakSecurityContextCodec {
+
+    private KeycloakSecurityContextCodec() {
+    }
+
+    /**
+     * @return true if the given session attribute is a security context holding a keycloak authentication
+     */
+    public static boolean supports(final Object value) {
+        if (value == null || value.getClass() != SecurityContextImpl.class) {
+            return false;
+        }
+        final Object authentication = ((SecurityContext) value).getAuthentication();
+        return authentication instanceof KeycloakAuthenticationToken
+               && ((KeycloakAuthenticationToken) authentication).getAccount().getKeycloakSecurityContext() instanceof RefreshableKeycloakSecurityContext;
+    }
+
+    public static void write(final SecurityContext context, final DataOutput out) throws IOException {
+        final KeycloakAuthenticationToken authentication = (KeycloakAuthenticationToken) context.getAuthentication();
+        final OidcKeycloakAccount account = authentication.getAccount();
+        final RefreshableKeycloakSecurityContext securityContext = (RefreshableKeycloakSecurityContext) account.getKeycloakSecurityContext();
+
+        writeString(account.getPrincipal().getName(), out);
+        out.writeBoolean(authentication.isInteractive());
+        out.writeBoolean(authentication.isAuthenticated());
+        writeStrings(account.getRoles(), out);
+        final List<String> authorities = new ArrayList<>(authentication.getAuthorities().size());
+        for (GrantedAuthority authority : authentication.getAuthorities()) {
+            authorities.add(authority.getAuthority());
+        }
+        writeStrings(authorities, out);
+        writeString(securityContext.getTokenString(), out);
+        writeString(securityContext.getIdTokenString(), out);
+        writeString(securityContext.getRefreshToken(), out);
+    }
+
+    public static SecurityContext read(final DataInput in) throws IOException {
+        final String principalName = readString(in);
+        final boolean interactive = in.readBoolean();
+        final boolean authenticated = in.readBoolean();
+        final Set<String> roles = new LinkedHashSet<>(readStrings(in));
+        final List<GrantedAuthority> authorities = new ArrayList<>();
+        for (String authority : readStrings(in)) {
+            authorities.add(new SimpleGrantedAuthority(authority));
+        }
+        final String tokenString = readString(in);
+        final String idTokenString = readString(in);
+        final String refreshToken = readString(in);
+
+        final RefreshableKeycloakSecurityContext securityContext =
+                new RefreshableKeycloakSecurityContext(null, null,
+                                                       tokenString, parse(tokenString, AccessToken.class),
+                                                       idTokenString, idTokenString == null ? null : parse(idTokenString, IDToken.class),
+                                                       refreshToken);
+        final KeycloakPrincipal<RefreshableKeycloakSecurityContext> principal = new KeycloakPrincipal<>(principalName, securityContext);
+        final SimpleKeycloakAccount account = new SimpleKeycloakAccount(principal, roles, securityContext);
+        return new SecurityContextImpl(authenticated
+                                       ? new KeycloakAuthenticationToken(account, interactive, authorities)
+                                       : new KeycloakAuthenticationToken(account, interactive));
+    }
+
+    private static <T> T parse(final String token, final Class<T> type) throws IOException {
+        try {
+            return new JWSInput(token).readJsonContent(type);
+        } catch (JWSInputException e) {
+            throw new IOException("Stored token can't be parsed", e);
+        }
+    }
+
+    private static void writeStrings(final Collection<String> values, final DataOutput out) throws IOException {
+        out.writeInt(values.size());
+        for (String value : values) {
+            writeString(value, out);
+        }
+    }
+
+    private static List<String> readStrings(final DataInput in) throws IOException {
+        final int size = in.readInt();
+        final List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+    /**
+     * Unlike {@link DataOutput#writeUTF(String)} this is not limited to 64KB, tokens with many roles can be larger.
+     */
+    static void writeString(final String value, final DataOutput out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(final DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
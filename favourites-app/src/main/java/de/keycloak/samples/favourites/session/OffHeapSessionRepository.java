@@ -0,0 +1,440 @@
+package de.keycloak.samples.favourites.session;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import org.jboss.logging.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.MapSession;
+
+/**
+ * Session store which keeps the sessions encoded by the {@link SessionCodec} in direct memory, outside of the heap.
+ * Only a small entry per session stays on the heap, so neither the heap nor the GC pauses grow with the number of
+ * logged in users. All instances of the app in a JVM can share one repository (see
+ * {@link de.keycloak.samples.favourites.FavouritesCluster}), instances on other hosts need a networked store of
+ * spring session instead.
+ * <p>
+ * The store is bounded: expired sessions are removed every {@code cleanupIntervalSeconds}, and when it's full the
+ * anonymous session which was stored first is evicted (e.g. one which only holds the request before the login). The
+ * session of a logged in user is only evicted for another logged in user, the one which logged in first; a new
+ * anonymous session isn't stored then. So requests without a login can't push logged in users out of the store.
+ * Deleted sessions leave a tombstone until they would have expired, so a request which was still running when the
+ * session was invalidated on another instance (e.g. by the backchannel logout of keycloak) doesn't save it again.
+ * <p>
+ * Session ids are never logged, they are as good as the login of the user.
+ * <p>
+ * Direct memory is limited by {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size.
+ */
+public class OffHeapSessionRepository implements FindByIndexNameSessionRepository<MapSession>, DisposableBean {
+    private static final Logger LOG = Logger.getLogger(OffHeapSessionRepository.class);
+
+    /**
+     * The buffer of a session is allocated in steps of this size with some headroom, so saving a session, which
+     * happens on every request, mostly overwrites the bytes in place instead of allocating a new buffer.
+     */
+    private static final int ALLOCATION_UNIT = 256;
+
+    private final ConcurrentMap<String, StoredSession> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> sessionIdsByPrincipal = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> tombstones = new ConcurrentHashMap<>();
+    private final EvictionOrder evictionOrder = new EvictionOrder();
+    private final SessionCodec codec;
+    private final Duration defaultMaxInactiveInterval;
+    private final int maximumSessions;
+    private final Clock clock;
+    private final ScheduledExecutorService cleaner;
+
+    public OffHeapSessionRepository(final SessionCodec codec,
+                                    final Duration defaultMaxInactiveInterval,
+                                    final int maximumSessions,
+                                    final int cleanupIntervalSeconds) {
+        this(codec, defaultMaxInactiveInterval, maximumSessions, cleanupIntervalSeconds, Clock.systemUTC());
+    }
+
+    OffHeapSessionRepository(final SessionCodec codec,
+                             final Duration defaultMaxInactiveInterval,
+                             final int maximumSessions,
+                             final int cleanupIntervalSeconds,
+                             final Clock clock) {
+        this.codec = codec;
+        this.defaultMaxInactiveInterval = defaultMaxInactiveInterval;
+        this.maximumSessions = maximumSessions;
+        this.clock = clock;
+        if (cleanupIntervalSeconds > 0) {
+            this.cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "session-cleanup");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.cleaner.scheduleWithFixedDelay(this::removeExpired, cleanupIntervalSeconds, cleanupIntervalSeconds, TimeUnit.SECONDS);
+        } else {
+            this.cleaner = null;
+        }
+    }
+
+    @Override
+    public MapSession createSession() {
+        final MapSession session = new MapSession();
+        session.setCreationTime(clock.instant());
+        session.setLastAccessedTime(session.getCreationTime());
+        session.setMaxInactiveInterval(defaultMaxInactiveInterval);
+        return session;
+    }
+
+    @Override
+    public void save(final MapSession session) {
+        if (!session.getId().equals(session.getOriginalId())) {
+            remove(session.getOriginalId());
+        }
+        if (tombstones.containsKey(session.getId())) {
+            LOG.debug("Session was deleted while in use, not saving it");
+            return;
+        }
+
+        final byte[] bytes;
+        try {
+            bytes = codec.encode(session);
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("Session can't be encoded", e);
+        }
+
+        final String principal = principalName(session);
+        final long expiresAt = expiresAt(session);
+        final String previousPrincipal;
+        boolean created = false;
+        final StoredSession stored = sessions.get(session.getId());
+        if (stored == null) {
+            if (!ensureCapacity(principal != null)) {
+                LOG.warnf("Session store is full (%d sessions of logged in users), not storing an anonymous session", maximumSessions);
+                return;
+            }
+            // only written sessions are published, so readers never see an empty one
+            final StoredSession written = new StoredSession();
+            written.write(bytes, expiresAt, principal);
+            final StoredSession concurrentlyCreated = sessions.putIfAbsent(session.getId(), written);
+            if (concurrentlyCreated == null) {
+                created = true;
+                previousPrincipal = null;
+                evictionOrder.add(session.getId(), principal != null);
+            } else {
+                previousPrincipal = concurrentlyCreated.write(bytes, expiresAt, principal);
+            }
+        } else {
+            previousPrincipal = stored.write(bytes, expiresAt, principal);
+        }
+        if (!created && (previousPrincipal == null) != (principal == null)) {
+            evictionOrder.update(session.getId(), principal != null);
+        }
+        if (previousPrincipal != null && !previousPrincipal.equals(principal)) {
+            unindex(previousPrincipal, session.getId());
+        }
+        if (principal != null && !principal.equals(previousPrincipal)) {
+            sessionIdsByPrincipal.compute(principal, (name, ids) -> {
+                final Set<String> sessionIds = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+                sessionIds.add(session.getId());
+                return sessionIds;
+            });
+        }
+        // deleted after the tombstone was checked above, deleteById leaves the tombstone before it removes the session
+        if (tombstones.containsKey(session.getId())) {
+            remove(session.getId());
+        }
+    }
+
+    @Override
+    public MapSession findById(final String id) {
+        final StoredSession stored = sessions.get(id);
+        if (stored == null) {
+            return null;
+        }
+        if (stored.expiresAt <= clock.millis()) {
+            remove(id);
+            return null;
+        }
+        final byte[] bytes = stored.read();
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return codec.decode(bytes);
+        } catch (IOException | RuntimeException e) {
+            // e.g. a class of a serialized attribute changed with a new version of the app
+            LOG.warn("Session can't be decoded, removing it", e);
+            remove(id);
+            return null;
+        }
+    }
+
+    @Override
+    public void deleteById(final String id) {
+        // before the session is removed, so a concurrent save either sees it or saves before the session is removed
+        tombstones.put(id, clock.millis() + defaultMaxInactiveInterval.toMillis());
+        final StoredSession stored = remove(id);
+        if (stored != null) {
+            tombstones.put(id, stored.expiresAt);
+        }
+    }
+
+    /**
+     * Deletes all sessions, e.g. when keycloak logs out all users of the app.
+     */
+    public void deleteAll() {
+        for (String id : sessions.keySet()) {
+            deleteById(id);
+        }
+    }
+
+    @Override
+    public Map<String, MapSession> findByIndexNameAndIndexValue(final String indexName, final String indexValue) {
+        if (!PRINCIPAL_NAME_INDEX_NAME.equals(indexName)) {
+            return Collections.emptyMap();
+        }
+        final Set<String> ids = sessionIdsByPrincipal.get(indexValue);
+        if (ids == null) {
+            return Collections.emptyMap();
+        }
+        final Map<String, MapSession> result = new HashMap<>();
+        for (String id : ids) {
+            final MapSession session = findById(id);
+            if (session != null) {
+                result.put(id, session);
+            } else {
+                unindex(indexValue, id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return number of stored sessions, including expired ones which were not removed yet
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * Removes the expired sessions and tombstones.
+     */
+    public void removeExpired() {
+        final long now = clock.millis();
+        int removed = 0;
+        for (Map.Entry<String, StoredSession> entry : sessions.entrySet()) {
+            if (entry.getValue().expiresAt <= now && remove(entry.getKey()) != null) {
+                removed++;
+            }
+        }
+        tombstones.values().removeIf(until -> until <= now);
+        if (removed > 0) {
+            LOG.debugf("Removed %d expired sessions, %d sessions left", removed, sessions.size());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (cleaner != null) {
+            cleaner.shutdownNow();
+        }
+    }
+
+    /**
+     * @param authenticated whether the session to store is the session of a logged in user
+     * @return whether there is room for the session
+     */
+    private boolean ensureCapacity(final boolean authenticated) {
+        while (sessions.size() >= maximumSessions) {
+            final EvictionOrder.Candidate candidate = evictionOrder.first(authenticated);
+            if (candidate == null) {
+                return false;
+            }
+            if (remove(candidate.id) != null && candidate.authenticated) {
+                LOG.warnf("Session store is full (%d sessions of logged in users), evicted the session which logged in first", maximumSessions);
+            }
+        }
+        return true;
+    }
+
+    private StoredSession remove(final String id) {
+        evictionOrder.remove(id);
+        final StoredSession stored = sessions.remove(id);
+        if (stored != null && stored.principal != null) {
+            unindex(stored.principal, id);
+        }
+        return stored;
+    }
+
+    private void unindex(final String principal, final String id) {
+        sessionIdsByPrincipal.computeIfPresent(principal, (name, ids) -> {
+            ids.remove(id);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private static long expiresAt(final MapSession session) {
+        if (session.getMaxInactiveInterval().isNegative()) {
+            return Long.MAX_VALUE;
+        }
+        return session.getLastAccessedTime().plus(session.getMaxInactiveInterval()).toEpochMilli();
+    }
+
+    private static String principalName(final MapSession session) {
+        final String principal = session.getAttribute(PRINCIPAL_NAME_INDEX_NAME);
+        if (principal != null) {
+            return principal;
+        }
+        final Object context = session.getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY);
+        if (context instanceof SecurityContext) {
+            final Authentication authentication = ((SecurityContext) context).getAuthentication();
+            return authentication != null ? authentication.getName() : null;
+        }
+        return null;
+    }
+
+    /**
+     * Ids of the stored sessions in the order they are evicted: the anonymous sessions in the order they were stored,
+     * then the sessions of logged in users in the order they logged in. Changes with the sessions which are stored,
+     * removed, logged in or out, not with every save. Guarded by a lock instead of a monitor, which would pin the
+     * carrier of a virtual thread.
+     */
+    private static final class EvictionOrder {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Set<String> anonymous = new LinkedHashSet<>();
+        private final Set<String> authenticated = new LinkedHashSet<>();
+
+        void add(final String id, final boolean loggedIn) {
+            lock.lock();
+            try {
+                (loggedIn ? authenticated : anonymous).add(id);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void update(final String id, final boolean loggedIn) {
+            lock.lock();
+            try {
+                if ((loggedIn ? anonymous : authenticated).remove(id)) {
+                    (loggedIn ? authenticated : anonymous).add(id);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(final String id) {
+            lock.lock();
+            try {
+                if (!anonymous.remove(id)) {
+                    authenticated.remove(id);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @param includeAuthenticated whether the session of a logged in user can be evicted
+         * @return the session to evict first, null if there is none
+         */
+        Candidate first(final boolean includeAuthenticated) {
+            lock.lock();
+            try {
+                if (!anonymous.isEmpty()) {
+                    return new Candidate(anonymous.iterator().next(), false);
+                }
+                if (includeAuthenticated && !authenticated.isEmpty()) {
+                    return new Candidate(authenticated.iterator().next(), true);
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        static final class Candidate {
+            private final String id;
+            private final boolean authenticated;
+
+            private Candidate(final String id, final boolean authenticated) {
+                this.id = id;
+                this.authenticated = authenticated;
+            }
+        }
+    }
+
+    /**
+     * Encoded session in direct memory. Readers copy the bytes out optimistically and retry under the read lock if a
+     * save overwrote them meanwhile.
+     */
+    private static final class StoredSession {
+        private final StampedLock lock = new StampedLock();
+        private ByteBuffer buffer;
+        private int length;
+        private volatile long expiresAt;
+        private volatile String principal;
+
+        String write(final byte[] bytes, final long expiresAt, final String principal) {
+            final long stamp = lock.writeLock();
+            try {
+                if (buffer == null || buffer.capacity() < bytes.length) {
+                    final int capacity = (bytes.length + bytes.length / 4 + ALLOCATION_UNIT - 1) / ALLOCATION_UNIT * ALLOCATION_UNIT;
+                    buffer = ByteBuffer.allocateDirect(capacity);
+                }
+                buffer.clear();
+                buffer.put(bytes);
+                length = bytes.length;
+                this.expiresAt = expiresAt;
+                final String previousPrincipal = this.principal;
+                this.principal = principal;
+                return previousPrincipal;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        byte[] read() {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                final byte[] bytes = copy();
+                if (bytes != null && lock.validate(stamp)) {
+                    return bytes;
+                }
+            }
+            stamp = lock.readLock();
+            try {
+                return copy();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private byte[] copy() {
+            final ByteBuffer current = buffer;
+            final int currentLength = length;
+            if (current == null || currentLength > current.capacity()) {
+                return null;
+            }
+            final byte[] bytes = new byte[currentLength];
+            final ByteBuffer view = current.duplicate();
+            view.clear();
+            view.get(bytes);
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package de.keycloak.samples.favourites.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.session.MapSession;
+
+import static de.keycloak.samples.favourites.session.KeycloakSecurityContextCodec.readString;
+import static de.keycloak.samples.favourites.session.KeycloakSecurityContextCodec.writeString;
+
+/**
+ * Binary format of the sessions in the {@link OffHeapSessionRepository}. Strings and the keycloak security context
+ * are written compactly, other attributes (e.g. the saved request before the login) by java serialization.
+ */
+public class SessionCodec {
+    private static final byte VERSION = 1;
+
+    private static final byte STRING = 1;
+    private static final byte KEYCLOAK_SECURITY_CONTEXT = 2;
+    private static final byte SERIALIZED = 3;
+
+    private final SerializingConverter serializer = new SerializingConverter();
+    private final DeserializingConverter deserializer;
+
+    public SessionCodec(final ClassLoader classLoader) {
+        this.deserializer = new DeserializingConverter(classLoader);
+    }
+
+    public byte[] encode(final MapSession session) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(VERSION);
+        writeString(session.getId(), out);
+        out.writeLong(session.getCreationTime().toEpochMilli());
+        out.writeLong(session.getLastAccessedTime().toEpochMilli());
+        out.writeLong(session.getMaxInactiveInterval().getSeconds());
+        out.writeInt(session.getAttributeNames().size());
+        for (String name : session.getAttributeNames()) {
+            writeString(name, out);
+            final Object value = session.getAttribute(name);
+            if (value instanceof String) {
+                out.writeByte(STRING);
+                writeString((String) value, out);
+            } else if (KeycloakSecurityContextCodec.supports(value)) {
+                out.writeByte(KEYCLOAK_SECURITY_CONTEXT);
+                KeycloakSecurityContextCodec.write((SecurityContext) value, out);
+            } else {
+                out.writeByte(SERIALIZED);
+                final byte[] serialized = serializer.convert(value);
+                out.writeInt(serialized.length);
+                out.write(serialized);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public MapSession decode(final byte[] bytes) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        final byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unknown session format " + version);
+        }
+        final MapSession session = new MapSession(readString(in));
+        session.setCreationTime(Instant.ofEpochMilli(in.readLong()));
+        session.setLastAccessedTime(Instant.ofEpochMilli(in.readLong()));
+        session.setMaxInactiveInterval(Duration.ofSeconds(in.readLong()));
+        final int attributes = in.readInt();
+        for (int i = 0; i < attributes; i++) {
+            final String name = readString(in);
+            final byte type = in.readByte();
+            switch (type) {
+                case STRING:
+                    session.setAttribute(name, readString(in));
+                    break;
+                case KEYCLOAK_SECURITY_CONTEXT:
+                    session.setAttribute(name, KeycloakSecurityContextCodec.read(in));
+                    break;
+                case SERIALIZED:
+                    final byte[] serialized = new byte[in.readInt()];
+                    in.readFully(serialized);
+                    session.setAttribute(name, deserializer.convert(serialized));
+                    break;
+                default:
+                    throw new IOException("Unknown type " + type + " of session attribute " + name);
+            }
+        }
+        return session;
+    }
+}
@@ -0,0 +1,33 @@
+package de.keycloak.samples.favourites.session;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.web.ServerProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.session.SessionRepository;
+import org.springframework.session.config.annotation.web.http.EnableSpringHttpSession;
+
+/**
+ * Keeps the http sessions in an {@link OffHeapSessionRepository} instead of the heap of tomcat. A repository of a
+ * parent context takes precedence, so several instances of the app in one JVM can share it. With
+ * {@code favourites.session.store=spring} the store is configured by spring boot instead, e.g. redis with
+ * {@code spring.session.store-type=redis}.
+ */
+@Configuration
+@EnableSpringHttpSession
+@ConditionalOnProperty(name = "favourites.session.store", havingValue = "off-heap", matchIfMissing = true)
+public class SessionStoreConfig {
+
+    @Bean
+    @ConditionalOnMissingBean(SessionRepository.class)
+    public OffHeapSessionRepository offHeapSessionRepository(final ServerProperties serverProperties,
+                                                             @Value("${favourites.session.maximum-sessions:100000}") final int maximumSessions,
+                                                             @Value("${favourites.session.cleanup-interval-seconds:60}") final int cleanupIntervalSeconds) {
+        return new OffHeapSessionRepository(new SessionCodec(getClass().getClassLoader()),
+                                            serverProperties.getServlet().getSession().getTimeout(),
+                                            maximumSessions,
+                                            cleanupIntervalSeconds);
+    }
+}
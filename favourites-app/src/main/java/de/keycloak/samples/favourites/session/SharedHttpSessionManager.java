@@ -0,0 +1,39 @@
+package de.keycloak.samples.favourites.session;
+
+import java.util.List;
+import org.jboss.logging.Logger;
+import org.keycloak.adapters.springsecurity.management.HttpSessionManager;
+import org.springframework.session.SessionRepository;
+
+/**
+ * Handles the backchannel logout of keycloak by deleting the sessions from the session repository, so they are
+ * invalidated on all instances of the app and not only on the one which received the logout.
+ */
+public class SharedHttpSessionManager extends HttpSessionManager {
+    private static final Logger LOG = Logger.getLogger(SharedHttpSessionManager.class);
+
+    private final SessionRepository<?> sessionRepository;
+
+    public SharedHttpSessionManager(final SessionRepository<?> sessionRepository) {
+        this.sessionRepository = sessionRepository;
+    }
+
+    @Override
+    public void logoutHttpSessions(final List<String> ids) {
+        LOG.debugf("Backchannel logout of %d sessions", ids.size());
+        for (String id : ids) {
+            sessionRepository.deleteById(id);
+        }
+        super.logoutHttpSessions(ids);
+    }
+
+    @Override
+    public void logoutAll() {
+        if (sessionRepository instanceof OffHeapSessionRepository) {
+            ((OffHeapSessionRepository) sessionRepository).deleteAll();
+        } else {
+            LOG.warn("Sessions of " + sessionRepository.getClass().getSimpleName() + " can't be listed, only the not-before time of keycloak logs them out");
+        }
+        super.logoutAll();
+    }
+}
@@ -0,0 +1,153 @@
+package de.keycloak.samples.favourites.view;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheWriter;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.web.authentication.logout.LogoutHandler;
+
+/**
+ * Keeps the rendered pages of the app, which only depend on the user and the roles, so a page is rendered once per
+ * user and then served from memory. The cache is bounded by {@code maximumSize} pages and each page is rendered again
+ * after {@code ttlSeconds}. The pages of a user are dropped on logout, {@link #invalidateAll()} drops all pages e.g.
+ * when the data behind them changed.
+ * <p>
+ * The keys of the cached pages are indexed by user, so a logout drops the pages of the user without scanning the
+ * cache. The index is updated when a page is rendered and, by the {@link CacheWriter}, atomically with the removal of
+ * a page, whether it's evicted, expired or invalidated.
+ */
+public class RenderedPageCache implements LogoutHandler {
+
+    private final ConcurrentMap<String, Set<PageKey>> keysByPrincipal = new ConcurrentHashMap<>();
+    private final Cache<PageKey, String> cache;
+
+    public RenderedPageCache(final long maximumSize, final long ttlSeconds) {
+        this.cache = Caffeine.newBuilder()
+                             .maximumSize(maximumSize)
+                             .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                             .writer(new CacheWriter<PageKey, String>() {
+                                 @Override
+                                 public void write(final PageKey key, final String page) {
+                                     // rendered pages are indexed by get
+                                 }
+
+                                 @Override
+                                 public void delete(final PageKey key, final String page, final RemovalCause cause) {
+                                     unindex(key);
+                                 }
+                             })
+                             .recordStats()
+                             .build();
+    }
+
+    /**
+     * @param view name of the rendered view
+     * @param authentication user the page is rendered for, null for anonymous users
+     * @param renderer renders the page on a miss, concurrent requests for the same page wait for it
+     */
+    public String get(final String view, final Authentication authentication, final Supplier<String> renderer) {
+        return cache.get(PageKey.of(view, authentication), key -> {
+            final String page = renderer.get();
+            index(key);
+            return page;
+        });
+    }
+
+    public void invalidate(final String principal) {
+        final Set<PageKey> keys = keysByPrincipal.get(principal);
+        if (keys != null) {
+            // copied, the writer removes the keys from the index
+            cache.invalidateAll(new ArrayList<>(keys));
+        }
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void logout(final HttpServletRequest request, final HttpServletResponse response, final Authentication authentication) {
+        if (authentication != null) {
+            invalidate(authentication.getName());
+        }
+    }
+
+    /**
+     * @return hit, miss and eviction counters of the cache
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.estimatedSize();
+    }
+
+    private void index(final PageKey key) {
+        keysByPrincipal.compute(key.principal, (principal, keys) -> {
+            final Set<PageKey> indexed = keys == null ? ConcurrentHashMap.newKeySet() : keys;
+            indexed.add(key);
+            return indexed;
+        });
+    }
+
+    private void unindex(final PageKey key) {
+        keysByPrincipal.computeIfPresent(key.principal, (principal, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private static final class PageKey {
+        private final String view;
+        private final String principal;
+        private final Set<String> roles;
+
+        private PageKey(final String view, final String principal, final Set<String> roles) {
+            this.view = view;
+            this.principal = principal;
+            this.roles = roles;
+        }
+
+        static PageKey of(final String view, final Authentication authentication) {
+            if (authentication == null || !authentication.isAuthenticated()) {
+                return new PageKey(view, "", Collections.emptySet());
+            }
+            final Set<String> roles = new TreeSet<>();
+            for (GrantedAuthority authority : authentication.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            return new PageKey(view, authentication.getName(), roles);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PageKey)) {
+                return false;
+            }
+            final PageKey other = (PageKey) o;
+            return view.equals(other.view) && principal.equals(other.principal) && roles.equals(other.roles);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * view.hashCode() + principal.hashCode()) + roles.hashCode();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package de.keycloak.samples.favourites.view;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import org.jboss.logging.Logger;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.autoconfigure.freemarker.FreeMarkerProperties;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.web.servlet.view.freemarker.FreeMarkerConfig;
+
+/**
+ * Renders the freemarker templates of the app to strings, e.g. for the {@link RenderedPageCache}.
+ * <p>
+ * All templates are parsed when the app starts, before it accepts requests, so the first request to a page doesn't
+ * pay for parsing its template and the imported {@code spring.ftl}.
+ */
+public class TemplateRenderer implements SmartInitializingSingleton {
+    private static final Logger LOG = Logger.getLogger(TemplateRenderer.class);
+
+    private final Configuration configuration;
+    private final FreeMarkerProperties properties;
+    private final ResourcePatternResolver resourceResolver;
+
+    public TemplateRenderer(final FreeMarkerConfig freeMarkerConfig, final FreeMarkerProperties properties) {
+        this.configuration = freeMarkerConfig.getConfiguration();
+        this.properties = properties;
+        this.resourceResolver = new PathMatchingResourcePatternResolver(getClass().getClassLoader());
+    }
+
+    public String render(final String view, final Map<String, ?> model) {
+        try {
+            final Template template = configuration.getTemplate(properties.getPrefix() + view + properties.getSuffix());
+            final StringWriter writer = new StringWriter(1024);
+            template.process(model, writer);
+            return writer.toString();
+        } catch (IOException | TemplateException e) {
+            throw new IllegalStateException("View " + view + " can't be rendered", e);
+        }
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        final long start = System.nanoTime();
+        int templates = 0;
+        for (String loaderPath : properties.getTemplateLoaderPath()) {
+            final String basePath = loaderPath.endsWith("/") ? loaderPath : loaderPath + '/';
+            try {
+                for (Resource resource : resourceResolver.getResources(basePath + "**/*" + properties.getSuffix())) {
+                    final String name = templateName(basePath, resource);
+                    if (name != null) {
+                        configuration.getTemplate(name);
+                        templates++;
+                    }
+                }
+            } catch (IOException e) {
+                // the template is parsed again on its first request and fails there with the same error
+                LOG.warn("Templates in " + loaderPath + " can't be precompiled", e);
+            }
+        }
+        try {
+            configuration.getTemplate("spring.ftl");
+        } catch (IOException e) {
+            LOG.debug("spring.ftl is not available", e);
+        }
+        LOG.infof("Precompiled %d templates in %d ms", templates, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private String templateName(final String basePath, final Resource resource) throws IOException {
+        final String url = resource.getURL().toString();
+        final String location = basePath.substring(basePath.indexOf(':') + 1);
+        final int index = url.lastIndexOf(location);
+        return index < 0 ? null : url.substring(index + location.length());
+    }
+}
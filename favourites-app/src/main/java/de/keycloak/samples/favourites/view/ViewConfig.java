@@ -0,0 +1,22 @@
+package de.keycloak.samples.favourites.view;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.freemarker.FreeMarkerProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.view.freemarker.FreeMarkerConfig;
+
+@Configuration
+public class ViewConfig {
+
+    @Bean
+    public TemplateRenderer templateRenderer(final FreeMarkerConfig freeMarkerConfig, final FreeMarkerProperties freeMarkerProperties) {
+        return new TemplateRenderer(freeMarkerConfig, freeMarkerProperties);
+    }
+
+    @Bean
+    public RenderedPageCache renderedPageCache(@Value("${favourites.page-cache.maximum-size:10000}") final long maximumSize,
+                                               @Value("${favourites.page-cache.ttl-seconds:300}") final long ttlSeconds) {
+        return new RenderedPageCache(maximumSize, ttlSeconds);
+    }
+}
@@ -0,0 +1,87 @@
+package de.keycloak.samples.favourites;
+
+import de.keycloak.samples.favourites.audit.AuditLog;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Floods the {@link AuditLog} with denied accesses from several threads, like the request threads of the app during
+ * a credential stuffing attack, and prints the latency of recording a denied access on the request thread.
+ * <p>
+ * Run with e.g. {@code threads=16 events=200000 users=100}, the audit log is written to a temporary file.
+ */
+public final class AccessDeniedFlood {
+
+    private AccessDeniedFlood() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        int threads = 16;
+        int events = 200_000;
+        int users = 100;
+        for (String arg : args) {
+            if (arg.startsWith("threads=")) {
+                threads = Integer.parseInt(arg.substring("threads=".length()));
+            } else if (arg.startsWith("events=")) {
+                events = Integer.parseInt(arg.substring("events=".length()));
+            } else if (arg.startsWith("users=")) {
+                users = Integer.parseInt(arg.substring("users=".length()));
+            }
+        }
+        final Path file = Files.createTempFile("audit", ".log");
+        final AuditLog auditLog = new AuditLog(file, 8192, Duration.ofSeconds(60), 5, 10_000);
+        System.out.printf("%d threads, %d events per thread, %d users%n", threads, events, users);
+
+        final long[][] latencies = new long[threads][];
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] flooders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            final int eventsPerThread = events;
+            final int numberOfUsers = users;
+            flooders[t] = new Thread(() -> {
+                final long[] nanos = new long[eventsPerThread];
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < eventsPerThread; i++) {
+                    final String user = "user" + (i + thread) % numberOfUsers;
+                    final long begin = System.nanoTime();
+                    auditLog.accessDenied(user, "GET", "/favourites", "10.0.0." + thread);
+                    nanos[i] = System.nanoTime() - begin;
+                }
+                latencies[thread] = nanos;
+            });
+            flooders[t].start();
+        }
+        final long begin = System.nanoTime();
+        start.countDown();
+        for (Thread flooder : flooders) {
+            flooder.join();
+        }
+        final long elapsed = System.nanoTime() - begin;
+        auditLog.destroy();
+
+        final long[] all = new long[threads * events];
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(latencies[t], 0, all, t * events, events);
+        }
+        Arrays.sort(all);
+        System.out.printf("%,d denied accesses per second%n", (long) all.length * 1_000_000_000L / elapsed);
+        System.out.printf("latency ns: p50 %d, p99 %d, p99.9 %d, max %d%n",
+                          percentile(all, 0.5), percentile(all, 0.99), percentile(all, 0.999), all[all.length - 1]);
+        System.out.printf("written %d, suppressed %d, dropped %d, %d bytes in %s%n",
+                          auditLog.getWritten(), auditLog.getSuppressed(), auditLog.getDropped(), Files.size(file), file);
+        Files.delete(file);
+    }
+
+    private static long percentile(final long[] sorted, final double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, (long) (sorted.length * percentile))];
+    }
+}
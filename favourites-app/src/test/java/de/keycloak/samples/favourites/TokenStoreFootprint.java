@@ -0,0 +1,198 @@
+package de.keycloak.samples.favourites;
+
+import de.keycloak.samples.favourites.cookie.TokenCookieCodec;
+import de.keycloak.samples.favourites.session.OffHeapSessionRepository;
+import de.keycloak.samples.favourites.session.SessionCodec;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import org.keycloak.KeycloakPrincipal;
+import org.keycloak.adapters.RefreshableKeycloakSecurityContext;
+import org.keycloak.adapters.springsecurity.account.SimpleKeycloakAccount;
+import org.keycloak.adapters.springsecurity.token.KeycloakAuthenticationToken;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.IDToken;
+import org.keycloak.representations.RefreshToken;
+import org.keycloak.util.JsonSerialization;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.session.MapSession;
+
+/**
+ * Compares the server memory needed for the logged in users of the app by the token stores: the http sessions on the
+ * heap (like the session manager of tomcat), the {@link OffHeapSessionRepository} and the encrypted cookies of
+ * {@code favourites.token-store=cookie}. The tokens are shaped like the ones keycloak issues for the realm of the
+ * samples, signed with random bytes.
+ * <p>
+ * Run with e.g. {@code -Xmx1g users=10000}, it prints the memory per store and the size of the cookies.
+ */
+public final class TokenStoreFootprint {
+
+    private TokenStoreFootprint() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        int users = 10_000;
+        for (String arg : args) {
+            if (arg.startsWith("users=")) {
+                users = Integer.parseInt(arg.substring("users=".length()));
+            }
+        }
+        System.out.printf("%d users%n", users);
+        System.out.printf("%-10s %14s %14s %14s%n", "store", "heap", "direct", "per user");
+
+        // the sessions on the heap hold the whole security context of the adapter
+        Random random = new Random(42);
+        long heap = usedHeap();
+        final Map<String, MapSession> heapSessions = new HashMap<>();
+        for (int i = 0; i < users; i++) {
+            final MapSession session = new MapSession();
+            session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, securityContext("user" + i, random));
+            heapSessions.put(session.getId(), session);
+        }
+        heap = usedHeap() - heap;
+        print("session", heap, 0, heapSessions.size());
+        heapSessions.clear();
+
+        random = new Random(42);
+        final OffHeapSessionRepository repository = new OffHeapSessionRepository(new SessionCodec(TokenStoreFootprint.class.getClassLoader()),
+                                                                                 Duration.ofMinutes(30), users, 0);
+        heap = usedHeap();
+        long direct = usedDirect();
+        for (int i = 0; i < users; i++) {
+            final MapSession session = repository.createSession();
+            session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, securityContext("user" + i, random));
+            repository.save(session);
+        }
+        heap = usedHeap() - heap;
+        direct = usedDirect() - direct;
+        print("off-heap", heap, direct, repository.size());
+        repository.destroy();
+
+        // nothing is kept on the server, the cookies are sent with every request instead
+        random = new Random(42);
+        final TokenCookieCodec codec = TokenCookieCodec.withRandomKey();
+        long tokenBytes = 0;
+        long cookieBytes = 0;
+        int maxChunks = 0;
+        for (int i = 0; i < users; i++) {
+            final RefreshableKeycloakSecurityContext securityContext = (RefreshableKeycloakSecurityContext)
+                    ((KeycloakAuthenticationToken) securityContext("user" + i, random).getAuthentication()).getAccount().getKeycloakSecurityContext();
+            final List<String> chunks = codec.encode(new TokenCookieCodec.Tokens(securityContext.getTokenString(),
+                                                                                 securityContext.getIdTokenString(),
+                                                                                 securityContext.getRefreshToken()));
+            tokenBytes += securityContext.getTokenString().length() + securityContext.getIdTokenString().length() + securityContext.getRefreshToken().length();
+            for (String chunk : chunks) {
+                cookieBytes += chunk.length();
+            }
+            maxChunks = Math.max(maxChunks, chunks.size());
+        }
+        print("cookie", 0, 0, users);
+        System.out.printf("%ncookie: %d bytes per request in at most %d chunk(s), the tokens are %d bytes%n",
+                          cookieBytes / users, maxChunks, tokenBytes / users);
+    }
+
+    private static void print(final String store, final long heap, final long direct, final int users) {
+        System.out.printf("%-10s %11d KB %11d KB %11d  B%n", store, heap / 1024, direct / 1024, (heap + direct) / users);
+    }
+
+    private static SecurityContextImpl securityContext(final String username, final Random random) throws Exception {
+        final String sessionState = UUID.randomUUID().toString();
+        final String subject = UUID.randomUUID().toString();
+        final long now = System.currentTimeMillis() / 1000;
+
+        final AccessToken accessToken = new AccessToken();
+        fill(accessToken, subject, sessionState, now, "Bearer");
+        accessToken.setAllowedOrigins(new LinkedHashSet<>(Arrays.asList("http://favourites-app.company.com")));
+        accessToken.setRealmAccess(new AccessToken.Access().addRole("offline_access").addRole("uma_authorization"));
+        accessToken.addAccess("favourites-app").addRole("OWNER");
+        accessToken.addAccess("account").addRole("manage-account").addRole("manage-account-links").addRole("view-profile");
+        accessToken.setScope("openid email profile");
+        accessToken.setPreferredUsername(username);
+        accessToken.setName("Peter Parker");
+        accessToken.setGivenName("Peter");
+        accessToken.setFamilyName("Parker");
+        accessToken.setEmail(username + "@company.com");
+        accessToken.setEmailVerified(false);
+
+        final IDToken idToken = new IDToken();
+        fill(idToken, subject, sessionState, now, "ID");
+        idToken.setPreferredUsername(username);
+        idToken.setName("Peter Parker");
+        idToken.setEmail(username + "@company.com");
+        idToken.setEmailVerified(false);
+
+        final RefreshToken refreshToken = new RefreshToken(accessToken);
+        refreshToken.id(UUID.randomUUID().toString());
+        refreshToken.expiration((int) now + 1800);
+
+        final String accessTokenString = sign(accessToken, 256, random);
+        final String idTokenString = sign(idToken, 256, random);
+        final String refreshTokenString = sign(refreshToken, 32, random);
+
+        final RefreshableKeycloakSecurityContext securityContext =
+                new RefreshableKeycloakSecurityContext(null, null, accessTokenString, accessToken, idTokenString, idToken, refreshTokenString);
+        final Set<String> roles = new LinkedHashSet<>(accessToken.getResourceAccess("favourites-app").getRoles());
+        final List<GrantedAuthority> authorities = new ArrayList<>();
+        for (String role : roles) {
+            authorities.add(new SimpleGrantedAuthority("ROLE_" + role));
+        }
+        final SimpleKeycloakAccount account = new SimpleKeycloakAccount(new KeycloakPrincipal<>(username, securityContext), roles, securityContext);
+        return new SecurityContextImpl(new KeycloakAuthenticationToken(account, true, authorities));
+    }
+
+    private static void fill(final IDToken token, final String subject, final String sessionState, final long now, final String type) {
+        token.id(UUID.randomUUID().toString());
+        token.expiration((int) now + 300);
+        token.notBefore(0);
+        token.issuedAt((int) now);
+        token.issuer("http://auth.company.com/auth/realms/my-apps");
+        token.audience("favourites-app");
+        token.subject(subject);
+        token.type(type);
+        token.issuedFor("favourites-app");
+        token.setNonce(UUID.randomUUID().toString());
+        token.setAuthTime((int) now);
+        token.setSessionState(sessionState);
+        token.setAcr("1");
+    }
+
+    private static String sign(final Object token, final int signatureLength, final Random random) throws Exception {
+        final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        final byte[] signature = new byte[signatureLength];
+        random.nextBytes(signature);
+        return encoder.encodeToString("{\"alg\":\"RS256\",\"typ\":\"JWT\",\"kid\":\"Kx5rxEMI8VxQVvfCnSpAuSGsZcDX9Ua0I-NKlCmnqgc\"}".getBytes(StandardCharsets.UTF_8))
+               + '.' + encoder.encodeToString(JsonSerialization.writeValueAsBytes(token))
+               + '.' + encoder.encodeToString(signature);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long usedDirect() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+}
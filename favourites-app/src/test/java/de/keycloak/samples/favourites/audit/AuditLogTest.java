@@ -0,0 +1,66 @@
+package de.keycloak.samples.favourites.audit;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AuditLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AuditLog auditLog;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (auditLog != null) {
+            auditLog.destroy();
+        }
+    }
+
+    @Test
+    public void shouldWakeUpIdleWriterForEvent() throws Exception {
+        auditLog = new AuditLog(file(), 16, Duration.ofHours(1), 5, 100);
+        // the writer has no windows to close, so it's parked until an event is published
+        Thread.sleep(100);
+
+        auditLog.accessDenied("tom", "GET", "/favourites", "127.0.0.1");
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (auditLog.getWritten() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(auditLog.getWritten(), is(1L));
+    }
+
+    @Test
+    public void shouldSummarizeEventsAboveLimitOnShutdown() throws Exception {
+        final Path file = file();
+        auditLog = new AuditLog(file, 16, Duration.ofHours(1), 2, 100);
+        for (int i = 0; i < 5; i++) {
+            auditLog.accessDenied("tom", "GET", "/favourites", "127.0.0.1");
+        }
+
+        auditLog.destroy();
+        auditLog = null;
+
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertThat(lines.size(), is(3));
+        assertThat(lines.get(0), containsString("\"principal\":\"tom\""));
+        assertThat(lines.get(2), containsString("\"suppressed\":3"));
+    }
+
+    private Path file() {
+        return folder.getRoot().toPath().resolve("audit.log");
+    }
+}
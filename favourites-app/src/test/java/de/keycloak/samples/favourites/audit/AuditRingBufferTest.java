@@ -0,0 +1,148 @@
+package de.keycloak.samples.favourites.audit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AuditRingBufferTest {
+
+    @Test
+    public void shouldRoundCapacityUpToPowerOfTwo() {
+        assertThat(new AuditRingBuffer(2).capacity(), is(2));
+        assertThat(new AuditRingBuffer(5).capacity(), is(8));
+        assertThat(new AuditRingBuffer(8).capacity(), is(8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectCapacityBelowTwo() {
+        new AuditRingBuffer(1);
+    }
+
+    @Test
+    public void shouldDrainEventsInOrderOfOffer() {
+        final AuditRingBuffer buffer = new AuditRingBuffer(4);
+        assertThat(buffer.isEmpty(), is(true));
+        for (int i = 0; i < 3; i++) {
+            assertThat(buffer.offer(event("user", i)), is(true));
+        }
+        assertThat(buffer.isEmpty(), is(false));
+
+        final List<AuditEvent> batch = new ArrayList<>();
+        assertThat(buffer.drainTo(batch, 2), is(2));
+        assertThat(buffer.drainTo(batch, 10), is(1));
+        assertThat(buffer.drainTo(batch, 10), is(0));
+
+        assertThat(timestamps(batch), is(asLongs(0, 1, 2)));
+        assertThat(buffer.isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldDropAndCountEventsWhenFull() {
+        final AuditRingBuffer buffer = new AuditRingBuffer(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(buffer.offer(event("user", i)), is(true));
+        }
+
+        assertThat(buffer.offer(event("user", 4)), is(false));
+        assertThat(buffer.offer(event("user", 5)), is(false));
+        assertThat(buffer.takeDropped(), is(2L));
+        assertThat(buffer.takeDropped(), is(0L));
+
+        // the slots are reused once drained
+        final List<AuditEvent> batch = new ArrayList<>();
+        assertThat(buffer.drainTo(batch, 1), is(1));
+        assertThat(buffer.offer(event("user", 6)), is(true));
+        assertThat(buffer.offer(event("user", 7)), is(false));
+        batch.clear();
+        assertThat(buffer.drainTo(batch, 10), is(4));
+        assertThat(timestamps(batch), is(asLongs(1, 2, 3, 6)));
+    }
+
+    @Test
+    public void shouldHandOverEveryEventOfConcurrentProducersOnce() throws Exception {
+        final int producers = 8;
+        final int eventsPerProducer = 100_000;
+        final AuditRingBuffer buffer = new AuditRingBuffer(64);
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService threads = Executors.newFixedThreadPool(producers);
+        try {
+            final List<Future<Integer>> offered = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                final String producer = String.valueOf(p);
+                offered.add(threads.submit(() -> {
+                    start.await();
+                    int accepted = 0;
+                    for (int i = 0; i < eventsPerProducer; i++) {
+                        if (buffer.offer(event(producer, i))) {
+                            accepted++;
+                        }
+                    }
+                    return accepted;
+                }));
+            }
+
+            final long[] lastTimestamps = new long[producers];
+            Arrays.fill(lastTimestamps, -1);
+            final List<AuditEvent> batch = new ArrayList<>();
+            long drained = 0;
+            start.countDown();
+            while (!allDone(offered) || !buffer.isEmpty()) {
+                batch.clear();
+                buffer.drainTo(batch, 16);
+                for (AuditEvent event : batch) {
+                    // the events of a producer are drained in the order it offered them, none twice
+                    final int producer = Integer.parseInt(event.getPrincipal());
+                    assertThat(event.getTimestamp() > lastTimestamps[producer], is(true));
+                    lastTimestamps[producer] = event.getTimestamp();
+                }
+                drained += batch.size();
+            }
+
+            long accepted = 0;
+            for (Future<Integer> future : offered) {
+                accepted += future.get(30, TimeUnit.SECONDS);
+            }
+            assertThat(drained, is(accepted));
+            assertThat(accepted + buffer.takeDropped(), is((long) producers * eventsPerProducer));
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private static boolean allDone(final List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static AuditEvent event(final String principal, final long timestamp) {
+        return new AuditEvent(AuditEvent.ACCESS_DENIED, timestamp, principal, "GET", "/favourites", "127.0.0.1");
+    }
+
+    private static List<Long> timestamps(final List<AuditEvent> events) {
+        final List<Long> timestamps = new ArrayList<>();
+        for (AuditEvent event : events) {
+            timestamps.add(event.getTimestamp());
+        }
+        return timestamps;
+    }
+
+    private static List<Long> asLongs(final long... values) {
+        final List<Long> list = new ArrayList<>();
+        for (long value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
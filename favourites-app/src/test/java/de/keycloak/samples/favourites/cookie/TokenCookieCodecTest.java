@@ -0,0 +1,147 @@
+package de.keycloak.samples.favourites.cookie;
+
+import de.keycloak.samples.favourites.cookie.TokenCookieCodec.Tokens;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class TokenCookieCodecTest {
+
+    private static final String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+    private final TokenCookieCodec codec = TokenCookieCodec.fromSecret("a long random secret of the samples");
+
+    @Test
+    public void shouldDecodeEncodedTokens() {
+        final Tokens tokens = new Tokens(jwt("{\"preferred_username\":\"tom\",\"realm_access\":{\"roles\":[\"owner\"]}}"),
+                                         jwt("{\"preferred_username\":\"tom\"}"),
+                                         "opaque refresh token");
+
+        final Tokens decoded = codec.decode(codec.encode(tokens));
+
+        assertTokens(decoded, tokens);
+    }
+
+    @Test
+    public void shouldDecodeAbsentAndNonCanonicalTokensUnchanged() {
+        // padded base64 would be written without the padding when the parts are decoded
+        final Tokens tokens = new Tokens(jwt("{\"sub\":\"tom\"}") + "=", null, "a.b.c");
+
+        assertTokens(codec.decode(codec.encode(tokens)), tokens);
+    }
+
+    @Test
+    public void shouldRejectChangedValue() {
+        final List<String> chunks = codec.encode(new Tokens(jwt("{\"sub\":\"tom\"}"), null, null));
+        final char[] value = chunks.get(0).toCharArray();
+        final int middle = value.length / 2;
+        value[middle] = value[middle] == 'A' ? 'B' : 'A';
+
+        assertThat(codec.decode(Collections.singletonList(new String(value))), nullValue());
+    }
+
+    @Test
+    public void shouldRejectValueOfOtherKey() {
+        final TokenCookieCodec otherCodec = TokenCookieCodec.fromSecret("the secret of another deployment");
+
+        assertThat(otherCodec.decode(codec.encode(new Tokens(jwt("{\"sub\":\"tom\"}"), null, null))), nullValue());
+        assertThat(TokenCookieCodec.withRandomKey().decode(codec.encode(new Tokens(jwt("{\"sub\":\"tom\"}"), null, null))), nullValue());
+    }
+
+    @Test
+    public void shouldRejectValuesWhichAreNoCookieOfTheCodec() {
+        assertThat(codec.decode(Collections.emptyList()), nullValue());
+        assertThat(codec.decode(Collections.singletonList("not base64!")), nullValue());
+        assertThat(codec.decode(Collections.singletonList("c2hvcnQ")), nullValue());
+        assertThat(codec.decode(Collections.singletonList(randomToken(new Random(1), 200))), nullValue());
+    }
+
+    @Test
+    public void shouldFitValueOfChunkSizeIntoOneChunk() {
+        for (int length : new int[]{TokenCookieCodec.CHUNK_SIZE - 1, TokenCookieCodec.CHUNK_SIZE}) {
+            final Tokens tokens = tokensEncodedTo(length);
+            final List<String> chunks = codec.encode(tokens);
+
+            assertThat(chunks.size(), is(1));
+            assertThat(chunks.get(0).length(), is(length));
+            assertTokens(codec.decode(chunks), tokens);
+        }
+    }
+
+    @Test
+    public void shouldSplitLargerValueIntoChunks() {
+        // base64 without padding is never one character longer than a multiple of four
+        final Tokens tokens = tokensEncodedTo(TokenCookieCodec.CHUNK_SIZE + 2);
+        final List<String> chunks = codec.encode(tokens);
+
+        assertThat(chunks.size(), is(2));
+        assertThat(chunks.get(0).length(), is(TokenCookieCodec.CHUNK_SIZE));
+        assertThat(chunks.get(1).length(), is(2));
+        assertTokens(codec.decode(chunks), tokens);
+    }
+
+    @Test
+    public void shouldRejectMissingOrReorderedChunks() {
+        final Tokens tokens = tokensEncodedTo(2 * TokenCookieCodec.CHUNK_SIZE + 100);
+        final List<String> chunks = codec.encode(tokens);
+        assertThat(chunks.size(), is(3));
+
+        assertThat(codec.decode(chunks.subList(0, 2)), nullValue());
+        assertThat(codec.decode(Arrays.asList(chunks.get(1), chunks.get(0), chunks.get(2))), nullValue());
+    }
+
+    /**
+     * Looks for an incompressible refresh token whose cookie value has the given length, as the compression makes
+     * the length of the value hard to predict.
+     */
+    private Tokens tokensEncodedTo(final int length) {
+        for (int seed = 0; seed < 20; seed++) {
+            for (int size = length - 1000; size < length + 1000; size++) {
+                final Tokens tokens = new Tokens(jwt("{\"sub\":\"tom\"}"), null, randomToken(new Random(seed), size));
+                final int encoded = String.join("", codec.encode(tokens)).length();
+                if (encoded == length) {
+                    return tokens;
+                }
+                if (encoded > length) {
+                    break;
+                }
+            }
+        }
+        fail("No tokens found which are encoded to " + length + " characters");
+        return null;
+    }
+
+    private static String randomToken(final Random random, final int length) {
+        final StringBuilder token = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            token.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return token.toString();
+    }
+
+    private static String jwt(final String claims) {
+        final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        final byte[] signature = new byte[256];
+        new Random(claims.hashCode()).nextBytes(signature);
+        return encoder.encodeToString("{\"alg\":\"RS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8)) + '.'
+               + encoder.encodeToString(claims.getBytes(StandardCharsets.UTF_8)) + '.'
+               + encoder.encodeToString(signature);
+    }
+
+    private static void assertTokens(final Tokens actual, final Tokens expected) {
+        assertThat(actual, notNullValue());
+        assertThat(actual.getAccessToken(), is(expected.getAccessToken()));
+        assertThat(actual.getIdToken(), is(expected.getIdToken()));
+        assertThat(actual.getRefreshToken(), is(expected.getRefreshToken()));
+    }
+}
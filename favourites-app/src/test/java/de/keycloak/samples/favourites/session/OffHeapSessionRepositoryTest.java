@@ -0,0 +1,279 @@
+package de.keycloak.samples.favourites.session;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.session.FindByIndexNameSessionRepository;
+import org.springframework.session.MapSession;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class OffHeapSessionRepositoryTest {
+
+    private static final Duration TIMEOUT = Duration.ofMinutes(30);
+
+    private final MutableClock clock = new MutableClock();
+    private OffHeapSessionRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = repository(3);
+    }
+
+    @After
+    public void tearDown() {
+        repository.destroy();
+    }
+
+    @Test
+    public void shouldStoreAndIndexSessions() {
+        final MapSession session = loggedIn("tom");
+        session.setAttribute("page", "favourites");
+        repository.save(session);
+
+        assertThat(repository.findById(session.getId()).getAttribute("page"), is("favourites"));
+        assertThat(repository.findByPrincipalName("tom").keySet().contains(session.getId()), is(true));
+
+        repository.deleteById(session.getId());
+        assertThat(repository.findById(session.getId()), nullValue());
+        assertThat(repository.findByPrincipalName("tom").isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldNotSaveDeletedSessionAgainUntilItWouldHaveExpired() {
+        final MapSession session = loggedIn("tom");
+        repository.save(session);
+
+        repository.deleteById(session.getId());
+        // a request which was still running when the session was logged out on another instance
+        repository.save(session);
+        assertThat(repository.findById(session.getId()), nullValue());
+
+        clock.advance(TIMEOUT.plusSeconds(1));
+        repository.removeExpired();
+        session.setLastAccessedTime(clock.instant());
+        repository.save(session);
+        assertThat(repository.findById(session.getId()), notNullValue());
+    }
+
+    @Test
+    public void shouldNotKeepSessionSavedWhileItWasDeleted() throws Exception {
+        repository = repository(100_000);
+        final ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2000; i++) {
+                final MapSession session = loggedIn("tom");
+                final CountDownLatch start = new CountDownLatch(1);
+                final Future<?> save = threads.submit(() -> {
+                    start.await();
+                    repository.save(session);
+                    return null;
+                });
+                final Future<?> delete = threads.submit(() -> {
+                    start.await();
+                    // e.g. the backchannel logout on another instance
+                    repository.deleteById(session.getId());
+                    return null;
+                });
+                start.countDown();
+                save.get(10, TimeUnit.SECONDS);
+                delete.get(10, TimeUnit.SECONDS);
+
+                assertThat(repository.findById(session.getId()), nullValue());
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldRemoveExpiredSessions() {
+        final MapSession session = anonymous();
+        repository.save(session);
+
+        clock.advance(TIMEOUT.plusSeconds(1));
+
+        assertThat(repository.findById(session.getId()), nullValue());
+        assertThat(repository.size(), is(0));
+    }
+
+    @Test
+    public void shouldEvictAnonymousSessionsBeforeLoggedInUsers() {
+        final MapSession tom = loggedIn("tom");
+        final MapSession first = anonymous();
+        final MapSession second = anonymous();
+        repository.save(tom);
+        repository.save(first);
+        repository.save(second);
+        // saved again later, still the first anonymous session stored
+        clock.advance(Duration.ofMinutes(1));
+        first.setLastAccessedTime(clock.instant());
+        repository.save(first);
+
+        final MapSession third = anonymous();
+        repository.save(third);
+
+        assertThat(repository.size(), is(3));
+        assertThat(repository.findById(first.getId()), nullValue());
+        assertThat(repository.findById(tom.getId()), notNullValue());
+        assertThat(repository.findById(second.getId()), notNullValue());
+        assertThat(repository.findById(third.getId()), notNullValue());
+    }
+
+    @Test
+    public void shouldNotEvictLoggedInUsersForAnonymousSessions() {
+        repository = repository(2);
+        final MapSession tom = loggedIn("tom");
+        final MapSession tim = loggedIn("tim");
+        repository.save(tom);
+        repository.save(tim);
+
+        final MapSession anonymous = anonymous();
+        repository.save(anonymous);
+
+        assertThat(repository.findById(anonymous.getId()), nullValue());
+        assertThat(repository.findById(tom.getId()), notNullValue());
+        assertThat(repository.findById(tim.getId()), notNullValue());
+
+        final MapSession tina = loggedIn("tina");
+        repository.save(tina);
+
+        assertThat(repository.findById(tom.getId()), nullValue());
+        assertThat(repository.findByPrincipalName("tom").isEmpty(), is(true));
+        assertThat(repository.findById(tim.getId()), notNullValue());
+        assertThat(repository.findById(tina.getId()), notNullValue());
+    }
+
+    @Test
+    public void shouldKeepSessionWhichLoggedInAfterItWasStored() {
+        repository = repository(2);
+        final MapSession first = anonymous();
+        final MapSession second = anonymous();
+        repository.save(first);
+        repository.save(second);
+
+        first.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, "tom");
+        repository.save(first);
+        repository.save(anonymous());
+
+        assertThat(repository.findById(first.getId()), notNullValue());
+        assertThat(repository.findById(second.getId()), nullValue());
+    }
+
+    @Test
+    public void shouldStoreSessionUnderItsNewIdOnly() {
+        final MapSession session = loggedIn("tom");
+        repository.save(session);
+        final String originalId = session.getId();
+
+        session.changeSessionId();
+        repository.save(session);
+
+        assertThat(repository.findById(originalId), nullValue());
+        assertThat(repository.findById(session.getId()), notNullValue());
+        assertThat(repository.findByPrincipalName("tom").keySet().contains(originalId), is(false));
+        assertThat(repository.size(), is(1));
+    }
+
+    @Test
+    public void shouldNeverReadPartlyWrittenSessions() throws Exception {
+        final MapSession session = loggedIn("tom");
+        final String small = "s";
+        final StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            large.append('l');
+        }
+        session.setAttribute("value", small);
+        repository.save(session);
+
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            final Future<?> writer = threads.submit(() -> {
+                // a larger session moves to a new buffer, a smaller one is written over the old bytes
+                for (int i = 0; i < 20_000; i++) {
+                    session.setAttribute("value", i % 2 == 0 ? large.toString() : small + i);
+                    repository.save(session);
+                }
+                writing.set(false);
+            });
+            final List<Future<Integer>> readers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                readers.add(threads.submit((Callable<Integer>) () -> {
+                    int reads = 0;
+                    while (writing.get()) {
+                        final String value = repository.findById(session.getId()).getAttribute("value");
+                        if (!value.equals(large.toString()) && !value.startsWith(small)) {
+                            throw new AssertionError("Read a partly written session");
+                        }
+                        reads++;
+                    }
+                    return reads;
+                }));
+            }
+
+            writer.get(30, TimeUnit.SECONDS);
+            for (Future<Integer> reader : readers) {
+                assertThat(reader.get(30, TimeUnit.SECONDS) > 0, is(true));
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private OffHeapSessionRepository repository(final int maximumSessions) {
+        if (repository != null) {
+            repository.destroy();
+        }
+        return new OffHeapSessionRepository(new SessionCodec(getClass().getClassLoader()), TIMEOUT, maximumSessions, 0, clock);
+    }
+
+    private MapSession anonymous() {
+        return repository.createSession();
+    }
+
+    private MapSession loggedIn(final String userName) {
+        final MapSession session = repository.createSession();
+        session.setAttribute(FindByIndexNameSessionRepository.PRINCIPAL_NAME_INDEX_NAME, userName);
+        return session;
+    }
+
+    private static final class MutableClock extends Clock {
+        private volatile Instant now = Instant.parse("2019-01-01T00:00:00Z");
+
+        void advance(final Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(final ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
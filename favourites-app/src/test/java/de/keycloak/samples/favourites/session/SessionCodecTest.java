@@ -0,0 +1,90 @@
+package de.keycloak.samples.favourites.session;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.keycloak.KeycloakPrincipal;
+import org.keycloak.adapters.RefreshableKeycloakSecurityContext;
+import org.keycloak.adapters.springsecurity.account.SimpleKeycloakAccount;
+import org.keycloak.adapters.springsecurity.token.KeycloakAuthenticationToken;
+import org.keycloak.jose.jws.JWSBuilder;
+import org.keycloak.representations.AccessToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.session.MapSession;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class SessionCodecTest {
+
+    private final SessionCodec codec = new SessionCodec(getClass().getClassLoader());
+
+    @Test
+    public void shouldDecodeEncodedSession() throws Exception {
+        final MapSession session = new MapSession("session-id");
+        session.setCreationTime(Instant.ofEpochMilli(1_546_300_800_000L));
+        session.setLastAccessedTime(Instant.ofEpochMilli(1_546_300_900_000L));
+        session.setMaxInactiveInterval(Duration.ofMinutes(30));
+        session.setAttribute("page", "favourites");
+        session.setAttribute("favourites", new ArrayList<>(Arrays.asList("VW Passat", "Audi A4")));
+
+        final MapSession decoded = codec.decode(codec.encode(session));
+
+        assertThat(decoded.getId(), is("session-id"));
+        assertThat(decoded.getCreationTime(), is(session.getCreationTime()));
+        assertThat(decoded.getLastAccessedTime(), is(session.getLastAccessedTime()));
+        assertThat(decoded.getMaxInactiveInterval(), is(Duration.ofMinutes(30)));
+        assertThat(decoded.getAttribute("page"), is("favourites"));
+        assertThat(decoded.getAttribute("favourites"), is((Object) Arrays.asList("VW Passat", "Audi A4")));
+        assertThat(decoded.getAttributeNames().size(), is(2));
+    }
+
+    @Test
+    public void shouldDecodeKeycloakSecurityContextWithoutKeycloak() throws Exception {
+        final AccessToken accessToken = new AccessToken();
+        accessToken.subject("tom").issuedNow();
+        accessToken.setPreferredUsername("tom");
+        final String token = new JWSBuilder().jsonContent(accessToken).none();
+        final RefreshableKeycloakSecurityContext context = new RefreshableKeycloakSecurityContext(null, null, token, accessToken,
+                                                                                                  null, null, "refresh");
+        final KeycloakPrincipal<RefreshableKeycloakSecurityContext> principal = new KeycloakPrincipal<>("tom", context);
+        final SimpleKeycloakAccount account = new SimpleKeycloakAccount(principal, Collections.singleton("owner"), context);
+        final MapSession session = new MapSession("session-id");
+        session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, new SecurityContextImpl(
+                new KeycloakAuthenticationToken(account, true, Collections.singletonList(new SimpleGrantedAuthority("ROLE_OWNER")))));
+
+        final SecurityContext decoded = codec.decode(codec.encode(session))
+                                             .getAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY);
+
+        final KeycloakAuthenticationToken authentication = (KeycloakAuthenticationToken) decoded.getAuthentication();
+        final RefreshableKeycloakSecurityContext decodedContext =
+                (RefreshableKeycloakSecurityContext) authentication.getAccount().getKeycloakSecurityContext();
+        assertThat(authentication.getName(), is("tom"));
+        assertThat(authentication.isAuthenticated(), is(true));
+        assertThat(authentication.isInteractive(), is(true));
+        assertThat(authentication.getAccount().getRoles(), is(Collections.singleton("owner")));
+        final List<String> authorities = new ArrayList<>();
+        authentication.getAuthorities().forEach(authority -> authorities.add(authority.getAuthority()));
+        assertThat(authorities, is(Collections.singletonList("ROLE_OWNER")));
+        assertThat(decodedContext.getTokenString(), is(token));
+        assertThat(decodedContext.getToken().getPreferredUsername(), is("tom"));
+        assertThat(decodedContext.getIdTokenString(), nullValue());
+        assertThat(decodedContext.getRefreshToken(), is("refresh"));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectUnknownFormat() throws Exception {
+        final byte[] bytes = codec.encode(new MapSession("session-id"));
+        bytes[0] = 99;
+
+        codec.decode(bytes);
+    }
+}
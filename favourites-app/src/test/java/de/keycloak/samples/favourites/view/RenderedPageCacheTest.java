@@ -0,0 +1,71 @@
+package de.keycloak.samples.favourites.view;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RenderedPageCacheTest {
+
+    private final RenderedPageCache cache = new RenderedPageCache(100, 300);
+    private final AtomicInteger renderings = new AtomicInteger();
+
+    @Test
+    public void shouldRenderPageOnceForSameUserAndRoles() {
+        assertThat(cache.get("favourites", user("tom", "ROLE_USER", "ROLE_OWNER"), renderer("tom")), is("tom 1"));
+        assertThat(cache.get("favourites", user("tom", "ROLE_OWNER", "ROLE_USER"), renderer("tom")), is("tom 1"));
+
+        assertThat(renderings.get(), is(1));
+        assertThat(cache.stats().hitCount(), is(1L));
+    }
+
+    @Test
+    public void shouldRenderPageForOtherUserRolesOrView() {
+        cache.get("favourites", user("tom", "ROLE_USER"), renderer("tom"));
+
+        assertThat(cache.get("favourites", user("tim", "ROLE_USER"), renderer("tim")), is("tim 2"));
+        assertThat(cache.get("favourites", user("tom", "ROLE_ADMIN"), renderer("tom")), is("tom 3"));
+        assertThat(cache.get("index", user("tom", "ROLE_USER"), renderer("tom")), is("tom 4"));
+        assertThat(cache.get("favourites", null, renderer("anonymous")), is("anonymous 5"));
+
+        assertThat(cache.stats().missCount(), is(5L));
+        assertThat(cache.size(), is(5L));
+    }
+
+    @Test
+    public void shouldDropOnlyThePagesOfTheUserOnLogout() {
+        cache.get("favourites", user("tom", "ROLE_USER"), renderer("tom"));
+        cache.get("index", user("tom", "ROLE_USER"), renderer("tom"));
+        cache.get("favourites", user("tim", "ROLE_USER"), renderer("tim"));
+
+        cache.logout(null, null, user("tom", "ROLE_USER"));
+
+        assertThat(cache.size(), is(1L));
+        assertThat(cache.get("favourites", user("tim", "ROLE_USER"), renderer("tim")), is("tim 3"));
+        assertThat(cache.get("favourites", user("tom", "ROLE_USER"), renderer("tom")), is("tom 4"));
+    }
+
+    @Test
+    public void shouldDropPagesCachedAgainAfterInvalidateAll() {
+        cache.get("favourites", user("tom", "ROLE_USER"), renderer("tom"));
+        cache.invalidateAll();
+        cache.get("favourites", user("tom", "ROLE_USER"), renderer("tom"));
+
+        cache.invalidate("tom");
+
+        assertThat(cache.size(), is(0L));
+        assertThat(cache.get("favourites", user("tom", "ROLE_USER"), renderer("tom")), is("tom 3"));
+    }
+
+    private Supplier<String> renderer(final String page) {
+        return () -> page + " " + renderings.incrementAndGet();
+    }
+
+    private static Authentication user(final String name, final String... roles) {
+        return new UsernamePasswordAuthenticationToken(name, "", AuthorityUtils.createAuthorityList(roles));
+    }
+}
@@ -0,0 +1,161 @@
+package de.keycloak.samples.favourites.benchmarks;
+
+import de.keycloak.samples.favourites.api.metrics.AuthPipelineMetrics;
+import de.keycloak.samples.favourites.api.security.AuthorityBits;
+import de.keycloak.samples.favourites.api.security.AuthorizationInterceptor;
+import de.keycloak.samples.favourites.api.security.CustomJwtAccessTokenConverter;
+import de.keycloak.samples.favourites.api.security.RequiresAuthority;
+import de.keycloak.samples.favourites.benchmarks.TokenFixtures.TokenSize;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.ResourceServerProperties;
+import org.springframework.boot.logging.LogLevel;
+import org.springframework.boot.logging.LoggingSystem;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.access.expression.method.DefaultMethodSecurityExpressionHandler;
+import org.springframework.security.access.expression.method.ExpressionBasedAnnotationAttributeFactory;
+import org.springframework.security.access.expression.method.ExpressionBasedPostInvocationAdvice;
+import org.springframework.security.access.expression.method.ExpressionBasedPreInvocationAdvice;
+import org.springframework.security.access.intercept.AfterInvocationProviderManager;
+import org.springframework.security.access.intercept.aopalliance.MethodSecurityInterceptor;
+import org.springframework.security.access.method.DelegatingMethodSecurityMetadataSource;
+import org.springframework.security.access.prepost.PostInvocationAdviceProvider;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.access.prepost.PreInvocationAuthorizationAdviceVoter;
+import org.springframework.security.access.prepost.PrePostAnnotationSecurityMetadataSource;
+import org.springframework.security.access.vote.AffirmativeBased;
+import org.springframework.security.access.vote.AuthenticatedVoter;
+import org.springframework.security.access.vote.RoleVoter;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Compares authorizing a call to /favourites/{username} by the {@code @PreAuthorize} expression of the method
+ * security interceptor and the ownership check in the handler, with the {@link AuthorizationInterceptor} checking
+ * the compiled {@link RequiresAuthority} rule. Both run without the rest of the request handling.
+ * <p>
+ * The method security interceptor is set up like {@code @EnableGlobalMethodSecurity(prePostEnabled = true)} does.
+ * With {@code username=tim} the call is forbidden, as tom is not the owner.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthorizationBenchmark {
+
+    @Param({"SMALL", "LARGE"})
+    private TokenSize tokenSize;
+
+    @Param({"tom", "tim"})
+    private String username;
+
+    private OAuth2Authentication authentication;
+    private PreAuthorizeEndpoints preAuthorizeEndpoints;
+    private AuthorizationInterceptor authorizationInterceptor;
+    private CompiledEndpoints compiledEndpoints;
+    private HandlerMethod handlerMethod;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        // without spring boot logback logs at debug, the security interceptor logs every call
+        LoggingSystem.get(getClass().getClassLoader()).setLogLevel(LoggingSystem.ROOT_LOGGER_NAME, LogLevel.WARN);
+        final AuthorityBits authorityBits = new AuthorityBits();
+        authorizationInterceptor = new AuthorizationInterceptor(authorityBits, AuthPipelineMetrics.noop());
+        authorizationInterceptor.compile(Arrays.asList(CompiledEndpoints.class.getMethods()));
+
+        final ResourceServerProperties properties = new ResourceServerProperties();
+        properties.setId(TokenFixtures.RESOURCE_ID);
+        final CustomJwtAccessTokenConverter converter = new CustomJwtAccessTokenConverter(properties);
+        converter.setAuthorityBits(authorityBits);
+        authentication = converter.extractAuthentication(new TokenFixtures().claims("tom", tokenSize));
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+
+        final ProxyFactory proxyFactory = new ProxyFactory(new PreAuthorizeEndpoints());
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(methodSecurityInterceptor());
+        preAuthorizeEndpoints = (PreAuthorizeEndpoints) proxyFactory.getProxy();
+
+        compiledEndpoints = new CompiledEndpoints();
+        handlerMethod = new HandlerMethod(compiledEndpoints, CompiledEndpoints.class.getMethod("getFavouritesOfUser", String.class));
+        request = new MockHttpServletRequest("GET", "/favourites/" + username);
+        request.setUserPrincipal(authentication);
+        request.setAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE, Collections.singletonMap("username", username));
+        response = new MockHttpServletResponse();
+    }
+
+    @TearDown
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Benchmark
+    public int preAuthorize() {
+        return preAuthorizeEndpoints.getFavouritesOfUser(username, authentication);
+    }
+
+    @Benchmark
+    public int compiled() throws Exception {
+        if (!authorizationInterceptor.preHandle(request, response, handlerMethod)) {
+            return response.getStatus();
+        }
+        return compiledEndpoints.getFavouritesOfUser(username);
+    }
+
+    private static MethodSecurityInterceptor methodSecurityInterceptor() {
+        final DefaultMethodSecurityExpressionHandler expressionHandler = new DefaultMethodSecurityExpressionHandler();
+        final ExpressionBasedPreInvocationAdvice preInvocationAdvice = new ExpressionBasedPreInvocationAdvice();
+        preInvocationAdvice.setExpressionHandler(expressionHandler);
+        final AfterInvocationProviderManager afterInvocationManager = new AfterInvocationProviderManager();
+        afterInvocationManager.setProviders(Collections.singletonList(new PostInvocationAdviceProvider(new ExpressionBasedPostInvocationAdvice(expressionHandler))));
+
+        final MethodSecurityInterceptor interceptor = new MethodSecurityInterceptor();
+        // caches the parsed expression per method
+        interceptor.setSecurityMetadataSource(new DelegatingMethodSecurityMetadataSource(Collections.singletonList(
+                new PrePostAnnotationSecurityMetadataSource(new ExpressionBasedAnnotationAttributeFactory(expressionHandler)))));
+        interceptor.setAccessDecisionManager(new AffirmativeBased(Arrays.asList(new PreInvocationAuthorizationAdviceVoter(preInvocationAdvice),
+                                                                                new RoleVoter(),
+                                                                                new AuthenticatedVoter())));
+        interceptor.setAfterInvocationManager(afterInvocationManager);
+        // the authentication is authenticated, so it's never passed to the manager
+        interceptor.setAuthenticationManager(authentication -> authentication);
+        return interceptor;
+    }
+
+    public static class PreAuthorizeEndpoints {
+
+        @PreAuthorize("hasRole('ROLE_USER')")
+        public int getFavouritesOfUser(final String username, final Principal principal) {
+            return principal != null && username.equals(principal.getName()) ? 200 : 403;
+        }
+    }
+
+    public static class CompiledEndpoints {
+
+        @RequiresAuthority(value = "ROLE_USER", owner = "username")
+        public int getFavouritesOfUser(final String username) {
+            return 200;
+        }
+    }
+}
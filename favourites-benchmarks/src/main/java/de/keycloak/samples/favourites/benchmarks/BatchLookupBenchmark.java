@@ -0,0 +1,135 @@
+package de.keycloak.samples.favourites.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import de.keycloak.samples.favourites.api.FavouritesApi;
+import de.keycloak.samples.favourites.api.model.Favourite;
+import de.keycloak.samples.favourites.api.store.FavouritesRepository;
+import de.keycloak.samples.favourites.benchmarks.TokenFixtures.TokenSize;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.Filter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.support.ServletContextApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Compares looking up the favourites of {@code users} users with one {@code GET /favourites/{username}} per user
+ * against one {@code POST /favourites:batchGet}, both through the complete security filter chain. Every single call
+ * comes with the token of its user, the batch call with a token of an admin.
+ * <p>
+ * With {@code tokenCache=false} every request pays for the full token validation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchLookupBenchmark {
+    private static final int FAVOURITES_PER_USER = 10;
+
+    @Param({"1", "10", "50"})
+    private int users;
+
+    @Param({"true", "false"})
+    private boolean tokenCache;
+
+    private HttpServer keycloakStub;
+    private ConfigurableApplicationContext context;
+    private MockMvc mockMvc;
+    private List<String> userNames;
+    private List<String> userAuthorizations;
+    private String adminAuthorization;
+    private String batchBody;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final TokenFixtures fixtures = new TokenFixtures();
+        keycloakStub = KeycloakStub.start(fixtures.jwks());
+        context = new SpringApplicationBuilder(FavouritesApi.class)
+                .contextClass(GenericWebApplicationContext.class)
+                .initializers(new ServletContextApplicationContextInitializer(new MockServletContext()))
+                .run("--sso.host=http://localhost:" + keycloakStub.getAddress().getPort(),
+                     "--favourites.store.directory=" + Files.createTempDirectory("favourites-store"),
+                     "--security.oauth2.resource.token-cache.maximum-size=" + (tokenCache ? 10000 : 0),
+                     "--logging.level.root=WARN",
+                     "--logging.level.org.springframework.security=WARN");
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context)
+                                 .addFilters(context.getBean("springSecurityFilterChain", Filter.class))
+                                 .build();
+
+        final FavouritesRepository repository = context.getBean(FavouritesRepository.class);
+        userNames = new ArrayList<>(users);
+        userAuthorizations = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            final String userName = "user" + i;
+            userNames.add(userName);
+            userAuthorizations.add("Bearer " + fixtures.token(userName, TokenSize.MEDIUM));
+            for (int j = 0; j < FAVOURITES_PER_USER; j++) {
+                repository.save(Favourite.builder().withId(userName + "-" + j).withUserName(userName).withRating(j % 5 + 1).withComment("Comment " + j).build());
+            }
+        }
+        adminAuthorization = "Bearer " + fixtures.token("admin", TokenSize.MEDIUM, "ADMIN");
+        batchBody = context.getBean(ObjectMapper.class).writeValueAsString(userNames);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        keycloakStub.stop(0);
+    }
+
+    @Benchmark
+    public void singleCalls(final Blackhole blackhole) throws Exception {
+        for (int i = 0; i < users; i++) {
+            final MvcResult result = mockMvc.perform(get("/favourites/" + userNames.get(i)).header("Authorization", userAuthorizations.get(i))).andReturn();
+            expectOk(result);
+            blackhole.consume(result.getResponse().getContentAsByteArray());
+        }
+    }
+
+    @Benchmark
+    public byte[] batchGet() throws Exception {
+        final MvcResult started = mockMvc.perform(post("/favourites:batchGet").header("Authorization", adminAuthorization)
+                                                                             .contentType(MediaType.APPLICATION_JSON)
+                                                                             .content(batchBody))
+                                         .andReturn();
+        final MvcResult result = mockMvc.perform(asyncDispatch(started)).andReturn();
+        expectOk(result);
+        return result.getResponse().getContentAsByteArray();
+    }
+
+    private static void expectOk(final MvcResult result) {
+        if (result.getResponse().getStatus() != 200) {
+            throw new IllegalStateException("Unexpected status " + result.getResponse().getStatus());
+        }
+    }
+}
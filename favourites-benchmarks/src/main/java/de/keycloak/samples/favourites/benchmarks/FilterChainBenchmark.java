@@ -0,0 +1,93 @@
+package de.keycloak.samples.favourites.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+import de.keycloak.samples.favourites.api.FavouritesApi;
+import de.keycloak.samples.favourites.benchmarks.TokenFixtures.TokenSize;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.Filter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.support.ServletContextApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Runs a request to /favourites/{username} through the complete security filter chain and the resource of the
+ * favourites-api. The realm keys are served by a local stub of the keycloak certs endpoint.
+ * <p>
+ * With {@code tokenCache=false} every request pays for the full token validation, as when every call comes with a
+ * new token.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterChainBenchmark {
+
+    @Param({"SMALL", "LARGE"})
+    private TokenSize tokenSize;
+
+    @Param({"true", "false"})
+    private boolean tokenCache;
+
+    private HttpServer keycloakStub;
+    private ConfigurableApplicationContext context;
+    private MockMvc mockMvc;
+    private String authorization;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final TokenFixtures fixtures = new TokenFixtures();
+        keycloakStub = KeycloakStub.start(fixtures.jwks());
+        // like @SpringBootTest with a mock environment: no server is started, MockMvc calls the DispatcherServlet
+        context = new SpringApplicationBuilder(FavouritesApi.class)
+                .contextClass(GenericWebApplicationContext.class)
+                .initializers(new ServletContextApplicationContextInitializer(new MockServletContext()))
+                .run("--sso.host=http://localhost:" + keycloakStub.getAddress().getPort(),
+                     "--favourites.store.directory=" + Files.createTempDirectory("favourites-store"),
+                     "--security.oauth2.resource.token-cache.maximum-size=" + (tokenCache ? 10000 : 0),
+                     "--logging.level.root=WARN",
+                     "--logging.level.org.springframework.security=WARN");
+        mockMvc = MockMvcBuilders.webAppContextSetup((WebApplicationContext) context)
+                                 .addFilters(context.getBean("springSecurityFilterChain", Filter.class))
+                                 .build();
+        authorization = "Bearer " + fixtures.token("tom", tokenSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        keycloakStub.stop(0);
+    }
+
+    @Benchmark
+    public MvcResult getFavouritesOfUser() throws Exception {
+        final MvcResult result = mockMvc.perform(get("/favourites/tom").header("Authorization", authorization)).andReturn();
+        if (result.getResponse().getStatus() != 200) {
+            throw new IllegalStateException("Unexpected status " + result.getResponse().getStatus());
+        }
+        return result;
+    }
+}
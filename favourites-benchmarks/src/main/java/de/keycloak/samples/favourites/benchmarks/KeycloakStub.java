@@ -0,0 +1,29 @@
+package de.keycloak.samples.favourites.benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the realm keys like the certs endpoint of keycloak.
+ */
+public final class KeycloakStub {
+    private KeycloakStub() {
+    }
+
+    public static HttpServer start(final String jwks) throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/auth/realms/my-apps/protocol/openid-connect/certs", exchange -> {
+            final byte[] body = jwks.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        return server;
+    }
+}
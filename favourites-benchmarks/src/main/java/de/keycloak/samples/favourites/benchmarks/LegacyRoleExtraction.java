@@ -0,0 +1,57 @@
+package de.keycloak.samples.favourites.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.util.CollectionUtils;
+
+/**
+ * The role extraction of CustomJwtAccessTokenConverter before the authorities were interned, kept as the baseline
+ * for {@link RoleExtractionBenchmark}.
+ */
+final class LegacyRoleExtraction {
+    private static final String CLIENT_ACCESS_ROLES = "resource_access";
+    private static final String REALM_ACCESS_ROLES = "realm_access";
+    private static final String ROLE_ELEMENT_IN_JWT = "roles";
+    private static final String ROLE_PREFIX = "ROLE_";
+
+    private LegacyRoleExtraction() {
+    }
+
+    static List<GrantedAuthority> extractAuthorities(final Map<String, ?> tokenMap, final String resourceId) {
+        final List<GrantedAuthority> authorities = new ArrayList<>();
+        authorities.addAll(extractClientRoles(tokenMap, resourceId));
+        authorities.addAll(extractRealmRoles(tokenMap));
+        return authorities;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<GrantedAuthority> extractClientRoles(Map<String, ?> tokenMap, final String resourceId) {
+        return Optional.ofNullable((Map<String, Object>) tokenMap.get(CLIENT_ACCESS_ROLES))
+                       .map(resourceAccess -> (Map<String, Map<String, Object>>) resourceAccess.get(resourceId))
+                       .map(cr -> (List<String>) cr.get(ROLE_ELEMENT_IN_JWT))
+                       .map(roles -> createGrantedAuthorities(roles))
+                       .orElse(Collections.emptyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<GrantedAuthority> extractRealmRoles(Map<String, ?> tokenMap) {
+        return Optional.ofNullable((Map<String, Object>) tokenMap.get(REALM_ACCESS_ROLES))
+                       .map(cr -> (List<String>) cr.get(ROLE_ELEMENT_IN_JWT))
+                       .map(roles -> createGrantedAuthorities(roles))
+                       .orElse(Collections.emptyList());
+    }
+
+    private static List<GrantedAuthority> createGrantedAuthorities(final List<String> roles) {
+        if (CollectionUtils.isEmpty(roles)) {
+            return Collections.emptyList();
+        }
+
+        return roles.stream().map(r -> new SimpleGrantedAuthority(ROLE_PREFIX + r)).collect(Collectors.toList());
+    }
+}
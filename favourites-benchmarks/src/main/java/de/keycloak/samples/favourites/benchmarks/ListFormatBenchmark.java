@@ -0,0 +1,100 @@
+package de.keycloak.samples.favourites.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import de.keycloak.samples.favourites.api.model.Favourite;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes a page of {@code favourites} favourites, the body of {@code GET /favourites}, in the formats the
+ * favourites-api negotiates. {@code json-reflective} is JSON by the bean serializer of jackson, the way favourites
+ * were written before the {@code FavouriteSerializer}. The gzip formats compress like tomcat does, with the default
+ * level of {@link GZIPOutputStream}.
+ * <p>
+ * The size of the encoded page is printed once per trial, e.g. {@code bytes: smile-gzip 1000 favourites 32893}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListFormatBenchmark {
+    private static final String[] WORDS = {"nice", "restaurant", "bar", "cafe", "pizza", "view", "friendly", "cheap", "quiet", "again"};
+
+    @Param({"100", "1000"})
+    private int favourites;
+
+    @Param({"json-reflective", "json", "json-gzip", "smile", "smile-gzip"})
+    private String format;
+
+    private List<Favourite> page;
+    private ObjectWriter writer;
+    private boolean gzip;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1 << 20);
+
+    @Setup
+    public void setUp() throws IOException {
+        final Random random = new Random(42);
+        page = new ArrayList<>(favourites);
+        for (int i = 0; i < favourites; i++) {
+            final StringBuilder comment = new StringBuilder();
+            for (int word = 0, words = 2 + random.nextInt(5); word < words; word++) {
+                comment.append(word == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            page.add(Favourite.builder()
+                              .withId(new UUID(random.nextLong(), random.nextLong()).toString())
+                              .withUserName("user" + random.nextInt(1000))
+                              .withRating(random.nextInt(Favourite.MAX_RATING + 1))
+                              .withComment(comment.toString())
+                              .build());
+        }
+
+        final ObjectMapper objectMapper = format.startsWith("smile") ? new ObjectMapper(new SmileFactory()) : new ObjectMapper();
+        if (format.endsWith("reflective")) {
+            objectMapper.addMixIn(Favourite.class, BeanSerialized.class);
+        }
+        writer = objectMapper.writer();
+        gzip = format.endsWith("gzip");
+        System.out.println("bytes: " + format + " " + favourites + " favourites " + encode().size());
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream encode() throws IOException {
+        buffer.reset();
+        if (!gzip) {
+            writer.writeValue(buffer, page);
+            return buffer;
+        }
+        try (OutputStream out = new GZIPOutputStream(buffer, 8192)) {
+            writer.writeValue(out, page);
+        }
+        return buffer;
+    }
+
+    @JsonSerialize(using = JsonSerializer.None.class)
+    private abstract static class BeanSerialized {
+    }
+}
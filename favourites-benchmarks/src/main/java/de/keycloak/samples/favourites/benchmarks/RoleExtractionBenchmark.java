@@ -0,0 +1,85 @@
+package de.keycloak.samples.favourites.benchmarks;
+
+import de.keycloak.samples.favourites.api.security.CustomJwtAccessTokenConverter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.ResourceServerProperties;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * Compares the role extraction of {@link CustomJwtAccessTokenConverter} with the former stream based one.
+ * Run with {@code -prof gc} to compare the allocation per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoleExtractionBenchmark {
+    private static final String RESOURCE_ID = "favourites-api";
+
+    @Param({"5", "30"})
+    private int roles;
+
+    private Map<String, Object> tokenMap;
+    private CustomJwtAccessTokenConverter converter;
+
+    @Setup
+    public void setUp() {
+        final ResourceServerProperties properties = new ResourceServerProperties();
+        properties.setId(RESOURCE_ID);
+        converter = new CustomJwtAccessTokenConverter(properties);
+        tokenMap = tokenMap(roles);
+    }
+
+    @Benchmark
+    public List<GrantedAuthority> legacy() {
+        return LegacyRoleExtraction.extractAuthorities(tokenMap, RESOURCE_ID);
+    }
+
+    @Benchmark
+    public List<GrantedAuthority> interned() {
+        return converter.extractAuthorities(tokenMap);
+    }
+
+    /**
+     * Builds the claims the way keycloak issues them, with a third of the roles being client roles of this API.
+     */
+    static Map<String, Object> tokenMap(final int roles) {
+        final List<String> clientRoles = new ArrayList<>();
+        final List<String> realmRoles = new ArrayList<>();
+        for (int i = 0; i < roles; i++) {
+            if (i % 3 == 0) {
+                clientRoles.add("CLIENT_ROLE_" + i);
+            } else {
+                realmRoles.add("realm-role-" + i);
+            }
+        }
+
+        final Map<String, Object> resourceAccess = new HashMap<>();
+        resourceAccess.put(RESOURCE_ID, Collections.singletonMap("roles", clientRoles));
+        resourceAccess.put("account", Collections.singletonMap("roles", Collections.singletonList("view-profile")));
+
+        final Map<String, Object> tokenMap = new HashMap<>();
+        tokenMap.put("resource_access", resourceAccess);
+        tokenMap.put("realm_access", Collections.singletonMap("roles", realmRoles));
+        tokenMap.put("preferred_username", "tom");
+        return tokenMap;
+    }
+}
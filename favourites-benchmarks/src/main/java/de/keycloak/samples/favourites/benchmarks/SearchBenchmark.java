@@ -0,0 +1,142 @@
+package de.keycloak.samples.favourites.benchmarks;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import de.keycloak.samples.favourites.api.search.SearchQuery;
+import de.keycloak.samples.favourites.api.store.FavouritesTable;
+import de.keycloak.samples.favourites.api.store.FileFavouritesRepository;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Searches the comments of {@code favourites} favourites by the comment index of the store, one page of
+ * {@link #LIMIT} favourites per query. {@code scanRareTerm} searches without the index by scanning all comments, like
+ * a search would without the index.
+ * <p>
+ * The comments are a few of {@link #WORDS}, so common terms occur in about every tenth comment. One in
+ * {@link #RARE_TERM_FREQUENCY} comments mentions {@code michelin}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class SearchBenchmark {
+    private static final int LIMIT = 50;
+    private static final int RARE_TERM_FREQUENCY = 20_000;
+    private static final String[] WORDS = {"nice", "bad", "restaurant", "restaurants", "bar", "cafe", "pizza", "pizzeria", "view", "friendly",
+                                           "slow", "cheap", "expensive", "quiet", "noisy", "again", "never", "best", "great", "terrace",
+                                           "staff", "food", "rest", "wine", "beer", "music", "garden", "lunch", "dinner", "breakfast"};
+
+    @Param({"1000000", "5000000"})
+    private int favourites;
+
+    @Param({"columnar"})
+    private String layout;
+
+    private Path directory;
+    private FileFavouritesRepository repository;
+    private SearchQuery commonTerm;
+    private SearchQuery rareTerm;
+    private SearchQuery twoTerms;
+    private SearchQuery prefix;
+    private SearchQuery termWithRating;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("search-benchmark");
+        repository = new FileFavouritesRepository(directory, FavouritesTable.Layout.valueOf(layout.toUpperCase(Locale.ROOT)).create());
+        final Random random = new Random(42);
+        final StringBuilder comment = new StringBuilder(64);
+        for (int i = 0; i < favourites; i++) {
+            comment.setLength(0);
+            final int words = 2 + random.nextInt(4);
+            for (int word = 0; word < words; word++) {
+                comment.append(word == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            if (random.nextInt(RARE_TERM_FREQUENCY) == 0) {
+                comment.append(", Michelin star");
+            }
+            repository.save(Favourite.builder()
+                                     .withId(new UUID(random.nextLong(), random.nextLong()).toString())
+                                     .withUserName("user" + random.nextInt(100_000))
+                                     .withRating(random.nextInt(Favourite.MAX_RATING + 1))
+                                     .withComment(comment.toString())
+                                     .build());
+        }
+        commonTerm = SearchQuery.parse("restaurant", null, null);
+        rareTerm = SearchQuery.parse("michelin", null, null);
+        twoTerms = SearchQuery.parse("nice restaurant", null, null);
+        prefix = SearchQuery.parse("restau*", null, null);
+        termWithRating = SearchQuery.parse("restaurant", 5, 5);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public List<Favourite> commonTerm() {
+        return repository.search(commonTerm, null, LIMIT).getFavourites();
+    }
+
+    @Benchmark
+    public List<Favourite> rareTerm() {
+        return repository.search(rareTerm, null, LIMIT).getFavourites();
+    }
+
+    @Benchmark
+    public List<Favourite> twoTerms() {
+        return repository.search(twoTerms, null, LIMIT).getFavourites();
+    }
+
+    @Benchmark
+    public List<Favourite> prefix() {
+        return repository.search(prefix, null, LIMIT).getFavourites();
+    }
+
+    @Benchmark
+    public List<Favourite> termWithRating() {
+        return repository.search(termWithRating, null, LIMIT).getFavourites();
+    }
+
+    @Benchmark
+    public List<Favourite> scanRareTerm() {
+        final List<Favourite> found = new ArrayList<>(LIMIT);
+        final Iterator<Favourite> all = repository.iterateAll();
+        while (all.hasNext() && found.size() < LIMIT) {
+            final Favourite favourite = all.next();
+            if (rareTerm.matches(favourite)) {
+                found.add(favourite);
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,148 @@
+package de.keycloak.samples.favourites.benchmarks;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.RsaSigner;
+import org.springframework.security.jwt.crypto.sign.RsaVerifier;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+
+/**
+ * A locally generated realm key and tokens signed with it, shaped like the access tokens keycloak issues for the
+ * favourites-api. Nothing here needs a running keycloak.
+ */
+public final class TokenFixtures {
+    public static final String KEY_ID = "benchmark-key";
+    public static final String ISSUER = "http://localhost:8080/auth/realms/my-apps";
+    public static final String RESOURCE_ID = "favourites-api";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    /**
+     * Token shapes from a plain user token up to a token of a user in many groups with large custom claims.
+     */
+    public enum TokenSize {
+        SMALL(5, 0),
+        MEDIUM(50, 1024),
+        LARGE(300, 16 * 1024);
+
+        private final int roles;
+        private final int customClaimBytes;
+
+        TokenSize(final int roles, final int customClaimBytes) {
+            this.roles = roles;
+            this.customClaimBytes = customClaimBytes;
+        }
+    }
+
+    private final KeyPair keyPair;
+
+    public TokenFixtures() {
+        try {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            this.keyPair = generator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public SignatureVerifier verifier() {
+        return new RsaVerifier((RSAPublicKey) keyPair.getPublic());
+    }
+
+    /**
+     * @return the key set as served by the certs endpoint of keycloak
+     */
+    public String jwks() {
+        final RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        final Map<String, Object> key = new LinkedHashMap<>();
+        key.put("kid", KEY_ID);
+        key.put("kty", "RSA");
+        key.put("alg", "RS256");
+        key.put("use", "sig");
+        key.put("n", encoder.encodeToString(publicKey.getModulus().toByteArray()));
+        key.put("e", encoder.encodeToString(publicKey.getPublicExponent().toByteArray()));
+        return toJson(Collections.singletonMap("keys", Collections.singletonList(key)));
+    }
+
+    /**
+     * @param clientRoles client roles of the favourites-api besides USER, e.g. ADMIN
+     */
+    public String token(final String userName, final TokenSize size, final String... clientRoles) {
+        return JwtHelper.encode(toJson(claims(userName, size, clientRoles)),
+                                new RsaSigner((RSAPrivateKey) keyPair.getPrivate()),
+                                Collections.singletonMap("kid", KEY_ID)).getEncoded();
+    }
+
+    public Map<String, Object> claims(final String userName, final TokenSize size, final String... additionalClientRoles) {
+        final long now = System.currentTimeMillis() / 1000;
+
+        final List<String> clientRoles = new ArrayList<>();
+        clientRoles.add("USER");
+        clientRoles.addAll(Arrays.asList(additionalClientRoles));
+        final List<String> realmRoles = new ArrayList<>();
+        realmRoles.add("offline_access");
+        realmRoles.add("uma_authorization");
+        for (int i = clientRoles.size() + realmRoles.size(); i < size.roles; i++) {
+            realmRoles.add("group-role-" + i);
+        }
+
+        final Map<String, Object> resourceAccess = new LinkedHashMap<>();
+        resourceAccess.put(RESOURCE_ID, Collections.singletonMap("roles", clientRoles));
+        resourceAccess.put("account", Collections.singletonMap("roles", Arrays.asList("manage-account", "view-profile")));
+
+        final Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("jti", UUID.randomUUID().toString());
+        claims.put("exp", now + 3600);
+        claims.put("nbf", 0);
+        claims.put("iat", now);
+        claims.put("iss", ISSUER);
+        claims.put("aud", "account");
+        claims.put("sub", UUID.randomUUID().toString());
+        claims.put("typ", "Bearer");
+        claims.put("azp", RESOURCE_ID);
+        claims.put("auth_time", 0);
+        claims.put("session_state", UUID.randomUUID().toString());
+        claims.put("acr", "1");
+        claims.put("realm_access", Collections.singletonMap("roles", realmRoles));
+        claims.put("resource_access", resourceAccess);
+        claims.put("scope", "profile email");
+        claims.put("email_verified", false);
+        claims.put("preferred_username", userName);
+        if (size.customClaimBytes > 0) {
+            claims.put("custom_attributes", customClaim(size.customClaimBytes));
+        }
+        return claims;
+    }
+
+    private static String customClaim(final int bytes) {
+        final StringBuilder claim = new StringBuilder(bytes);
+        while (claim.length() < bytes) {
+            claim.append("attribute-value-").append(claim.length()).append(';');
+        }
+        return claim.substring(0, bytes);
+    }
+
+    private static String toJson(final Object value) {
+        try {
+            return OBJECT_MAPPER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package de.keycloak.samples.favourites.benchmarks;
+
+import de.keycloak.samples.favourites.api.security.CustomJwtAccessTokenConverter;
+import de.keycloak.samples.favourites.benchmarks.TokenFixtures.TokenSize;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.autoconfigure.security.oauth2.resource.ResourceServerProperties;
+import org.springframework.security.jwt.Jwt;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.SignatureVerifier;
+import org.springframework.security.oauth2.common.util.JsonParser;
+import org.springframework.security.oauth2.common.util.JsonParserFactory;
+import org.springframework.security.oauth2.provider.OAuth2Authentication;
+
+/**
+ * The stages a bearer token passes in the favourites-api, each measured on its own: decoding the JWT, verifying
+ * its signature, parsing the claims and converting them into an authentication.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenValidationBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    private TokenSize tokenSize;
+
+    private String token;
+    private String claimsJson;
+    private Map<String, Object> claims;
+    private SignatureVerifier verifier;
+    private JsonParser jsonParser;
+    private CustomJwtAccessTokenConverter converter;
+
+    @Setup
+    public void setUp() {
+        final TokenFixtures fixtures = new TokenFixtures();
+        token = fixtures.token("tom", tokenSize);
+        verifier = fixtures.verifier();
+        jsonParser = JsonParserFactory.create();
+        claimsJson = JwtHelper.decode(token).getClaims();
+        claims = jsonParser.parseMap(claimsJson);
+
+        final ResourceServerProperties properties = new ResourceServerProperties();
+        properties.setId(TokenFixtures.RESOURCE_ID);
+        converter = new CustomJwtAccessTokenConverter(properties);
+    }
+
+    @Benchmark
+    public Jwt decode() {
+        return JwtHelper.decode(token);
+    }
+
+    @Benchmark
+    public Jwt decodeAndVerify() {
+        return JwtHelper.decodeAndVerify(token, verifier);
+    }
+
+    @Benchmark
+    public Map<String, Object> parseClaims() {
+        return jsonParser.parseMap(claimsJson);
+    }
+
+    @Benchmark
+    public OAuth2Authentication extractAuthentication() {
+        return converter.extractAuthentication(claims);
+    }
+}
@@ -0,0 +1,121 @@
+package de.keycloak.samples.favourites.benchmarks.footprint;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import de.keycloak.samples.favourites.api.store.ColumnarFavouritesTable;
+import de.keycloak.samples.favourites.api.store.FavouritesTable;
+import de.keycloak.samples.favourites.api.store.ObjectFavouritesTable;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Compares the heap taken by the favourites in memory: a plain list of {@link Favourite} objects, the
+ * {@link ObjectFavouritesTable} (the list plus the indexes by id and user name) and the
+ * {@link ColumnarFavouritesTable}. The favourites look like the ones read from the log: a random UUID as id, a
+ * short comment and one of {@code users} user names, each a string of its own like after deserialization.
+ * <p>
+ * Run with a heap large enough for the largest layout, e.g.
+ * <pre>
+ * java -Xmx4g -cp favourites-benchmarks/target/benchmarks.jar de.keycloak.samples.favourites.benchmarks.footprint.FavouritesFootprint \
+ *      records=1000000,10000000 layouts=list,objects,columnar
+ * </pre>
+ */
+public final class FavouritesFootprint {
+
+    private static final String[] WORDS = {"nice", "bad", "restaurant", "bar", "cafe", "pizza", "view", "friendly", "slow", "cheap",
+                                           "expensive", "quiet", "noisy", "again", "never", "best", "great", "terrace", "staff", "food"};
+
+    // keeps the favourites reachable while they are measured
+    private static Object retained;
+
+    private FavouritesFootprint() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        List<Integer> records = Arrays.asList(1_000_000, 10_000_000);
+        List<String> layouts = Arrays.asList("list", "objects", "columnar");
+        int users = 100_000;
+        for (String arg : args) {
+            if (arg.startsWith("records=")) {
+                records = new ArrayList<>();
+                for (String count : arg.substring("records=".length()).split(",")) {
+                    records.add(Integer.parseInt(count));
+                }
+            } else if (arg.startsWith("layouts=")) {
+                layouts = Arrays.asList(arg.substring("layouts=".length()).split(","));
+            } else if (arg.startsWith("users=")) {
+                users = Integer.parseInt(arg.substring("users=".length()));
+            }
+        }
+
+        System.out.printf("%d users, max heap %d MB%n", users, Runtime.getRuntime().maxMemory() / 1024 / 1024);
+        System.out.printf("%-10s %12s %12s %12s%n", "layout", "records", "heap", "per record");
+        for (int count : records) {
+            for (String layout : layouts) {
+                try {
+                    measure(layout, count, users);
+                } catch (OutOfMemoryError e) {
+                    retained = null;
+                    System.out.printf("%-10s %12d %12s%n", layout, count, "out of memory");
+                }
+            }
+        }
+    }
+
+    private static void measure(final String layout, final int records, final int users) throws InterruptedException {
+        final long before = usedHeap();
+        switch (layout) {
+            case "list":
+                final List<Favourite> list = new ArrayList<>(records);
+                generate(records, users, list::add);
+                retained = list;
+                break;
+            case "objects":
+                retained = fill(new ObjectFavouritesTable(), records, users);
+                break;
+            case "columnar":
+                retained = fill(new ColumnarFavouritesTable(), records, users);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown layout " + layout + ", expected list, objects or columnar");
+        }
+        final long heap = usedHeap() - before;
+        retained = null;
+        System.out.printf("%-10s %12d %9d MB %10d B%n", layout, records, heap / 1024 / 1024, heap / records);
+    }
+
+    private static FavouritesTable fill(final FavouritesTable table, final int records, final int users) {
+        generate(records, users, table::put);
+        return table;
+    }
+
+    private static void generate(final int records, final int users, final Consumer<Favourite> consumer) {
+        final Random random = new Random(42);
+        final StringBuilder comment = new StringBuilder(64);
+        for (int i = 0; i < records; i++) {
+            comment.setLength(0);
+            final int words = 2 + random.nextInt(4);
+            for (int word = 0; word < words; word++) {
+                comment.append(word == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            consumer.accept(Favourite.builder()
+                                     .withId(new UUID(random.nextLong(), random.nextLong()).toString())
+                                     .withUserName("user" + random.nextInt(users))
+                                     .withRating(random.nextInt(Favourite.MAX_RATING + 1))
+                                     .withComment(comment.toString())
+                                     .build());
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,57 @@
+package de.keycloak.samples.favourites.benchmarks.load;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Counts the bytes allocated on the heap by all threads of the JVM, virtual threads included: the bytes freed by the
+ * garbage collections so far plus the heap in use now. Objects promoted to the old generation move between the
+ * pools of the heap, so they are counted once.
+ */
+final class AllocationCounter {
+    private final Set<String> heapPools = new HashSet<>();
+    private final AtomicLong collected = new AtomicLong();
+
+    AllocationCounter() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool.getName());
+            }
+        }
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> collected(notification), null, null);
+            }
+        }
+    }
+
+    long allocatedBytes() {
+        return collected.get() + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private void collected(final Notification notification) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        final Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+        long freed = 0;
+        for (Map.Entry<String, MemoryUsage> before : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+            if (heapPools.contains(before.getKey()) && after.containsKey(before.getKey())) {
+                freed += before.getValue().getUsed() - after.get(before.getKey()).getUsed();
+            }
+        }
+        collected.addAndGet(Math.max(0, freed));
+    }
+}
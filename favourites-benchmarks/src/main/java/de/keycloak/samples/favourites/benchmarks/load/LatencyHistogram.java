@@ -0,0 +1,66 @@
+package de.keycloak.samples.favourites.benchmarks.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with log-linear buckets: 32 linear sub-buckets per power of two of microseconds, which
+ * keeps the error of every percentile below about 3%.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+    void record(final long nanos) {
+        counts.incrementAndGet(indexOf(Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos))));
+    }
+
+    long count() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile in microseconds
+     */
+    long percentileMicros(final double percentile) {
+        final long total = count();
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(counts.length() - 1);
+    }
+
+    private static int indexOf(final long micros) {
+        final int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+        if (magnitude < SUB_BUCKET_BITS) {
+            return (int) micros;
+        }
+        final int shift = magnitude - SUB_BUCKET_BITS;
+        final int subBucket = (int) (micros >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBoundOf(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKETS - 1;
+        final long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
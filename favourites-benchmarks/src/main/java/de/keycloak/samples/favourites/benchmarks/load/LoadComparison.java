@@ -0,0 +1,267 @@
+package de.keycloak.samples.favourites.benchmarks.load;
+
+import de.keycloak.samples.favourites.benchmarks.oidc.OidcStub;
+import de.keycloak.samples.favourites.benchmarks.oidc.Realm;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.LoopResources;
+
+/**
+ * Compares throughput and latency of the servlet favourites-api (Tomcat worker pool or virtual threads) with the
+ * reactive one (Netty) under a closed-loop load: every virtual user sends its next GET /favourites/tom as soon as
+ * the previous one completed. Besides the latency percentiles it prints the heap allocated by the app per second and
+ * per request.
+ * <p>
+ * Keycloak is replaced by the {@link OidcStub} with the users and clients of {@code etc/realm-with-all-samples.json},
+ * the load generator logs in with the password grant like a client of the samples would. The apps run one after
+ * another in a child JVM (see {@link LoadServer}), the load generator is a non-blocking Reactor Netty client in this
+ * JVM. Run it from the benchmarks jar:
+ * <pre>
+ * java -cp favourites-benchmarks/target/benchmarks.jar de.keycloak.samples.favourites.benchmarks.load.LoadComparison \
+ *      concurrency=16,256,1024,10000 duration=20 warmup=10 tokenCache=true runtimes=servlet,servlet_virtual,reactive
+ * </pre>
+ * Ten thousand connections need a file descriptor limit above that ({@code ulimit -n}) for both JVMs.
+ * With {@code tokenCache=false} every request pays for the full token validation, with {@code introspection=true}
+ * the tokens are additionally introspected at the stub.
+ * <p>
+ * An app which runs on its own, like the favourites-app, is put under load with {@code url}. It has to use the stub
+ * as keycloak, which listens on {@code stubPort}, and the allocations of the app are not known:
+ * <pre>
+ * java -jar favourites-app/target/favourites-app.jar --keycloak.auth-server-url=http://localhost:8180/auth
+ * java -cp favourites-benchmarks/target/benchmarks.jar de.keycloak.samples.favourites.benchmarks.load.LoadComparison \
+ *      url=http://localhost:8383 path=/favourites user=peter stubPort=8180
+ * </pre>
+ */
+public final class LoadComparison {
+    private static final String NOT_MEASURED = "-";
+
+    private LoadComparison() {
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        final Map<String, String> options = parse(args);
+        final int[] concurrencyLevels = parseInts(options.getOrDefault("concurrency", "16,256,1024"));
+        final Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "20")));
+        final Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "10")));
+        final boolean tokenCache = Boolean.parseBoolean(options.getOrDefault("tokenCache", "true"));
+        final boolean introspection = Boolean.parseBoolean(options.getOrDefault("introspection", "false"));
+        final String url = options.get("url");
+        final String path = options.getOrDefault("path", "/favourites/tom");
+        final List<LoadServer.Runtime> runtimes = new ArrayList<>();
+        for (final String runtime : options.getOrDefault("runtimes", url != null ? "" : "servlet,servlet_virtual,reactive").split(",")) {
+            if (!runtime.trim().isEmpty()) {
+                runtimes.add(LoadServer.Runtime.valueOf(runtime.trim().toUpperCase()));
+            }
+        }
+
+        final List<String> results = new ArrayList<>();
+        // the load generator gets its own event loops, so that they are not shared with the netty server
+        final LoopResources clientLoops = LoopResources.create("load-client");
+        try (OidcStub stub = OidcStub.start(Realm.samples(), Integer.parseInt(options.getOrDefault("stubPort", "0")))) {
+            final String token = stub.login(options.getOrDefault("client", "favourites-app"), options.get("clientSecret"),
+                                            options.getOrDefault("user", "tom"), options.getOrDefault("password", "password"));
+            final List<Target> targets = new ArrayList<>();
+            for (final LoadServer.Runtime runtime : runtimes) {
+                targets.add(() -> new Server(runtime, tokenCache, stub.getHost(), introspection));
+            }
+            if (url != null) {
+                targets.add(() -> new ExternalServer(url));
+            }
+            for (final Target target : targets) {
+                try (Server server = target.start()) {
+                    final HttpClient client = HttpClient.create()
+                                                        .tcpConfiguration(tcp -> tcp.runOn(clientLoops))
+                                                        .baseUrl(server.url)
+                                                        .headers(headers -> headers.add("Authorization", "Bearer " + token));
+                    run(client, path, concurrencyLevels[concurrencyLevels.length - 1], warmup);
+                    for (final int concurrency : concurrencyLevels) {
+                        final long allocatedBefore = server.allocatedBytes();
+                        final Result result = run(client, path, concurrency, duration);
+                        final long allocated = server.allocatedBytes() - allocatedBefore;
+                        results.add(String.format("%-15s %11d %10.0f %9d %9d %9d %8d %12s %12s %14s", server.name, concurrency,
+                                                  result.throughput(duration), result.latencies.percentileMicros(50),
+                                                  result.latencies.percentileMicros(99), result.latencies.percentileMicros(99.9),
+                                                  result.errors.get(),
+                                                  allocated < 0 ? NOT_MEASURED : String.format("%.1f", allocated / (double) duration.getSeconds() / (1 << 20)),
+                                                  allocated < 0 ? NOT_MEASURED : String.valueOf(allocated / Math.max(1, result.latencies.count()) / 1024),
+                                                  server.serverThreads()));
+                    }
+                }
+            }
+        } finally {
+            clientLoops.dispose();
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-15s %11s %10s %9s %9s %9s %8s %12s %12s %14s", "runtime", "concurrency", "req/s", "p50 us",
+                                         "p99 us", "p99.9 us", "errors", "alloc MB/s", "alloc KB/req", "server threads"));
+        results.forEach(System.out::println);
+    }
+
+    private static Result run(final HttpClient client, final String path, final int concurrency, final Duration duration) {
+        final Result result = new Result();
+        final long deadline = System.nanoTime() + duration.toNanos();
+        Flux.range(0, concurrency)
+            .flatMap(user -> request(client, path, result).repeat(() -> System.nanoTime() - deadline < 0), concurrency)
+            .blockLast();
+        return result;
+    }
+
+    private static Mono<Integer> request(final HttpClient client, final String path, final Result result) {
+        return Mono.defer(() -> {
+            final long start = System.nanoTime();
+            return client.get()
+                         .uri(path)
+                         .responseSingle((response, body) -> body.then(Mono.just(response.status().code())))
+                         .doOnNext(status -> {
+                             result.latencies.record(System.nanoTime() - start);
+                             if (status != 200) {
+                                 result.errors.incrementAndGet();
+                             }
+                         })
+                         .onErrorResume(e -> {
+                             result.errors.incrementAndGet();
+                             return Mono.just(-1);
+                         });
+        });
+    }
+
+    private static Map<String, String> parse(final String[] args) {
+        final Map<String, String> options = new LinkedHashMap<>();
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    private static int[] parseInts(final String values) {
+        final String[] parts = values.split(",");
+        final int[] ints = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            ints[i] = Integer.parseInt(parts[i].trim());
+        }
+        return ints;
+    }
+
+    private interface Target {
+        Server start() throws IOException;
+    }
+
+    /**
+     * A favourites-api started by {@link LoadServer} in a child JVM.
+     */
+    private static class Server implements AutoCloseable {
+        private final String name;
+        private final String url;
+        private final Process process;
+        private final BufferedReader output;
+        private final PrintWriter commands;
+
+        private Server(final LoadServer.Runtime runtime, final boolean tokenCache, final String ssoHost, final boolean introspection) throws IOException {
+            final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            name = runtime.name().toLowerCase();
+            process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), LoadServer.class.getName(),
+                                         runtime.name(), String.valueOf(tokenCache), ssoHost,
+                                         "--security.oauth2.resource.introspection.enabled=" + introspection)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+            output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            commands = new PrintWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8), true);
+            url = "http://localhost:" + response(null, "READY ");
+        }
+
+        private Server(final String name, final String url) {
+            this.name = name;
+            this.url = url;
+            this.process = null;
+            this.output = null;
+            this.commands = null;
+        }
+
+        String serverThreads() throws IOException {
+            return response("threads", "THREADS ");
+        }
+
+        /**
+         * @return the bytes allocated by the app so far, -1 if unknown
+         */
+        long allocatedBytes() throws IOException {
+            return Long.parseLong(response("allocated", "ALLOCATED "));
+        }
+
+        private String response(final String command, final String prefix) throws IOException {
+            if (command != null) {
+                commands.println(command);
+            }
+            String line;
+            while ((line = output.readLine()) != null && !line.startsWith(prefix)) {
+                // banner and log output of the app
+            }
+            if (line == null) {
+                throw new IOException(name + " stopped");
+            }
+            return line.substring(prefix.length());
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            commands.close();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * An app which was started on its own, e.g. the favourites-app.
+     */
+    private static final class ExternalServer extends Server {
+
+        private ExternalServer(final String url) {
+            super(URI.create(url).getAuthority(), url);
+        }
+
+        @Override
+        String serverThreads() {
+            return NOT_MEASURED;
+        }
+
+        @Override
+        long allocatedBytes() {
+            return -1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class Result {
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong errors = new AtomicLong();
+
+        private double throughput(final Duration duration) {
+            return latencies.count() / (double) duration.toMillis() * TimeUnit.SECONDS.toMillis(1);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package de.keycloak.samples.favourites.benchmarks.load;
+
+import de.keycloak.samples.favourites.api.FavouritesApi;
+import de.keycloak.samples.favourites.reactive.FavouritesReactiveApi;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Runs one of the favourites-apis for {@link LoadComparison} in a JVM of its own, so that the client and the server
+ * sockets of ten thousand connections don't share the file descriptor limit of one process.
+ * <p>
+ * The arguments are the runtime, whether tokens are cached, the {@code sso.host} of the
+ * {@link de.keycloak.samples.favourites.benchmarks.oidc.OidcStub} and optionally further arguments of the app, e.g.
+ * {@code --security.oauth2.resource.introspection.enabled=true}. Prints {@code READY <port>} once the app is
+ * started, answers {@code threads} on stdin with {@code THREADS <count>} of the platform threads of the web server and
+ * {@code allocated} with {@code ALLOCATED <bytes>} allocated on the heap so far, and stops when stdin is closed.
+ */
+public final class LoadServer {
+
+    enum Runtime {
+        SERVLET("http-nio-") {
+            @Override
+            SpringApplicationBuilder builder() {
+                return new SpringApplicationBuilder(FavouritesApi.class).web(WebApplicationType.SERVLET);
+            }
+        },
+        SERVLET_VIRTUAL("http-nio-") {
+            @Override
+            SpringApplicationBuilder builder() {
+                return SERVLET.builder().properties("favourites.virtual-threads.enabled=true");
+            }
+        },
+        REACTIVE("reactor-http-") {
+            @Override
+            SpringApplicationBuilder builder() {
+                return new SpringApplicationBuilder(FavouritesReactiveApi.class).web(WebApplicationType.REACTIVE)
+                                                                                .properties("spring.config.name=" + FavouritesReactiveApi.CONFIG_NAME);
+            }
+        };
+
+        private final String serverThreadPrefix;
+
+        Runtime(final String serverThreadPrefix) {
+            this.serverThreadPrefix = serverThreadPrefix;
+        }
+
+        abstract SpringApplicationBuilder builder();
+    }
+
+    private LoadServer() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final Runtime runtime = Runtime.valueOf(args[0]);
+        final boolean tokenCache = Boolean.parseBoolean(args[1]);
+        final String ssoHost = args[2];
+
+        final AllocationCounter allocations = new AllocationCounter();
+        final List<String> appArgs = new ArrayList<>(Arrays.asList(
+            "--server.port=0",
+            "--server.tomcat.max-connections=20000",
+            "--sso.host=" + ssoHost,
+            "--favourites.store.directory=" + Files.createTempDirectory("favourites-store"),
+            "--security.oauth2.resource.token-cache.maximum-size=" + (tokenCache ? 10000 : 0),
+            "--logging.level.root=WARN",
+            "--logging.level.org.springframework.security=WARN"));
+        appArgs.addAll(Arrays.asList(args).subList(3, args.length));
+        final ConfigurableApplicationContext context = runtime.builder().run(appArgs.toArray(new String[0]));
+        try {
+            final int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            System.out.println("READY " + port);
+            System.out.flush();
+
+            final BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            String command;
+            while ((command = commands.readLine()) != null) {
+                if ("threads".equals(command)) {
+                    System.out.println("THREADS " + serverThreads(runtime));
+                    System.out.flush();
+                } else if ("allocated".equals(command)) {
+                    System.out.println("ALLOCATED " + allocations.allocatedBytes());
+                    System.out.flush();
+                }
+            }
+        } finally {
+            context.close();
+        }
+        System.exit(0);
+    }
+
+    private static long serverThreads(final Runtime runtime) {
+        return Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().startsWith(runtime.serverThreadPrefix)).count();
+    }
+}
@@ -0,0 +1,491 @@
+package de.keycloak.samples.favourites.benchmarks.oidc;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.springframework.security.jwt.JwtHelper;
+import org.springframework.security.jwt.crypto.sign.InvalidSignatureException;
+import org.springframework.security.jwt.crypto.sign.RsaSigner;
+import org.springframework.security.jwt.crypto.sign.RsaVerifier;
+
+/**
+ * A stand-in for keycloak which serves the OpenID Connect endpoints of a {@link Realm} that the favourites-api and
+ * the favourites-app use: the discovery document, the key set ({@code certs}), the token endpoint with the
+ * {@code password}, {@code refresh_token} and {@code client_credentials} grants, the token introspection and the
+ * user info. Passwords and client secrets are checked against the realm export, tokens are signed with an RSA key
+ * generated at startup.
+ * <p>
+ * It's not keycloak: there are no login pages, scope mappings and protocol mappers are not applied (tokens carry
+ * all roles of the user) and sessions are not tracked, so tokens can't be revoked before they expire.
+ * <p>
+ * Run it standalone, e.g. for the favourites-app started with {@code --keycloak.auth-server-url=http://localhost:8180/auth}:
+ * <pre>
+ * java -cp favourites-benchmarks/target/benchmarks.jar de.keycloak.samples.favourites.benchmarks.oidc.OidcStub port=8180
+ * </pre>
+ */
+public final class OidcStub implements AutoCloseable {
+    public static final String KEY_ID = "rsa-generated";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final int REFRESH_TOKEN_LIFESPAN_SECONDS = 1800;
+    private static final String SCOPE = "profile email";
+
+    private final Realm realm;
+    private final KeyPair keyPair;
+    private final RsaSigner signer;
+    private final RsaVerifier verifier;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String issuer;
+    private final byte[] jwks;
+    private final byte[] discovery;
+
+    private OidcStub(final Realm realm, final int port) throws IOException {
+        this.realm = realm;
+        try {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            this.keyPair = generator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        this.signer = new RsaSigner((RSAPrivateKey) keyPair.getPrivate());
+        this.verifier = new RsaVerifier((RSAPublicKey) keyPair.getPublic());
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.issuer = "http://localhost:" + server.getAddress().getPort() + "/auth/realms/" + realm.getName();
+        this.jwks = toJson(jwks()).getBytes(StandardCharsets.UTF_8);
+        this.discovery = toJson(discovery()).getBytes(StandardCharsets.UTF_8);
+
+        final String realmPath = "/auth/realms/" + realm.getName();
+        final String protocolPath = realmPath + "/protocol/openid-connect";
+        server.createContext(realmPath + "/.well-known/openid-configuration", get(exchange -> send(exchange, 200, discovery)));
+        server.createContext(protocolPath + "/certs", get(exchange -> send(exchange, 200, jwks)));
+        server.createContext(protocolPath + "/token/introspect", post(this::introspect));
+        server.createContext(protocolPath + "/token", post(this::token));
+        server.createContext(protocolPath + "/userinfo", this::userInfo);
+        // the JDK server runs the handlers on the thread which accepts the connections if there is no executor
+        this.executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()), runnable -> {
+            final Thread thread = new Thread(runnable, "oidc-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @param port 0 for any free port
+     */
+    public static OidcStub start(final Realm realm, final int port) throws IOException {
+        return new OidcStub(realm, port);
+    }
+
+    public static void main(final String[] args) throws IOException {
+        int port = 8180;
+        Realm realm = null;
+        for (String arg : args) {
+            if (arg.startsWith("port=")) {
+                port = Integer.parseInt(arg.substring("port=".length()));
+            } else if (arg.startsWith("realm=")) {
+                realm = Realm.load(Paths.get(arg.substring("realm=".length())));
+            }
+        }
+        try (OidcStub stub = start(realm != null ? realm : Realm.samples(), port)) {
+            System.out.println("Serving " + stub.getIssuer() + ", press enter to stop");
+            new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+        }
+    }
+
+    /**
+     * @return the URL of keycloak for the apps, e.g. {@code sso.host} of the favourites-api
+     */
+    public String getHost() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public String getIssuer() {
+        return issuer;
+    }
+
+    /**
+     * Logs in like the password grant of the token endpoint does.
+     *
+     * @return the access token
+     * @throws IllegalArgumentException if the client or the user can't log in
+     */
+    public String login(final String clientId, final String clientSecret, final String username, final String password) {
+        final Realm.Client client = realm.client(clientId);
+        if (client == null || client.isBearerOnly() || !client.authenticates(clientSecret)) {
+            throw new IllegalArgumentException("Invalid client " + clientId);
+        }
+        final Realm.User user = realm.user(username);
+        if (user == null || !user.hasPassword(password)) {
+            throw new IllegalArgumentException("Invalid user credentials of " + username);
+        }
+        return (String) tokens(client, user, UUID.randomUUID().toString()).get("access_token");
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void token(final HttpExchange exchange) throws IOException {
+        final Map<String, String> form = form(exchange);
+        final Realm.Client client = authenticateClient(exchange, form);
+        if (client == null || client.isBearerOnly()) {
+            sendError(exchange, 401, "unauthorized_client", "Invalid client credentials");
+            return;
+        }
+        final String grantType = form.getOrDefault("grant_type", "");
+        switch (grantType) {
+            case "password": {
+                if (!client.isDirectAccessGrantsEnabled()) {
+                    sendError(exchange, 400, "unauthorized_client", "Client not allowed for direct access grants");
+                    return;
+                }
+                final Realm.User user = realm.user(form.get("username"));
+                if (user == null || !user.hasPassword(form.get("password"))) {
+                    sendError(exchange, 401, "invalid_grant", "Invalid user credentials");
+                    return;
+                }
+                sendJson(exchange, 200, tokens(client, user, UUID.randomUUID().toString()));
+                return;
+            }
+            case "refresh_token": {
+                final Map<String, Object> refreshToken = verify(form.get("refresh_token"));
+                final Realm.User user = refreshToken == null ? null : realm.user((String) refreshToken.get("preferred_username"));
+                if (user == null || !"Refresh".equals(refreshToken.get("typ")) || !client.getClientId().equals(refreshToken.get("azp"))) {
+                    sendError(exchange, 400, "invalid_grant", "Invalid refresh token");
+                    return;
+                }
+                sendJson(exchange, 200, tokens(client, user, (String) refreshToken.get("session_state")));
+                return;
+            }
+            case "client_credentials": {
+                if (client.isPublicClient() || !client.isServiceAccountsEnabled()) {
+                    sendError(exchange, 401, "unauthorized_client", "Client not enabled to retrieve service account");
+                    return;
+                }
+                final long now = now();
+                final Map<String, Object> claims = claims(client, "service-account-" + client.getClientId(),
+                                                          UUID.nameUUIDFromBytes(client.getClientId().getBytes(StandardCharsets.UTF_8)).toString(),
+                                                          Collections.<String>emptyList(), Collections.<String, List<String>>emptyMap(),
+                                                          UUID.randomUUID().toString(), now);
+                final Map<String, Object> response = new LinkedHashMap<>();
+                response.put("access_token", sign(claims));
+                response.put("expires_in", realm.getAccessTokenLifespanSeconds());
+                response.put("token_type", "bearer");
+                response.put("not-before-policy", 0);
+                response.put("scope", SCOPE);
+                sendJson(exchange, 200, response);
+                return;
+            }
+            default:
+                sendError(exchange, 400, "unsupported_grant_type", "Unsupported grant_type " + grantType);
+        }
+    }
+
+    private void introspect(final HttpExchange exchange) throws IOException {
+        final Map<String, String> form = form(exchange);
+        final Realm.Client client = authenticateClient(exchange, form);
+        if (client == null || client.isPublicClient()) {
+            sendError(exchange, 401, "invalid_client", "Client not allowed to introspect tokens");
+            return;
+        }
+        final Map<String, Object> claims = verify(form.get("token"));
+        if (claims == null) {
+            sendJson(exchange, 200, Collections.singletonMap("active", false));
+            return;
+        }
+        final Map<String, Object> response = new LinkedHashMap<>(claims);
+        response.put("client_id", claims.get("azp"));
+        response.put("username", claims.get("preferred_username"));
+        response.put("active", true);
+        sendJson(exchange, 200, response);
+    }
+
+    private void userInfo(final HttpExchange exchange) throws IOException {
+        final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        final Map<String, Object> claims = authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)
+                ? verify(authorization.substring(7).trim())
+                : null;
+        if (claims == null || !"Bearer".equals(claims.get("typ"))) {
+            exchange.getResponseHeaders().add("WWW-Authenticate", "Bearer realm=\"" + realm.getName() + "\", error=\"invalid_token\"");
+            sendError(exchange, 401, "invalid_token", "Token verification failed");
+            return;
+        }
+        final Map<String, Object> response = new LinkedHashMap<>();
+        response.put("sub", claims.get("sub"));
+        response.put("email_verified", false);
+        response.put("preferred_username", claims.get("preferred_username"));
+        if (claims.containsKey("email")) {
+            response.put("email", claims.get("email"));
+        }
+        sendJson(exchange, 200, response);
+    }
+
+    private Map<String, Object> tokens(final Realm.Client client, final Realm.User user, final String sessionState) {
+        final long now = now();
+        final Map<String, Object> access = claims(client, user.getUsername(), user.getId(), user.getRealmRoles(), user.getClientRoles(), sessionState, now);
+
+        final Map<String, Object> id = new LinkedHashMap<>(access);
+        id.remove("realm_access");
+        id.remove("resource_access");
+        id.remove("scope");
+        id.put("typ", "ID");
+        id.put("aud", client.getClientId());
+
+        final Map<String, Object> refresh = new LinkedHashMap<>();
+        refresh.put("jti", UUID.randomUUID().toString());
+        refresh.put("exp", now + REFRESH_TOKEN_LIFESPAN_SECONDS);
+        refresh.put("nbf", 0);
+        refresh.put("iat", now);
+        refresh.put("iss", issuer);
+        refresh.put("aud", issuer);
+        refresh.put("sub", user.getId());
+        refresh.put("typ", "Refresh");
+        refresh.put("azp", client.getClientId());
+        refresh.put("session_state", sessionState);
+        refresh.put("preferred_username", user.getUsername());
+
+        final Map<String, Object> response = new LinkedHashMap<>();
+        response.put("access_token", sign(access));
+        response.put("expires_in", realm.getAccessTokenLifespanSeconds());
+        response.put("refresh_expires_in", REFRESH_TOKEN_LIFESPAN_SECONDS);
+        response.put("refresh_token", sign(refresh));
+        response.put("token_type", "bearer");
+        response.put("id_token", sign(id));
+        response.put("not-before-policy", 0);
+        response.put("session_state", sessionState);
+        response.put("scope", SCOPE);
+        return response;
+    }
+
+    /**
+     * The claims of an access token like keycloak issues them, e.g. for tom and the favourites-api
+     * {@code "resource_access":{"favourites-api":{"roles":["USER"]},"account":{"roles":[...]}}}.
+     */
+    private Map<String, Object> claims(final Realm.Client client,
+                                       final String username,
+                                       final String subject,
+                                       final List<String> realmRoles,
+                                       final Map<String, List<String>> clientRoles,
+                                       final String sessionState,
+                                       final long now) {
+        final Map<String, Object> resourceAccess = new LinkedHashMap<>();
+        clientRoles.forEach((clientId, roles) -> resourceAccess.put(clientId, Collections.singletonMap("roles", roles)));
+        final List<String> audience = new ArrayList<>(clientRoles.keySet());
+        audience.remove(client.getClientId());
+
+        final Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("jti", UUID.randomUUID().toString());
+        claims.put("exp", now + realm.getAccessTokenLifespanSeconds());
+        claims.put("nbf", 0);
+        claims.put("iat", now);
+        claims.put("iss", issuer);
+        claims.put("aud", audience.size() == 1 ? audience.get(0) : audience);
+        claims.put("sub", subject);
+        claims.put("typ", "Bearer");
+        claims.put("azp", client.getClientId());
+        claims.put("auth_time", 0);
+        claims.put("session_state", sessionState);
+        claims.put("acr", "1");
+        claims.put("realm_access", Collections.singletonMap("roles", realmRoles));
+        claims.put("resource_access", resourceAccess);
+        claims.put("scope", SCOPE);
+        claims.put("email_verified", false);
+        claims.put("preferred_username", username);
+        return claims;
+    }
+
+    private Map<String, Object> jwks() {
+        final RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        final Map<String, Object> key = new LinkedHashMap<>();
+        key.put("kid", KEY_ID);
+        key.put("kty", "RSA");
+        key.put("alg", "RS256");
+        key.put("use", "sig");
+        key.put("n", encoder.encodeToString(unsigned(publicKey.getModulus().toByteArray())));
+        key.put("e", encoder.encodeToString(unsigned(publicKey.getPublicExponent().toByteArray())));
+        return Collections.singletonMap("keys", Collections.singletonList(key));
+    }
+
+    private Map<String, Object> discovery() {
+        final String protocol = issuer + "/protocol/openid-connect";
+        final Map<String, Object> discovery = new LinkedHashMap<>();
+        discovery.put("issuer", issuer);
+        discovery.put("authorization_endpoint", protocol + "/auth");
+        discovery.put("token_endpoint", protocol + "/token");
+        discovery.put("token_introspection_endpoint", protocol + "/token/introspect");
+        discovery.put("introspection_endpoint", protocol + "/token/introspect");
+        discovery.put("userinfo_endpoint", protocol + "/userinfo");
+        discovery.put("end_session_endpoint", protocol + "/logout");
+        discovery.put("jwks_uri", protocol + "/certs");
+        discovery.put("grant_types_supported", Arrays.asList("password", "refresh_token", "client_credentials"));
+        discovery.put("response_types_supported", Collections.emptyList());
+        discovery.put("subject_types_supported", Collections.singletonList("public"));
+        discovery.put("id_token_signing_alg_values_supported", Collections.singletonList("RS256"));
+        discovery.put("token_endpoint_auth_methods_supported", Arrays.asList("client_secret_basic", "client_secret_post"));
+        discovery.put("scopes_supported", Arrays.asList("openid", "profile", "email"));
+        return discovery;
+    }
+
+    /**
+     * The client of a request, authenticated by basic authentication or the {@code client_id} and
+     * {@code client_secret} form parameters.
+     *
+     * @return {@code null} if the client is unknown or the secret is wrong
+     */
+    private Realm.Client authenticateClient(final HttpExchange exchange, final Map<String, String> form) {
+        String clientId = form.get("client_id");
+        String secret = form.get("client_secret");
+        final String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (authorization != null && authorization.regionMatches(true, 0, "Basic ", 0, 6)) {
+            final String credentials = new String(Base64.getDecoder().decode(authorization.substring(6).trim()), StandardCharsets.UTF_8);
+            final int separator = credentials.indexOf(':');
+            clientId = decode(credentials.substring(0, Math.max(0, separator)));
+            secret = decode(credentials.substring(separator + 1));
+        }
+        final Realm.Client client = clientId == null ? null : realm.client(clientId);
+        return client != null && client.authenticates(secret) ? client : null;
+    }
+
+    /**
+     * @return the claims of a valid token signed by this stub, {@code null} if the token is invalid or expired
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> verify(final String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            final Map<String, Object> claims = OBJECT_MAPPER.readValue(JwtHelper.decodeAndVerify(token, verifier).getClaims(), Map.class);
+            final Object exp = claims.get("exp");
+            return exp instanceof Number && ((Number) exp).longValue() > now() ? claims : null;
+        } catch (InvalidSignatureException | IllegalArgumentException | IOException e) {
+            return null;
+        }
+    }
+
+    private String sign(final Map<String, Object> claims) {
+        return JwtHelper.encode(toJson(claims), signer, Collections.singletonMap("kid", KEY_ID)).getEncoded();
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private static HttpHandler get(final HttpHandler handler) {
+        return exchange -> {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "invalid_request", "HTTP method " + exchange.getRequestMethod() + " not allowed");
+                return;
+            }
+            handler.handle(exchange);
+        };
+    }
+
+    private static HttpHandler post(final HttpHandler handler) {
+        return exchange -> {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "invalid_request", "HTTP method " + exchange.getRequestMethod() + " not allowed");
+                return;
+            }
+            handler.handle(exchange);
+        };
+    }
+
+    private static Map<String, String> form(final HttpExchange exchange) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                body.write(buffer, 0, read);
+            }
+        }
+        final Map<String, String> form = new HashMap<>();
+        for (String parameter : new String(body.toByteArray(), StandardCharsets.UTF_8).split("&")) {
+            final int separator = parameter.indexOf('=');
+            if (separator > 0) {
+                form.put(decode(parameter.substring(0, separator)), decode(parameter.substring(separator + 1)));
+            }
+        }
+        return form;
+    }
+
+    private static String decode(final String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void sendError(final HttpExchange exchange, final int status, final String error, final String description) throws IOException {
+        final Map<String, Object> body = new LinkedHashMap<>();
+        body.put("error", error);
+        body.put("error_description", description);
+        sendJson(exchange, status, body);
+    }
+
+    private static void sendJson(final HttpExchange exchange, final int status, final Object body) throws IOException {
+        send(exchange, status, toJson(body).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("Cache-Control", "no-store");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Drops the sign byte of {@link java.math.BigInteger#toByteArray()}, JWKs encode the unsigned value.
+     */
+    private static byte[] unsigned(final byte[] bytes) {
+        return bytes.length > 1 && bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+    }
+
+    private static String toJson(final Object value) {
+        try {
+            return OBJECT_MAPPER.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package de.keycloak.samples.favourites.benchmarks.oidc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * The parts of a keycloak realm export, like {@code etc/realm-with-all-samples.json}, which the {@link OidcStub}
+ * needs to issue tokens: the users with their password hashes and roles, the clients and the token lifespan.
+ */
+public final class Realm {
+    /**
+     * The export which is packaged into the benchmarks jar.
+     */
+    public static final String SAMPLES = "/realm-with-all-samples.json";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String name;
+    private final int accessTokenLifespanSeconds;
+    private final Map<String, User> users = new LinkedHashMap<>();
+    private final Map<String, Client> clients = new LinkedHashMap<>();
+
+    private Realm(final JsonNode export) {
+        this.name = export.path("realm").asText();
+        this.accessTokenLifespanSeconds = export.path("accessTokenLifespan").asInt(300);
+        for (JsonNode user : export.path("users")) {
+            final JsonNode password = password(user.path("credentials"));
+            final Map<String, List<String>> clientRoles = new LinkedHashMap<>();
+            user.path("clientRoles").fields().forEachRemaining(roles -> clientRoles.put(roles.getKey(), texts(roles.getValue())));
+            users.put(user.path("username").asText(), new User(user.path("id").asText(),
+                                                              user.path("username").asText(),
+                                                              user.path("email").asText(null),
+                                                              password,
+                                                              texts(user.path("realmRoles")),
+                                                              clientRoles));
+        }
+        for (JsonNode client : export.path("clients")) {
+            final String secret = client.path("secret").asText(null);
+            clients.put(client.path("clientId").asText(), new Client(client.path("clientId").asText(),
+                                                                     client.path("publicClient").asBoolean(false),
+                                                                     client.path("bearerOnly").asBoolean(false),
+                                                                     client.path("directAccessGrantsEnabled").asBoolean(false),
+                                                                     client.path("serviceAccountsEnabled").asBoolean(false),
+                                                                     // exports mask the secrets of all clients but the ones added with a secret
+                                                                     "**********".equals(secret) ? null : secret));
+        }
+    }
+
+    public static Realm load(final Path export) throws IOException {
+        try (InputStream in = Files.newInputStream(export)) {
+            return new Realm(OBJECT_MAPPER.readTree(in));
+        }
+    }
+
+    public static Realm samples() throws IOException {
+        try (InputStream in = Realm.class.getResourceAsStream(SAMPLES)) {
+            if (in == null) {
+                throw new IOException(SAMPLES + " is not on the class path");
+            }
+            return new Realm(OBJECT_MAPPER.readTree(in));
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getAccessTokenLifespanSeconds() {
+        return accessTokenLifespanSeconds;
+    }
+
+    public User user(final String username) {
+        return users.get(username);
+    }
+
+    public Client client(final String clientId) {
+        return clients.get(clientId);
+    }
+
+    private static JsonNode password(final JsonNode credentials) {
+        for (JsonNode credential : credentials) {
+            if ("password".equals(credential.path("type").asText())) {
+                return credential;
+            }
+        }
+        return null;
+    }
+
+    private static List<String> texts(final JsonNode array) {
+        final List<String> texts = new ArrayList<>();
+        array.forEach(text -> texts.add(text.asText()));
+        return Collections.unmodifiableList(texts);
+    }
+
+    public static final class User {
+        private final String id;
+        private final String username;
+        private final String email;
+        private final JsonNode password;
+        private final List<String> realmRoles;
+        private final Map<String, List<String>> clientRoles;
+
+        private User(final String id,
+                     final String username,
+                     final String email,
+                     final JsonNode password,
+                     final List<String> realmRoles,
+                     final Map<String, List<String>> clientRoles) {
+            this.id = id;
+            this.username = username;
+            this.email = email;
+            this.password = password;
+            this.realmRoles = realmRoles;
+            this.clientRoles = Collections.unmodifiableMap(clientRoles);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public List<String> getRealmRoles() {
+            return realmRoles;
+        }
+
+        public Map<String, List<String>> getClientRoles() {
+            return clientRoles;
+        }
+
+        /**
+         * Checks the password against the hash of the export, with the pbkdf2 algorithm and iterations of keycloak,
+         * so it costs as much CPU as a login in keycloak.
+         */
+        public boolean hasPassword(final String candidate) {
+            if (password == null || candidate == null) {
+                return false;
+            }
+            final String algorithm = password.path("algorithm").asText("pbkdf2-sha256");
+            final String javaAlgorithm;
+            if ("pbkdf2-sha256".equals(algorithm)) {
+                javaAlgorithm = "PBKDF2WithHmacSHA256";
+            } else if ("pbkdf2-sha512".equals(algorithm)) {
+                javaAlgorithm = "PBKDF2WithHmacSHA512";
+            } else if ("pbkdf2".equals(algorithm)) {
+                javaAlgorithm = "PBKDF2WithHmacSHA1";
+            } else {
+                throw new IllegalStateException("Unsupported password hash " + algorithm + " of user " + username);
+            }
+            final byte[] expected = Base64.getDecoder().decode(password.path("hashedSaltedValue").asText());
+            final PBEKeySpec spec = new PBEKeySpec(candidate.toCharArray(),
+                                                   Base64.getDecoder().decode(password.path("salt").asText()),
+                                                   password.path("hashIterations").asInt(),
+                                                   expected.length * 8);
+            try {
+                return MessageDigest.isEqual(expected, SecretKeyFactory.getInstance(javaAlgorithm).generateSecret(spec).getEncoded());
+            } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    public static final class Client {
+        private final String clientId;
+        private final boolean publicClient;
+        private final boolean bearerOnly;
+        private final boolean directAccessGrantsEnabled;
+        private final boolean serviceAccountsEnabled;
+        private final String secret;
+
+        private Client(final String clientId,
+                       final boolean publicClient,
+                       final boolean bearerOnly,
+                       final boolean directAccessGrantsEnabled,
+                       final boolean serviceAccountsEnabled,
+                       final String secret) {
+            this.clientId = clientId;
+            this.publicClient = publicClient;
+            this.bearerOnly = bearerOnly;
+            this.directAccessGrantsEnabled = directAccessGrantsEnabled;
+            this.serviceAccountsEnabled = serviceAccountsEnabled;
+            this.secret = secret;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public boolean isPublicClient() {
+            return publicClient;
+        }
+
+        public boolean isBearerOnly() {
+            return bearerOnly;
+        }
+
+        public boolean isDirectAccessGrantsEnabled() {
+            return directAccessGrantsEnabled;
+        }
+
+        public boolean isServiceAccountsEnabled() {
+            return serviceAccountsEnabled;
+        }
+
+        /**
+         * @return {@code true} if the client may authenticate with {@code secret}; public clients need no secret
+         */
+        public boolean authenticates(final String secret) {
+            return publicClient || (this.secret != null && this.secret.equals(secret));
+        }
+    }
+}
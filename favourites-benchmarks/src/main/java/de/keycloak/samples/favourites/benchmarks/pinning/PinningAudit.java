@@ -0,0 +1,261 @@
+package de.keycloak.samples.favourites.benchmarks.pinning;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.springframework.asm.ClassReader;
+import org.springframework.asm.ClassVisitor;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+
+/**
+ * Finds the code on the request path which would pin the carrier thread of a virtual thread: synchronized methods
+ * and blocks, and {@code Object.wait}. Blocking while holding a monitor pins the carrier on Java 21.
+ * <p>
+ * Starting from the entry points of a preset, all classes referenced from bytecode are followed as long as they are
+ * in one of the packages of the preset. Findings in the samples' own code make the audit fail. Findings in
+ * libraries are listed to judge whether they block while holding the monitor.
+ * <pre>
+ * java -cp favourites-benchmarks/target/benchmarks.jar de.keycloak.samples.favourites.benchmarks.pinning.PinningAudit preset=api
+ * java -cp favourites-benchmarks/target/benchmarks.jar de.keycloak.samples.favourites.benchmarks.pinning.PinningAudit preset=app \
+ *      classpath=$(mvn -q -pl favourites-app dependency:build-classpath -Dmdep.outputFile=/dev/stdout):favourites-app/target/classes
+ * </pre>
+ */
+public final class PinningAudit {
+
+    private static final String OWN_PACKAGE = "de.keycloak.samples.";
+
+    private enum Preset {
+        /**
+         * Token validation and authorization path of the favourites-api.
+         */
+        API(Arrays.asList("de.keycloak.samples.favourites.api.resources.FavouritesResource",
+                          "de.keycloak.samples.favourites.api.resources.KeycloakAdminResource",
+                          "de.keycloak.samples.favourites.api.security.AuthorizationInterceptor",
+                          "de.keycloak.samples.favourites.api.security.RevocationCheckingTokenStore",
+                          "de.keycloak.samples.favourites.api.security.DelegatingTokenStore",
+                          "de.keycloak.samples.favourites.api.security.CachingTokenStore",
+                          "de.keycloak.samples.favourites.api.security.RealmRoutingJwtAccessTokenConverter",
+                          "de.keycloak.samples.favourites.api.security.RealmRegistry",
+                          "de.keycloak.samples.favourites.api.security.JwksJwtAccessTokenConverter",
+                          "de.keycloak.samples.favourites.api.security.JwksKeyProvider",
+                          "de.keycloak.samples.favourites.api.security.CustomJwtAccessTokenConverter",
+                          "de.keycloak.samples.favourites.api.store.FileFavouritesRepository",
+                          "org.springframework.security.web.FilterChainProxy",
+                          "org.springframework.security.oauth2.provider.authentication.OAuth2AuthenticationProcessingFilter",
+                          "org.springframework.security.oauth2.provider.authentication.OAuth2AuthenticationManager",
+                          "org.springframework.security.oauth2.provider.token.DefaultTokenServices",
+                          "org.springframework.security.oauth2.provider.token.store.JwtTokenStore"),
+            Arrays.asList(OWN_PACKAGE, "org.springframework.security.", "com.github.benmanes.caffeine.",
+                          "org.springframework.web.client.", "org.springframework.http.client.")),
+        /**
+         * Session path of the keycloak adapter and the session store in the favourites-app.
+         */
+        APP(Arrays.asList("de.keycloak.samples.favourites.security.FavouritesSecurityConfig",
+                          "de.keycloak.samples.favourites.resource.FavouritesResource",
+                          "de.keycloak.samples.favourites.session.OffHeapSessionRepository",
+                          "de.keycloak.samples.favourites.session.SharedHttpSessionManager",
+                          "de.keycloak.samples.favourites.session.KeycloakDeploymentRebindingFilter",
+                          "de.keycloak.samples.favourites.cookie.EncryptedCookieTokenStore",
+                          "de.keycloak.samples.favourites.view.TemplateRenderer",
+                          "de.keycloak.samples.favourites.audit.AuditLog",
+                          "org.springframework.security.web.FilterChainProxy",
+                          "org.keycloak.adapters.springsecurity.filter.KeycloakPreAuthActionsFilter",
+                          "org.keycloak.adapters.springsecurity.filter.KeycloakAuthenticationProcessingFilter",
+                          "org.keycloak.adapters.springsecurity.filter.KeycloakAuthenticatedActionsFilter",
+                          "org.keycloak.adapters.springsecurity.filter.KeycloakSecurityContextRequestFilter",
+                          "org.keycloak.adapters.springsecurity.token.SpringSecurityTokenStore",
+                          "org.keycloak.adapters.springsecurity.management.HttpSessionManager"),
+            Arrays.asList(OWN_PACKAGE, "org.keycloak.", "org.springframework.security."));
+
+        private final List<String> entryPoints;
+        private final List<String> packages;
+
+        Preset(final List<String> entryPoints, final List<String> packages) {
+            this.entryPoints = entryPoints;
+            this.packages = packages;
+        }
+    }
+
+    private final ClassLoader classLoader;
+    private final List<String> packages;
+    private final Map<String, List<String>> findings = new TreeMap<>();
+    private final Set<String> missing = new HashSet<>();
+    private int audited;
+
+    PinningAudit(final ClassLoader classLoader, final List<String> packages) {
+        this.classLoader = classLoader;
+        this.packages = packages;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final Map<String, String> options = new LinkedHashMap<>();
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        final Preset preset = Preset.valueOf(options.getOrDefault("preset", "api").toUpperCase());
+        final ClassLoader classLoader = classLoader(options.get("classpath"));
+        final PinningAudit audit = new PinningAudit(classLoader, preset.packages);
+        audit.audit(preset.entryPoints);
+
+        System.out.println("Audited " + audit.audited + " classes reachable from " + preset.entryPoints.size() + " entry points in " + preset.packages);
+        if (!audit.missing.isEmpty()) {
+            System.out.println("Not on the classpath: " + audit.missing.size() + " classes, e.g. " + audit.missing.iterator().next());
+        }
+        boolean ownFindings = false;
+        for (final Map.Entry<String, List<String>> finding : audit.findings.entrySet()) {
+            final boolean own = finding.getKey().startsWith(OWN_PACKAGE);
+            ownFindings |= own;
+            System.out.println((own ? "[OWN] " : "      ") + finding.getKey());
+            finding.getValue().forEach(method -> System.out.println("        " + method));
+        }
+        System.out.println(audit.findings.isEmpty() ? "No pinning candidates found" : audit.findings.size() + " classes with pinning candidates");
+        if (ownFindings) {
+            System.exit(1);
+        }
+    }
+
+    void audit(final List<String> entryPoints) throws IOException {
+        final Deque<String> queue = new ArrayDeque<>(entryPoints);
+        final Set<String> seen = new HashSet<>(entryPoints);
+        while (!queue.isEmpty()) {
+            final String className = queue.poll();
+            final byte[] bytes = read(className);
+            if (bytes == null) {
+                missing.add(className);
+                continue;
+            }
+            audited++;
+            for (final String referenced : scan(className, bytes)) {
+                if (isAudited(referenced) && seen.add(referenced)) {
+                    queue.add(referenced);
+                }
+            }
+        }
+    }
+
+    Map<String, List<String>> getFindings() {
+        return findings;
+    }
+
+    private Set<String> scan(final String className, final byte[] bytes) {
+        final Set<String> referenced = new HashSet<>();
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM7) {
+            @Override
+            public void visit(final int version, final int access, final String name, final String signature, final String superName, final String[] interfaces) {
+                addInternalName(referenced, superName);
+                if (interfaces != null) {
+                    for (final String anInterface : interfaces) {
+                        addInternalName(referenced, anInterface);
+                    }
+                }
+            }
+
+            @Override
+            public MethodVisitor visitMethod(final int access, final String name, final String descriptor, final String signature, final String[] exceptions) {
+                final String method = name + descriptor;
+                if ((access & Opcodes.ACC_SYNCHRONIZED) != 0) {
+                    addFinding(className, "synchronized method " + method);
+                }
+                return new MethodVisitor(Opcodes.ASM7) {
+                    @Override
+                    public void visitInsn(final int opcode) {
+                        if (opcode == Opcodes.MONITORENTER) {
+                            addFinding(className, "synchronized block in " + method);
+                        }
+                    }
+
+                    @Override
+                    public void visitMethodInsn(final int opcode, final String owner, final String name, final String descriptor, final boolean isInterface) {
+                        if ("wait".equals(name) && "java/lang/Object".equals(owner)) {
+                            addFinding(className, "Object.wait in " + method);
+                        }
+                        addInternalName(referenced, owner);
+                    }
+
+                    @Override
+                    public void visitFieldInsn(final int opcode, final String owner, final String name, final String descriptor) {
+                        addInternalName(referenced, owner);
+                    }
+
+                    @Override
+                    public void visitTypeInsn(final int opcode, final String type) {
+                        addInternalName(referenced, type);
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return referenced;
+    }
+
+    private void addFinding(final String className, final String finding) {
+        final List<String> classFindings = findings.computeIfAbsent(className, name -> new ArrayList<>());
+        if (!classFindings.contains(finding)) {
+            classFindings.add(finding);
+        }
+    }
+
+    private static void addInternalName(final Set<String> referenced, final String internalName) {
+        if (internalName == null) {
+            return;
+        }
+        final Type type = internalName.startsWith("[") ? Type.getType(internalName).getElementType() : Type.getObjectType(internalName);
+        if (type.getSort() == Type.OBJECT) {
+            referenced.add(type.getClassName());
+        }
+    }
+
+    private boolean isAudited(final String className) {
+        for (final String auditedPackage : packages) {
+            if (className.startsWith(auditedPackage)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[] read(final String className) throws IOException {
+        try (InputStream in = classLoader.getResourceAsStream(className.replace('.', '/') + ".class")) {
+            if (in == null) {
+                return null;
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static ClassLoader classLoader(final String classpath) throws MalformedURLException {
+        if (classpath == null) {
+            return PinningAudit.class.getClassLoader();
+        }
+        final List<URL> urls = new ArrayList<>();
+        for (final String entry : classpath.split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                urls.add(new File(entry).toURI().toURL());
+            }
+        }
+        return new URLClassLoader(urls.toArray(new URL[0]), PinningAudit.class.getClassLoader());
+    }
+}
@@ -0,0 +1,232 @@
+package de.keycloak.samples.favourites.benchmarks.startup;
+
+import de.keycloak.samples.favourites.benchmarks.oidc.OidcStub;
+import de.keycloak.samples.favourites.benchmarks.oidc.Realm;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Measures how long a cold favourites-api or favourites-app takes from starting the JVM to its first 200, and how
+ * long that first request and the one after it take. Each variant is started {@code runs} times in a JVM of its own:
+ * <ul>
+ *     <li>{@code current}: the executable jar of the regular build</li>
+ *     <li>{@code fast-startup}: the jar of the {@code fast-startup} maven profile with its class data sharing archive
+ *     and the {@code fast-startup} spring profile</li>
+ * </ul>
+ * The requests carry a token of the {@link OidcStub}, which also serves the keys. Like behind a load balancer, the
+ * first request of the API is sent once its health check on the management port succeeds. The app has no health check,
+ * its first request is sent as soon as the port accepts connections. Build both jars and run it like this:
+ * <pre>
+ * mvn -pl favourites-api,favourites-api-reactive,favourites-benchmarks -am package -DskipTests
+ * mvn -pl favourites-api -Pfast-startup package -DskipTests
+ * java -cp favourites-benchmarks/target/benchmarks.jar de.keycloak.samples.favourites.benchmarks.startup.StartupTime preset=api runs=5
+ * </pre>
+ * The jars and the archive are looked up below the current directory, {@code jar}, {@code fastJar} and
+ * {@code archive} point elsewhere. {@code arguments} are passed to every app, separated by spaces, e.g.
+ * {@code arguments=--security.oauth2.resource.jwk.fetch-on-startup=true}.
+ */
+public final class StartupTime {
+    private static final String CURRENT = "current";
+    private static final String FAST_STARTUP = "fast-startup";
+
+    private StartupTime() {
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        final Map<String, String> options = parse(args);
+        final Preset preset = Preset.valueOf(options.getOrDefault("preset", "api").toUpperCase(Locale.ROOT));
+        final int runs = Integer.parseInt(options.getOrDefault("runs", "5"));
+        final List<String> variants = Arrays.asList(options.getOrDefault("variants", CURRENT + "," + FAST_STARTUP).split(","));
+        final Path jar = Paths.get(options.getOrDefault("jar", preset.module + "/target/" + preset.jar)).toAbsolutePath();
+        final Path fastJar = Paths.get(options.getOrDefault("fastJar", preset.module + "/target/fast-startup/" + preset.module + ".jar")).toAbsolutePath();
+        final Path archive = Paths.get(options.getOrDefault("archive", fastJar.resolveSibling(preset.module + ".jsa").toString())).toAbsolutePath();
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        final String arguments = options.getOrDefault("arguments", "").trim();
+
+        final Map<String, List<long[]>> results = new LinkedHashMap<>();
+        try (OidcStub stub = OidcStub.start(Realm.samples(), 0)) {
+            final String token = stub.login("favourites-app", null, preset.user, "password");
+            for (int run = 0; run < runs; run++) {
+                for (final String variant : variants) {
+                    final List<String> command = new ArrayList<>();
+                    command.add(java);
+                    final File directory;
+                    if (FAST_STARTUP.equals(variant)) {
+                        // the archive only matches the class path it was created with, relative to its directory
+                        command.add("-XX:SharedArchiveFile=" + archive);
+                        command.add("-Xlog:cds=off");
+                        command.add("-jar");
+                        command.add(fastJar.getFileName().toString());
+                        command.add("--spring.profiles.active=" + FAST_STARTUP);
+                        directory = fastJar.getParent().toFile();
+                    } else if (CURRENT.equals(variant)) {
+                        command.add("-jar");
+                        command.add(jar.toString());
+                        directory = jar.getParent().toFile();
+                    } else {
+                        throw new IllegalArgumentException("Unknown variant " + variant);
+                    }
+                    if (!arguments.isEmpty()) {
+                        command.addAll(Arrays.asList(arguments.split(" +")));
+                    }
+                    final long[] result = measure(command, directory, preset, stub.getHost(), token);
+                    System.out.printf("%-13s run %d: first 200 after %5d ms, first request %4d ms, second request %4d ms%n",
+                                      variant, run + 1, result[0], result[1], result[2]);
+                    results.computeIfAbsent(variant, key -> new ArrayList<>()).add(result);
+                }
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-13s %18s %18s %19s", "median of " + runs, "first 200 ms", "first request ms", "second request ms"));
+        results.forEach((variant, measured) -> System.out.println(String.format("%-13s %18d %18d %19d", variant, median(measured, 0),
+                                                                                median(measured, 1), median(measured, 2))));
+    }
+
+    /**
+     * @return milliseconds until the first 200, of the first and of the second request
+     */
+    private static long[] measure(final List<String> command, final File directory, final Preset preset, final String ssoHost,
+                                  final String token) throws IOException, InterruptedException {
+        final Path workDirectory = Files.createTempDirectory("favourites-startup");
+        final int port = freePort();
+        final int managementPort = freePort();
+        command.addAll(preset.arguments(port, managementPort, ssoHost, workDirectory));
+        final Path log = workDirectory.resolve("app.log");
+        final URL url = new URL("http://localhost:" + port + preset.path);
+        final URL health = preset.healthPath == null ? null : new URL("http://localhost:" + managementPort + preset.healthPath);
+
+        final long start = System.nanoTime();
+        final Process process = new ProcessBuilder(command).directory(directory)
+                                                           .redirectErrorStream(true)
+                                                           .redirectOutput(log.toFile())
+                                                           .start();
+        try {
+            while (true) {
+                if (!process.isAlive()) {
+                    throw new IOException("The app exited with " + process.exitValue() + ", see " + log);
+                }
+                final long requestStart = System.nanoTime();
+                final int status;
+                try {
+                    if (health != null && get(health, null) != 200) {
+                        Thread.sleep(5);
+                        continue;
+                    }
+                    status = get(url, token);
+                } catch (ConnectException e) {
+                    Thread.sleep(5);
+                    continue;
+                }
+                final long end = System.nanoTime();
+                if (status != 200) {
+                    throw new IOException("The first request got " + status + ", see " + log);
+                }
+                final long secondStart = System.nanoTime();
+                get(url, token);
+                final long secondEnd = System.nanoTime();
+                return new long[]{TimeUnit.NANOSECONDS.toMillis(end - start), TimeUnit.NANOSECONDS.toMillis(end - requestStart),
+                                  TimeUnit.NANOSECONDS.toMillis(secondEnd - secondStart)};
+            }
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+            FileSystemUtils.deleteRecursively(workDirectory);
+        }
+    }
+
+    private static int get(final URL url, final String token) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        if (token != null) {
+            connection.setRequestProperty("Authorization", "Bearer " + token);
+        }
+        connection.setConnectTimeout(1000);
+        connection.setReadTimeout(60_000);
+        try {
+            final int status = connection.getResponseCode();
+            final InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (body != null) {
+                while (body.read() >= 0) {
+                    // reads the response like a client would
+                }
+                body.close();
+            }
+            return status;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static long median(final List<long[]> results, final int index) {
+        return results.stream().mapToLong(result -> result[index]).sorted().skip(results.size() / 2).findFirst().orElse(0);
+    }
+
+    private static Map<String, String> parse(final String[] args) {
+        final Map<String, String> options = new LinkedHashMap<>();
+        for (final String arg : args) {
+            final int separator = arg.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value but got " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+
+    private enum Preset {
+        API("favourites-api", "favourites-api-exec.jar", "/favourites/tom", "tom", "/actuator/health") {
+            @Override
+            List<String> arguments(final int port, final int managementPort, final String ssoHost, final Path workDirectory) {
+                return Arrays.asList("--server.port=" + port, "--management.server.port=" + managementPort, "--sso.host=" + ssoHost,
+                                     "--favourites.store.directory=" + workDirectory.resolve("data"));
+            }
+        },
+        APP("favourites-app", "favourites-app.jar", "/favourites", "peter", null) {
+            @Override
+            List<String> arguments(final int port, final int managementPort, final String ssoHost, final Path workDirectory) {
+                return Arrays.asList("--server.port=" + port, "--keycloak.auth-server-url=" + ssoHost + "/auth",
+                                     "--favourites.audit.file=" + workDirectory.resolve("audit.log"));
+            }
+        };
+
+        private final String module;
+        private final String jar;
+        private final String path;
+        private final String user;
+        private final String healthPath;
+
+        Preset(final String module, final String jar, final String path, final String user, final String healthPath) {
+            this.module = module;
+            this.jar = jar;
+            this.path = path;
+            this.user = user;
+            this.healthPath = healthPath;
+        }
+
+        abstract List<String> arguments(int port, int managementPort, String ssoHost, Path workDirectory);
+    }
+}
@@ -0,0 +1,116 @@
+package de.keycloak.samples.favourites.benchmarks.store;
+
+import de.keycloak.samples.favourites.api.model.Favourite;
+import de.keycloak.samples.favourites.api.store.FavouritesTable;
+import de.keycloak.samples.favourites.api.store.FileFavouritesRepository;
+import de.keycloak.samples.favourites.api.store.WriteAheadLog;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Measures how long the {@link FileFavouritesRepository} takes to start with {@code records} favourites: once by
+ * replaying them from the write-ahead log only, once from a snapshot. The favourites are written with
+ * {@code durability} first, which is timed as well.
+ * <p>
+ * Run with a heap large enough for the favourites, e.g.
+ * <pre>
+ * java -Xmx6g -cp favourites-benchmarks/target/benchmarks.jar de.keycloak.samples.favourites.benchmarks.store.RecoveryTime \
+ *      records=10000000 layout=columnar
+ * </pre>
+ */
+public final class RecoveryTime {
+
+    private static final String[] WORDS = {"nice", "bad", "restaurant", "bar", "cafe", "pizza", "view", "friendly", "slow", "cheap",
+                                           "expensive", "quiet", "noisy", "again", "never", "best", "great", "terrace", "staff", "food"};
+
+    private RecoveryTime() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        int records = 10_000_000;
+        int users = 100_000;
+        String layout = "columnar";
+        String durability = "none";
+        Path directory = null;
+        for (String arg : args) {
+            if (arg.startsWith("records=")) {
+                records = Integer.parseInt(arg.substring("records=".length()));
+            } else if (arg.startsWith("users=")) {
+                users = Integer.parseInt(arg.substring("users=".length()));
+            } else if (arg.startsWith("layout=")) {
+                layout = arg.substring("layout=".length());
+            } else if (arg.startsWith("durability=")) {
+                durability = arg.substring("durability=".length());
+            } else if (arg.startsWith("directory=")) {
+                directory = Paths.get(arg.substring("directory=".length()));
+            }
+        }
+        final boolean temporary = directory == null;
+        if (temporary) {
+            directory = Files.createTempDirectory("favourites-recovery");
+        }
+        final FavouritesTable.Layout tableLayout = FavouritesTable.Layout.valueOf(layout.toUpperCase(Locale.ROOT));
+        final FileFavouritesRepository.Options options = FileFavouritesRepository.Options.builder()
+                                                                                         .withDurability(WriteAheadLog.Durability.valueOf(durability.toUpperCase(Locale.ROOT)))
+                                                                                         // the log is only replaced by a snapshot when asked for
+                                                                                         .withSnapshotAfterBytes(Long.MAX_VALUE)
+                                                                                         .build();
+
+        System.out.printf("%d favourites of %d users, %s layout, max heap %d MB%n", records, users, layout,
+                          Runtime.getRuntime().maxMemory() / 1024 / 1024);
+        try {
+            long start = System.nanoTime();
+            try (FileFavouritesRepository repository = new FileFavouritesRepository(directory, tableLayout.create(), options)) {
+                write(repository, records, users);
+            }
+            print("write", start, records);
+
+            start = System.nanoTime();
+            try (FileFavouritesRepository repository = new FileFavouritesRepository(directory, tableLayout.create(), options)) {
+                print("recover from log", start, repository.count());
+                start = System.nanoTime();
+                repository.snapshot();
+                print("snapshot", start, repository.count());
+            }
+
+            start = System.nanoTime();
+            try (FileFavouritesRepository repository = new FileFavouritesRepository(directory, tableLayout.create(), options)) {
+                print("recover from snapshot", start, repository.count());
+            }
+        } finally {
+            if (temporary) {
+                FileSystemUtils.deleteRecursively(directory);
+            }
+        }
+    }
+
+    private static void write(final FileFavouritesRepository repository, final int records, final int users) {
+        final Random random = new Random(42);
+        final StringBuilder comment = new StringBuilder(64);
+        for (int i = 0; i < records; i++) {
+            comment.setLength(0);
+            final int words = 2 + random.nextInt(4);
+            for (int word = 0; word < words; word++) {
+                comment.append(word == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            repository.save(Favourite.builder()
+                                     .withId(new UUID(random.nextLong(), random.nextLong()).toString())
+                                     .withUserName("user" + random.nextInt(users))
+                                     .withRating(random.nextInt(Favourite.MAX_RATING + 1))
+                                     .withComment(comment.toString())
+                                     .build());
+        }
+    }
+
+    private static void print(final String step, final long start, final long records) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.printf("%-22s %10d favourites %8d ms %12d per second%n", step, records, millis, records * 1000 / Math.max(1, millis));
+    }
+}
@@ -0,0 +1,71 @@
+package de.keycloak.samples.favourites.common;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor which starts a virtual thread per task. The samples are compiled for Java 8, so the executor of Java 21
+ * is looked up by reflection. It's wrapped into this public class, as spring calls the destroy method of a bean
+ * reflectively, which fails for the methods of the executor class of the JDK, as its package isn't opened.
+ */
+public final class VirtualThreadPerTaskExecutor extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+
+    private VirtualThreadPerTaskExecutor(final ExecutorService delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the JVM doesn't support virtual threads
+     */
+    public static VirtualThreadPerTaskExecutor create() {
+        final Method factory;
+        try {
+            factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21", e);
+        }
+        try {
+            return new VirtualThreadPerTaskExecutor((ExecutorService) factory.invoke(null));
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            // a preview of virtual threads (Java 19 and 20) throws an UnsupportedOperationException unless enabled
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        delegate.execute(command);
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
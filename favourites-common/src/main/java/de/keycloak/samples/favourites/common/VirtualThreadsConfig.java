@@ -0,0 +1,52 @@
+package de.keycloak.samples.favourites.common;
+
+import org.apache.coyote.AbstractProtocol;
+import org.jboss.logging.Logger;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Runs request handling on virtual threads instead of the worker pool of tomcat, enabled with
+ * {@code favourites.virtual-threads.enabled=true}. Requests which block (e.g. the api on the JWKS endpoint or the
+ * store, the app on keycloak) then don't hold an OS thread. Virtual threads need Java 21, on older JVMs the worker
+ * pool of tomcat stays in use.
+ * <p>
+ * Found by the component scan of the app, imported by the api.
+ */
+@Configuration
+@ConditionalOnProperty(name = "favourites.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadsConfig {
+    private static final Logger LOG = Logger.getLogger(VirtualThreadsConfig.class);
+
+    /**
+     * Tomcat doesn't shut down an executor it was given, so it's shut down with the context.
+     *
+     * @return null if the JVM does not support virtual threads
+     */
+    @Bean(destroyMethod = "shutdown")
+    public VirtualThreadPerTaskExecutor virtualThreadPerTaskExecutor() {
+        try {
+            return VirtualThreadPerTaskExecutor.create();
+        } catch (UnsupportedOperationException e) {
+            LOG.warnf("%s, keeping the worker pool of tomcat", e.getMessage());
+            LOG.debug("Virtual threads can't be started", e);
+            return null;
+        }
+    }
+
+    @Bean
+    public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadsCustomizer(
+            final ObjectProvider<VirtualThreadPerTaskExecutor> executor) {
+        return factory -> {
+            final VirtualThreadPerTaskExecutor virtualThreads = executor.getIfAvailable();
+            if (virtualThreads != null) {
+                factory.addConnectorCustomizers(connector -> ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(virtualThreads));
+                LOG.info("Requests are handled on virtual threads");
+            }
+        };
+    }
+}